@@ -101,6 +101,17 @@ public abstract class AbstractLogCompactor {
             }
         }
 
+        // acquire for a run of entries. if bybytes: bytes of the run; if byentries: number of entries of the run.
+        public void acquire(int entries, int bytes) throws IOException {
+            if (isThrottleByBytes) {
+                acquire(bytes);
+            } else {
+                for (int i = 0; i < entries; i++) {
+                    acquire(1);
+                }
+            }
+        }
+
         public void cancelledAcquire() {
             cancelled.set(true);
         }
@@ -117,6 +117,12 @@ public interface BookKeeperServerStats {
     String JOURNAL_CREATION_LATENCY = "JOURNAL_CREATION_LATENCY";
     String JOURNAL_MEMORY_MAX = "JOURNAL_MEMORY_MAX";
     String JOURNAL_MEMORY_USED = "JOURNAL_MEMORY_USED";
+    String JOURNAL_GROUP_WAIT = "JOURNAL_GROUP_WAIT";
+    String JOURNAL_BUFFERED_ENTRIES_THRESHOLD = "JOURNAL_BUFFERED_ENTRIES_THRESHOLD";
+    String JOURNAL_BUFFERED_WRITES_THRESHOLD = "JOURNAL_BUFFERED_WRITES_THRESHOLD";
+    String JOURNAL_REPLAY_ENTRIES = "JOURNAL_REPLAY_ENTRIES";
+    String JOURNAL_REPLAY_BYTES = "JOURNAL_REPLAY_BYTES";
+    String JOURNAL_REPLAY_PROGRESS = "JOURNAL_REPLAY_PROGRESS";
 
     // Ledger Storage Stats
     String STORAGE_GET_OFFSET = "STORAGE_GET_OFFSET";
@@ -147,9 +153,12 @@ public interface BookKeeperServerStats {
     String ACTIVE_ENTRY_LOG_COUNT = "ACTIVE_ENTRY_LOG_TOTAL";
     String ACTIVE_ENTRY_LOG_SPACE_BYTES = "ACTIVE_ENTRY_LOG_SPACE_BYTES";
     String RECLAIMED_COMPACTION_SPACE_BYTES = "RECLAIMED_COMPACTION_SPACE_BYTES";
+    String COMPACTION_COPIED_BYTES = "COMPACTION_COPIED_BYTES";
     String RECLAIMED_DELETION_SPACE_BYTES = "RECLAIMED_DELETION_SPACE_BYTES";
     String RECLAIM_FAILED_TO_DELETE = "RECLAIM_FAILED_TO_DELETE";
     String THREAD_RUNTIME = "THREAD_RUNTIME";
+    String STARTUP_EXTRACT_META_RUNTIME = "STARTUP_EXTRACT_META_RUNTIME";
+    String EXTRACTED_ENTRY_LOG_COUNT = "EXTRACTED_ENTRY_LOG_TOTAL";
     String MAJOR_COMPACTION_COUNT = "MAJOR_COMPACTION_TOTAL";
     String MINOR_COMPACTION_COUNT = "MINOR_COMPACTION_TOTAL";
     String ACTIVE_LEDGER_COUNT = "ACTIVE_LEDGER_TOTAL";
@@ -159,6 +168,7 @@ public interface BookKeeperServerStats {
     String INDEX_INMEM_ILLEGAL_STATE_RESET = "INDEX_INMEM_ILLEGAL_STATE_RESET";
     String INDEX_INMEM_ILLEGAL_STATE_DELETE = "INDEX_INMEM_ILLEGAL_STATE_DELETE";
     String JOURNAL_FORCE_WRITE_QUEUE_SIZE = "JOURNAL_FORCE_WRITE_QUEUE_SIZE";
+    String JOURNAL_FORCE_WRITE_SCHEDULE_WAIT = "JOURNAL_FORCE_WRITE_SCHEDULE_WAIT";
     String JOURNAL_NUM_FLUSH_EMPTY_QUEUE = "JOURNAL_NUM_FLUSH_EMPTY_QUEUE";
     String JOURNAL_NUM_FLUSH_MAX_OUTSTANDING_BYTES = "JOURNAL_NUM_FLUSH_MAX_OUTSTANDING_BYTES";
     String JOURNAL_NUM_FLUSH_MAX_WAIT = "JOURNAL_NUM_FLUSH_MAX_WAIT";
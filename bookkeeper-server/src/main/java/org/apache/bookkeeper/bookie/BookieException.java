@@ -20,6 +20,8 @@
  */
 package org.apache.bookkeeper.bookie;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Signals that a Bookie exception of some sort has occurred. This class
  * is the general class of exceptions produced by failed or interrupted bookie operations.
@@ -215,6 +217,24 @@ public abstract class BookieException extends Exception {
         }
     }
 
+    /**
+     * Signals that an add has been rejected because the memory budget of the journal is exhausted.
+     */
+    public static class JournalThrottledException extends OperationRejectedException {
+        private final transient CompletableFuture<Void> memoryAvailable;
+
+        public JournalThrottledException(CompletableFuture<Void> memoryAvailable) {
+            this.memoryAvailable = memoryAvailable;
+        }
+
+        /**
+         * @return a future completed when the journal accepts adds again
+         */
+        public CompletableFuture<Void> getMemoryAvailable() {
+            return memoryAvailable;
+        }
+    }
+
     /**
      * Signal that an invalid cookie is found when starting a bookie.
      *
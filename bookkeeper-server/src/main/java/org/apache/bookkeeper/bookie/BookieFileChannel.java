@@ -52,6 +52,27 @@ public interface BookieFileChannel {
      */
     FileDescriptor getFD() throws IOException;
 
+    /**
+     * Whether the file is accessed with direct I/O, bypassing the page cache.
+     *
+     * @return true if the reads and writes bypass the page cache, so there are no pages to remove from it
+     */
+    default boolean isDirectIO() {
+        return false;
+    }
+
+    /**
+     * Allocate the disk space for the given range of the file, without writing it.
+     *
+     * @param position the start of the range, in bytes from the start of the file
+     * @param length the length of the range, in bytes
+     * @return false if it isn't supported, and the range has to be written instead
+     * @throws IOException if the file channel is not open yet
+     */
+    default boolean preallocate(long position, long length) throws IOException {
+        return false;
+    }
+
     /**
      * Close file channel and release all resources.
      */
@@ -62,6 +62,7 @@ import org.apache.bookkeeper.bookie.LedgerDirsManager.LedgerDirsListener;
 import org.apache.bookkeeper.bookie.LedgerDirsManager.NoWritableLedgerDirException;
 import org.apache.bookkeeper.bookie.stats.BookieStats;
 import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.discover.BookieServiceInfo;
@@ -128,6 +129,8 @@ public class BookieImpl implements Bookie {
     private final ByteBufAllocator allocator;
 
     private final boolean writeDataToJournal;
+    // Writes the DEFERRED_SYNC entries to the journal in batches, if enabled
+    private final DeferredSyncJournalWriter deferredSyncJournalWriter;
 
     // Write Callback do nothing
     static class NopWriteCallback implements WriteCallback {
@@ -437,11 +440,22 @@ public class BookieImpl implements Bookie {
             journals.add(Journal.newJournal(i, journalDirectories.get(i),
                     conf, ledgerDirsManager, statsLogger.scope(JOURNAL_SCOPE), allocator, journalAliveListener));
         }
+        if (conf.getJournalSharedForceWriteScheduler() && conf.getJournalAdaptiveGroupWrites()) {
+            shareForceWriteSchedulers();
+        }
 
         this.entryLogPerLedgerEnabled = conf.isEntryLogPerLedgerEnabled();
-        CheckpointSource checkpointSource = new CheckpointSourceList(journals);
-
         this.ledgerStorage = storage;
+
+        CheckpointSource checkpointSource;
+        if (writeDataToJournal && conf.getJournalDeferredSyncBypass()) {
+            this.deferredSyncJournalWriter = new DeferredSyncJournalWriter(ledgerStorage, this::getJournal,
+                    conf.getJournalDeferredSyncWriteIntervalMs());
+            checkpointSource = deferredSyncJournalWriter.trackCheckpoints(new CheckpointSourceList(journals));
+        } else {
+            this.deferredSyncJournalWriter = null;
+            checkpointSource = new CheckpointSourceList(journals);
+        }
         boolean isDbLedgerStorage = ledgerStorage instanceof DbLedgerStorage;
 
         /*
@@ -484,6 +498,9 @@ public class BookieImpl implements Bookie {
             @Override
             public void ledgerDeleted(long ledgerId) {
                 masterKeyCache.remove(ledgerId);
+                if (deferredSyncJournalWriter != null) {
+                    deferredSyncJournalWriter.ledgerDeleted(ledgerId);
+                }
             }
         };
 
@@ -494,7 +511,27 @@ public class BookieImpl implements Bookie {
         handles = new HandleFactoryImpl(ledgerStorage);
 
         // Expose Stats
-        this.bookieStats = new BookieStats(statsLogger, journalDirectories.size(), conf.getJournalQueueSize());
+        this.bookieStats = new BookieStats(statsLogger, journalDirectories.size(), conf.getJournalQueueSize(),
+                stateManager::getJournalReplayProgress);
+    }
+
+    /**
+     * Share a force write scheduler between the journals stored on the same device.
+     */
+    private void shareForceWriteSchedulers() throws IOException {
+        Map<FileStore, List<Journal>> fileStoreJournalsMap = new HashMap<>();
+        for (Journal journal : journals) {
+            FileStore fileStore = Files.getFileStore(journal.getJournalDirectory().toPath());
+            fileStoreJournalsMap.computeIfAbsent(fileStore, k -> new ArrayList<>()).add(journal);
+        }
+        long latencyTargetNanos = TimeUnit.MICROSECONDS.toNanos(conf.getJournalForceWriteLatencyTargetUSec());
+        fileStoreJournalsMap.forEach((fileStore, journalsList) -> {
+            if (journalsList.size() > 1) {
+                LOG.info("Sharing the force writes scheduling of {} journals on {}", journalsList.size(), fileStore);
+                ForceWriteScheduler scheduler = new ForceWriteScheduler(latencyTargetNanos);
+                journalsList.forEach(journal -> journal.setForceWriteScheduler(scheduler));
+            }
+        });
     }
 
     @VisibleForTesting
@@ -611,50 +648,11 @@ public class BookieImpl implements Bookie {
             }
         };
 
-        for (Journal journal : journals) {
-            replay(journal, scanner);
-        }
+        new JournalReplayer(conf, journals, scanner, bookieStats, stateManager).replay();
         long elapsedTs = System.currentTimeMillis() - startTs;
         LOG.info("Finished replaying journal in {} ms.", elapsedTs);
     }
 
-    /**
-     * Replay journal files and updates journal's in-memory lastLogMark object.
-     *
-     * @param journal Journal object corresponding to a journalDir
-     * @param scanner Scanner to process replayed entries.
-     * @throws IOException
-     */
-    private void replay(Journal journal, JournalScanner scanner) throws IOException {
-        final LogMark markedLog = journal.getLastLogMark().getCurMark();
-        List<Long> logs = Journal.listJournalIds(journal.getJournalDirectory(), journalId ->
-            journalId >= markedLog.getLogFileId());
-        // last log mark may be missed due to no sync up before
-        // validate filtered log ids only when we have markedLogId
-        if (markedLog.getLogFileId() > 0) {
-            if (logs.size() == 0 || logs.get(0) != markedLog.getLogFileId()) {
-                String path = journal.getJournalDirectory().getAbsolutePath();
-                throw new IOException("Recovery log " + markedLog.getLogFileId() + " is missing at " + path);
-            }
-        }
-
-        // TODO: When reading in the journal logs that need to be synced, we
-        // should use BufferedChannels instead to minimize the amount of
-        // system calls done.
-        for (Long id : logs) {
-            long logPosition = 0L;
-            if (id == markedLog.getLogFileId()) {
-                logPosition = markedLog.getLogFileOffset();
-            }
-            LOG.info("Replaying journal {} from position {}", id, logPosition);
-            long scanOffset = journal.scanJournal(id, logPosition, scanner, conf.isSkipReplayJournalInvalidRecord());
-            // Update LastLogMark after completely replaying journal
-            // scanOffset will point to EOF position
-            // After LedgerStorage flush, SyncThread should persist this to disk
-            journal.setLastLogMark(id, scanOffset);
-        }
-    }
-
     @Override
     public synchronized void start() {
         bookieThread = new BookieCriticalThread(() -> run(), "Bookie-" + conf.getBookiePort());
@@ -892,6 +890,10 @@ public class BookieImpl implements Bookie {
                 LOG.info("Turning bookie to read only during shut down");
                 stateManager.forceToReadOnly();
 
+                if (deferredSyncJournalWriter != null) {
+                    deferredSyncJournalWriter.shutdown();
+                }
+
                 // Shutdown Sync thread
                 syncThread.shutdown();
 
@@ -978,7 +980,11 @@ public class BookieImpl implements Bookie {
             }
         }
 
-        if (!writeDataToJournal) {
+        if (!writeDataToJournal || (ackBeforeSync && deferredSyncJournalWriter != null)) {
+            if (writeDataToJournal) {
+                // Written to the journal when the ledger is forced, unless checkpointed before
+                deferredSyncJournalWriter.addEntry(ledgerId, entryId);
+            }
             cb.writeComplete(0, ledgerId, entryId, null, ctx);
             if (ctx instanceof BookieRequestHandler) {
                 ((BookieRequestHandler) ctx).flushPendingResponse();
@@ -1080,8 +1086,12 @@ public class BookieImpl implements Bookie {
         if (LOG.isTraceEnabled()) {
             LOG.trace("Forcing ledger {}", ledgerId);
         }
-        Journal journal = getJournal(ledgerId);
-        journal.forceLedger(ledgerId, cb, ctx);
+        if (deferredSyncJournalWriter != null) {
+            deferredSyncJournalWriter.forceLedger(ledgerId, cb, ctx);
+        } else {
+            Journal journal = getJournal(ledgerId);
+            journal.forceLedger(ledgerId, cb, ctx);
+        }
         bookieStats.getForceLedgerOps().inc();
     }
 
@@ -1100,6 +1110,7 @@ public class BookieImpl implements Bookie {
                     throw BookieException
                             .create(BookieException.Code.LedgerFencedException);
                 }
+                getJournal(handle.getLedgerId()).checkMemoryAvailable();
                 entrySize = entry.readableBytes();
                 addEntryInternal(handle, entry, ackBeforeSync, cb, ctx, masterKey);
             }
@@ -1162,6 +1173,62 @@ public class BookieImpl implements Bookie {
         }
     }
 
+    public CompletableFuture<ByteBuf> readEntryAsync(long ledgerId, long entryId) {
+        long requestNanos = MathUtils.nowInNano();
+        CompletableFuture<ByteBuf> future;
+        try {
+            LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Reading {}@{}", entryId, ledgerId);
+            }
+            future = handle.readEntryAsync(entryId);
+        } catch (IOException e) {
+            future = FutureUtils.exception(e);
+        }
+
+        return future.whenComplete((entry, cause) -> {
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            if (cause == null) {
+                int entrySize = entry.readableBytes();
+                bookieStats.getReadBytes().addCount(entrySize);
+                bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerSuccessfulValue(entrySize);
+            } else {
+                bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerFailedValue(0);
+            }
+        });
+    }
+
+    public List<ByteBuf> readEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, NoLedgerException, BookieException {
+        long requestNanos = MathUtils.nowInNano();
+        boolean success = false;
+        List<ByteBuf> entries = null;
+        try {
+            LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Reading {} entries from {}@{}", maxCount, firstEntryId, ledgerId);
+            }
+            entries = handle.readEntries(firstEntryId, maxCount, maxSize);
+            success = true;
+            return entries;
+        } finally {
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            if (success) {
+                bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                for (ByteBuf entry : entries) {
+                    int entrySize = entry.readableBytes();
+                    bookieStats.getReadBytes().addCount(entrySize);
+                    bookieStats.getReadBytesStats().registerSuccessfulValue(entrySize);
+                }
+            } else {
+                bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerFailedValue(0);
+            }
+        }
+    }
+
     public long readLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
         return handle.getLastAddConfirmed();
@@ -2343,6 +2343,8 @@ public class BookieShell implements Tool {
 
         public RebuildDbLedgerLocationsIndexCmd() {
             super(CMD_REBUILD_DB_LEDGER_LOCATIONS_INDEX);
+            opts.addOption("m", "migrate-from", true,
+                    "Copy the existing index from the given storage (rocksdb or sortedruns) into the configured one");
         }
 
         @Override
@@ -2358,15 +2360,23 @@ public class BookieShell implements Tool {
         @Override
         String getUsage() {
             return "rebuild-db-ledger-locations-index      Rebuild DbLedgerStorage locations index by scanning "
-                    + "the entry logs, rebuild-db-ledger-locations-index requires no options,use the default conf "
-                    + "or re-specify BOOKIE_CONF \n"
-                    + "             Usage: rebuild-db-ledger-locations-index";
+                    + "the entry logs, use the default conf or re-specify BOOKIE_CONF \n"
+                    + "             Usage: rebuild-db-ledger-locations-index [options]\n"
+                    + "             Options:\n"
+                    + "               -m, --migrate-from\n"
+                    + "                 Copy the existing index from the given storage (rocksdb or sortedruns) "
+                    + "into the one configured with dbStorage_entryLocationIndexStorage (param format: `storage`)";
         }
 
         @Override
         int runCmd(CommandLine cmdLine) throws Exception {
             RebuildDBLedgerLocationsIndexCommand cmd = new RebuildDBLedgerLocationsIndexCommand();
-            cmd.apply(bkConf, new CliFlags());
+            RebuildDBLedgerLocationsIndexCommand.RebuildLocationsIndexFlags flags =
+                    new RebuildDBLedgerLocationsIndexCommand.RebuildLocationsIndexFlags();
+            if (cmdLine.hasOption("m")) {
+                flags.migrateFrom(cmdLine.getOptionValue("m"));
+            }
+            cmd.apply(bkConf, flags);
             return 0;
         }
     }
@@ -85,6 +85,7 @@ public class BookieStateManager implements StateManager {
     private final AtomicBoolean forceReadOnly = new AtomicBoolean(false);
     private final AtomicInteger sanityPassed = new AtomicInteger(-1);
     private volatile boolean availableForHighPriorityWrites = true;
+    private volatile double journalReplayProgress = 0;
 
     private final Supplier<BookieId> bookieIdSupplier;
     private ShutdownHandler shutdownHandler;
@@ -250,6 +251,16 @@ public class BookieStateManager implements StateManager {
         this.availableForHighPriorityWrites = available;
     }
 
+    @Override
+    public double getJournalReplayProgress() {
+        return journalReplayProgress;
+    }
+
+    @Override
+    public void setJournalReplayProgress(double percent) {
+        this.journalReplayProgress = percent;
+    }
+
     @Override
     public boolean isRunning(){
         return running;
@@ -146,6 +146,51 @@ public class BufferedChannel extends BufferedReadChannel implements Closeable {
         }
     }
 
+    /**
+     * Write all the data in src, like {@link #write(ByteBuf)}. Implementations may retain src until the next
+     * flush instead of copying it, so the caller must not modify its readable bytes until then.
+     *
+     * @param src The source ByteBuf which contains the data to be written.
+     * @throws IOException if a write operation fails.
+     */
+    public void writeRetained(ByteBuf src) throws IOException {
+        write(src);
+    }
+
+    /**
+     * Append count bytes of the file of another channel, starting at srcPosition, directly to the file, without
+     * copying them through the write buffer. Buffered data is flushed first to keep the writes in order.
+     *
+     * @param src the channel to copy the bytes from
+     * @param srcPosition the position of the first byte to copy in the file of src
+     * @param count the number of bytes to copy
+     * @throws IOException if the transfer fails.
+     */
+    public void transferFrom(BufferedChannelBase src, long srcPosition, long count) throws IOException {
+        boolean shouldForceWrite = false;
+        synchronized (this) {
+            flush();
+            FileChannel srcChannel = src.validateAndGetFileChannel();
+            long transferred = 0;
+            while (transferred < count) {
+                long bytes = srcChannel.transferTo(srcPosition + transferred, count - transferred, fileChannel);
+                if (bytes <= 0) {
+                    throw new IOException("Short transfer of " + transferred + " out of " + count + " bytes");
+                }
+                transferred += bytes;
+            }
+            writeBufferStartPosition.set(fileChannel.position());
+            position += count;
+            if (doRegularFlushes) {
+                unpersistedBytes.addAndGet(count);
+                shouldForceWrite = unpersistedBytes.get() >= unpersistedBytesBound;
+            }
+        }
+        if (shouldForceWrite) {
+            forceWrite(false);
+        }
+    }
+
     /**
      * Get the position where the next write operation will begin writing from.
      * @return
@@ -294,6 +339,10 @@ public class BufferedChannel extends BufferedReadChannel implements Closeable {
         return writeBuffer.readableBytes();
     }
 
+    boolean doRegularFlushes() {
+        return doRegularFlushes;
+    }
+
     long getUnpersistedBytes() {
         return unpersistedBytes.get();
     }
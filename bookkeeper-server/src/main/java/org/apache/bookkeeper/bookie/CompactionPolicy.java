@@ -0,0 +1,86 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import java.util.List;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+
+/**
+ * Policy selecting the entry logs to compact, and the order in which they are compacted.
+ */
+public interface CompactionPolicy {
+
+    /**
+     * Initialize the policy.
+     *
+     * @param conf server configuration
+     */
+    default void initialize(ServerConfiguration conf) {}
+
+    /**
+     * Select the entry logs to compact.
+     *
+     * @param candidates the entry logs whose usage is below the compaction threshold
+     * @return the entry logs to compact, in the order to compact them
+     */
+    List<Candidate> select(List<Candidate> candidates);
+
+    /**
+     * An entry log eligible for compaction.
+     */
+    final class Candidate {
+        private final long entryLogId;
+        private final long totalSize;
+        private final long remainingSize;
+        private final double usage;
+
+        public Candidate(long entryLogId, long totalSize, long remainingSize, double usage) {
+            this.entryLogId = entryLogId;
+            this.totalSize = totalSize;
+            this.remainingSize = remainingSize;
+            this.usage = usage;
+        }
+
+        public long getEntryLogId() {
+            return entryLogId;
+        }
+
+        public long getTotalSize() {
+            return totalSize;
+        }
+
+        /**
+         * @return the size of the live entries, which are copied when the entry log is compacted
+         */
+        public long getRemainingSize() {
+            return remainingSize;
+        }
+
+        /**
+         * @return the fraction of the entry log still in use, between 0 and 1
+         */
+        public double getUsage() {
+            return usage;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+
+/**
+ * Compaction policy ranking the entry logs by cost-benefit, like the cleaner of a log-structured file system.
+ *
+ * <p>Compacting an entry log with usage {@code u} reclaims {@code 1 - u} of its size, at the cost of reading the
+ * whole entry log and writing {@code u} of it. The entry logs are compacted by decreasing
+ * {@code (1 - u) * age / (1 + u)}, so that the old entry logs, whose remaining data is less likely to be deleted
+ * soon, are compacted before the recent ones with the same usage. The entry log ids are increasing, so the age of
+ * an entry log is the number of entry logs created after it.
+ *
+ * <p>When {@link ServerConfiguration#getCompactionIoBudgetBytes()} is set, the entry logs are selected greedily,
+ * skipping the ones which would copy more bytes than left in the budget of the compaction.
+ */
+public class CostBenefitCompactionPolicy implements CompactionPolicy {
+
+    private long ioBudgetBytes;
+
+    @Override
+    public void initialize(ServerConfiguration conf) {
+        this.ioBudgetBytes = conf.getCompactionIoBudgetBytes();
+    }
+
+    @Override
+    public List<Candidate> select(List<Candidate> candidates) {
+        long newestEntryLogId = 0;
+        for (Candidate candidate : candidates) {
+            newestEntryLogId = Math.max(newestEntryLogId, candidate.getEntryLogId());
+        }
+        final long newest = newestEntryLogId;
+
+        List<Candidate> ranked = new ArrayList<>(candidates);
+        ranked.sort(Comparator.comparingDouble((Candidate candidate) -> score(candidate, newest)).reversed());
+        if (ioBudgetBytes <= 0) {
+            return ranked;
+        }
+
+        List<Candidate> selected = new ArrayList<>();
+        long budget = ioBudgetBytes;
+        for (Candidate candidate : ranked) {
+            if (candidate.getRemainingSize() <= budget) {
+                selected.add(candidate);
+                budget -= candidate.getRemainingSize();
+            }
+        }
+        return selected;
+    }
+
+    static double score(Candidate candidate, long newestEntryLogId) {
+        double usage = candidate.getUsage();
+        long age = newestEntryLogId - candidate.getEntryLogId() + 1;
+        return (1 - usage) * age / (1 + usage);
+    }
+}
@@ -34,9 +34,14 @@ import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.FastThreadLocal;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -44,6 +49,8 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -57,10 +64,14 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import org.apache.bookkeeper.bookie.EntryLogMetadata.EntryLogMetadataRecyclable;
 import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
+import org.apache.bookkeeper.bookie.storage.CompactionEntryLog.EntryTransferListener;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
 import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.util.DiskChecker;
@@ -91,6 +102,8 @@ public class DefaultEntryLogger implements EntryLogger {
         private final EntryLogMetadata entryLogMetadata;
         private final File logFile;
         private long ledgerIdAssigned = UNASSIGNED_LEDGERID;
+        // Position at which the last entry registered in the metadata ends
+        private volatile long registeredEntriesEndPosition = LOGFILE_HEADER_SIZE;
 
         public BufferedLogChannel(ByteBufAllocator allocator, FileChannel fc, int writeCapacity, int readCapacity,
                 long logId, File logFile, long unpersistedBytesBound) throws IOException {
@@ -109,6 +122,52 @@ public class DefaultEntryLogger implements EntryLogger {
 
         public void registerWrittenEntry(long ledgerId, long entrySize) {
             entryLogMetadata.addLedgerSize(ledgerId, entrySize);
+            registeredEntriesEndPosition = position();
+        }
+
+        EntryLogMetadata getEntryLogMetadata() {
+            return entryLogMetadata;
+        }
+
+        /**
+         * Serialize the metadata of the entries written so far, with the position they end at.
+         */
+        byte[] snapshotMetadata() throws IOException {
+            // Read the position first: entries registered meanwhile are also in the serialized metadata and would
+            // be counted again when scanning after the position, which only overestimates the usage of the log
+            long position = registeredEntriesEndPosition;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(position);
+            entryLogMetadata.serialize(out);
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Atomically replace the metadata snapshot of the entry log.
+         */
+        void writeMetadataSnapshot(byte[] snapshot) throws IOException {
+            File snapshotFile = metadataSnapshotFile(logFile.getParentFile(), logId);
+            File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+                fos.write(snapshot);
+                fos.getChannel().force(true);
+            }
+            Files.move(tmpFile.toPath(), snapshotFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Delete the metadata snapshot of the entry log, if any, once its ledgers map has been appended and flushed.
+         */
+        void deleteMetadataSnapshot() {
+            File snapshotFile = metadataSnapshotFile(logFile.getParentFile(), logId);
+            if (snapshotFile.exists() && !snapshotFile.delete()) {
+                LOG.warn("Could not delete entry log metadata snapshot {}", snapshotFile);
+            }
         }
 
         public ConcurrentLongLongHashMap getLedgersMap() {
@@ -280,8 +339,23 @@ public class DefaultEntryLogger implements EntryLogger {
     // EntryId used to mark an entry (belonging to INVALID_ID) as a component of the serialized ledgers map
     static final long LEDGERS_MAP_ENTRY_ID = -2L;
 
+    /**
+     * Suffix of the file where the metadata of an entry log being written is snapshotted at each flush, if enabled.
+     *
+     * <p>The snapshot is composed of:
+     *
+     * <pre>
+     * position in the entry log up to which the entries are covered: (8 bytes)
+     * entry log metadata: see {@link EntryLogMetadata#serialize}
+     * crc32 of the above: (8 bytes)
+     * </pre>
+     */
+    static final String METADATA_SNAPSHOT_SUFFIX = ".meta";
+
     static final int MIN_SANE_ENTRY_SIZE = 8 + 8;
     static final long MB = 1024 * 1024;
+    // Maximum number of bytes copied at once by a compaction transfer
+    static final long MAX_COMPACTION_TRANSFER_SIZE = 4 * MB;
 
     private final int maxSaneEntrySize;
 
@@ -297,6 +371,15 @@ public class DefaultEntryLogger implements EntryLogger {
          * Rotate a new entry log to write.
          */
         void onRotateEntryLog();
+
+        /**
+         * A rotated entry log has been flushed, with the metadata of its entries.
+         */
+        default void onFlushedEntryLog(EntryLogMetadata entryLogMetadata) {}
+    }
+
+    static File metadataSnapshotFile(File dir, long logId) {
+        return new File(dir, Long.toHexString(logId) + METADATA_SNAPSHOT_SUFFIX);
     }
 
     public DefaultEntryLogger(ServerConfiguration conf) throws IOException {
@@ -315,6 +398,16 @@ public class DefaultEntryLogger implements EntryLogger {
     public DefaultEntryLogger(ServerConfiguration conf,
                               LedgerDirsManager ledgerDirsManager, EntryLogListener listener, StatsLogger statsLogger,
                               ByteBufAllocator allocator) throws IOException {
+        this(conf, ledgerDirsManager, listener, statsLogger, allocator, null);
+    }
+
+    /**
+     * Create an EntryLogger, with the ledger manager used to read the retention hint of the ledgers when the
+     * entry logs are shared by groups of ledgers.
+     */
+    public DefaultEntryLogger(ServerConfiguration conf,
+                              LedgerDirsManager ledgerDirsManager, EntryLogListener listener, StatsLogger statsLogger,
+                              ByteBufAllocator allocator, LedgerManager ledgerManager) throws IOException {
         //We reserve 500 bytes as overhead for the protocol.  This is not 100% accurate
         // but the protocol varies so an exact value is difficult to determine
         this.maxSaneEntrySize = conf.getNettyMaxFrameSizeBytes() - 500;
@@ -351,7 +444,10 @@ public class DefaultEntryLogger implements EntryLogger {
         this.recentlyCreatedEntryLogsStatus = new RecentEntryLogsStatus(logId + 1);
         this.entryLoggerAllocator = new EntryLoggerAllocator(conf, ledgerDirsManager, recentlyCreatedEntryLogsStatus,
                 logId, allocator);
-        if (entryLogPerLedgerEnabled) {
+        if (entryLogPerLedgerEnabled && conf.getEntryLogLedgerGroupRetentionBoundariesSecs().length > 0) {
+            this.entryLogManager = new EntryLogManagerForLedgerGroups(conf, ledgerDirsManager,
+                    entryLoggerAllocator, listeners, recentlyCreatedEntryLogsStatus, statsLogger, ledgerManager);
+        } else if (entryLogPerLedgerEnabled) {
             this.entryLogManager = new EntryLogManagerForEntryLogPerLedger(conf, ledgerDirsManager,
                     entryLoggerAllocator, listeners, recentlyCreatedEntryLogsStatus, statsLogger);
         } else {
@@ -531,6 +627,10 @@ public class DefaultEntryLogger implements EntryLogger {
             LOG.warn("Could not delete entry log file {}", entryLogFile);
             return false;
         }
+        File snapshotFile = metadataSnapshotFile(entryLogFile.getParentFile(), entryLogId);
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            LOG.warn("Could not delete entry log metadata snapshot {}", snapshotFile);
+        }
         return true;
     }
 
@@ -644,6 +744,91 @@ public class DefaultEntryLogger implements EntryLogger {
         }
     }
 
+    /**
+     * Copy the entries of the ledgers accepted by the listener from an entry log to the compaction log, reading only
+     * the entry headers. Runs of contiguous accepted entries, up to {@link #MAX_COMPACTION_TRANSFER_SIZE} bytes, are
+     * each copied with a single file to file transfer, keeping their layout, so that only their new locations have
+     * to be computed.
+     */
+    private boolean transferEntriesForCompaction(long entryLogId, EntryTransferListener listener)
+            throws IOException {
+        if (entryLogManager.getCurrentLogIfPresent(entryLogId) != null) {
+            // the log is still being written, its tail might be in the write buffer
+            return false;
+        }
+        BufferedReadChannel bc = getChannelForLogId(entryLogId);
+        // Buffer where to read the entrySize (4 bytes), the ledgerId (8 bytes) and the entryId (8 bytes)
+        ByteBuf headerBuffer = Unpooled.buffer(4 + 8 + 8);
+        // Ledger id, entry id and size, size header included, of each entry of the current run
+        List<long[]> runEntries = new ArrayList<>();
+        long runStart = LOGFILE_HEADER_SIZE;
+        long pos = LOGFILE_HEADER_SIZE;
+        long size = bc.size();
+        while (pos < size) {
+            headerBuffer.clear();
+            int headerSize = (int) Math.min(headerBuffer.capacity(), size - pos);
+            if (bc.read(headerBuffer, pos, headerSize) != headerSize) {
+                LOG.warn("Short read for entry header from entrylog {}", entryLogId);
+                break;
+            }
+            int entrySize = headerSize >= 4 ? headerBuffer.readInt() : 0;
+            if (entrySize <= 0) { // hitting padding
+                transferRunForCompaction(bc, runStart, pos - runStart, runEntries, listener);
+                pos++;
+                runStart = pos;
+                continue;
+            }
+            if (headerSize < headerBuffer.capacity()) {
+                LOG.warn("Short read for entry header from entrylog {}", entryLogId);
+                break;
+            }
+            long ledgerId = headerBuffer.readLong();
+            long entryId = headerBuffer.readLong();
+            long entryEnd = pos + 4 + entrySize;
+            if (ledgerId == INVALID_LID || !listener.accept(ledgerId)) {
+                // skip this entry
+                transferRunForCompaction(bc, runStart, pos - runStart, runEntries, listener);
+                runStart = entryEnd;
+            } else if (entryId < -1 || entryEnd > size) {
+                throw new IOException("Invalid entry found @ offset " + pos + " of entrylog " + entryLogId);
+            } else {
+                if (entryEnd - runStart > MAX_COMPACTION_TRANSFER_SIZE) {
+                    transferRunForCompaction(bc, runStart, pos - runStart, runEntries, listener);
+                    runStart = pos;
+                }
+                runEntries.add(new long[] { ledgerId, entryId, entrySize + 4 });
+            }
+            pos = entryEnd;
+        }
+        transferRunForCompaction(bc, runStart, pos - runStart, runEntries, listener);
+        return true;
+    }
+
+    private void transferRunForCompaction(BufferedReadChannel bc, long runStart, long runLength,
+                                          List<long[]> runEntries, EntryTransferListener listener)
+            throws IOException {
+        if (runEntries.isEmpty()) {
+            return;
+        }
+        listener.beforeTransfer(runEntries.size(), (int) runLength);
+        synchronized (compactionLogLock) {
+            if (compactionLogChannel == null) {
+                createNewCompactionLog();
+            }
+            long location = compactionLogChannel.position();
+            compactionLogChannel.transferFrom(bc, runStart, runLength);
+            for (long[] runEntry : runEntries) {
+                long ledgerId = runEntry[0];
+                long entrySize = runEntry[2];
+                compactionLogChannel.registerWrittenEntry(ledgerId, entrySize);
+                // the location of an entry is the position of its payload, after the size header
+                listener.transferred(ledgerId, runEntry[1], (compactionLogChannel.getLogId() << 32L) | (location + 4));
+                location += entrySize;
+            }
+        }
+        runEntries.clear();
+    }
+
     private void flushCompactionLog() throws IOException {
         synchronized (compactionLogLock) {
             if (compactionLogChannel != null) {
@@ -986,6 +1171,12 @@ public class DefaultEntryLogger implements EntryLogger {
      */
     @Override
     public void scanEntryLog(long entryLogId, EntryLogScanner scanner) throws IOException {
+        // Start the read position in the current entry log file to be after
+        // the header where all of the ledger entries are.
+        scanEntryLog(entryLogId, LOGFILE_HEADER_SIZE, scanner);
+    }
+
+    private void scanEntryLog(long entryLogId, long startPos, EntryLogScanner scanner) throws IOException {
         // Buffer where to read the entrySize (4 bytes) and the ledgerId (8 bytes)
         ByteBuf headerBuffer = Unpooled.buffer(4 + 8);
         BufferedReadChannel bc;
@@ -996,9 +1187,7 @@ public class DefaultEntryLogger implements EntryLogger {
             LOG.warn("Failed to get channel to scan entry log: " + entryLogId + ".log");
             throw e;
         }
-        // Start the read position in the current entry log file to be after
-        // the header where all of the ledger entries are.
-        long pos = LOGFILE_HEADER_SIZE;
+        long pos = startPos;
 
         // Start with a reasonably sized buffer size
         ByteBuf data = allocator.directBuffer(1024 * 1024);
@@ -1064,7 +1253,11 @@ public class DefaultEntryLogger implements EntryLogger {
         } catch (Exception e) {
             LOG.info("Failed to get ledgers map index from: {}.log : {}", entryLogId, e.getMessage());
 
-            // Fall-back to scanning
+            // Fall-back to the metadata snapshot, if any, and to scanning the entries written after it
+            EntryLogMetadata meta = extractEntryLogMetadataFromSnapshot(entryLogId, throttler);
+            if (meta != null) {
+                return meta;
+            }
             return extractEntryLogMetadataByScanning(entryLogId, throttler);
         }
     }
@@ -1154,13 +1347,61 @@ public class DefaultEntryLogger implements EntryLogger {
         return meta;
     }
 
+    private EntryLogMetadata extractEntryLogMetadataFromSnapshot(long entryLogId,
+                                                                 AbstractLogCompactor.Throttler throttler)
+        throws IOException {
+        File snapshotFile = metadataSnapshotFile(findFile(entryLogId).getParentFile(), entryLogId);
+        if (!snapshotFile.exists()) {
+            return null;
+        }
+        EntryLogMetadata meta = new EntryLogMetadata(entryLogId);
+        long position;
+        try {
+            byte[] snapshot = Files.readAllBytes(snapshotFile.toPath());
+            CRC32 crc = new CRC32();
+            crc.update(snapshot, 0, snapshot.length - 8);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+            position = in.readLong();
+            EntryLogMetadataRecyclable snapshotMeta = EntryLogMetadata.deserialize(in);
+            try {
+                if (in.readLong() != crc.getValue() || snapshotMeta.getEntryLogId() != entryLogId
+                        || position > getChannelForLogId(entryLogId).size()) {
+                    LOG.warn("Ignoring invalid entry log metadata snapshot {}", snapshotFile);
+                    return null;
+                }
+                snapshotMeta.getLedgersMap().forEach(meta::addLedgerSize);
+            } finally {
+                snapshotMeta.recycle();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to read entry log metadata snapshot {}", snapshotFile, e);
+            return null;
+        }
+
+        // Only scan the entries written after the snapshot
+        scanEntryLogForMetadata(entryLogId, position, meta, throttler);
+        LOG.info("Retrieved entry log meta data of entryLogId {} from its snapshot up to position {}",
+                entryLogId, position);
+        return meta;
+    }
+
     private EntryLogMetadata extractEntryLogMetadataByScanning(long entryLogId,
                                                                AbstractLogCompactor.Throttler throttler)
         throws IOException {
         final EntryLogMetadata meta = new EntryLogMetadata(entryLogId);
 
         // Read through the entry log file and extract the entry log meta
-        scanEntryLog(entryLogId, new EntryLogScanner() {
+        scanEntryLogForMetadata(entryLogId, LOGFILE_HEADER_SIZE, meta, throttler);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Retrieved entry log meta data entryLogId: {}, meta: {}", entryLogId, meta);
+        }
+        return meta;
+    }
+
+    private void scanEntryLogForMetadata(long entryLogId, long startPos, EntryLogMetadata meta,
+                                         AbstractLogCompactor.Throttler throttler) throws IOException {
+        scanEntryLog(entryLogId, startPos, new EntryLogScanner() {
             @Override
             public void process(long ledgerId, long offset, ByteBuf entry) throws IOException {
                 if (throttler != null) {
@@ -1175,11 +1416,6 @@ public class DefaultEntryLogger implements EntryLogger {
                 return ledgerId >= 0;
             }
         });
-
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Retrieved entry log meta data entryLogId: {}, meta: {}", entryLogId, meta);
-        }
-        return meta;
     }
 
     /**
@@ -1324,6 +1560,10 @@ public class DefaultEntryLogger implements EntryLogger {
             return addEntryForCompaction(ledgerId, entry);
         }
         @Override
+        public boolean transferEntries(EntryTransferListener listener) throws IOException {
+            return transferEntriesForCompaction(logIdToCompact, listener);
+        }
+        @Override
         public void scan(EntryLogScanner scanner) throws IOException {
             scanEntryLog(compactionLogId, scanner);
         }
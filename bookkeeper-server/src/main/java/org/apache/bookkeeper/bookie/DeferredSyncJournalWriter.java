@@ -0,0 +1,254 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import com.google.common.collect.MapMaker;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import org.apache.bookkeeper.bookie.BookieImpl.NopWriteCallback;
+import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the entries of the ledgers written with the DEFERRED_SYNC write flag out of the journal until they have to
+ * be made durable.
+ *
+ * <p>The entries are only added to the ledger storage and acknowledged right away, and the ids of the entries are
+ * kept. When the ledger is forced, or periodically, the entries are read back from the ledger storage and written
+ * to the journal in a batch. The entries persisted by a checkpoint of the ledger storage in the meantime are never
+ * written to the journal.
+ */
+class DeferredSyncJournalWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(DeferredSyncJournalWriter.class);
+
+    private final LedgerStorage ledgerStorage;
+    private final LongFunction<Journal> journals;
+    private final ConcurrentLongHashMap<PendingEntries> pendingEntries =
+            ConcurrentLongHashMap.<PendingEntries>newBuilder().build();
+    // Incremented for each entry, to tell which entries were added before a checkpoint
+    private final AtomicLong sequence = new AtomicLong();
+    // Sequence at the creation of each checkpoint, until the checkpoint completes or is dropped
+    private final ConcurrentMap<Checkpoint, Long> checkpointSequences = new MapMaker().weakKeys().makeMap();
+    private final WriteCallback nopWriteCallback = new NopWriteCallback();
+    private final ScheduledExecutorService executor;
+
+    DeferredSyncJournalWriter(LedgerStorage ledgerStorage, LongFunction<Journal> journals, long intervalMs) {
+        this.ledgerStorage = ledgerStorage;
+        this.journals = journals;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new DefaultThreadFactory("DeferredSyncJournalWriter"));
+        executor.scheduleWithFixedDelay(this::writeAllToJournal, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Track an entry which has been added to the ledger storage, before it is acknowledged.
+     */
+    void addEntry(long ledgerId, long entryId) {
+        while (!pendingEntries.computeIfAbsent(ledgerId, PendingEntries::new)
+                .add(sequence.incrementAndGet(), entryId)) {
+            // The entries were removed while empty, retry with new ones
+        }
+    }
+
+    /**
+     * Write the pending entries of the ledger to the journal, then force the journal.
+     */
+    void forceLedger(long ledgerId, WriteCallback cb, Object ctx) {
+        Journal journal = journals.apply(ledgerId);
+        PendingEntries entries = pendingEntries.get(ledgerId);
+        if (entries == null) {
+            journal.forceLedger(ledgerId, cb, ctx);
+            return;
+        }
+        // Holding the lock, so that the force is queued after the entries written by a concurrent periodic write
+        synchronized (entries) {
+            try {
+                entries.writeToJournal(journal);
+            } catch (IOException e) {
+                LOG.error("Failed to write the deferred entries of ledger {} to the journal", ledgerId, e);
+                cb.writeComplete(BookieProtocol.EIO, ledgerId, BookieImpl.METAENTRY_ID_FORCE_LEDGER, null, ctx);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cb.writeComplete(BookieProtocol.EIO, ledgerId, BookieImpl.METAENTRY_ID_FORCE_LEDGER, null, ctx);
+                return;
+            }
+            journal.forceLedger(ledgerId, cb, ctx);
+        }
+    }
+
+    void ledgerDeleted(long ledgerId) {
+        PendingEntries entries = pendingEntries.remove(ledgerId);
+        if (entries != null) {
+            synchronized (entries) {
+                entries.clear();
+            }
+        }
+    }
+
+    private void writeAllToJournal() {
+        for (long ledgerId : pendingEntries.keys()) {
+            PendingEntries entries = pendingEntries.get(ledgerId);
+            if (entries == null) {
+                continue;
+            }
+            synchronized (entries) {
+                try {
+                    entries.writeToJournal(journals.apply(ledgerId));
+                } catch (IOException e) {
+                    LOG.warn("Failed to write the deferred entries of ledger {} to the journal", ledgerId, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wrap the checkpoint source of the ledger storage, to drop the pending entries which have been persisted by
+     * a checkpoint.
+     */
+    CheckpointSource trackCheckpoints(CheckpointSource checkpointSource) {
+        return new CheckpointSource() {
+            @Override
+            public Checkpoint newCheckpoint() {
+                // Taken before the checkpoint, the entries up to this sequence are in the ledger storage already
+                long currentSequence = sequence.get();
+                Checkpoint checkpoint = checkpointSource.newCheckpoint();
+                checkpointSequences.put(checkpoint, currentSequence);
+                return checkpoint;
+            }
+
+            @Override
+            public void checkpointComplete(Checkpoint checkpoint, boolean compact) throws IOException {
+                Long persistedSequence = checkpointSequences.remove(checkpoint);
+                if (persistedSequence != null) {
+                    for (PendingEntries entries : pendingEntries.values()) {
+                        synchronized (entries) {
+                            entries.discard(persistedSequence);
+                        }
+                    }
+                }
+                checkpointSource.checkpointComplete(checkpoint, compact);
+            }
+        };
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * The ids of the pending entries of a ledger, in the order they were added.
+     */
+    private class PendingEntries {
+        private final long ledgerId;
+        private long[] sequences = new long[16];
+        private long[] entryIds = new long[16];
+        private int head = 0;
+        private int tail = 0;
+        private boolean removed = false;
+
+        PendingEntries(long ledgerId) {
+            this.ledgerId = ledgerId;
+        }
+
+        synchronized boolean add(long sequence, long entryId) {
+            if (removed) {
+                return false;
+            }
+            if (tail == entryIds.length) {
+                if (head > 0) {
+                    System.arraycopy(sequences, head, sequences, 0, tail - head);
+                    System.arraycopy(entryIds, head, entryIds, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                }
+                if (tail == entryIds.length) {
+                    sequences = Arrays.copyOf(sequences, tail * 2);
+                    entryIds = Arrays.copyOf(entryIds, tail * 2);
+                }
+            }
+            sequences[tail] = sequence;
+            entryIds[tail] = entryId;
+            tail++;
+            return true;
+        }
+
+        synchronized void discard(long persistedSequence) {
+            while (head < tail && sequences[head] <= persistedSequence) {
+                head++;
+            }
+            removeIfEmpty();
+        }
+
+        synchronized void writeToJournal(Journal journal) throws IOException, InterruptedException {
+            while (head < tail) {
+                ByteBuf entry;
+                try {
+                    entry = ledgerStorage.getEntry(ledgerId, entryIds[head]);
+                } catch (Bookie.NoLedgerException | Bookie.NoEntryException e) {
+                    // Deleted in the meantime
+                    head++;
+                    continue;
+                } catch (BookieException e) {
+                    throw new IOException(e);
+                }
+                try {
+                    // Already acknowledged to the client
+                    journal.logAddEntry(entry, true /* ackBeforeSync */, nopWriteCallback, null);
+                } finally {
+                    ReferenceCountUtil.release(entry);
+                }
+                head++;
+            }
+            removeIfEmpty();
+        }
+
+        synchronized void clear() {
+            head = tail = 0;
+            removed = true;
+        }
+
+        private void removeIfEmpty() {
+            if (head == tail && !removed) {
+                removed = true;
+                pendingEntries.remove(ledgerId, this);
+            }
+        }
+    }
+}
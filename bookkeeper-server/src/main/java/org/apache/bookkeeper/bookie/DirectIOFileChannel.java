@@ -0,0 +1,451 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BookieFileChannel} over a file opened with O_DIRECT.
+ *
+ * <p>Direct I/O requires the file offsets, the sizes and the memory addresses of the reads and writes to be aligned
+ * to the logical block size of the device. The data is copied to an aligned buffer, and the partial blocks at the
+ * edges of a write are read first, so that the callers can keep writing at any position. When the journal writes are
+ * padded to a multiple of {@link #ALIGNMENT} (see {@link ServerConfiguration#getJournalAlignmentSize}), no block has
+ * to be read, and the buffers allocated with {@link #alignedAllocator} are written as they are, without any copy.
+ */
+class DirectIOFileChannel implements BookieFileChannel {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectIOFileChannel.class);
+
+    /* Some devices can live with 512 alignment, but others
+     * require 4096, so go with 4096 */
+    static final int ALIGNMENT = 4096;
+
+    private final NativeIO nativeIO;
+    private final File file;
+    private final int bufferSize;
+    // Shared by the channels of a directory, as fallocate support depends on the filesystem
+    private final AtomicBoolean useFallocate;
+    private AlignedFileChannel fileChannel;
+
+    DirectIOFileChannel(NativeIO nativeIO, File file, ServerConfiguration configuration) {
+        this(nativeIO, file, configuration, new AtomicBoolean(true));
+    }
+
+    DirectIOFileChannel(NativeIO nativeIO, File file, ServerConfiguration configuration, AtomicBoolean useFallocate) {
+        this.nativeIO = nativeIO;
+        this.file = file;
+        this.useFallocate = useFallocate;
+        // Large enough for a whole journal write buffer, starting in the middle of a block
+        this.bufferSize = alignUp(configuration.getJournalWriteBufferSizeKB() * 1024L) + ALIGNMENT;
+    }
+
+    @Override
+    public synchronized FileChannel getFileChannel() throws IOException {
+        if (fileChannel == null) {
+            int fd;
+            try {
+                fd = nativeIO.open(file.getPath(), NativeIO.O_CREAT | NativeIO.O_RDWR | NativeIO.O_DIRECT, 00644);
+            } catch (NativeIOException e) {
+                throw new IOException("Failed to open " + file + " with O_DIRECT, errno=" + e.getErrno(), e);
+            }
+            fileChannel = new AlignedFileChannel(nativeIO, file, fd, bufferSize);
+        }
+        return fileChannel;
+    }
+
+    @Override
+    public boolean fileExists(File file) {
+        return file.exists();
+    }
+
+    @Override
+    public FileDescriptor getFD() throws IOException {
+        throw new IOException("No java file descriptor for the direct I/O file " + file);
+    }
+
+    @Override
+    public boolean isDirectIO() {
+        return true;
+    }
+
+    @Override
+    public synchronized boolean preallocate(long position, long length) throws IOException {
+        if (fileChannel == null) {
+            throw new IOException("fileChannel is null, please initialize it by calling getFileChannel");
+        }
+        if (!useFallocate.get()) {
+            return false;
+        }
+        try {
+            nativeIO.fallocate(fileChannel.fd, 0, position, length);
+            return true;
+        } catch (NativeIOException e) {
+            // fallocate(2) is not supported on all filesystems. Since this is an optimization, disable
+            // subsequent usage instead of failing the operation.
+            useFallocate.set(false);
+            LOG.warn("fallocate is not available for the journal file {}, errno={}", file, e.getErrno());
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (fileChannel != null) {
+            fileChannel.close();
+        }
+    }
+
+    static long alignDown(long position) {
+        return position - position % ALIGNMENT;
+    }
+
+    static int alignUp(long size) {
+        return (int) alignDown(size + ALIGNMENT - 1);
+    }
+
+    /**
+     * @return an allocator of direct buffers aligned to {@link #ALIGNMENT}, on top of the given allocator
+     */
+    static ByteBufAllocator alignedAllocator(ByteBufAllocator allocator) {
+        return new AlignedByteBufAllocator(allocator);
+    }
+
+    /**
+     * Allocates direct buffers whose memory address is aligned, as slices of larger buffers. The buffers can't grow.
+     */
+    private static class AlignedByteBufAllocator extends AbstractByteBufAllocator {
+        private final ByteBufAllocator allocator;
+
+        AlignedByteBufAllocator(ByteBufAllocator allocator) {
+            super(true);
+            this.allocator = allocator;
+        }
+
+        @Override
+        protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+            return allocator.heapBuffer(initialCapacity, maxCapacity);
+        }
+
+        @Override
+        protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+            ByteBuf buf = allocator.directBuffer(initialCapacity + ALIGNMENT);
+            long addr = buf.memoryAddress();
+            int alignOffset = (int) ((ALIGNMENT - addr % ALIGNMENT) % ALIGNMENT);
+            // Releasing the slice releases the whole buffer
+            return buf.slice(alignOffset, initialCapacity).clear();
+        }
+
+        @Override
+        public boolean isDirectBufferPooled() {
+            return allocator.isDirectBufferPooled();
+        }
+    }
+
+    /**
+     * The {@link FileChannel} of a file opened with O_DIRECT, doing the reads and writes through an aligned buffer.
+     */
+    static class AlignedFileChannel extends FileChannel {
+        final int fd;
+        private final NativeIO nativeIO;
+        private final File file;
+        private final ByteBuf allocated;
+        private final ByteBuf buffer;
+        private final long pointer;
+        private final int bufferSize;
+
+        private long position = 0;
+        // The range of the file held in the buffer by the last read
+        private long readStart = -1;
+        private long readEnd = -1;
+        // The last partial block written, which is still at the end of the buffer
+        private long tailBlock = -1;
+        private int tailBlockOffset;
+
+        AlignedFileChannel(NativeIO nativeIO, File file, int fd, int bufferSize) {
+            this.nativeIO = nativeIO;
+            this.file = file;
+            this.fd = fd;
+            this.bufferSize = bufferSize;
+            this.allocated = PooledByteBufAllocator.DEFAULT.directBuffer(bufferSize + ALIGNMENT);
+            long addr = allocated.memoryAddress();
+            int alignOffset = (int) ((ALIGNMENT - addr % ALIGNMENT) % ALIGNMENT);
+            this.pointer = addr + alignOffset;
+            this.buffer = allocated.slice(alignOffset, bufferSize);
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer dst) throws IOException {
+            int read = read(dst, position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int read = read(dsts[i]);
+                if (read < 0) {
+                    return total == 0 ? -1 : total;
+                }
+                total += read;
+                if (dsts[i].hasRemaining()) {
+                    break;
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer dst, long pos) throws IOException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            if (pos < readStart || pos >= readEnd) {
+                long start = alignDown(pos);
+                tailBlock = -1;
+                readStart = readEnd = -1;
+                long read = nativeIO.pread(fd, pointer, bufferSize, start);
+                if (start + read <= pos) {
+                    return -1;
+                }
+                readStart = start;
+                readEnd = start + read;
+            }
+            int len = (int) Math.min(dst.remaining(), readEnd - pos);
+            ByteBuffer target = dst.duplicate();
+            target.limit(target.position() + len);
+            buffer.getBytes((int) (pos - readStart), target);
+            dst.position(dst.position() + len);
+            return len;
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer src) throws IOException {
+            int written = write(src, position);
+            position += written;
+            return written;
+        }
+
+        @Override
+        public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer src, long pos) throws IOException {
+            readStart = readEnd = -1;
+            int length = src.remaining();
+            if (src.isDirect() && pos % ALIGNMENT == 0 && length % ALIGNMENT == 0) {
+                // Wraps the readable bytes of the source, without freeing them on release
+                ByteBuf wrapped = Unpooled.wrappedBuffer(src);
+                try {
+                    if (wrapped.hasMemoryAddress() && wrapped.memoryAddress() % ALIGNMENT == 0) {
+                        // Whole blocks from aligned memory, written as they are
+                        pwriteFully(wrapped.memoryAddress(), length, pos);
+                        src.position(src.limit());
+                        tailBlock = -1;
+                        return length;
+                    }
+                } finally {
+                    wrapped.release();
+                }
+            }
+
+            int written = 0;
+            while (src.hasRemaining()) {
+                long start = alignDown(pos);
+                int head = (int) (pos - start);
+                int len = Math.min(src.remaining(), bufferSize - head);
+                int alignedLen = alignUp(head + len);
+                int tail = head + len;
+
+                if (head != 0) {
+                    loadBlock(start, 0);
+                }
+                if (tail != alignedLen && (head == 0 || alignedLen > ALIGNMENT)) {
+                    loadBlock(start + alignedLen - ALIGNMENT, alignedLen - ALIGNMENT);
+                }
+
+                ByteBuffer source = src.duplicate();
+                source.limit(source.position() + len);
+                buffer.setBytes(head, source);
+                src.position(src.position() + len);
+
+                pwriteFully(pointer, alignedLen, start);
+
+                if (tail != alignedLen) {
+                    tailBlock = start + alignedLen - ALIGNMENT;
+                    tailBlockOffset = alignedLen - ALIGNMENT;
+                } else {
+                    tailBlock = -1;
+                }
+                pos += len;
+                written += len;
+            }
+            return written;
+        }
+
+        private void pwriteFully(long address, int len, long pos) throws IOException {
+            int done = 0;
+            while (done < len) {
+                int n = nativeIO.pwrite(fd, address + done, len - done, pos + done);
+                // The rest of a short write must stay aligned, otherwise O_DIRECT fails it with EINVAL
+                if (n <= 0 || n % ALIGNMENT != 0) {
+                    throw new IOException("Short write to direct I/O file: " + n + " of " + (len - done)
+                            + " bytes at position " + (pos + done));
+                }
+                done += n;
+            }
+        }
+
+        /**
+         * Load the block at the given position of the file into the buffer, at the given offset.
+         */
+        private void loadBlock(long blockPosition, int offset) throws IOException {
+            if (blockPosition == tailBlock) {
+                // The block was partially written by the previous write, and is still in the buffer
+                if (tailBlockOffset != offset) {
+                    buffer.setBytes(offset, buffer, tailBlockOffset, ALIGNMENT);
+                }
+                return;
+            }
+            long read = nativeIO.pread(fd, pointer + offset, ALIGNMENT, blockPosition);
+            // Past the end of the file
+            buffer.setZero(offset + (int) Math.max(read, 0), ALIGNMENT - (int) Math.max(read, 0));
+        }
+
+        @Override
+        public synchronized long position() {
+            return position;
+        }
+
+        @Override
+        public synchronized FileChannel position(long newPosition) {
+            this.position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return nativeIO.lseek(fd, 0, NativeIO.SEEK_END);
+        }
+
+        @Override
+        public synchronized FileChannel truncate(long size) throws IOException {
+            if (size < size()) {
+                // There is no ftruncate in native-io, the file is truncated through another descriptor
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(size);
+                }
+                readStart = readEnd = -1;
+                tailBlock = -1;
+            }
+            if (position > size) {
+                position = size;
+            }
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            nativeIO.fsync(fd);
+        }
+
+        @Override
+        public synchronized long transferTo(long position, long count, WritableByteChannel target)
+                throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(count, bufferSize));
+            long transferred = 0;
+            while (transferred < count) {
+                chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), count - transferred));
+                int read = read(chunk, position + transferred);
+                if (read <= 0) {
+                    break;
+                }
+                chunk.flip();
+                while (chunk.hasRemaining()) {
+                    target.write(chunk);
+                }
+                transferred += read;
+            }
+            return transferred;
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException("transferFrom is not supported by direct I/O file channels");
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException("map is not supported by direct I/O file channels");
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException("lock is not supported by direct I/O file channels");
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException("tryLock is not supported by direct I/O file channels");
+        }
+
+        @Override
+        protected synchronized void implCloseChannel() throws IOException {
+            try {
+                nativeIO.close(fd);
+            } finally {
+                allocated.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+
+/**
+ * A {@link FileChannelProvider} which opens the journal files with O_DIRECT, so that the journal writes skip the
+ * page cache.
+ *
+ * <p>The journal is written once and only read back on replay, so caching it is of no use: skipping the page cache
+ * saves a copy of the data, and the page cache eviction
+ * (see {@link ServerConfiguration#getJournalRemovePagesFromCache}) is not needed anymore. The data is already on the
+ * device when a write returns, so a fsync has no dirty pages to write back, and its cost is more predictable.
+ *
+ * <p>This provider relies on the native-io library, and on a filesystem supporting O_DIRECT.
+ */
+public class DirectIOFileChannelProvider implements FileChannelProvider {
+    private final NativeIO nativeIO = new NativeIOImpl();
+    // A provider is created for each journal directory
+    private final AtomicBoolean useFallocate = new AtomicBoolean(true);
+
+    @Override
+    public BookieFileChannel open(File file, ServerConfiguration configuration) throws IOException {
+        return new DirectIOFileChannel(nativeIO, file, configuration, useFallocate);
+    }
+
+    @Override
+    public void close(BookieFileChannel bookieFileChannel) throws IOException {
+        bookieFileChannel.close();
+    }
+
+    @Override
+    public void close() {
+
+    }
+}
@@ -39,7 +39,6 @@ import org.slf4j.LoggerFactory;
 public class EntryLogCompactor extends AbstractLogCompactor {
     private static final Logger LOG = LoggerFactory.getLogger(EntryLogCompactor.class);
 
-    final CompactionScannerFactory scannerFactory = new CompactionScannerFactory();
     final EntryLogger entryLogger;
     final CompactableLedgerStorage ledgerStorage;
     private final int maxOutstandingRequests;
@@ -57,6 +56,8 @@ public class EntryLogCompactor extends AbstractLogCompactor {
 
     @Override
     public boolean compact(EntryLogMetadata entryLogMeta) {
+        // Entry logs can be compacted concurrently, each with its own scanner factory
+        CompactionScannerFactory scannerFactory = new CompactionScannerFactory();
         try {
             entryLogger.scanEntryLog(entryLogMeta.getEntryLogId(),
                 scannerFactory.newScanner(entryLogMeta));
@@ -46,6 +46,8 @@ abstract class EntryLogManagerBase implements EntryLogManager {
      * The maximum size of a entry logger file.
      */
     final long logSizeLimit;
+    // Whether the metadata of the current logs is snapshotted at each flush
+    final boolean metadataSnapshotEnabled;
 
     EntryLogManagerBase(ServerConfiguration conf, LedgerDirsManager ledgerDirsManager,
             EntryLoggerAllocator entryLoggerAllocator, List<DefaultEntryLogger.EntryLogListener> listeners) {
@@ -53,6 +55,7 @@ abstract class EntryLogManagerBase implements EntryLogManager {
         this.entryLoggerAllocator = entryLoggerAllocator;
         this.listeners = listeners;
         this.logSizeLimit = conf.getEntryLogSizeLimit();
+        this.metadataSnapshotEnabled = conf.isGcEntryLogMetadataSnapshotEnabled();
     }
 
     private final FastThreadLocal<ByteBuf> sizeBufferForAdd = new FastThreadLocal<ByteBuf>() {
@@ -70,6 +73,10 @@ abstract class EntryLogManagerBase implements EntryLogManager {
     public long addEntry(long ledger, ByteBuf entry, boolean rollLog) throws IOException {
         int entrySize = entry.readableBytes() + 4; // Adding 4 bytes to prepend the size
         BufferedLogChannel logChannel = getCurrentLogForLedgerForAddEntry(ledger, entrySize, rollLog);
+        return writeEntry(logChannel, ledger, entry, entrySize);
+    }
+
+    long writeEntry(BufferedLogChannel logChannel, long ledger, ByteBuf entry, int entrySize) throws IOException {
         ByteBuf sizeBuffer = sizeBufferForAdd.get();
         sizeBuffer.clear();
         sizeBuffer.writeInt(entry.readableBytes());
@@ -125,13 +132,29 @@ abstract class EntryLogManagerBase implements EntryLogManager {
 
     void flushLogChannel(BufferedLogChannel logChannel, boolean forceMetadata) throws IOException {
         if (logChannel != null) {
+            // snapshot the metadata before the flush, which persists the entries it covers
+            byte[] metadataSnapshot = metadataSnapshotEnabled ? logChannel.snapshotMetadata() : null;
             logChannel.flushAndForceWrite(forceMetadata);
+            if (metadataSnapshot != null) {
+                logChannel.writeMetadataSnapshot(metadataSnapshot);
+            }
             if (log.isDebugEnabled()) {
                 log.debug("Flush and sync current entry logger {}", logChannel.getLogId());
             }
         }
     }
 
+    /*
+     * Called once a rotated log, with its ledgers map appended, has been
+     * flushed and closed.
+     */
+    void onFlushedRotatedLog(BufferedLogChannel logChannel) {
+        logChannel.deleteMetadataSnapshot();
+        for (EntryLogListener listener : listeners) {
+            listener.onFlushedEntryLog(logChannel.getEntryLogMetadata());
+        }
+    }
+
     /*
      * Creates a new log file. This method should be guarded by a lock,
      * so callers of this method should be in right scope of the lock.
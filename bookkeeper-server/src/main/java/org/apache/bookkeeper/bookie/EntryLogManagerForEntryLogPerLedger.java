@@ -688,6 +688,8 @@ class EntryLogManagerForEntryLogPerLedger extends EntryLogManagerBase {
             // we had to close the underlying file channel. Otherwise, we might end up
             // leaking fds which cause the disk spaces could not be reclaimed.
             channel.close();
+            // hand over the metadata before the log is seen as flushed by the garbage collector
+            onFlushedRotatedLog(channel);
             recentlyCreatedEntryLogsStatus.flushRotatedEntryLog(channel.getLogId());
             rotatedLogChannels.remove(channel);
             log.info("Synced entry logger {} to disk.", channel.getLogId());
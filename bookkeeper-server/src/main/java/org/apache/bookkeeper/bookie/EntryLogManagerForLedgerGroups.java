@@ -0,0 +1,176 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.bookkeeper.bookie.DefaultEntryLogger.UNASSIGNED_LEDGERID;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.netty.buffer.ByteBuf;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.bookie.DefaultEntryLogger.BufferedLogChannel;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.stats.StatsLogger;
+
+/**
+ * An entry log manager which keeps an active entry log for each group of ledgers with a similar expected lifetime,
+ * instead of one for each ledger.
+ *
+ * <p>The expected lifetime of a ledger is the retention hint, in seconds, which the client stores in the custom
+ * metadata of the ledger when creating it. Grouping the ledgers by retention makes the entry logs mostly hold ledgers
+ * which are deleted around the same time, so that they become entirely garbage rather than being compacted.
+ *
+ * <p>The entry logs of the groups are managed as the ones of ledgers by {@link EntryLogManagerForEntryLogPerLedger},
+ * each group being identified by a key outside of the range of the ledger ids.
+ */
+@Slf4j
+class EntryLogManagerForLedgerGroups extends EntryLogManagerForEntryLogPerLedger {
+
+    private static final long GROUP_KEY_BASE = Long.MIN_VALUE;
+
+    private final LedgerManager ledgerManager;
+    private final String retentionHintKey;
+    private final long[] retentionBoundariesSecs;
+    // group of the ledgers without a retention hint
+    private final int defaultGroup;
+    private final Cache<Long, CompletableFuture<Integer>> ledgerGroups;
+
+    EntryLogManagerForLedgerGroups(ServerConfiguration conf, LedgerDirsManager ledgerDirsManager,
+                                   EntryLoggerAllocator entryLoggerAllocator,
+                                   List<DefaultEntryLogger.EntryLogListener> listeners,
+                                   DefaultEntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus,
+                                   StatsLogger statsLogger, LedgerManager ledgerManager) throws IOException {
+        super(conf, ledgerDirsManager, entryLoggerAllocator, listeners, recentlyCreatedEntryLogsStatus, statsLogger);
+        this.ledgerManager = ledgerManager;
+        this.retentionHintKey = conf.getEntryLogLedgerGroupRetentionHintKey();
+        this.retentionBoundariesSecs = conf.getEntryLogLedgerGroupRetentionBoundariesSecs();
+        this.defaultGroup = retentionBoundariesSecs.length + 1;
+        this.ledgerGroups = CacheBuilder.newBuilder()
+                .expireAfterAccess(conf.getEntrylogMapAccessExpiryTimeInSeconds(), TimeUnit.SECONDS)
+                .build();
+        if (ledgerManager == null) {
+            log.warn("No ledger manager available, all the ledgers are written to the entry log of the default group");
+        }
+    }
+
+    private static boolean isGroupKey(long key) {
+        return key < GROUP_KEY_BASE + Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get the key under which the entry log of the group of the ledger is managed.
+     *
+     * <p>The first time a ledger is seen, its metadata is read asynchronously and the ledger is assigned to the default
+     * group until the retention hint is known. Group keys are mapped to themselves.
+     */
+    @VisibleForTesting
+    long getGroupKey(long ledgerId) {
+        if (ledgerId == UNASSIGNED_LEDGERID || isGroupKey(ledgerId)) {
+            return ledgerId;
+        }
+        int group = ledgerGroups.asMap().computeIfAbsent(ledgerId, this::readLedgerGroup).getNow(defaultGroup);
+        return GROUP_KEY_BASE + group;
+    }
+
+    private CompletableFuture<Integer> readLedgerGroup(long ledgerId) {
+        if (ledgerManager == null) {
+            return CompletableFuture.completedFuture(defaultGroup);
+        }
+        return ledgerManager.readLedgerMetadata(ledgerId)
+                .thenApply(metadata -> getGroup(ledgerId, metadata.getValue()))
+                .exceptionally(cause -> {
+                    log.warn("Failed to read the metadata of ledger {}, using the entry log of the default group",
+                            ledgerId, cause);
+                    return defaultGroup;
+                });
+    }
+
+    private int getGroup(long ledgerId, LedgerMetadata metadata) {
+        byte[] hint = metadata.getCustomMetadata().get(retentionHintKey);
+        if (hint == null) {
+            return defaultGroup;
+        }
+        long retentionSecs;
+        try {
+            retentionSecs = Long.parseLong(new String(hint, UTF_8).trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid retention hint '{}' in the metadata of ledger {}", new String(hint, UTF_8), ledgerId);
+            return defaultGroup;
+        }
+        int group = 0;
+        while (group < retentionBoundariesSecs.length && retentionSecs > retentionBoundariesSecs[group]) {
+            group++;
+        }
+        return group;
+    }
+
+    @Override
+    Lock getLock(long ledgerId) throws IOException {
+        return super.getLock(getGroupKey(ledgerId));
+    }
+
+    @Override
+    public void setCurrentLogForLedgerAndAddToRotate(long ledgerId, BufferedLogChannel logChannel) throws IOException {
+        super.setCurrentLogForLedgerAndAddToRotate(getGroupKey(ledgerId), logChannel);
+    }
+
+    @Override
+    public BufferedLogChannelWithDirInfo getCurrentLogWithDirInfoForLedger(long ledgerId) throws IOException {
+        return super.getCurrentLogWithDirInfoForLedger(getGroupKey(ledgerId));
+    }
+
+    @Override
+    public long addEntry(long ledger, ByteBuf entry, boolean rollLog) throws IOException {
+        // resolve the group once, as the retention hint of the ledger may be read in the meantime
+        long groupKey = getGroupKey(ledger);
+        Lock lock = getLock(groupKey);
+        lock.lock();
+        try {
+            int entrySize = entry.readableBytes() + 4; // Adding 4 bytes to prepend the size
+            BufferedLogChannel logChannel = getCurrentLogForLedgerForAddEntry(groupKey, entrySize, rollLog);
+            // the entry is registered in the entry log metadata with its own ledger id
+            return writeEntry(logChannel, ledger, entry, entrySize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void createNewLog(long ledgerId) throws IOException {
+        super.createNewLog(getGroupKey(ledgerId));
+    }
+
+    @Override
+    BufferedLogChannel getCurrentLogForLedgerForAddEntry(long ledgerId, int entrySize, boolean rollLog)
+            throws IOException {
+        return super.getCurrentLogForLedgerForAddEntry(getGroupKey(ledgerId), entrySize, rollLog);
+    }
+}
@@ -206,6 +206,8 @@ class EntryLogManagerForSingleEntryLog extends EntryLogManagerBase {
             // we had to close the underlying file channel. Otherwise, we might end up
             // leaking fds which cause the disk spaces could not be reclaimed.
             channel.close();
+            // hand over the metadata before the log is seen as flushed by the garbage collector
+            onFlushedRotatedLog(channel);
             recentlyCreatedEntryLogsStatus.flushRotatedEntryLog(channel.getLogId());
             log.info("Synced entry logger {} to disk.", channel.getLogId());
         }
@@ -0,0 +1,101 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+
+/**
+ * Schedules the force writes of the journals stored on the same device.
+ *
+ * <p>The force writes of uncoordinated journals compete for the device queue, and each of them pays for its own
+ * device cache flush. With a shared scheduler, the force writes are issued in groups: while a group is syncing, the
+ * force writes requested by the other journals wait, and are issued together as the next group once the current one
+ * completes, so that the device can merge their flushes. As {@link ServerConfiguration#getJournalAdaptiveGroupWrites}
+ * does within a journal, the grouping window is the time taken by the force writes in progress: there is no wait when
+ * the device is idle.
+ *
+ * <p>A force write doesn't wait longer than the latency target minus the measured fsync latency, so that it still
+ * completes within the target.
+ */
+class ForceWriteScheduler {
+    private final long latencyTargetNanos;
+    private final FsyncLatencyEstimator fsyncLatency = new FsyncLatencyEstimator();
+
+    // Group in progress, the next group is generation + 1
+    private long generation = 0;
+    // Force writes of the group in progress not completed yet
+    private int inFlight = 0;
+    // Force writes of the next group, waiting for the group in progress or having given up waiting, not completed yet
+    private int open = 0;
+
+    ForceWriteScheduler(long latencyTargetNanos) {
+        this.latencyTargetNanos = latencyTargetNanos;
+    }
+
+    /**
+     * Wait for the turn of a force write, which must then be followed by {@link #release} with the returned group.
+     *
+     * <p>The force writes requested while a group is in progress all join the next group, which starts when the
+     * current one completes. A force write that gives up waiting still belongs to the next group: it doesn't delay the
+     * completion of the group in progress, so that the groups keep moving while the journals sync continuously.
+     *
+     * @return the group of the force write
+     */
+    synchronized long acquire() throws InterruptedException {
+        if (inFlight == 0) {
+            // Idle device, start a new group
+            generation++;
+            inFlight++;
+            return generation;
+        }
+        long nextGeneration = generation + 1;
+        open++;
+        long deadline = System.nanoTime() + (latencyTargetNanos - fsyncLatency.getLatencyNanos());
+        while (generation < nextGeneration) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return nextGeneration;
+    }
+
+    /**
+     * Complete a force write of the given group, which took the given time.
+     */
+    synchronized void release(long group, long fsyncNanos) {
+        fsyncLatency.record(fsyncNanos);
+        if (group != generation) {
+            // Force write which gave up waiting, and completed before the group in progress
+            open--;
+        } else if (--inFlight == 0) {
+            generation++;
+            inFlight = open;
+            open = 0;
+            notifyAll();
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+/**
+ * Moving average of the latency of the fsyncs of a journal, or of the journals sharing a device.
+ *
+ * <p>The latencies may be recorded by several threads: a concurrent update may be lost, which only delays the
+ * convergence of the average.
+ */
+class FsyncLatencyEstimator {
+    // Weight of the last fsync in the moving average of the fsync latency
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private volatile long latencyNanos = 0;
+
+    void record(long fsyncNanos) {
+        long current = latencyNanos;
+        latencyNanos = current == 0 ? fsyncNanos : current + (long) (EWMA_WEIGHT * (fsyncNanos - current));
+    }
+
+    /**
+     * @return the average fsync latency, in nanoseconds, or 0 if no fsync was recorded
+     */
+    long getLatencyNanos() {
+        return latencyNanos;
+    }
+}
@@ -21,6 +21,7 @@
 
 package org.apache.bookkeeper.bookie;
 
+import java.util.Map;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Setter;
@@ -44,4 +45,9 @@ public class GarbageCollectionStatus {
     private long lastMinorCompactionTime;
     private long majorCompactionCounter;
     private long minorCompactionCounter;
+
+    // the entry log being compacted by each compaction worker.
+    private Map<String, Long> compactingEntryLogs;
+    // the number of entry logs compacted by each compaction worker, in the last compaction.
+    private Map<String, Long> compactedEntryLogs;
 }
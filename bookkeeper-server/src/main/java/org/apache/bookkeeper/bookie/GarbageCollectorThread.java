@@ -29,13 +29,18 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicLong;
 import lombok.Getter;
 import org.apache.bookkeeper.bookie.BookieException.EntryLogMetadataMapException;
@@ -43,10 +48,12 @@ import org.apache.bookkeeper.bookie.GarbageCollector.GarbageCleaner;
 import org.apache.bookkeeper.bookie.stats.GarbageCollectorStats;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
 import org.apache.bookkeeper.bookie.storage.ldb.PersistentEntryLogMetadataMap;
+import org.apache.bookkeeper.common.util.ReflectionUtils;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.util.MathUtils;
+import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.lang3.mutable.MutableBoolean;
 import org.apache.commons.lang3.mutable.MutableLong;
 import org.slf4j.Logger;
@@ -91,6 +98,14 @@ public class GarbageCollectorThread implements Runnable {
     // Entry Logger Handle
     final EntryLogger entryLogger;
     AbstractLogCompactor compactor;
+    final CompactionPolicy compactionPolicy;
+
+    // Workers compacting several entry logs at the same time, null when compacting one entry log at a time
+    private final ExecutorService compactionExecutor;
+    private final int compactionThreads;
+    // Entry log being compacted by each worker, and number of entry logs it compacted in the last compaction
+    private final ConcurrentHashMap<String, Long> compactingEntryLogs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> compactedEntryLogs = new ConcurrentHashMap<>();
 
     // Stats loggers for garbage collection operations
     private final GarbageCollectorStats gcStats;
@@ -110,6 +125,9 @@ public class GarbageCollectorThread implements Runnable {
 
     volatile boolean running = true;
 
+    // Whether the metadata of the entry logs has been extracted since startup
+    private boolean startupMetaExtracted = false;
+
     // Boolean to trigger a forced GC.
     final AtomicBoolean forceGarbageCollection = new AtomicBoolean(false);
     // Boolean to disable major compaction, when disk is almost full
@@ -167,6 +185,19 @@ public class GarbageCollectorThread implements Runnable {
         this.ledgerDirsManager = ledgerDirsManager;
         this.entryLogger = entryLogger;
         this.entryLogMetaMap = createEntryLogMetadataMap();
+        if (entryLogger instanceof DefaultEntryLogger) {
+            // take the metadata of the rotated entry logs as soon as they are flushed, instead of reading it back
+            ((DefaultEntryLogger) entryLogger).addListener(new DefaultEntryLogger.EntryLogListener() {
+                @Override
+                public void onRotateEntryLog() {
+                }
+
+                @Override
+                public void onFlushedEntryLog(EntryLogMetadata entryLogMetadata) {
+                    addFlushedEntryLogMetadata(entryLogMetadata);
+                }
+            });
+        }
         this.ledgerStorage = ledgerStorage;
         this.gcWaitTime = conf.getGcWaitTime();
 
@@ -221,6 +252,19 @@ public class GarbageCollectorThread implements Runnable {
         } else {
             this.compactor = new EntryLogCompactor(conf, entryLogger, ledgerStorage, remover);
         }
+        try {
+            this.compactionPolicy = ReflectionUtils.newInstance(conf.getCompactionPolicyClass());
+        } catch (ConfigurationException e) {
+            throw new IOException("Invalid compaction policy", e);
+        }
+        this.compactionPolicy.initialize(conf);
+
+        // The transactional compactor writes to a single compaction log
+        this.compactionThreads = conf.getUseTransactionalCompaction() ? 1 : Math.max(1, conf.getCompactionThreads());
+        this.compactionExecutor = compactionThreads > 1
+                ? Executors.newFixedThreadPool(compactionThreads,
+                        new DefaultThreadFactory("GarbageCollectorCompaction"))
+                : null;
 
         this.throttler = new AbstractLogCompactor.Throttler(conf);
         if (minorCompactionInterval > 0 && minorCompactionThreshold > 0) {
@@ -421,7 +465,13 @@ public class GarbageCollectorThread implements Runnable {
 
             // Extract all of the ledger ID's that comprise all of the entry logs
             // (except for the current new one which is still being written to).
+            long extractStart = MathUtils.nowInNano();
             extractMetaFromEntryLogs();
+            if (!startupMetaExtracted) {
+                startupMetaExtracted = true;
+                gcStats.getStartupExtractMetaRuntime().registerSuccessfulEvent(
+                        MathUtils.nowInNano() - extractStart, TimeUnit.NANOSECONDS);
+            }
 
             // gc entry logs
             doGcEntryLogs();
@@ -547,7 +597,8 @@ public class GarbageCollectorThread implements Runnable {
      * Compact entry logs if necessary.
      *
      * <p>
-     * Compaction will be executed from low unused space to high unused space.
+     * Compaction will be executed in the order selected by the compaction policy, by default
+     * from low unused space to high unused space.
      * Those entry log files whose remaining size percentage is higher than threshold
      * would not be compacted.
      * </p>
@@ -558,12 +609,10 @@ public class GarbageCollectorThread implements Runnable {
 
         final int numBuckets = 10;
         int[] entryLogUsageBuckets = new int[numBuckets];
-        int[] compactedBuckets = new int[numBuckets];
+        AtomicIntegerArray compactedBuckets = new AtomicIntegerArray(numBuckets);
+        compactedEntryLogs.clear();
 
-        ArrayList<LinkedList<Long>> compactableBuckets = new ArrayList<>(numBuckets);
-        for (int i = 0; i < numBuckets; i++) {
-            compactableBuckets.add(new LinkedList<>());
-        }
+        List<CompactionPolicy.Candidate> candidates = new ArrayList<>();
 
         long start = System.currentTimeMillis();
         MutableLong end = new MutableLong(start);
@@ -589,25 +638,24 @@ public class GarbageCollectorThread implements Runnable {
                 return;
             }
 
-            compactableBuckets.get(bucketIndex).add(meta.getEntryLogId());
+            candidates.add(new CompactionPolicy.Candidate(meta.getEntryLogId(), meta.getTotalSize(),
+                    meta.getRemainingSize(), usage));
         });
 
         LOG.info(
                 "Compaction: entry log usage buckets before compaction [10% 20% 30% 40% 50% 60% 70% 80% 90% 100%] = {}",
                 entryLogUsageBuckets);
 
-        final int maxBucket = calculateUsageIndex(numBuckets, threshold);
-        int totalEntryLogIds = 0;
-        for (int currBucket = 0; currBucket <= maxBucket; currBucket++) {
-            totalEntryLogIds += compactableBuckets.get(currBucket).size();
-        }
+        List<CompactionPolicy.Candidate> selected = compactionPolicy.select(candidates);
+        int totalEntryLogIds = selected.size();
         long lastPrintTimestamp = 0;
         AtomicInteger processedEntryLogCnt = new AtomicInteger(0);
 
-        stopCompaction:
-        for (int currBucket = 0; currBucket <= maxBucket; currBucket++) {
-            LinkedList<Long> entryLogIds = compactableBuckets.get(currBucket);
-            while (!entryLogIds.isEmpty()) {
+        // The compaction workers run while the GC thread holds the compacting flag
+        boolean parallel = compactionExecutor != null && compacting.compareAndSet(false, true);
+        Semaphore workers = new Semaphore(compactionThreads);
+        try {
+            for (CompactionPolicy.Candidate candidate : selected) {
                 if (timeDiff.getValue() < maxTimeMillis) {
                     end.setValue(System.currentTimeMillis());
                     timeDiff.setValue(end.getValue() - start);
@@ -616,35 +664,38 @@ public class GarbageCollectorThread implements Runnable {
                 if ((maxTimeMillis > 0 && timeDiff.getValue() >= maxTimeMillis) || !running) {
                     // We allow the usage limit calculation to continue so that we get an accurate
                     // report of where the usage was prior to running compaction.
-                    break stopCompaction;
+                    break;
                 }
 
-                final int bucketIndex = currBucket;
-                final long logId = entryLogIds.remove();
+                final int bucketIndex = calculateUsageIndex(numBuckets, candidate.getUsage());
+                final long logId = candidate.getEntryLogId();
                 if (System.currentTimeMillis() - lastPrintTimestamp >= MINUTE) {
                     lastPrintTimestamp = System.currentTimeMillis();
                     LOG.info("Compaction progress {} / {}, current compaction entryLogId: {}",
                         processedEntryLogCnt.get(), totalEntryLogIds, logId);
                 }
-                entryLogMetaMap.forKey(logId, (entryLogId, meta) -> {
-                    if (meta == null) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Metadata for entry log {} already deleted", logId);
-                        }
-                        return;
-                    }
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Compacting entry log {} with usage {} below threshold {}",
-                                meta.getEntryLogId(), meta.getUsage(), threshold);
-                    }
+                if (!parallel) {
+                    compactEntryLog(logId, threshold, bucketIndex, compactedBuckets, processedEntryLogCnt, false);
+                    continue;
+                }
 
-                    long priorRemainingSize = meta.getRemainingSize();
-                    compactEntryLog(meta);
-                    gcStats.getReclaimedSpaceViaCompaction().addCount(meta.getTotalSize() - priorRemainingSize);
-                    compactedBuckets[bucketIndex]++;
-                    processedEntryLogCnt.getAndIncrement();
+                workers.acquireUninterruptibly();
+                compactionExecutor.execute(() -> {
+                    try {
+                        compactEntryLog(logId, threshold, bucketIndex, compactedBuckets, processedEntryLogCnt, true);
+                    } catch (EntryLogMetadataMapException e) {
+                        LOG.warn("Failed to compact entry log {}", logId, e);
+                    } finally {
+                        workers.release();
+                    }
                 });
             }
+        } finally {
+            if (parallel) {
+                // Wait for the workers to be done
+                workers.acquireUninterruptibly(compactionThreads);
+                compacting.set(false);
+            }
         }
 
         if (LOG.isDebugEnabled()) {
@@ -660,6 +711,41 @@ public class GarbageCollectorThread implements Runnable {
                 entryLogUsageBuckets, compactedBuckets);
     }
 
+    private void compactEntryLog(long logId, double threshold, int bucketIndex, AtomicIntegerArray compactedBuckets,
+                                 AtomicInteger processedEntryLogCnt, boolean parallel)
+            throws EntryLogMetadataMapException {
+        String worker = Thread.currentThread().getName();
+        compactingEntryLogs.put(worker, logId);
+        try {
+            entryLogMetaMap.forKey(logId, (entryLogId, meta) -> {
+                if (meta == null) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Metadata for entry log {} already deleted", logId);
+                    }
+                    return;
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Compacting entry log {} with usage {} below threshold {}",
+                            meta.getEntryLogId(), meta.getUsage(), threshold);
+                }
+
+                long priorRemainingSize = meta.getRemainingSize();
+                if (parallel) {
+                    doCompactEntryLog(meta);
+                } else {
+                    compactEntryLog(meta);
+                }
+                gcStats.getReclaimedSpaceViaCompaction().addCount(meta.getTotalSize() - priorRemainingSize);
+                gcStats.getCompactionCopiedBytes().addCount(priorRemainingSize);
+                compactedBuckets.incrementAndGet(bucketIndex);
+                processedEntryLogCnt.getAndIncrement();
+                compactedEntryLogs.merge(worker, 1L, Long::sum);
+            });
+        } finally {
+            compactingEntryLogs.remove(worker);
+        }
+    }
+
     /**
      * Calculate the index for the batch based on the usage between 0 and 1.
      *
@@ -695,6 +781,9 @@ public class GarbageCollectorThread implements Runnable {
 
         // Interrupt GC executor thread
         gcExecutor.shutdownNow();
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
         try {
             entryLogMetaMap.close();
         } catch (Exception e) {
@@ -737,14 +826,20 @@ public class GarbageCollectorThread implements Runnable {
             return;
         }
 
+        try {
+            doCompactEntryLog(entryLogMeta);
+        } finally {
+            // Mark compaction done
+            compacting.set(false);
+        }
+    }
+
+    private void doCompactEntryLog(EntryLogMetadata entryLogMeta) {
         try {
             // Do the actual compaction
             compactor.compact(entryLogMeta);
         } catch (Exception e) {
             LOG.error("Failed to compact entry log {} due to unexpected error", entryLogMeta.getEntryLogId(), e);
-        } finally {
-            // Mark compaction done
-            compacting.set(false);
         }
     }
 
@@ -772,6 +867,7 @@ public class GarbageCollectorThread implements Runnable {
             try {
                 // Read through the entry log file and extract the entry log meta
                 EntryLogMetadata entryLogMeta = entryLogger.getEntryLogMetadata(entryLogId, throttler);
+                gcStats.getExtractedEntryLogCounter().inc();
                 removeIfLedgerNotExists(entryLogMeta);
                 if (entryLogMeta.isEmpty()) {
                     // This means the entry log is not associated with any active
@@ -793,6 +889,22 @@ public class GarbageCollectorThread implements Runnable {
         }
     }
 
+    /**
+     * Add the metadata of an entry log which has just been flushed, maintained while writing it, so that
+     * {@link #extractMetaFromEntryLogs()} doesn't have to read it back from the entry log file.
+     */
+    private void addFlushedEntryLogMetadata(EntryLogMetadata entryLogMeta) {
+        if (!running) {
+            return;
+        }
+        try {
+            entryLogMetaMap.put(entryLogMeta.getEntryLogId(), entryLogMeta);
+        } catch (EntryLogMetadataMapException e) {
+            LOG.warn("Failed to add the metadata of flushed entry log {}, it will be extracted from the entry log",
+                    entryLogMeta.getEntryLogId(), e);
+        }
+    }
+
     CompactableLedgerStorage getLedgerStorage() {
         return ledgerStorage;
     }
@@ -811,6 +923,8 @@ public class GarbageCollectorThread implements Runnable {
             .lastMinorCompactionTime(lastMinorCompactionTime)
             .majorCompactionCounter(gcStats.getMajorCompactionCounter().get())
             .minorCompactionCounter(gcStats.getMinorCompactionCounter().get())
+            .compactingEntryLogs(new HashMap<>(compactingEntryLogs))
+            .compactedEntryLogs(new HashMap<>(compactedEntryLogs))
             .build();
     }
 }
@@ -0,0 +1,139 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link BufferedChannel} which does not copy the buffers passed to {@link #writeRetained(ByteBuf)}.
+ *
+ * <p>The buffers are retained, in order with the data copied in the write buffer in between, and they are all
+ * written to the {@link FileChannel} with a single gathering write on {@link #flush()}, after which they are
+ * released.
+ */
+class GatheringBufferedChannel extends BufferedChannel {
+    // Smaller buffers are cheaper to copy than to add to the gathering write
+    static final int MIN_RETAINED_SIZE = 1024;
+    // Flush once the gathering write reaches the usual IOV_MAX
+    static final int MAX_SEGMENTS = 1024;
+
+    // Slices of the write buffer and retained buffers, in the order they were written
+    private final List<ByteBuf> segments = new ArrayList<>();
+    // Index in the write buffer of the data not added to the segments yet
+    private int segmentStart = 0;
+    private long retainedBytes = 0;
+
+    GatheringBufferedChannel(ByteBufAllocator allocator, FileChannel fc, int capacity) throws IOException {
+        super(allocator, fc, capacity);
+    }
+
+    @Override
+    public void writeRetained(ByteBuf src) throws IOException {
+        int len = src.readableBytes();
+        if (len < MIN_RETAINED_SIZE || !src.isDirect() || doRegularFlushes()) {
+            write(src);
+            return;
+        }
+        synchronized (this) {
+            addWriteBufferSegment();
+            segments.add(src.retainedSlice());
+            retainedBytes += len;
+            position += len;
+            if (segments.size() >= MAX_SEGMENTS - 1) {
+                flush();
+            }
+        }
+    }
+
+    private void addWriteBufferSegment() {
+        int end = writeBuffer.writerIndex();
+        if (end > segmentStart) {
+            segments.add(writeBuffer.retainedSlice(segmentStart, end - segmentStart));
+            segmentStart = end;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (segments.isEmpty()) {
+            segmentStart = 0;
+            super.flush();
+            return;
+        }
+        addWriteBufferSegment();
+
+        List<ByteBuffer> buffers = new ArrayList<>(segments.size());
+        long remaining = 0;
+        for (ByteBuf segment : segments) {
+            Collections.addAll(buffers, segment.nioBuffers());
+            remaining += segment.readableBytes();
+        }
+        ByteBuffer[] srcs = buffers.toArray(new ByteBuffer[0]);
+        while (remaining > 0) {
+            remaining -= fileChannel.write(srcs);
+        }
+
+        releaseSegments();
+        writeBuffer.clear();
+        writeBufferStartPosition.set(fileChannel.position());
+    }
+
+    private void releaseSegments() {
+        segments.forEach(ByteBuf::release);
+        segments.clear();
+        segmentStart = 0;
+        retainedBytes = 0;
+    }
+
+    @Override
+    public synchronized int read(ByteBuf dest, long pos, int length) throws IOException {
+        if (!segments.isEmpty()) {
+            flush();
+        }
+        return super.read(dest, pos, length);
+    }
+
+    @Override
+    public synchronized void clear() {
+        releaseSegments();
+        super.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        releaseSegments();
+        super.close();
+    }
+
+    @Override
+    public synchronized int getNumOfBytesInWriteBuffer() {
+        return (int) (writeBuffer.readableBytes() + retainedBytes);
+    }
+}
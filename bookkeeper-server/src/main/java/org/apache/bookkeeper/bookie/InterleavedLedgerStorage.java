@@ -157,7 +157,7 @@ public class InterleavedLedgerStorage implements CompactableLedgerStorage, Entry
                 ledgerDirsManager,
                 indexDirsManager,
                 new DefaultEntryLogger(conf, ledgerDirsManager, entryLogListener, statsLogger.scope(ENTRYLOGGER_SCOPE),
-                        allocator),
+                        allocator, ledgerManager),
                 statsLogger);
     }
 
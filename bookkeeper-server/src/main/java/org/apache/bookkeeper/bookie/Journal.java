@@ -41,7 +41,9 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import org.apache.bookkeeper.bookie.LedgerDirsManager.NoWritableLedgerDirException;
 import org.apache.bookkeeper.bookie.stats.JournalStats;
@@ -307,10 +309,11 @@ public class Journal implements CheckpointSource {
 
         OpStatsLogger journalAddEntryStats;
         Counter callbackTime;
+        JournalGroupWaitController groupWaitController;
 
         static QueueEntry create(ByteBuf entry, boolean ackBeforeSync, long ledgerId, long entryId,
                 WriteCallback cb, Object ctx, long enqueueTime, OpStatsLogger journalAddEntryStats,
-                Counter callbackTime) {
+                Counter callbackTime, JournalGroupWaitController groupWaitController) {
             QueueEntry qe = RECYCLER.get();
             qe.entry = entry;
             qe.ackBeforeSync = ackBeforeSync;
@@ -321,6 +324,7 @@ public class Journal implements CheckpointSource {
             qe.enqueueTime = enqueueTime;
             qe.journalAddEntryStats = journalAddEntryStats;
             qe.callbackTime = callbackTime;
+            qe.groupWaitController = groupWaitController;
             return qe;
         }
 
@@ -330,7 +334,11 @@ public class Journal implements CheckpointSource {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Acknowledge Ledger: {}, Entry: {}", ledgerId, entryId);
             }
-            journalAddEntryStats.registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueTime), TimeUnit.NANOSECONDS);
+            long latencyNanos = MathUtils.elapsedNanos(enqueueTime);
+            journalAddEntryStats.registerSuccessfulEvent(latencyNanos, TimeUnit.NANOSECONDS);
+            if (groupWaitController != null) {
+                groupWaitController.recordAddLatency(latencyNanos);
+            }
             cb.writeComplete(0, ledgerId, entryId, null, ctx);
             callbackTime.addLatency(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
             recycle();
@@ -359,6 +367,7 @@ public class Journal implements CheckpointSource {
             this.ctx = null;
             this.journalAddEntryStats = null;
             this.callbackTime = null;
+            this.groupWaitController = null;
             recyclerHandle.recycle(this);
         }
     }
@@ -537,17 +546,32 @@ public class Journal implements CheckpointSource {
             threadToNotifyOnEx.accept(null);
         }
 
-        private void syncJournal(ForceWriteRequest lastRequest) throws IOException {
+        private void syncJournal(ForceWriteRequest lastRequest) throws IOException, InterruptedException {
+            final ForceWriteScheduler scheduler = enableGroupForceWrites ? forceWriteScheduler : null;
+            long group = 0;
+            if (scheduler != null) {
+                long waitStartTime = MathUtils.nowInNano();
+                group = scheduler.acquire();
+                journalStats.getForceWriteScheduleWaitStats()
+                        .registerSuccessfulEvent(MathUtils.elapsedNanos(waitStartTime), TimeUnit.NANOSECONDS);
+            }
             long fsyncStartTime = MathUtils.nowInNano();
             try {
                 lastRequest.flushFileToDisk();
-                journalStats.getJournalSyncStats().registerSuccessfulEvent(MathUtils.elapsedNanos(fsyncStartTime),
-                        TimeUnit.NANOSECONDS);
+                long fsyncNanos = MathUtils.elapsedNanos(fsyncStartTime);
+                journalStats.getJournalSyncStats().registerSuccessfulEvent(fsyncNanos, TimeUnit.NANOSECONDS);
+                if (groupWaitController != null) {
+                    groupWaitController.recordFsyncLatency(fsyncNanos);
+                }
                 lastLogMark.setCurLogMark(lastRequest.logId, lastRequest.lastFlushedPosition);
             } catch (IOException ioe) {
                 journalStats.getJournalSyncStats()
                         .registerFailedEvent(MathUtils.elapsedNanos(fsyncStartTime), TimeUnit.NANOSECONDS);
                 throw ioe;
+            } finally {
+                if (scheduler != null) {
+                    scheduler.release(group, MathUtils.elapsedNanos(fsyncStartTime));
+                }
             }
         }
 
@@ -602,11 +626,13 @@ public class Journal implements CheckpointSource {
     final FileChannelProvider fileChannelProvider;
 
     // Time after which we will stop grouping and issue the flush
-    private final long maxGroupWaitInNanos;
+    private volatile long maxGroupWaitInNanos;
     // Threshold after which we flush any buffered journal entries
-    private final long bufferedEntriesThreshold;
+    private volatile long bufferedEntriesThreshold;
     // Threshold after which we flush any buffered journal writes
-    private final long bufferedWritesThreshold;
+    private volatile long bufferedWritesThreshold;
+    // Adjusts the three values above to the add latency target, if any
+    private final JournalGroupWaitController groupWaitController;
     // should we flush if the queue is empty
     private final boolean flushWhenQueueEmpty;
     // should we hint the filesystem to remove pages from cache after force write
@@ -617,6 +643,8 @@ public class Journal implements CheckpointSource {
     private final long journalPageCacheFlushIntervalMSec;
     // Whether reuse journal files, it will use maxBackupJournal as the journal file pool.
     private final boolean journalReuseFiles;
+    private final boolean journalZeroCopyWrites;
+    private final boolean journalBlockCompression;
 
     // Should data be fsynced on disk before triggering the callback
     private final boolean syncData;
@@ -645,6 +673,13 @@ public class Journal implements CheckpointSource {
     private JournalAliveListener journalAliveListener;
 
     private MemoryLimitController memoryLimitController;
+    private final long journalMaxMemory;
+    private final boolean journalMemoryBackpressure;
+    // Completed when the memory usage goes back below the resume threshold, once an add has been rejected
+    private final AtomicReference<CompletableFuture<Void>> memoryAvailable = new AtomicReference<>();
+
+    // Scheduler of the force writes shared with the other journals on the same device, if any
+    private ForceWriteScheduler forceWriteScheduler;
 
 
     public Journal(int journalIndex, File journalDirectory, ServerConfiguration conf,
@@ -669,8 +704,9 @@ public class Journal implements CheckpointSource {
         }
 
         // Adjust the journal max memory in case there are multiple journals configured.
-        long journalMaxMemory = conf.getJournalMaxMemorySizeMb() / conf.getJournalDirNames().length * 1024 * 1024;
+        this.journalMaxMemory = conf.getJournalMaxMemorySizeMb() / conf.getJournalDirNames().length * 1024 * 1024;
         this.memoryLimitController = new MemoryLimitController(journalMaxMemory);
+        this.journalMemoryBackpressure = conf.getJournalMemoryBackpressure() && journalMaxMemory > 0;
         this.ledgerDirsManager = ledgerDirsManager;
         this.conf = conf;
         this.journalDirectory = journalDirectory;
@@ -684,10 +720,26 @@ public class Journal implements CheckpointSource {
         this.maxGroupWaitInNanos = TimeUnit.MILLISECONDS.toNanos(conf.getJournalMaxGroupWaitMSec());
         this.bufferedWritesThreshold = conf.getJournalBufferedWritesThreshold();
         this.bufferedEntriesThreshold = conf.getJournalBufferedEntriesThreshold();
-        this.journalFormatVersionToWrite = conf.getJournalFormatVersionToWrite();
+        if (conf.getJournalAddLatencyTargetUSec() > 0) {
+            this.groupWaitController = new JournalGroupWaitController(
+                    TimeUnit.MICROSECONDS.toNanos(conf.getJournalAddLatencyTargetUSec()),
+                    maxGroupWaitInNanos, bufferedEntriesThreshold, bufferedWritesThreshold);
+            this.maxGroupWaitInNanos = groupWaitController.getGroupWaitNanos();
+        } else {
+            this.groupWaitController = null;
+        }
+        if (conf.getJournalFormatVersionToWrite() >= JournalChannel.V7 && !conf.getJournalBlockFormatEnabled()) {
+            LOG.warn("Journal format version {} requires journalBlockFormatEnabled, writing version {} instead",
+                    conf.getJournalFormatVersionToWrite(), JournalChannel.V6);
+            this.journalFormatVersionToWrite = JournalChannel.V6;
+        } else {
+            this.journalFormatVersionToWrite = conf.getJournalFormatVersionToWrite();
+        }
         this.journalAlignmentSize = conf.getJournalAlignmentSize();
         this.journalPageCacheFlushIntervalMSec = conf.getJournalPageCacheFlushIntervalMSec();
         this.journalReuseFiles = conf.getJournalReuseFiles();
+        this.journalZeroCopyWrites = conf.getJournalZeroCopyWrites();
+        this.journalBlockCompression = conf.getJournalBlockCompression();
         this.callbackTime = journalStatsLogger.getThreadScopedCounter("callback-time");
 
         this.journalTime = journalStatsLogger.getThreadScopedCounter("journal-thread-time");
@@ -717,7 +769,8 @@ public class Journal implements CheckpointSource {
 
         // Expose Stats
         this.journalStats = new JournalStats(journalStatsLogger, journalMaxMemory,
-                () -> memoryLimitController.currentUsage());
+                () -> memoryLimitController.currentUsage(),
+                () -> maxGroupWaitInNanos, () -> bufferedEntriesThreshold, () -> bufferedWritesThreshold);
     }
 
     public Journal(int journalIndex, File journalDirectory, ServerConfiguration conf,
@@ -826,9 +879,12 @@ public class Journal implements CheckpointSource {
         try {
             ByteBuffer lenBuff = ByteBuffer.allocate(4);
             ByteBuffer recBuff = ByteBuffer.allocate(64 * 1024);
+            ByteBuffer blockHeaderBuff = ByteBuffer.allocate(JournalBlock.HEADER_SIZE);
+            // The sequence of the next block, unknown when resuming the scan past the first block
+            int nextBlockSequence = journalPos <= 0 ? 0 : -1;
             while (true) {
                 // entry start offset
-                long offset = recLog.fc.position();
+                long offset = recLog.position();
                 // start reading entry
                 lenBuff.clear();
                 fullRead(recLog, lenBuff);
@@ -841,6 +897,74 @@ public class Journal implements CheckpointSource {
                     break;
                 }
                 boolean isPaddingRecord = false;
+                if (len == JournalBlock.BLOCK_MASK && journalVersion >= JournalChannel.V7) {
+                    blockHeaderBuff.clear();
+                    blockHeaderBuff.putInt(len);
+                    fullRead(recLog, blockHeaderBuff);
+                    if (blockHeaderBuff.remaining() != 0) {
+                        break;
+                    }
+                    blockHeaderBuff.flip();
+                    int flags = blockHeaderBuff.getInt(4);
+                    long blockLogId = blockHeaderBuff.getLong(8);
+                    int blockSequence = blockHeaderBuff.getInt(16);
+                    int recordsLength = blockHeaderBuff.getInt(20);
+                    int payloadLength = blockHeaderBuff.getInt(24);
+                    int crc = blockHeaderBuff.getInt(28);
+                    if (recordsLength < 0 || payloadLength < 0) {
+                        throw new IOException("Invalid journal block found with length " + payloadLength);
+                    }
+                    if (offset + JournalBlock.HEADER_SIZE + payloadLength > recLog.fc.size()) {
+                        // A block header torn by a crash, where we left off writing
+                        break;
+                    }
+                    recBuff.clear();
+                    if (recBuff.remaining() < payloadLength) {
+                        recBuff = ByteBuffer.allocate(payloadLength);
+                    }
+                    recBuff.limit(payloadLength);
+                    if (fullRead(recLog, recBuff) != payloadLength) {
+                        break;
+                    }
+                    recBuff.flip();
+                    if (!JournalBlock.isValid(blockHeaderBuff, recBuff, crc)) {
+                        int followingSequence = nextBlockSequence < 0 ? -1 : nextBlockSequence + 1;
+                        if (!isValidBlockAt(recLog.fc, recLog.position(), journalId, followingSequence)) {
+                            // A block torn by a crash, where we left off writing
+                            LOG.warn("Journal block with invalid checksum found at offset {} of journal {}",
+                                    offset, journalId);
+                            break;
+                        }
+                        // Valid blocks of this journal follow, so this one is corrupted rather than torn
+                        if (!skipInvalidRecord) {
+                            throw new IOException("Journal block with invalid checksum found at offset " + offset
+                                    + " of journal " + journalId);
+                        }
+                        LOG.warn("Journal block with invalid checksum found at offset {} of journal {},"
+                                + " and skipInvalidRecord is true, skip this block", offset, journalId);
+                        nextBlockSequence = followingSequence;
+                        continue;
+                    }
+                    if (blockLogId != journalId || (nextBlockSequence >= 0 && blockSequence != nextBlockSequence)) {
+                        // A block left by the previous journal of a reused file, past where we left off writing
+                        LOG.info("Journal block {} of journal {} found at offset {} of journal {}, end of journal",
+                                blockSequence, Long.toHexString(blockLogId), offset, journalId);
+                        break;
+                    }
+                    nextBlockSequence = blockSequence + 1;
+                    ByteBuffer records = JournalBlock.decode(recBuff, flags, recordsLength);
+                    while (records.remaining() >= 4) {
+                        int recordLength = records.getInt();
+                        if (recordLength < 0 || recordLength > records.remaining()) {
+                            throw new IOException("Invalid record found in journal block with length " + recordLength);
+                        }
+                        ByteBuffer record = records.slice();
+                        record.limit(recordLength);
+                        scanner.process(journalVersion, offset, record);
+                        records.position(records.position() + recordLength);
+                    }
+                    continue;
+                }
                 if (len < 0) {
                     if (len == PADDING_MASK && journalVersion >= JournalChannel.V5) {
                         // skip padding bytes
@@ -875,19 +999,43 @@ public class Journal implements CheckpointSource {
                     scanner.process(journalVersion, offset, recBuff);
                 }
             }
-            return recLog.fc.position();
+            return recLog.position();
         } catch (IOException e) {
             if (skipInvalidRecord) {
                 LOG.warn("Failed to parse journal file, and skipInvalidRecord is true, skip this journal file reply");
             } else {
                 throw e;
             }
-            return recLog.fc.position();
+            return recLog.position();
         } finally {
             recLog.close();
         }
     }
 
+    /**
+     * Reject an add if the memory budget of the journal is exhausted, when journalMemoryBackpressure is set,
+     * rather than blocking in {@link #logAddEntry} until there is memory available.
+     */
+    void checkMemoryAvailable() throws BookieException.JournalThrottledException {
+        if (!journalMemoryBackpressure || memoryLimitController.currentUsage() <= journalMaxMemory) {
+            return;
+        }
+        CompletableFuture<Void> future = memoryAvailable.updateAndGet(f -> f != null ? f : new CompletableFuture<>());
+        // The journal may have released the memory before the future was set
+        signalMemoryAvailable();
+        throw new BookieException.JournalThrottledException(future);
+    }
+
+    private void signalMemoryAvailable() {
+        // Resume below three quarters of the budget, to not flip back and forth at the limit
+        if (memoryLimitController.currentUsage() <= journalMaxMemory / 4 * 3) {
+            CompletableFuture<Void> future = memoryAvailable.getAndSet(null);
+            if (future != null) {
+                future.complete(null);
+            }
+        }
+    }
+
     /**
      * record an add entry operation in journal.
      */
@@ -912,7 +1060,7 @@ public class Journal implements CheckpointSource {
         queue.put(QueueEntry.create(
                 entry, ackBeforeSync, ledgerId, entryId, cb, ctx, MathUtils.nowInNano(),
                 journalStats.getJournalAddEntryStats(),
-                callbackTime));
+                callbackTime, groupWaitController));
     }
 
     void forceLedger(long ledgerId, WriteCallback cb, Object ctx) {
@@ -920,7 +1068,7 @@ public class Journal implements CheckpointSource {
                 null, false /* ackBeforeSync */, ledgerId,
                 BookieImpl.METAENTRY_ID_FORCE_LEDGER, cb, ctx, MathUtils.nowInNano(),
                 journalStats.getJournalForceLedgerStats(),
-                callbackTime));
+                callbackTime, null));
         // Increment afterwards because the add operation could fail.
         journalStats.getJournalQueueSize().inc();
     }
@@ -974,6 +1122,9 @@ public class Journal implements CheckpointSource {
         ByteBuf lenBuff = Unpooled.buffer(4);
         ByteBuf paddingBuff = Unpooled.buffer(2 * conf.getJournalAlignmentSize());
         paddingBuff.writeZero(paddingBuff.capacity());
+        // Since V7, the records written together are grouped in a block
+        JournalBlock block = journalFormatVersionToWrite >= JournalChannel.V7
+                ? new JournalBlock(allocator, journalWriteBufferSize, journalBlockCompression) : null;
 
         BufferedChannel bc = null;
         JournalChannel logFile = null;
@@ -981,6 +1132,8 @@ public class Journal implements CheckpointSource {
         Stopwatch journalCreationWatcher = Stopwatch.createUnstarted();
         Stopwatch journalFlushWatcher = Stopwatch.createUnstarted();
         long batchSize = 0;
+        // Memory of the entries held by the buffered channel until its next flush
+        long retainedMemory = 0;
         try {
             List<Long> journalIds = listJournalIds(journalDirectory, null);
             // Should not use MathUtils.now(), which use System.nanoTime() and
@@ -1015,6 +1168,9 @@ public class Journal implements CheckpointSource {
                             journalCreationWatcher.stop().elapsed(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
 
                     bc = logFile.getBufferedChannel();
+                    if (block != null) {
+                        block.startLog(logId);
+                    }
 
                     lastFlushPosition = bc.position();
                 }
@@ -1047,6 +1203,12 @@ public class Journal implements CheckpointSource {
 
                     dequeueStartTime = MathUtils.nowInNano();
 
+                    if (groupWaitController != null && groupWaitController.update(dequeueStartTime)) {
+                        maxGroupWaitInNanos = groupWaitController.getGroupWaitNanos();
+                        bufferedEntriesThreshold = groupWaitController.getBufferedEntriesThreshold();
+                        bufferedWritesThreshold = groupWaitController.getBufferedWritesThreshold();
+                    }
+
                     if (localQueueEntriesLen > 0) {
                         qe = localQueueEntries[localQueueEntriesIdx];
                         localQueueEntries[localQueueEntriesIdx++] = null;
@@ -1074,7 +1236,8 @@ public class Journal implements CheckpointSource {
                         journalStats.getFlushMaxWaitCounter().inc();
                     } else if (qe != null
                             && ((bufferedEntriesThreshold > 0 && toFlush.size() > bufferedEntriesThreshold)
-                            || (bc.position() > lastFlushPosition + bufferedWritesThreshold))) {
+                            || (bc.position() + (block != null ? block.size() : 0)
+                                > lastFlushPosition + bufferedWritesThreshold))) {
                         // 2. If we have buffered more than the buffWriteThreshold or bufferedEntriesThreshold
                         groupWhenTimeout = false;
                         shouldFlush = true;
@@ -1091,11 +1254,21 @@ public class Journal implements CheckpointSource {
 
                     // toFlush is non null and not empty so should be safe to access getFirst
                     if (shouldFlush) {
+                        if (block != null && !block.isEmpty()) {
+                            block.writeTo(logFile);
+                        }
                         if (journalFormatVersionToWrite >= JournalChannel.V5) {
                             writePaddingBytes(logFile, paddingBuff, journalAlignmentSize);
                         }
                         journalFlushWatcher.reset().start();
                         bc.flush();
+                        if (retainedMemory > 0) {
+                            memoryLimitController.releaseMemory(retainedMemory);
+                            retainedMemory = 0;
+                            if (memoryAvailable.get() != null) {
+                                signalMemoryAvailable();
+                            }
+                        }
 
                         for (int i = 0; i < toFlush.size(); i++) {
                             QueueEntry entry = toFlush.get(i);
@@ -1193,19 +1366,35 @@ public class Journal implements CheckpointSource {
                     journalStats.getJournalWriteBytes().addCount(entrySize);
 
                     batchSize += (4 + entrySize);
+                    if (groupWaitController != null) {
+                        groupWaitController.recordAdd(4 + entrySize);
+                    }
 
-                    lenBuff.clear();
-                    lenBuff.writeInt(entrySize);
+                    if (block != null) {
+                        block.add(qe.entry);
+                        if (block.size() >= journalWriteBufferSize) {
+                            block.writeTo(logFile);
+                        }
+                        memoryLimitController.releaseMemory(entrySize);
+                    } else {
+                        lenBuff.clear();
+                        lenBuff.writeInt(entrySize);
 
-                    // preAlloc based on size
-                    logFile.preAllocIfNeeded(4 + entrySize);
+                        // preAlloc based on size
+                        logFile.preAllocIfNeeded(4 + entrySize);
 
-                    bc.write(lenBuff);
-                    bc.write(qe.entry);
-                    memoryLimitController.releaseMemory(qe.entry.readableBytes());
+                        bc.write(lenBuff);
+                        bc.writeRetained(qe.entry);
+                        // The channel may keep the entry, rather than a copy, until the next flush
+                        retainedMemory += entrySize;
+                    }
                     ReferenceCountUtil.release(qe.entry);
                 }
 
+                if (memoryAvailable.get() != null) {
+                    signalMemoryAvailable();
+                }
+
                 toFlush.add(qe);
                 numEntriesToFlush++;
 
@@ -1228,6 +1417,10 @@ public class Journal implements CheckpointSource {
             // close will flush the file system cache making any previous
             // cached writes durable so this is fine as well.
             IOUtils.close(LOG, bc);
+            memoryLimitController.releaseMemory(retainedMemory);
+            if (block != null) {
+                block.release();
+            }
             if (journalAliveListener != null) {
                 journalAliveListener.onJournalExit();
             }
@@ -1236,7 +1429,19 @@ public class Journal implements CheckpointSource {
     }
 
     public BufferedChannelBuilder getBufferedChannelBuilder() {
-        return (FileChannel fc, int capacity) -> new BufferedChannel(allocator, fc, capacity);
+        if (journalZeroCopyWrites) {
+            return (FileChannel fc, int capacity) -> new GatheringBufferedChannel(channelAllocator(fc), fc, capacity);
+        }
+        return (FileChannel fc, int capacity) -> new BufferedChannel(channelAllocator(fc), fc, capacity);
+    }
+
+    /**
+     * @return the allocator of the write buffer of the given channel
+     */
+    private ByteBufAllocator channelAllocator(FileChannel fc) {
+        // A direct I/O channel writes an aligned buffer without copying it
+        return fc instanceof DirectIOFileChannel.AlignedFileChannel
+                ? DirectIOFileChannel.alignedAllocator(allocator) : allocator;
     }
 
     /**
@@ -1264,6 +1469,66 @@ public class Journal implements CheckpointSource {
         }
     }
 
+    /**
+     * Whether a valid block of the given journal starts at the given position, after the padding records if any.
+     *
+     * @param sequence the expected sequence of the block, or -1 if unknown
+     */
+    private static boolean isValidBlockAt(FileChannel fc, long position, long logId, int sequence)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JournalBlock.HEADER_SIZE);
+        while (true) {
+            header.clear();
+            header.limit(8);
+            if (fullRead(fc, header, position) != 8) {
+                return false;
+            }
+            int len = header.getInt(0);
+            if (len == PADDING_MASK) {
+                int paddingLength = header.getInt(4);
+                if (paddingLength < 0) {
+                    return false;
+                }
+                position += 8 + paddingLength;
+                continue;
+            }
+            if (len != JournalBlock.BLOCK_MASK) {
+                return false;
+            }
+            header.limit(JournalBlock.HEADER_SIZE);
+            if (fullRead(fc, header, position + 8) != JournalBlock.HEADER_SIZE - 8) {
+                return false;
+            }
+            if (header.getLong(8) != logId || (sequence >= 0 && header.getInt(16) != sequence)) {
+                return false;
+            }
+            int payloadLength = header.getInt(24);
+            int crc = header.getInt(28);
+            if (payloadLength < 0 || position + JournalBlock.HEADER_SIZE + payloadLength > fc.size()) {
+                return false;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+            if (fullRead(fc, payload, position + JournalBlock.HEADER_SIZE) != payloadLength) {
+                return false;
+            }
+            payload.flip();
+            header.flip();
+            return JournalBlock.isValid(header, payload, crc);
+        }
+    }
+
+    private static int fullRead(FileChannel fc, ByteBuffer bb, long position) throws IOException {
+        int total = 0;
+        while (bb.remaining() > 0) {
+            int rc = fc.read(bb, position + total);
+            if (rc <= 0) {
+                return total;
+            }
+            total += rc;
+        }
+        return total;
+    }
+
     private static int fullRead(JournalChannel fc, ByteBuffer bb) throws IOException {
         int total = 0;
         while (bb.remaining() > 0) {
@@ -1305,6 +1570,14 @@ public class Journal implements CheckpointSource {
         return memoryLimitController.currentUsage();
     }
 
+    /**
+     * Share the scheduling of the force writes with the other journals stored on the same device.
+     * Must be set before the journal is started.
+     */
+    void setForceWriteScheduler(ForceWriteScheduler forceWriteScheduler) {
+        this.forceWriteScheduler = forceWriteScheduler;
+    }
+
     @VisibleForTesting
     void setMemoryLimitController(MemoryLimitController memoryLimitController) {
         this.memoryLimitController = memoryLimitController;
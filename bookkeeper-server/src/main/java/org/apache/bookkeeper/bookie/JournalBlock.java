@@ -0,0 +1,172 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import com.scurrilous.circe.checksum.Crc32cIntChecksum;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * A block of journal records, written since {@link JournalChannel#V7}.
+ *
+ * <p>The records written together are grouped in a block, checksummed once and optionally compressed:
+ * <pre>
+ * [BLOCK_MASK:int][flags:int][logId:long][sequence:int][recordsLength:int][payloadLength:int][crc32c:int][payload]
+ * </pre>
+ *
+ * <p>The records are the usual [length:int][entry] records. When the block is compressed, the payload is the LZ4
+ * block of the records, whose length is in the header.
+ *
+ * <p>The blocks of a journal file are numbered from 0, and the checksum covers the header fields from the flags
+ * on as well as the payload. A reused journal file may still hold the blocks of its previous journal past the
+ * end of the new one: they are told apart by their log id and sequence.
+ */
+final class JournalBlock {
+    static final int BLOCK_MASK = -0x200;
+    static final int HEADER_SIZE = 32;
+    // Offset of the fields covered by the checksum, along with the payload
+    static final int CHECKSUMMED_HEADER_OFFSET = 4;
+    static final int CHECKSUMMED_HEADER_SIZE = 24;
+    static final int FLAG_COMPRESSED = 0x1;
+
+    // Native implementation when available, otherwise the fastest Java one
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+    private static final LZ4Compressor COMPRESSOR = LZ4_FACTORY.fastCompressor();
+    private static final LZ4FastDecompressor DECOMPRESSOR = LZ4_FACTORY.fastDecompressor();
+
+    private final ByteBuf records;
+    private final ByteBuf compressed;
+    private final ByteBuf header;
+    private final boolean compress;
+    private long logId;
+    private int sequence;
+
+    JournalBlock(ByteBufAllocator allocator, int capacity, boolean compress) {
+        this.records = allocator.directBuffer(capacity);
+        this.compressed = compress ? allocator.directBuffer(COMPRESSOR.maxCompressedLength(capacity)) : null;
+        this.header = allocator.directBuffer(HEADER_SIZE);
+        this.compress = compress;
+    }
+
+    /**
+     * Start numbering the blocks of a new journal file.
+     */
+    void startLog(long logId) {
+        this.logId = logId;
+        this.sequence = 0;
+    }
+
+    void add(ByteBuf entry) {
+        records.writeInt(entry.readableBytes());
+        records.writeBytes(entry, entry.readerIndex(), entry.readableBytes());
+    }
+
+    int size() {
+        return records.readableBytes();
+    }
+
+    boolean isEmpty() {
+        return records.readableBytes() == 0;
+    }
+
+    /**
+     * Write the block to the journal channel and start a new one.
+     */
+    void writeTo(JournalChannel jc) throws IOException {
+        ByteBuf payload = records;
+        int flags = 0;
+        if (compress) {
+            int recordsLength = records.readableBytes();
+            int maxLength = COMPRESSOR.maxCompressedLength(recordsLength);
+            compressed.clear();
+            compressed.ensureWritable(maxLength);
+            ByteBuffer src = records.nioBuffer(records.readerIndex(), recordsLength);
+            ByteBuffer dest = compressed.nioBuffer(0, maxLength);
+            int compressedLength = COMPRESSOR.compress(src, src.position(), recordsLength,
+                    dest, dest.position(), maxLength);
+            compressed.writerIndex(compressedLength);
+            if (compressedLength < recordsLength) {
+                payload = compressed;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+
+        header.clear();
+        header.writeInt(BLOCK_MASK);
+        header.writeInt(flags);
+        header.writeLong(logId);
+        header.writeInt(sequence++);
+        header.writeInt(records.readableBytes());
+        header.writeInt(payload.readableBytes());
+        int crc = Crc32cIntChecksum.computeChecksum(header, CHECKSUMMED_HEADER_OFFSET, CHECKSUMMED_HEADER_SIZE);
+        header.writeInt(Crc32cIntChecksum.resumeChecksum(crc, payload));
+
+        jc.preAllocIfNeeded(HEADER_SIZE + payload.readableBytes());
+        jc.bc.write(header);
+        jc.bc.write(payload);
+        records.clear();
+    }
+
+    void release() {
+        ReferenceCountUtil.release(records);
+        ReferenceCountUtil.release(compressed);
+        ReferenceCountUtil.release(header);
+    }
+
+    /**
+     * @param header the header of the block, from its start
+     */
+    static boolean isValid(ByteBuffer header, ByteBuffer payload, int crc) {
+        int headerCrc = Crc32cIntChecksum.computeChecksum(Unpooled.wrappedBuffer(header.duplicate()),
+                CHECKSUMMED_HEADER_OFFSET, CHECKSUMMED_HEADER_SIZE);
+        return Crc32cIntChecksum.resumeChecksum(headerCrc, Unpooled.wrappedBuffer(payload.duplicate())) == crc;
+    }
+
+    /**
+     * @return the records of a block, given its verified payload
+     */
+    static ByteBuffer decode(ByteBuffer payload, int flags, int recordsLength) throws IOException {
+        if ((flags & FLAG_COMPRESSED) == 0) {
+            return payload;
+        }
+        ByteBuffer out = ByteBuffer.allocate(recordsLength);
+        int read;
+        try {
+            read = DECOMPRESSOR.decompress(payload, payload.position(), out, 0, recordsLength);
+        } catch (LZ4Exception e) {
+            throw new IOException("Invalid compressed journal block", e);
+        }
+        if (read != payload.remaining()) {
+            throw new IOException("Invalid compressed journal block of " + payload.remaining()
+                    + " bytes, " + read + " bytes decompressed into " + recordsLength + " bytes of records");
+        }
+        return out;
+    }
+}
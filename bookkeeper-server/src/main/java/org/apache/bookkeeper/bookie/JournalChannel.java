@@ -69,11 +69,15 @@ class JournalChannel implements Closeable {
     static final int V5 = 5;
     // Adding explicit lac entry
     public static final int V6 = 6;
+    // Grouping records in blocks with a checksum and optional compression
+    static final int V7 = 7;
 
     static final int HEADER_SIZE = SECTOR_SIZE; // align header to sector size
     static final int VERSION_HEADER_SIZE = 8; // 4byte magic word, 4 byte version
     static final int MIN_COMPAT_JOURNAL_FORMAT_VERSION = V1;
     static final int CURRENT_JOURNAL_FORMAT_VERSION = V6;
+    // V7 is only written when journalBlockFormatEnabled is set, but always read
+    static final int MAX_JOURNAL_FORMAT_VERSION = V7;
 
     private final long preAllocSize;
     private final int journalAlignSize;
@@ -83,6 +87,9 @@ class JournalChannel implements Closeable {
     // The position of the file channel's last drop position
     private long lastDropPosition = 0L;
 
+    // Read-ahead buffer of a read only channel, so that the small reads of a journal scan are not all system calls
+    private ByteBuffer readBuffer;
+
     final ServerConfiguration configuration;
 
     // Mostly used by tests
@@ -156,7 +163,6 @@ class JournalChannel implements Closeable {
         this.journalAlignSize = journalAlignSize;
         this.zeros = ByteBuffer.allocate(journalAlignSize);
         this.preAllocSize = preAllocSize - preAllocSize % journalAlignSize;
-        this.fRemoveFromPageCache = fRemoveFromPageCache;
         this.configuration = conf;
 
         boolean reuseFile = false;
@@ -170,6 +176,8 @@ class JournalChannel implements Closeable {
             }
         }
         channel = provider.open(fn, configuration);
+        // Nothing to remove from the page cache when it is bypassed
+        this.fRemoveFromPageCache = fRemoveFromPageCache && !channel.isDirectIO();
 
         if (formatVersionToWrite < V4) {
             throw new IOException("Invalid journal format to write : version = " + formatVersionToWrite);
@@ -193,6 +201,8 @@ class JournalChannel implements Closeable {
         } else {  // open an existing file to read.
             fc = channel.getFileChannel();
             bc = null; // readonly
+            readBuffer = ByteBuffer.allocate(writeBufferSize);
+            readBuffer.flip();
 
             ByteBuffer bb = ByteBuffer.allocate(VERSION_HEADER_SIZE);
             int c = fc.read(bb);
@@ -214,10 +224,10 @@ class JournalChannel implements Closeable {
             }
 
             if (formatVersion < MIN_COMPAT_JOURNAL_FORMAT_VERSION
-                || formatVersion > CURRENT_JOURNAL_FORMAT_VERSION) {
+                || formatVersion > MAX_JOURNAL_FORMAT_VERSION) {
                 String err = String.format("Invalid journal version, unable to read."
                         + " Expected between (%d) and (%d), got (%d)",
-                        MIN_COMPAT_JOURNAL_FORMAT_VERSION, CURRENT_JOURNAL_FORMAT_VERSION,
+                        MIN_COMPAT_JOURNAL_FORMAT_VERSION, MAX_JOURNAL_FORMAT_VERSION,
                         formatVersion);
                 LOG.error(err);
                 throw new IOException(err);
@@ -240,7 +250,7 @@ class JournalChannel implements Closeable {
                 throw e;
             }
         }
-        if (fRemoveFromPageCache) {
+        if (this.fRemoveFromPageCache) {
             this.fd = PageCacheUtil.getSysFileDescriptor(channel.getFD());
         } else {
             this.fd = -1;
@@ -261,7 +271,7 @@ class JournalChannel implements Closeable {
         bc = bcBuilder.create(fc, writeBufferSize);
         forceWrite(true);
         nextPrealloc = this.preAllocSize;
-        fc.write(zeros, nextPrealloc - journalAlignSize);
+        preAllocate();
     }
 
     public static void renameJournalFile(File source, File target) throws IOException {
@@ -285,6 +295,12 @@ class JournalChannel implements Closeable {
     void preAllocIfNeeded(long size) throws IOException {
         if (bc.position() + size > nextPrealloc) {
             nextPrealloc += preAllocSize;
+            preAllocate();
+        }
+    }
+
+    private void preAllocate() throws IOException {
+        if (!channel.preallocate(nextPrealloc - preAllocSize, preAllocSize)) {
             zeros.clear();
             fc.write(zeros, nextPrealloc - journalAlignSize);
         }
@@ -292,7 +308,36 @@ class JournalChannel implements Closeable {
 
     int read(ByteBuffer dst)
             throws IOException {
-        return fc.read(dst);
+        if (readBuffer == null || readBuffer.capacity() == 0) {
+            return fc.read(dst);
+        }
+        if (!readBuffer.hasRemaining()) {
+            if (dst.remaining() >= readBuffer.capacity()) {
+                return fc.read(dst);
+            }
+            readBuffer.clear();
+            int read = fc.read(readBuffer);
+            readBuffer.flip();
+            if (read <= 0) {
+                return read;
+            }
+        }
+        int len = Math.min(dst.remaining(), readBuffer.remaining());
+        ByteBuffer src = readBuffer.duplicate();
+        src.limit(src.position() + len);
+        dst.put(src);
+        readBuffer.position(readBuffer.position() + len);
+        return len;
+    }
+
+    /**
+     * @return the position of the next byte to be read, or written
+     */
+    long position() throws IOException {
+        if (readBuffer == null) {
+            return fc.position();
+        }
+        return fc.position() - readBuffer.remaining();
     }
 
     @Override
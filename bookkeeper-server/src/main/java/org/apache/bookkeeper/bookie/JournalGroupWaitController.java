@@ -0,0 +1,134 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adjusts the grouping window and the batch thresholds of a journal to meet a p99 add latency target.
+ *
+ * <p>The latency of an add is roughly the time it waits for its group to be flushed, plus the time waiting for the
+ * fsync in progress, plus its own fsync. The grouping window is thus bounded by the target minus twice the measured
+ * fsync latency. Within this bound, the window follows an additive increase, multiplicative decrease feedback on the
+ * fraction of the adds above the target, settling on the largest window which meets the target for 99% of the adds.
+ *
+ * <p>The thresholds are the number of entries and bytes expected to be added during the window at the observed add
+ * rate, so that a burst is flushed without waiting for the window to elapse.
+ *
+ * <p>The window and the thresholds are only updated by the journal thread, while the latencies are recorded by the
+ * threads acknowledging the adds and by the force write thread.
+ */
+class JournalGroupWaitController {
+    static final long UPDATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Fraction of the adds allowed above the latency target
+    private static final double TAIL_FRACTION = 0.01;
+    private static final long MIN_GROUP_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MIN_BUFFERED_WRITES = 4096;
+    private static final long MAX_BUFFERED_WRITES = 16 * 1024 * 1024;
+
+    private final long latencyTargetNanos;
+
+    private final LongAdder completedAdds = new LongAdder();
+    private final LongAdder slowAdds = new LongAdder();
+    private final FsyncLatencyEstimator fsyncLatency = new FsyncLatencyEstimator();
+
+    // Journal thread only
+    private long addedEntries = 0;
+    private long addedBytes = 0;
+    private long lastUpdateNanos;
+
+    private volatile long groupWaitNanos;
+    private volatile long bufferedEntriesThreshold;
+    private volatile long bufferedWritesThreshold;
+
+    JournalGroupWaitController(long latencyTargetNanos, long groupWaitNanos, long bufferedEntriesThreshold,
+                               long bufferedWritesThreshold) {
+        this.latencyTargetNanos = latencyTargetNanos;
+        this.groupWaitNanos = Math.max(MIN_GROUP_WAIT_NANOS, Math.min(groupWaitNanos, latencyTargetNanos));
+        this.bufferedEntriesThreshold = bufferedEntriesThreshold;
+        this.bufferedWritesThreshold = bufferedWritesThreshold;
+        this.lastUpdateNanos = System.nanoTime();
+    }
+
+    void recordAdd(long bytes) {
+        addedEntries++;
+        addedBytes += bytes;
+    }
+
+    void recordAddLatency(long latencyNanos) {
+        completedAdds.increment();
+        if (latencyNanos > latencyTargetNanos) {
+            slowAdds.increment();
+        }
+    }
+
+    void recordFsyncLatency(long latencyNanos) {
+        fsyncLatency.record(latencyNanos);
+    }
+
+    /**
+     * Update the grouping window and the thresholds, once per {@link #UPDATE_INTERVAL_NANOS}.
+     *
+     * @return whether they were updated
+     */
+    boolean update(long nowNanos) {
+        long elapsed = nowNanos - lastUpdateNanos;
+        if (elapsed < UPDATE_INTERVAL_NANOS) {
+            return false;
+        }
+        long completed = completedAdds.sumThenReset();
+        long slow = slowAdds.sumThenReset();
+
+        long maxWait = Math.max(MIN_GROUP_WAIT_NANOS, latencyTargetNanos - 2 * fsyncLatency.getLatencyNanos());
+        long wait = groupWaitNanos;
+        if (completed > 0 && slow > completed * TAIL_FRACTION) {
+            wait /= 2;
+        } else {
+            wait += maxWait / 8;
+        }
+        wait = Math.max(MIN_GROUP_WAIT_NANOS, Math.min(wait, maxWait));
+
+        groupWaitNanos = wait;
+        bufferedEntriesThreshold = Math.max(1, addedEntries * wait / elapsed);
+        bufferedWritesThreshold = Math.max(MIN_BUFFERED_WRITES,
+                Math.min(MAX_BUFFERED_WRITES, (long) ((double) addedBytes * wait / elapsed)));
+
+        addedEntries = 0;
+        addedBytes = 0;
+        lastUpdateNanos = nowNanos;
+        return true;
+    }
+
+    long getGroupWaitNanos() {
+        return groupWaitNanos;
+    }
+
+    long getBufferedEntriesThreshold() {
+        return bufferedEntriesThreshold;
+    }
+
+    long getBufferedWritesThreshold() {
+        return bufferedWritesThreshold;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.bookie.stats.BookieStats;
+import org.apache.bookkeeper.common.util.MemoryLimitController;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays the journals on bookie startup.
+ *
+ * <p>The replay is a pipeline: each journal directory is read and decoded by its own thread, and the records are
+ * applied to the ledger storage by a pool of replay threads (see {@link ServerConfiguration#getJournalReplayThreads}).
+ * The records are sharded across the replay threads by ledger id, so that the records of a ledger are still applied
+ * in the journal order. At most journalMaxMemorySizeMb of records wait to be applied.
+ *
+ * <p>The last log mark of a journal is only moved past a journal file once all its records are applied.
+ */
+class JournalReplayer {
+    private static final Logger LOG = LoggerFactory.getLogger(JournalReplayer.class);
+
+    private static final long PROGRESS_LOG_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private final ServerConfiguration conf;
+    private final List<Journal> journals;
+    private final JournalScanner scanner;
+    private final BookieStats bookieStats;
+    private final StateManager stateManager;
+    private final MemoryLimitController memoryLimitController;
+
+    private long bytesToReplay;
+    private long replayedBytes = 0;
+    private long lastProgressLogTime;
+
+    JournalReplayer(ServerConfiguration conf, List<Journal> journals, JournalScanner scanner,
+                    BookieStats bookieStats, StateManager stateManager) {
+        this.conf = conf;
+        this.journals = journals;
+        this.scanner = scanner;
+        this.bookieStats = bookieStats;
+        this.stateManager = stateManager;
+        this.memoryLimitController = new MemoryLimitController(conf.getJournalMaxMemorySizeMb() * 1024 * 1024);
+    }
+
+    void replay() throws IOException {
+        List<List<Long>> journalLogs = new ArrayList<>();
+        for (Journal journal : journals) {
+            journalLogs.add(listLogsToReplay(journal));
+        }
+        stateManager.setJournalReplayProgress(0);
+        lastProgressLogTime = System.currentTimeMillis();
+
+        int numThreads = conf.getJournalReplayThreads();
+        OrderedExecutor replayExecutor = numThreads <= 0 ? null : OrderedExecutor.newBuilder()
+                .name("BookieJournalReplay")
+                .numThreads(numThreads)
+                .build();
+        ExecutorService scanExecutor = Executors.newFixedThreadPool(journals.size(),
+                new DefaultThreadFactory("BookieJournalScan"));
+        try {
+            List<Future<?>> scans = new ArrayList<>();
+            for (int i = 0; i < journals.size(); i++) {
+                Journal journal = journals.get(i);
+                List<Long> logs = journalLogs.get(i);
+                scans.add(scanExecutor.submit(() -> {
+                    replay(journal, logs, replayExecutor);
+                    return null;
+                }));
+            }
+            for (Future<?> scan : scans) {
+                scan.get();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while replaying journals", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new IOException(ee.getCause());
+        } finally {
+            scanExecutor.shutdownNow();
+            if (replayExecutor != null) {
+                replayExecutor.shutdown();
+            }
+        }
+        stateManager.setJournalReplayProgress(100);
+    }
+
+    /**
+     * List the journal files to replay, from the last log mark on, and count the bytes to replay.
+     */
+    private List<Long> listLogsToReplay(Journal journal) throws IOException {
+        final LogMark markedLog = journal.getLastLogMark().getCurMark();
+        List<Long> logs = Journal.listJournalIds(journal.getJournalDirectory(), journalId ->
+            journalId >= markedLog.getLogFileId());
+        // last log mark may be missed due to no sync up before
+        // validate filtered log ids only when we have markedLogId
+        if (markedLog.getLogFileId() > 0) {
+            if (logs.size() == 0 || logs.get(0) != markedLog.getLogFileId()) {
+                String path = journal.getJournalDirectory().getAbsolutePath();
+                throw new IOException("Recovery log " + markedLog.getLogFileId() + " is missing at " + path);
+            }
+        }
+        for (Long id : logs) {
+            bytesToReplay += Math.max(0, journalFile(journal, id).length() - startPosition(markedLog, id));
+        }
+        return logs;
+    }
+
+    /**
+     * Replay journal files and updates journal's in-memory lastLogMark object.
+     */
+    private void replay(Journal journal, List<Long> logs, OrderedExecutor replayExecutor) throws IOException {
+        final LogMark markedLog = journal.getLastLogMark().getCurMark();
+        for (Long id : logs) {
+            long logPosition = startPosition(markedLog, id);
+            long logBytes = Math.max(0, journalFile(journal, id).length() - logPosition);
+            LOG.info("Replaying journal {} from position {}", id, logPosition);
+
+            JournalFileReplay fileReplay = new JournalFileReplay(logPosition, replayExecutor);
+            long scanOffset = journal.scanJournal(id, logPosition, fileReplay,
+                    conf.isSkipReplayJournalInvalidRecord());
+            fileReplay.awaitApplied();
+            // Account for the padding and the preallocated end of the file
+            progress(logBytes - fileReplay.scannedBytes);
+
+            // Update LastLogMark after completely replaying journal
+            // scanOffset will point to EOF position
+            // After LedgerStorage flush, SyncThread should persist this to disk
+            journal.setLastLogMark(id, scanOffset);
+        }
+    }
+
+    private static long startPosition(LogMark markedLog, long logId) {
+        return logId == markedLog.getLogFileId() ? markedLog.getLogFileOffset() : 0L;
+    }
+
+    private static File journalFile(Journal journal, long logId) {
+        return new File(journal.getJournalDirectory(), Long.toHexString(logId) + ".txn");
+    }
+
+    private synchronized void progress(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        bookieStats.getJournalReplayBytes().addCount(bytes);
+        replayedBytes += bytes;
+        double percent = bytesToReplay > 0 ? Math.min(100.0, replayedBytes * 100.0 / bytesToReplay) : 100.0;
+        stateManager.setJournalReplayProgress(percent);
+
+        long now = System.currentTimeMillis();
+        if (now - lastProgressLogTime >= PROGRESS_LOG_INTERVAL_MS) {
+            lastProgressLogTime = now;
+            LOG.info("Replayed {} of {} journal bytes ({}%)", replayedBytes, bytesToReplay,
+                    String.format("%.1f", percent));
+        }
+    }
+
+    /**
+     * Scanner of a journal file, handing each record over to the replay thread of its ledger.
+     */
+    private class JournalFileReplay implements JournalScanner {
+        private final OrderedExecutor replayExecutor;
+        private final AtomicLong pending = new AtomicLong();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private long lastOffset;
+        private long scannedBytes = 0;
+
+        JournalFileReplay(long logPosition, OrderedExecutor replayExecutor) {
+            this.lastOffset = logPosition;
+            this.replayExecutor = replayExecutor;
+        }
+
+        @Override
+        public void process(int journalVersion, long offset, ByteBuffer recBuff) throws IOException {
+            checkFailure();
+            // The bytes up to this record, including the padding records
+            progress(offset - lastOffset);
+            scannedBytes += offset - lastOffset;
+            lastOffset = offset;
+
+            // A record too short to hold a ledger id is applied here, as it is when there are no replay threads
+            if (replayExecutor == null || recBuff.remaining() < 8) {
+                scanner.process(journalVersion, offset, recBuff);
+                bookieStats.getJournalReplayEntries().inc();
+                return;
+            }
+
+            // The scan buffer is reused for the next record
+            int size = recBuff.remaining();
+            ByteBuffer record = ByteBuffer.allocate(size);
+            record.put(recBuff);
+            record.flip();
+            long ledgerId = record.getLong(0);
+
+            try {
+                memoryLimitController.reserveMemory(size);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while replaying journal", ie);
+            }
+            pending.incrementAndGet();
+            replayExecutor.executeOrdered(ledgerId, () -> {
+                try {
+                    if (failure.get() == null) {
+                        scanner.process(journalVersion, offset, record);
+                        bookieStats.getJournalReplayEntries().inc();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    memoryLimitController.releaseMemory(size);
+                    if (pending.decrementAndGet() == 0) {
+                        synchronized (pending) {
+                            pending.notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Wait for all the records of the journal file to be applied.
+         */
+        void awaitApplied() throws IOException {
+            synchronized (pending) {
+                while (pending.get() > 0) {
+                    try {
+                        pending.wait();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while replaying journal", ie);
+                    }
+                }
+            }
+            if (failure.get() != null && conf.isSkipReplayJournalInvalidRecord()) {
+                LOG.warn("Failed to replay a journal record, and skipInvalidRecord is true, skip it",
+                        failure.get());
+                return;
+            }
+            checkFailure();
+        }
+
+        private void checkFailure() throws IOException {
+            Throwable t = failure.get();
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            } else if (t != null) {
+                throw new IOException(t);
+            }
+        }
+    }
+}
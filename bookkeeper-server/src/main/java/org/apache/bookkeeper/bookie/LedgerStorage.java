@@ -32,7 +32,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
@@ -144,6 +146,48 @@ public interface LedgerStorage {
      */
     ByteBuf getEntry(long ledgerId, long entryId) throws IOException, BookieException;
 
+    /**
+     * Read an entry from storage asynchronously, so that the calling thread is not blocked
+     * while the entry is read from disk.
+     *
+     * <p>The default implementation reads the entry in the calling thread.
+     */
+    default CompletableFuture<ByteBuf> getEntryAsync(long ledgerId, long entryId) {
+        try {
+            return CompletableFuture.completedFuture(getEntry(ledgerId, entryId));
+        } catch (IOException | BookieException e) {
+            return FutureUtils.exception(e);
+        }
+    }
+
+    /**
+     * Read up to maxCount consecutive entries of a ledger from storage, starting at firstEntryId, and stopping
+     * once their total size reaches maxSize.
+     *
+     * <p>The read of the first entry must succeed, while the following ones are best effort: if an entry can't
+     * be read, the entries before it are returned.
+     *
+     * <p>The default implementation reads the entries one by one.
+     */
+    default List<ByteBuf> getEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, BookieException {
+        List<ByteBuf> entries = new ArrayList<>();
+        long size = 0;
+        for (int i = 0; i < maxCount && size < maxSize; i++) {
+            try {
+                ByteBuf entry = getEntry(ledgerId, firstEntryId + i);
+                size += entry.readableBytes();
+                entries.add(entry);
+            } catch (IOException | BookieException e) {
+                if (entries.isEmpty()) {
+                    throw e;
+                }
+                break;
+            }
+        }
+        return entries;
+    }
+
     /**
      * Get last add confirmed.
      *
@@ -26,11 +26,14 @@ import static org.apache.bookkeeper.common.concurrent.FutureUtils.result;
 import com.google.common.collect.Sets;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -49,6 +52,7 @@ import org.apache.bookkeeper.meta.MetadataBookieDriver;
 import org.apache.bookkeeper.meta.MetadataDrivers;
 import org.apache.bookkeeper.meta.exceptions.MetadataException;
 import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.versioning.Versioned;
 import org.apache.commons.configuration.ConfigurationException;
@@ -68,6 +72,15 @@ import org.slf4j.LoggerFactory;
  * <b>globalActiveLedgers</b>, do garbage collection on them.
  * </ul>
  * </p>
+ *
+ * <p>
+ * With incremental garbage collection, the collector watches the metadata of the ledgers of the bookie
+ * instead, and collects the ledgers whose metadata is deleted. A full scan still runs every
+ * {@link ServerConfiguration#getGcFullScanIntervalMillis()}, to reconcile with the metadata store,
+ * for example after the watches were lost with an expired session. The number of watches is bounded by
+ * {@link ServerConfiguration#getGcIncrementalMaxWatchedLedgers()}: with more ledgers on the bookie, the
+ * watches are dropped and each run scans the metadata store, until the ledgers are few enough again.
+ * </p>
  */
 public class ScanAndCompareGarbageCollector implements GarbageCollector {
 
@@ -85,6 +98,19 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
     private StatsLogger statsLogger;
     private final int maxConcurrentRequests;
 
+    private final boolean incrementalGc;
+    private final long gcFullScanIntervalMillis;
+    private final int gcIncrementalMaxWatchedLedgers;
+    private long lastFullScanTimeMillis;
+    // Ledgers of the bookie whose metadata is watched, and the ones whose metadata was deleted since the last run
+    private final Set<Long> watchedLedgers = new TreeSet<>();
+    private final Set<Long> deletedLedgers = ConcurrentHashMap.newKeySet();
+    private final LedgerMetadataListener deletionListener = (ledgerId, metadata) -> {
+        if (metadata == null) {
+            deletedLedgers.add(ledgerId);
+        }
+    };
+
     public ScanAndCompareGarbageCollector(LedgerManager ledgerManager, CompactableLedgerStorage ledgerStorage,
             ServerConfiguration conf, StatsLogger statsLogger) throws IOException {
         this.ledgerManager = ledgerManager;
@@ -103,6 +129,9 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
                 enableGcOverReplicatedLedger, gcOverReplicatedLedgerIntervalMillis, maxConcurrentRequests);
 
         verifyMetadataOnGc = conf.getVerifyMetadataOnGC();
+        this.incrementalGc = conf.getGcIncrementalEnabled();
+        this.gcFullScanIntervalMillis = conf.getGcFullScanIntervalMillis();
+        this.gcIncrementalMaxWatchedLedgers = conf.getGcIncrementalMaxWatchedLedgers();
 
         this.activeLedgerCounter = 0;
     }
@@ -141,8 +170,30 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
                 lastOverReplicatedLedgerGcTimeMillis = System.currentTimeMillis();
             }
 
-            // Iterate over all the ledger on the metadata store
             long zkOpTimeoutMs = this.conf.getZkTimeout() * 2;
+            if (incrementalGc && bkActiveLedgers.size() > gcIncrementalMaxWatchedLedgers) {
+                if (!watchedLedgers.isEmpty()) {
+                    LOG.info("The bookie has {} ledgers, more than the {} that can be watched. Scanning the metadata"
+                            + " store at each garbage collection run", bkActiveLedgers.size(),
+                            gcIncrementalMaxWatchedLedgers);
+                    unwatchAllLedgers();
+                }
+                // The deletions are missed without the watches, the first incremental run after them is a full scan
+                lastFullScanTimeMillis = 0;
+                deletedLedgers.clear();
+            } else if (incrementalGc) {
+                watchLedgers(bkActiveLedgers);
+                if (System.currentTimeMillis() - lastFullScanTimeMillis < gcFullScanIntervalMillis) {
+                    collectDeletedLedgers(bkActiveLedgers, garbageCleaner, zkOpTimeoutMs);
+                    return;
+                }
+                LOG.info("Start reconciling the incremental garbage collection with a full scan of the ledgers");
+                lastFullScanTimeMillis = System.currentTimeMillis();
+                // The full scan collects all the deleted ledgers
+                deletedLedgers.clear();
+            }
+
+            // Iterate over all the ledger on the metadata store
             LedgerRangeIterator ledgerRangeIterator = ledgerManager
                     .getLedgerRanges(zkOpTimeoutMs);
             Set<Long> ledgersInMetadata = null;
@@ -215,6 +266,60 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
         }
     }
 
+    /**
+     * Watch the metadata of the new ledgers of the bookie, and stop watching the ones no longer on the bookie.
+     */
+    private void watchLedgers(NavigableSet<Long> bkActiveLedgers) {
+        Iterator<Long> iterator = watchedLedgers.iterator();
+        while (iterator.hasNext()) {
+            long ledgerId = iterator.next();
+            if (!bkActiveLedgers.contains(ledgerId)) {
+                ledgerManager.unregisterLedgerMetadataListener(ledgerId, deletionListener);
+                iterator.remove();
+            }
+        }
+        for (Long ledgerId : bkActiveLedgers) {
+            if (watchedLedgers.add(ledgerId)) {
+                ledgerManager.registerLedgerMetadataListener(ledgerId, deletionListener);
+            }
+        }
+    }
+
+    private void unwatchAllLedgers() {
+        for (Long ledgerId : watchedLedgers) {
+            ledgerManager.unregisterLedgerMetadataListener(ledgerId, deletionListener);
+        }
+        watchedLedgers.clear();
+    }
+
+    private void collectDeletedLedgers(NavigableSet<Long> bkActiveLedgers, GarbageCleaner garbageCleaner,
+                                       long zkOpTimeoutMs) throws Exception {
+        List<Long> ledgers = new ArrayList<>(deletedLedgers);
+        deletedLedgers.removeAll(ledgers);
+        for (Long ledgerId : ledgers) {
+            if (!bkActiveLedgers.contains(ledgerId)) {
+                continue;
+            }
+            if (verifyMetadataOnGc) {
+                try {
+                    result(ledgerManager.readLedgerMetadata(ledgerId), zkOpTimeoutMs, TimeUnit.MILLISECONDS);
+                    LOG.warn("Ledger {} metadata was deleted, but ledgerManager still returns it.", ledgerId);
+                    continue;
+                } catch (BKException | TimeoutException e) {
+                    if (!(e instanceof BKException) || ((BKException) e).getCode()
+                            != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                        LOG.warn("Ledger {} metadata was deleted, but failed to verify it: {}.",
+                                ledgerId, e.getMessage());
+                        // Try again at the next run
+                        deletedLedgers.add(ledgerId);
+                        continue;
+                    }
+                }
+            }
+            garbageCleaner.clean(ledgerId);
+        }
+    }
+
     private Set<Long> removeOverReplicatedledgers(Set<Long> bkActiveledgers, final GarbageCleaner garbageCleaner)
             throws Exception {
         final Set<Long> overReplicatedLedgers = Sets.newHashSet();
@@ -63,6 +63,23 @@ public interface StateManager extends AutoCloseable {
      */
     boolean isShuttingDown();
 
+    /**
+     * Get the progress of the journal replay on bookie startup.
+     *
+     * @return the percentage of the journals replayed, 100 once the replay is done.
+     */
+    default double getJournalReplayProgress() {
+        return 100;
+    }
+
+    /**
+     * Set the progress of the journal replay on bookie startup.
+     *
+     * @param percent the percentage of the journals replayed.
+     */
+    default void setJournalReplayProgress(double percent) {
+    }
+
     /**
      * Close the manager, release its resources.
      */
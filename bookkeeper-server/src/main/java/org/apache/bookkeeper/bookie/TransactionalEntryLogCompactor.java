@@ -46,6 +46,7 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
     final EntryLogger entryLogger;
     final CompactableLedgerStorage ledgerStorage;
     final List<EntryLocation> offsets = new ArrayList<>();
+    private final boolean zeroCopyEnabled;
 
     // compaction log file suffix
     public static final String COMPACTING_SUFFIX = ".log.compacting";
@@ -58,6 +59,7 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
             CompactableLedgerStorage ledgerStorage,
             LogRemovalListener logRemover) {
         super(conf, logRemover);
+        this.zeroCopyEnabled = conf.isCompactionZeroCopyEnabled();
         this.entryLogger = entryLogger;
         this.ledgerStorage = ledgerStorage;
     }
@@ -161,6 +163,9 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
 
         @Override
         void start() throws IOException {
+            if (zeroCopyEnabled && transferEntryLog()) {
+                return;
+            }
             // scan entry log into compaction log and offset list
             entryLogger.scanEntryLog(metadata.getEntryLogId(), new EntryLogScanner() {
                 @Override
@@ -192,6 +197,35 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
             });
         }
 
+        /**
+         * Copy the live entries of the entry log into the compaction log with file to file transfers, and only
+         * collect their new locations.
+         */
+        private boolean transferEntryLog() throws IOException {
+            return compactionLog.transferEntries(new CompactionEntryLog.EntryTransferListener() {
+                @Override
+                public boolean accept(long ledgerId) {
+                    return metadata.containsLedger(ledgerId);
+                }
+
+                @Override
+                public void beforeTransfer(int entries, int length) throws IOException {
+                    throttler.acquire(entries, length);
+                }
+
+                @Override
+                public void transferred(long ledgerId, long entryId, long location) {
+                    synchronized (TransactionalEntryLogCompactor.this) {
+                        offsets.add(new EntryLocation(ledgerId, entryId, location));
+                    }
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Compact transfer entry : lid = {}, eid = {}, offset = {}",
+                                ledgerId, entryId, location);
+                    }
+                }
+            });
+        }
+
         @Override
         boolean complete() {
             if (offsets.isEmpty()) {
@@ -0,0 +1,50 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Default compaction policy, compacting the entry logs from the lowest usage bucket to the highest one.
+ *
+ * <p>The usage is split in 10 buckets, and the entry logs of a bucket are compacted in the order of the
+ * entry log metadata map.
+ */
+public class UsageBucketCompactionPolicy implements CompactionPolicy {
+
+    private static final int NUM_BUCKETS = 10;
+
+    @Override
+    public List<Candidate> select(List<Candidate> candidates) {
+        List<Candidate> selected = new ArrayList<>(candidates);
+        // The sort is stable, the order within a bucket is kept
+        selected.sort(Comparator.comparingInt(candidate -> bucket(candidate.getUsage())));
+        return selected;
+    }
+
+    private static int bucket(double usage) {
+        return Math.min(NUM_BUCKETS - 1, (int) Math.floor(usage * NUM_BUCKETS));
+    }
+}
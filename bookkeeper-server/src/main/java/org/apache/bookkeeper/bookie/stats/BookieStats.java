@@ -32,10 +32,14 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_LIST_OF_ENTRIES_OF_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_DIRS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_QUEUE_MAX_SIZE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_REPLAY_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_REPLAY_ENTRIES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_REPLAY_PROGRESS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_BYTES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.WRITE_BYTES;
 
+import java.util.function.DoubleSupplier;
 import lombok.Getter;
 import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.Gauge;
@@ -92,8 +96,19 @@ public class BookieStats {
     private final Gauge<Integer> journalDirsGauge;
     @StatsDoc(name = JOURNAL_QUEUE_MAX_SIZE, help = "maximum length of a journal queue")
     private final Gauge<Integer> journalQueueMaxQueueSizeGauge;
+    @StatsDoc(name = JOURNAL_REPLAY_ENTRIES, help = "journal records applied to the ledger storage on startup")
+    private final Counter journalReplayEntries;
+    @StatsDoc(name = JOURNAL_REPLAY_BYTES, help = "journal bytes replayed on startup")
+    private final Counter journalReplayBytes;
+    @StatsDoc(name = JOURNAL_REPLAY_PROGRESS, help = "percentage of the journals replayed on startup")
+    private final Gauge<Double> journalReplayProgressGauge;
 
     public BookieStats(StatsLogger statsLogger, int numJournalDirs, int maxJournalQueueSize) {
+        this(statsLogger, numJournalDirs, maxJournalQueueSize, () -> 100);
+    }
+
+    public BookieStats(StatsLogger statsLogger, int numJournalDirs, int maxJournalQueueSize,
+                       DoubleSupplier journalReplayProgress) {
         this.statsLogger = statsLogger;
         writeBytes = statsLogger.getCounter(WRITE_BYTES);
         readBytes = statsLogger.getCounter(READ_BYTES);
@@ -128,6 +143,20 @@ public class BookieStats {
             }
         };
         statsLogger.registerGauge(JOURNAL_QUEUE_MAX_SIZE, journalQueueMaxQueueSizeGauge);
+        journalReplayEntries = statsLogger.getCounter(JOURNAL_REPLAY_ENTRIES);
+        journalReplayBytes = statsLogger.getCounter(JOURNAL_REPLAY_BYTES);
+        journalReplayProgressGauge = new Gauge<Double>() {
+            @Override
+            public Double getDefaultValue() {
+                return 0.0;
+            }
+
+            @Override
+            public Double getSample() {
+                return journalReplayProgress.getAsDouble();
+            }
+        };
+        statsLogger.registerGauge(JOURNAL_REPLAY_PROGRESS, journalReplayProgressGauge);
     }
 
 
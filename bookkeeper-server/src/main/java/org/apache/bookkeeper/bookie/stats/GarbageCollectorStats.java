@@ -24,12 +24,15 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ACTIVE_ENTRY_LO
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ACTIVE_LEDGER_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_COPIED_BYTES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.DELETED_LEDGER_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.EXTRACTED_ENTRY_LOG_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MAJOR_COMPACTION_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MINOR_COMPACTION_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RECLAIMED_COMPACTION_SPACE_BYTES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RECLAIMED_DELETION_SPACE_BYTES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RECLAIM_FAILED_TO_DELETE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.STARTUP_EXTRACT_META_RUNTIME;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.THREAD_RUNTIME;
 
 import java.util.function.Supplier;
@@ -72,6 +75,11 @@ public class GarbageCollectorStats {
         help = "Number of disk space bytes reclaimed via compacting entry log files"
     )
     private final Counter reclaimedSpaceViaCompaction;
+    @StatsDoc(
+        name = COMPACTION_COPIED_BYTES,
+        help = "Number of bytes of live entries copied when compacting entry log files"
+    )
+    private final Counter compactionCopiedBytes;
     @StatsDoc(
             name = RECLAIM_FAILED_TO_DELETE,
             help = "Number of reclaim failed counts when deleting entry log files"
@@ -87,6 +95,17 @@ public class GarbageCollectorStats {
         help = "Operation stats of garbage collections"
     )
     private final OpStatsLogger gcThreadRuntime;
+    @StatsDoc(
+        name = STARTUP_EXTRACT_META_RUNTIME,
+        help = "Time taken by the first garbage collection after startup to extract the metadata of the entry logs"
+            + " missing from the entry log metadata map"
+    )
+    private final OpStatsLogger startupExtractMetaRuntime;
+    @StatsDoc(
+        name = EXTRACTED_ENTRY_LOG_COUNT,
+        help = "Number of entry logs whose metadata was read from the entry log files"
+    )
+    private final Counter extractedEntryLogCounter;
     @StatsDoc(
         name = ACTIVE_ENTRY_LOG_COUNT,
         help = "Current number of active entry log files"
@@ -112,9 +131,12 @@ public class GarbageCollectorStats {
         this.minorCompactionCounter = statsLogger.getCounter(MINOR_COMPACTION_COUNT);
         this.majorCompactionCounter = statsLogger.getCounter(MAJOR_COMPACTION_COUNT);
         this.reclaimedSpaceViaCompaction = statsLogger.getCounter(RECLAIMED_COMPACTION_SPACE_BYTES);
+        this.compactionCopiedBytes = statsLogger.getCounter(COMPACTION_COPIED_BYTES);
         this.reclaimedSpaceViaDeletes = statsLogger.getCounter(RECLAIMED_DELETION_SPACE_BYTES);
         this.reclaimFailedToDelete = statsLogger.getCounter(RECLAIM_FAILED_TO_DELETE);
         this.gcThreadRuntime = statsLogger.getOpStatsLogger(THREAD_RUNTIME);
+        this.startupExtractMetaRuntime = statsLogger.getOpStatsLogger(STARTUP_EXTRACT_META_RUNTIME);
+        this.extractedEntryLogCounter = statsLogger.getCounter(EXTRACTED_ENTRY_LOG_COUNT);
         this.deletedLedgerCounter = statsLogger.getCounter(DELETED_LEDGER_COUNT);
 
         this.activeEntryLogCountGauge = new Gauge<Integer>() {
@@ -23,6 +23,8 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FORCE_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ADD_ENTRY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_BUFFERED_ENTRIES_THRESHOLD;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_BUFFERED_WRITES_THRESHOLD;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_CREATION_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FLUSH_LATENCY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_LEDGER;
@@ -31,6 +33,8 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_W
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_ENQUEUE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_GROUPING_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_QUEUE_SIZE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_FORCE_WRITE_SCHEDULE_WAIT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_WAIT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_MEMORY_MAX;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_MEMORY_USED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_NUM_FLUSH_EMPTY_QUEUE;
@@ -131,6 +135,11 @@ public class JournalStats {
         help = "The distribution of number of bytes grouped together into a force write request"
     )
     private final OpStatsLogger forceWriteBatchBytesStats;
+    @StatsDoc(
+        name = JOURNAL_FORCE_WRITE_SCHEDULE_WAIT,
+        help = "The time a force write waited for the force writes of the other journals on the same device"
+    )
+    private final OpStatsLogger forceWriteScheduleWaitStats;
     @StatsDoc(
         name = JOURNAL_QUEUE_SIZE,
         help = "The journal queue size"
@@ -172,9 +181,25 @@ public class JournalStats {
             help = "The actual amount of memory in bytes currently used by the bookie journal"
     )
     private final Gauge<Long> journalMemoryUsedStats;
+    @StatsDoc(
+            name = JOURNAL_GROUP_WAIT,
+            help = "The current max time in nanoseconds an entry waits in the journal to be grouped with others"
+    )
+    private final Gauge<Long> groupWaitStats;
+    @StatsDoc(
+            name = JOURNAL_BUFFERED_ENTRIES_THRESHOLD,
+            help = "The current number of buffered journal entries which triggers a flush"
+    )
+    private final Gauge<Long> bufferedEntriesThresholdStats;
+    @StatsDoc(
+            name = JOURNAL_BUFFERED_WRITES_THRESHOLD,
+            help = "The current number of buffered journal bytes which triggers a flush"
+    )
+    private final Gauge<Long> bufferedWritesThresholdStats;
 
     public JournalStats(StatsLogger statsLogger, final long maxJournalMemoryBytes,
-                        Supplier<Long> currentJournalMemoryBytes) {
+                        Supplier<Long> currentJournalMemoryBytes, Supplier<Long> groupWaitNanos,
+                        Supplier<Long> bufferedEntriesThreshold, Supplier<Long> bufferedWritesThreshold) {
         journalAddEntryStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_ADD_ENTRY);
         journalForceLedgerStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FORCE_LEDGER);
         journalSyncStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_SYNC);
@@ -188,6 +213,8 @@ public class JournalStats {
         forceWriteBatchEntriesStats =
                 statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FORCE_WRITE_BATCH_ENTRIES);
         forceWriteBatchBytesStats = statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FORCE_WRITE_BATCH_BYTES);
+        forceWriteScheduleWaitStats =
+                statsLogger.getOpStatsLogger(BookKeeperServerStats.JOURNAL_FORCE_WRITE_SCHEDULE_WAIT);
         journalQueueSize = statsLogger.getCounter(BookKeeperServerStats.JOURNAL_QUEUE_SIZE);
         forceWriteQueueSize = statsLogger.getCounter(BookKeeperServerStats.JOURNAL_FORCE_WRITE_QUEUE_SIZE);
         flushMaxWaitCounter = statsLogger.getCounter(BookKeeperServerStats.JOURNAL_NUM_FLUSH_MAX_WAIT);
@@ -221,6 +248,27 @@ public class JournalStats {
             }
         };
         statsLogger.registerGauge(JOURNAL_MEMORY_USED, journalMemoryUsedStats);
+
+        groupWaitStats = newGauge(groupWaitNanos);
+        statsLogger.registerGauge(JOURNAL_GROUP_WAIT, groupWaitStats);
+        bufferedEntriesThresholdStats = newGauge(bufferedEntriesThreshold);
+        statsLogger.registerGauge(JOURNAL_BUFFERED_ENTRIES_THRESHOLD, bufferedEntriesThresholdStats);
+        bufferedWritesThresholdStats = newGauge(bufferedWritesThreshold);
+        statsLogger.registerGauge(JOURNAL_BUFFERED_WRITES_THRESHOLD, bufferedWritesThresholdStats);
+    }
+
+    private static Gauge<Long> newGauge(Supplier<Long> value) {
+        return new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return -1L;
+            }
+
+            @Override
+            public Long getSample() {
+                return value.get();
+            }
+        };
     }
 
     @VisibleForTesting
@@ -43,6 +43,38 @@ public interface CompactionEntryLog {
      */
     long addEntry(long ledgerId, ByteBuf entry) throws IOException;
 
+    /**
+     * Copy the entries of the ledgers accepted by the listener from the entry log being compacted, moving each run
+     * of contiguous entries with a single file to file transfer instead of reading the entries.
+     *
+     * @param listener the listener notified of the copied entries
+     * @return false if the log doesn't support it, in which case the entries have to be added one by one
+     */
+    default boolean transferEntries(EntryTransferListener listener) throws IOException {
+        return false;
+    }
+
+    /**
+     * Listener of the entries copied by {@link #transferEntries(EntryTransferListener)}.
+     */
+    interface EntryTransferListener {
+        /**
+         * Tests whether the entries of a ledger must be copied.
+         */
+        boolean accept(long ledgerId);
+
+        /**
+         * Called before copying a run of contiguous entries, with the number of entries and their length, size
+         * headers included.
+         */
+        void beforeTransfer(int entries, int length) throws IOException;
+
+        /**
+         * Called for each copied entry, with its location in the compaction log.
+         */
+        void transferred(long ledgerId, long entryId, long location) throws IOException;
+    }
+
     /**
      * Scan the entry log, reading out all contained entries.
      */
@@ -22,7 +22,9 @@ package org.apache.bookkeeper.bookie.storage;
 
 import io.netty.buffer.ByteBuf;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import org.apache.bookkeeper.bookie.AbstractLogCompactor;
 import org.apache.bookkeeper.bookie.Bookie.NoEntryException;
 import org.apache.bookkeeper.bookie.EntryLogMetadata;
@@ -67,6 +69,35 @@ public interface EntryLogger extends AutoCloseable {
     ByteBuf readEntry(long ledgerId, long entryId, long entryLocation)
             throws IOException, NoEntryException;
 
+    /**
+     * Read entries of a ledger from their entrylog locations, and verify that they match
+     * the expected entry IDs. The locations should be sorted, so that the entries which
+     * are close to each other in an entrylog can be read together.
+     *
+     * <p>If an entry can't be read, the entries before it are returned, and the exception
+     * is only thrown if it's the first entry.
+     * The default implementation reads the entries one by one.
+     * @param ledgerId the ledgerID to match
+     * @param entryIds the entryIDs to match
+     * @param entryLocations the locations from which to read the entries
+     * @return the entries, in the order of the locations
+     */
+    default List<ByteBuf> readEntries(long ledgerId, long[] entryIds, long[] entryLocations)
+            throws IOException, NoEntryException {
+        List<ByteBuf> entries = new ArrayList<>(entryIds.length);
+        for (int i = 0; i < entryIds.length; i++) {
+            try {
+                entries.add(readEntry(ledgerId, entryIds[i], entryLocations[i]));
+            } catch (IOException e) {
+                if (entries.isEmpty()) {
+                    throw e;
+                }
+                break;
+            }
+        }
+        return entries;
+    }
+
     /**
      * Flush any outstanding writes to disk.
      */
@@ -187,6 +187,14 @@ class Buffer {
         return bytesToRead;
     }
 
+    /**
+     * @return a slice of the buffer, which keeps its memory alive until the slice is released
+     *         (even once the buffer is freed).
+     */
+    ByteBuf retainedSlice(int offset, int size) {
+        return buffer.retainedSlice(offset, size);
+    }
+
     /**
      * The data pointer object for the native buffer. This can be used
      * by JNI method which take a char* or void*.
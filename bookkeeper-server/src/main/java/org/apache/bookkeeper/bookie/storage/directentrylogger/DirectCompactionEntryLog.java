@@ -54,13 +54,14 @@ public abstract class DirectCompactionEntryLog implements CompactionEntryLog {
                                      File ledgerDir,
                                      long maxFileSize,
                                      ExecutorService writeExecutor,
+                                     IoRing writeRing,
                                      BufferPool writeBuffers,
                                      NativeIO nativeIO,
                                      ByteBufAllocator allocator,
                                      Slogger slog) throws IOException {
         return new WritingDirectCompactionEntryLog(
                 srcLogId, dstLogId, ledgerDir, maxFileSize,
-                writeExecutor, writeBuffers, nativeIO, allocator, slog);
+                writeExecutor, writeRing, writeBuffers, nativeIO, allocator, slog);
     }
 
     static CompactionEntryLog recoverLog(int srcLogId,
@@ -220,6 +221,7 @@ public abstract class DirectCompactionEntryLog implements CompactionEntryLog {
                                         File ledgerDir,
                                         long maxFileSize,
                                         ExecutorService writeExecutor,
+                                        IoRing writeRing,
                                         BufferPool writeBuffers,
                                         NativeIO nativeIO,
                                         ByteBufAllocator allocator,
@@ -228,7 +230,7 @@ public abstract class DirectCompactionEntryLog implements CompactionEntryLog {
 
             this.writer = new WriterWithMetadata(
                     new DirectWriter(dstLogId, compactingFile.toString(), maxFileSize,
-                                     writeExecutor, writeBuffers, nativeIO, slog),
+                                     writeExecutor, writeRing, writeBuffers, nativeIO, slog),
                     new EntryLogMetadata(dstLogId),
                     allocator);
 
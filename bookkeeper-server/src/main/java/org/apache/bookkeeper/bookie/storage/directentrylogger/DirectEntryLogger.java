@@ -83,6 +83,8 @@ public class DirectEntryLogger implements EntryLogger {
     private final NativeIO nativeIO;
     private final List<Cache<?, ?>> allCaches = new CopyOnWriteArrayList<>();
     private final ThreadLocal<Cache<Integer, LogReader>> caches;
+    private final IoRing writeRing;
+    private final IoRing[] readRings;
 
     private static final int NUMBER_OF_WRITE_BUFFERS = 8;
 
@@ -99,6 +101,7 @@ public class DirectEntryLogger implements EntryLogger {
                              int readBufferSize,
                              int numReadThreads,
                              int maxFdCacheTimeSeconds,
+                             int ioUringEntries,
                              Slogger slogParent,
                              StatsLogger stats) throws IOException {
         this.ledgerDir = ledgerDir;
@@ -150,6 +153,7 @@ public class DirectEntryLogger implements EntryLogger {
             .kv("perThreadBufferSize", perThreadBufferSize)
             .kv("maxCachedReadersPerThread", maxCachedReadersPerThread)
             .kv("maxCachedReaders", maxCachedReaders)
+            .kv("ioUringEntries", ioUringEntries)
             .info(Events.ENTRYLOGGER_CREATED);
 
         this.caches = ThreadLocal.withInitial(() -> {
@@ -171,6 +175,14 @@ public class DirectEntryLogger implements EntryLogger {
             allCaches.add(cache);
             return cache;
         });
+
+        // The writes are all issued by the write executor, so they share a ring, whereas the readers
+        // share a fixed number of rings, as many as the read threads, picked by the thread reading
+        this.writeRing = new IoRing(nativeIO, ioUringEntries, slog);
+        this.readRings = new IoRing[Math.max(numReadThreads, 1)];
+        for (int i = 0; i < readRings.length; i++) {
+            readRings[i] = new IoRing(nativeIO, ioUringEntries, slog);
+        }
     }
 
     @Override
@@ -211,6 +223,70 @@ public class DirectEntryLogger implements EntryLogger {
         return internalReadEntry(ledgerId, entryId, entryLocation, true);
     }
 
+    /**
+     * Read the entries of each entry log together, with as few reads as possible.
+     */
+    @Override
+    public List<ByteBuf> readEntries(long ledgerId, long[] entryIds, long[] entryLocations)
+            throws IOException, NoEntryException {
+        List<ByteBuf> entries = new ArrayList<>(entryIds.length);
+        int first = 0;
+        try {
+            while (first < entryLocations.length) {
+                int logId = (int) (entryLocations[first] >> 32);
+                int end = first + 1;
+                while (end < entryLocations.length && (int) (entryLocations[end] >> 32) == logId) {
+                    end++;
+                }
+
+                int[] offsets = new int[end - first];
+                for (int i = first; i < end; i++) {
+                    offsets[i - first] = (int) (entryLocations[i] & 0xFFFFFFFF);
+                }
+
+                long start = System.nanoTime();
+                List<ByteBuf> read;
+                try {
+                    read = getReader(logId).readEntriesAt(offsets);
+                } catch (EOFException eof) {
+                    stats.getReadEntryStats().registerFailedEvent(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    throw new NoEntryException(
+                            exMsg("Entry location doesn't exist").kv("location", entryLocations[first]).toString(),
+                            ledgerId, entryIds[first]);
+                }
+
+                long elapsedNs = System.nanoTime() - start;
+                for (int i = 0; i < read.size(); i++) {
+                    ByteBuf buf = read.get(i);
+                    long thisLedgerId = buf.getLong(0);
+                    long thisEntryId = buf.getLong(8);
+                    if (thisLedgerId != ledgerId || thisEntryId != entryIds[first + i]) {
+                        for (int j = i; j < read.size(); j++) {
+                            ReferenceCountUtil.release(read.get(j));
+                        }
+                        throw new IOException(
+                                exMsg("Bad location").kv("location", entryLocations[first + i])
+                                .kv("expectedLedger", ledgerId).kv("expectedEntry", entryIds[first + i])
+                                .kv("foundLedger", thisLedgerId).kv("foundEntry", thisEntryId)
+                                .toString());
+                    }
+                    stats.getReadEntryStats().registerSuccessfulEvent(elapsedNs / read.size(), TimeUnit.NANOSECONDS);
+                    entries.add(buf);
+                }
+
+                if (read.size() < offsets.length) {
+                    break;
+                }
+                first = end;
+            }
+        } catch (IOException e) {
+            if (entries.isEmpty()) {
+                throw e;
+            }
+        }
+        return entries;
+    }
+
     private LogReader getReader(int logId) throws IOException {
         Cache<Integer, LogReader> cache = caches.get();
         try {
@@ -361,6 +437,10 @@ public class DirectEntryLogger implements EntryLogger {
         for (Cache<?, ?> c : allCaches) {
             c.invalidateAll();
         }
+        for (IoRing ring : readRings) {
+            ring.close();
+        }
+        writeRing.close();
 
         writeBuffers.close();
     }
@@ -443,14 +523,18 @@ public class DirectEntryLogger implements EntryLogger {
     @VisibleForTesting
     LogReader newDirectReader(int logId) throws IOException {
         return new DirectReader(logId, logFilename(ledgerDir, logId),
-                                allocator, nativeIO, readBufferSize,
+                                allocator, nativeIO, readRing(), readBufferSize,
                                 maxSaneEntrySize, stats.getReadBlockStats());
     }
 
+    private IoRing readRing() {
+        return readRings[(int) (Thread.currentThread().getId() % readRings.length)];
+    }
+
     private LogWriter newDirectWriter(int newId) throws IOException {
         unflushedLogs.add(newId);
         LogWriter writer = new DirectWriter(newId, logFilename(ledgerDir, newId), maxFileSize,
-                                            writeExecutor, writeBuffers, nativeIO, slog);
+                                            writeExecutor, writeRing, writeBuffers, nativeIO, slog);
         ByteBuf buf = allocator.buffer(Buffer.ALIGNMENT);
         try {
             Header.writeEmptyHeader(buf);
@@ -474,7 +558,7 @@ public class DirectEntryLogger implements EntryLogger {
     public CompactionEntryLog newCompactionLog(long srcLogId) throws IOException {
         int dstLogId = ids.nextId();
         return DirectCompactionEntryLog.newLog((int) srcLogId, dstLogId, ledgerDir,
-                                               maxFileSize, writeExecutor, writeBuffers,
+                                               maxFileSize, writeExecutor, writeRing, writeBuffers,
                                                nativeIO, allocator, slog);
     }
 
@@ -28,12 +28,17 @@ import io.netty.buffer.ByteBufAllocator;
 import io.netty.util.ReferenceCountUtil;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
 import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 
 class DirectReader implements LogReader {
+    // Entries further apart than this are not read together, to not read too many bytes which aren't needed
+    static final int MAX_MERGE_DISTANCE = 1024 * 1024;
+
     private final ByteBufAllocator allocator;
     private final NativeIO nativeIO;
     private final Buffer nativeBuffer;
@@ -42,6 +47,7 @@ class DirectReader implements LogReader {
     private final int fd;
     private final int maxSaneEntrySize;
     private final OpStatsLogger readBlockStats;
+    private final IoRing ioRing;
     private long currentBlock = -1;
     private long currentBlockEnd = -1;
     private long maxOffset;
@@ -50,7 +56,14 @@ class DirectReader implements LogReader {
     DirectReader(int logId, String filename, ByteBufAllocator allocator,
                  NativeIO nativeIO, int bufferSize,
                  int maxSaneEntrySize, OpStatsLogger readBlockStats) throws IOException {
+        this(logId, filename, allocator, nativeIO, null, bufferSize, maxSaneEntrySize, readBlockStats);
+    }
+
+    DirectReader(int logId, String filename, ByteBufAllocator allocator,
+                 NativeIO nativeIO, IoRing ioRing, int bufferSize,
+                 int maxSaneEntrySize, OpStatsLogger readBlockStats) throws IOException {
         this.nativeIO = nativeIO;
+        this.ioRing = ioRing;
         this.allocator = allocator;
         this.logId = logId;
         this.filename = filename;
@@ -101,6 +114,11 @@ class DirectReader implements LogReader {
     public void readIntoBufferAt(ByteBuf buffer, long offset, int size) throws IOException, EOFException {
         assertValidOffset(offset);
         synchronized (nativeBuffer) {
+            if (size > nativeBuffer.size() && ioRing != null && ioRing.isEnabled()) {
+                int bytesRead = readSpanIntoBuf(buffer, offset, size);
+                size -= bytesRead;
+                offset += bytesRead;
+            }
             while (size > 0) {
                 int bytesRead = readBytesIntoBuf(buffer, offset, size);
                 size -= bytesRead;
@@ -161,6 +179,63 @@ class DirectReader implements LogReader {
         }
     }
 
+    /**
+     * Read a range which spans several blocks with a single batch of block sized reads on the io ring,
+     * rather than reading the blocks one after the other through the block buffer.
+     *
+     * @return the number of bytes read into buf, which is less than size if a read came up short, in which
+     *         case the remainder has to be read through the block buffer.
+     */
+    private int readSpanIntoBuf(ByteBuf buf, long offset, int size) throws IOException {
+        final int blockSize = nativeBuffer.size();
+        final long spanStart = alignDown(offset);
+        final long spanEnd = alignUp(offset + size);
+        if (spanEnd > maxOffset) {
+            refreshMaxOffset();
+        }
+        final int spanSize = (int) (spanEnd - spanStart);
+        final int skip = (int) (offset - spanStart);
+        final long startNs = System.nanoTime();
+
+        Buffer span = new Buffer(nativeIO, allocator, spanSize);
+        try {
+            IoRing.Batch batch = new IoRing.Batch((spanSize + blockSize - 1) / blockSize);
+            for (int pos = 0; pos < spanSize; pos += blockSize) {
+                int readSize = Math.min(blockSize, spanSize - pos);
+                batch.read(fd, span.pointer(pos, readSize), readSize, spanStart + pos);
+            }
+            ioRing.submit(batch);
+
+            long bytesRead = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                long ret = batch.result(i);
+                if (ret < 0) {
+                    readBlockStats.registerFailedEvent(System.nanoTime() - startNs, TimeUnit.NANOSECONDS);
+                    throw new IOException(exMsg("Failed to read from file")
+                                          .kv("requestedBytes", spanSize)
+                                          .kv("offset", spanStart)
+                                          .kv("bytesRead", bytesRead)
+                                          .kv("file", filename)
+                                          .kv("fd", fd)
+                                          .kv("errno", -ret).toString());
+                }
+                bytesRead += ret;
+                if (ret < Math.min(blockSize, spanSize - (long) i * blockSize)) {
+                    break;
+                }
+            }
+            readBlockStats.registerSuccessfulEvent(System.nanoTime() - startNs, TimeUnit.NANOSECONDS);
+
+            int bytesToCopy = (int) Math.min(size, bytesRead - skip);
+            if (bytesToCopy <= 0) {
+                return 0;
+            }
+            return span.readByteBuf(buf, skip, bytesToCopy);
+        } finally {
+            span.free();
+        }
+    }
+
     @Override
     public ByteBuf readEntryAt(int offset) throws IOException, EOFException {
         assertValidEntryOffset(offset);
@@ -191,6 +266,138 @@ class DirectReader implements LogReader {
         return readBufferAt(offset, entrySize);
     }
 
+    /**
+     * Read the entries with as few reads as possible. Entries which are close to each other are read
+     * together, in a range of at most the size of the block buffer, and the reads of all the ranges are
+     * submitted in one batch to the io ring. The entries are returned as slices of the ranges.
+     *
+     * <p>As the size of an entry is only known once read, the end of a range is estimated from the average
+     * distance between its entries. An entry which still doesn't fit in its range is read on its own.
+     */
+    @Override
+    public List<ByteBuf> readEntriesAt(int[] offsets) throws IOException, EOFException {
+        if (offsets.length < 2 || ioRing == null) {
+            return LogReader.super.readEntriesAt(offsets);
+        }
+
+        final int blockSize = nativeBuffer.size();
+        int[] rangeOfEntry = new int[offsets.length];
+        List<Long> rangeStarts = new ArrayList<>();
+        List<Integer> rangeSizes = new ArrayList<>();
+
+        int first = 0;
+        while (first < offsets.length) {
+            assertValidEntryOffset(offsets[first]);
+            long rangeStart = alignDown(offsets[first] - Integer.BYTES);
+            int last = first;
+            long rangeEnd = 0;
+            while (last + 1 < offsets.length) {
+                int next = offsets[last + 1];
+                if (next <= offsets[last] || next - offsets[last] > MAX_MERGE_DISTANCE) {
+                    break;
+                }
+                long estimatedEntrySize = (next - offsets[first]) / (last + 1 - first);
+                long end = alignUp(next + estimatedEntrySize);
+                if (end - rangeStart > blockSize) {
+                    break;
+                }
+                rangeEnd = end;
+                last++;
+            }
+
+            if (last == first) {
+                // A single entry is read through the block buffer
+                rangeOfEntry[first++] = -1;
+            } else {
+                for (int i = first; i <= last; i++) {
+                    rangeOfEntry[i] = rangeStarts.size();
+                }
+                rangeStarts.add(rangeStart);
+                rangeSizes.add((int) (rangeEnd - rangeStart));
+                first = last + 1;
+            }
+        }
+
+        Buffer[] ranges = new Buffer[rangeStarts.size()];
+        List<ByteBuf> entries = new ArrayList<>(offsets.length);
+        try {
+            long[] bytesRead = readRanges(rangeStarts, rangeSizes, ranges);
+
+            for (int i = 0; i < offsets.length; i++) {
+                try {
+                    ByteBuf entry = null;
+                    int range = rangeOfEntry[i];
+                    if (range >= 0) {
+                        entry = sliceEntry(ranges[range], offsets[i] - rangeStarts.get(range), bytesRead[range]);
+                    }
+                    entries.add(entry != null ? entry : readEntryAt(offsets[i]));
+                } catch (IOException e) {
+                    if (entries.isEmpty()) {
+                        throw e;
+                    }
+                    break;
+                }
+            }
+        } finally {
+            for (Buffer range : ranges) {
+                if (range != null) {
+                    range.free();
+                }
+            }
+        }
+        return entries;
+    }
+
+    private long[] readRanges(List<Long> rangeStarts, List<Integer> rangeSizes, Buffer[] ranges)
+            throws IOException {
+        long[] bytesRead = new long[ranges.length];
+        if (ranges.length == 0) {
+            return bytesRead;
+        }
+
+        IoRing.Batch batch = new IoRing.Batch(ranges.length);
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = new Buffer(nativeIO, allocator, rangeSizes.get(i));
+            batch.read(fd, ranges[i].pointer(), rangeSizes.get(i), rangeStarts.get(i));
+        }
+
+        final long startNs = System.nanoTime();
+        ioRing.submit(batch);
+        final long elapsedNs = System.nanoTime() - startNs;
+        for (int i = 0; i < ranges.length; i++) {
+            if (batch.result(i) < 0) {
+                // A failed read leaves the entries of the range to be read on their own
+                readBlockStats.registerFailedEvent(elapsedNs, TimeUnit.NANOSECONDS);
+            } else {
+                bytesRead[i] = batch.result(i);
+                readBlockStats.registerSuccessfulEvent(elapsedNs, TimeUnit.NANOSECONDS);
+            }
+        }
+        return bytesRead;
+    }
+
+    /**
+     * @return the entry at the given position of the range, or null if it hasn't been entirely read
+     */
+    private ByteBuf sliceEntry(Buffer range, long positionInRange, long bytesRead) throws IOException {
+        if (positionInRange > bytesRead) {
+            return null;
+        }
+        int entrySize = range.readInt((int) (positionInRange - Integer.BYTES));
+        if (entrySize <= 0 || entrySize > maxSaneEntrySize || positionInRange + entrySize > bytesRead) {
+            return null;
+        }
+        return range.retainedSlice((int) positionInRange, entrySize);
+    }
+
+    private static long alignDown(long offset) {
+        return offset & ~(Buffer.ALIGNMENT - 1);
+    }
+
+    private static long alignUp(long offset) {
+        return (offset + Buffer.ALIGNMENT - 1) & ~(Buffer.ALIGNMENT - 1);
+    }
+
     void readBlock(long offset) throws IOException {
         final int blockSize = nativeBuffer.size();
         assertValidBlockSize(blockSize);
@@ -26,9 +26,12 @@ import static org.apache.bookkeeper.common.util.ExceptionMessageHelper.exMsg;
 
 import io.netty.buffer.ByteBuf;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import org.apache.bookkeeper.common.util.nativeio.NativeIO;
@@ -43,8 +46,10 @@ class DirectWriter implements LogWriter {
     final String filename;
     final BufferPool bufferPool;
     final ExecutorService writeExecutor;
+    final IoRing ioRing;
     final Object bufferLock = new Object();
     final List<Future<?>> outstandingWrites = new ArrayList<Future<?>>();
+    final Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
     final Slogger slog;
     Buffer nativeBuffer;
     long offset;
@@ -54,12 +59,14 @@ class DirectWriter implements LogWriter {
                  String filename,
                  long maxFileSize,
                  ExecutorService writeExecutor,
+                 IoRing ioRing,
                  BufferPool bufferPool,
                  NativeIO nativeIO, Slogger slog) throws IOException {
         checkArgument(maxFileSize > 0, "Max file size (%d) must be positive");
         this.id = id;
         this.filename = filename;
         this.writeExecutor = writeExecutor;
+        this.ioRing = ioRing;
         this.nativeIO = nativeIO;
         this.slog = slog.ctx(DirectWriter.class);
 
@@ -124,18 +131,85 @@ class DirectWriter implements LogWriter {
         Buffer tmpBuffer = bufferPool.acquire();
         tmpBuffer.reset();
         tmpBuffer.writeByteBuf(buf);
-        Future<?> f = writeExecutor.submit(() -> {
-            writeByteBuf(tmpBuffer, bytesToWrite, offset);
-            return null;
+        submitWrite(tmpBuffer, bytesToWrite, offset);
+    }
+
+    /**
+     * Queue the buffer to be written, and kick off the write executor. The writes which are queued by the
+     * time the executor gets to them are submitted together, in a single batch to the io ring.
+     *
+     * <p>Without io_uring, the buffer is written on its own by the write executor.
+     */
+    private void submitWrite(Buffer buffer, int bytesToWrite, long offsetToWrite) throws IOException {
+        if (ioRing == null || !ioRing.isEnabled()) {
+            Future<?> f = writeExecutor.submit(() -> {
+                writeByteBuf(buffer, bytesToWrite, offsetToWrite);
+                return null;
             });
-        addOutstandingWrite(f);
+            addOutstandingWrite(f);
+            return;
+        }
+
+        PendingWrite write = new PendingWrite(buffer, bytesToWrite, offsetToWrite);
+        synchronized (pendingWrites) {
+            pendingWrites.add(write);
+        }
+        writeExecutor.execute(this::writePending);
+        addOutstandingWrite(write.future);
     }
 
-    private void writeByteBuf(Buffer buffer, int bytesToWrite, long offsetToWrite) throws IOException{
-        try {
-            if (bytesToWrite <= 0) {
+    private void writePending() {
+        PendingWrite[] writes;
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty()) {
                 return;
             }
+            writes = pendingWrites.toArray(new PendingWrite[0]);
+            pendingWrites.clear();
+        }
+
+        IoRing.Batch batch = new IoRing.Batch(writes.length);
+        for (PendingWrite w : writes) {
+            batch.write(fd, w.buffer.pointer(), w.bytesToWrite, w.offsetToWrite);
+        }
+        try {
+            ioRing.submit(batch);
+        } catch (Throwable t) {
+            for (PendingWrite w : writes) {
+                bufferPool.release(w.buffer);
+                w.future.completeExceptionally(t);
+            }
+            return;
+        }
+
+        for (int i = 0; i < writes.length; i++) {
+            PendingWrite w = writes[i];
+            long ret = batch.result(i);
+            if (ret == w.bytesToWrite) {
+                w.future.complete(null);
+            } else if (ret < 0) {
+                w.future.completeExceptionally(new IOException(exMsg("Write error")
+                    .kv("filename", filename)
+                    .kv("offset", w.offsetToWrite)
+                    .kv("writeSize", w.bytesToWrite)
+                    .kv("pointer", w.buffer.pointer())
+                    .kv("errno", -ret)
+                    .toString()));
+            } else {
+                w.future.completeExceptionally(new IOException(exMsg("Incomplete write")
+                    .kv("filename", filename)
+                    .kv("pointer", w.buffer.pointer())
+                    .kv("offset", w.offsetToWrite)
+                    .kv("writeSize", w.bytesToWrite)
+                    .kv("bytesWritten", ret)
+                    .toString()));
+            }
+            bufferPool.release(w.buffer);
+        }
+    }
+
+    private void writeByteBuf(Buffer buffer, int bytesToWrite, long offsetToWrite) throws IOException {
+        try {
             int ret = nativeIO.pwrite(fd, buffer.pointer(), bytesToWrite, offsetToWrite);
             if (ret != bytesToWrite) {
                 throw new IOException(exMsg("Incomplete write")
@@ -300,11 +374,7 @@ class DirectWriter implements LogWriter {
                 long offsetToWrite = offset;
                 offset += bytesToWrite;
 
-                Future<?> f = writeExecutor.submit(() -> {
-                    writeByteBuf(bufferToFlush, bytesToWrite, offsetToWrite);
-                    return null;
-                });
-                addOutstandingWrite(f);
+                submitWrite(bufferToFlush, bytesToWrite, offsetToWrite);
 
                 // must acquire after triggering the write
                 // otherwise it could try to acquire a buffer without kicking off
@@ -318,4 +388,17 @@ class DirectWriter implements LogWriter {
     public int serializedSize(ByteBuf buf) {
         return buf.readableBytes() + Integer.BYTES;
     }
+
+    private static class PendingWrite {
+        final Buffer buffer;
+        final int bytesToWrite;
+        final long offsetToWrite;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingWrite(Buffer buffer, int bytesToWrite, long offsetToWrite) {
+            this.buffer = buffer;
+            this.bytesToWrite = bytesToWrite;
+            this.offsetToWrite = offsetToWrite;
+        }
+    }
 }
@@ -31,6 +31,13 @@ public enum Events {
      */
     FALLOCATE_NOT_AVAILABLE,
 
+    /**
+     * io_uring is not available on this host, or it failed. This can be because the process is running on a
+     * non-Linux operating system, on an old kernel, or io_uring has been disabled by the kernel configuration
+     * or a seccomp filter. Reads and writes will be issued one syscall at a time, with pread and pwrite.
+     */
+    IO_URING_NOT_AVAILABLE,
+
     /**
      * EntryLog ID candidates selected. These are the set entry log ID that subsequent entry log files
      * will use. To find the candidates, the bookie lists all the log ids which have already been used,
@@ -0,0 +1,195 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Arrays;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.slogger.Slogger;
+import org.apache.commons.lang3.SystemUtils;
+
+/**
+ * Submits batches of aligned reads and writes to the kernel with a single io_uring_enter, rather than
+ * one pread/pwrite syscall for each of them.
+ *
+ * <p>If io_uring is not available, or if the ring fails, the operations of a batch are executed one
+ * after the other with pread/pwrite. A ring can be shared between threads, but the batches are then
+ * submitted one at a time.
+ */
+class IoRing implements AutoCloseable {
+    private final NativeIO nativeIO;
+    private final Slogger slog;
+    private long ring;
+    private static volatile boolean useIoUring = true;
+
+    IoRing(NativeIO nativeIO, int entries, Slogger slog) {
+        this.nativeIO = nativeIO;
+        this.slog = slog.ctx(IoRing.class);
+
+        if (entries > 0 && useIoUring) {
+            if (!SystemUtils.IS_OS_LINUX) {
+                disableUseIoUring();
+                this.slog.warn(Events.IO_URING_NOT_AVAILABLE);
+            } else {
+                try {
+                    ring = nativeIO.ioUringInit(entries);
+                    checkState(ring != 0, "io_uring init should throw exception on failure");
+                } catch (NativeIOException | UnsatisfiedLinkError e) {
+                    // io_uring is only an optimization, so disable subsequent usage instead of failing
+                    disableUseIoUring();
+                    this.slog.kv("message", e.getMessage())
+                        .kv("errno", e instanceof NativeIOException ? ((NativeIOException) e).getErrno() : -1)
+                        .warn(Events.IO_URING_NOT_AVAILABLE);
+                }
+            }
+        }
+    }
+
+    private static void disableUseIoUring() {
+        IoRing.useIoUring = false;
+    }
+
+    @VisibleForTesting
+    static void enableUseIoUring() {
+        IoRing.useIoUring = true;
+    }
+
+    /**
+     * @return whether the batches are submitted through io_uring
+     */
+    synchronized boolean isEnabled() {
+        return ring != 0;
+    }
+
+    /**
+     * Execute all the operations of the batch, and wait for them to complete.
+     * The outcome of each operation is then available with {@link Batch#result(int)}.
+     */
+    synchronized void submit(Batch batch) {
+        if (batch.count == 0) {
+            return;
+        }
+
+        Arrays.fill(batch.results, 0, batch.count, NativeIO.IO_URING_NOT_SUBMITTED);
+        if (ring != 0) {
+            try {
+                nativeIO.ioUringSubmitAndWait(ring, batch.count, batch.opcodes, batch.fds, batch.pointers,
+                                              batch.sizes, batch.offsets, batch.results);
+                return;
+            } catch (NativeIOException ne) {
+                // The ring itself failed (i.e. io_uring_enter is not permitted). The operations already
+                // submitted have completed by now, only the ones never submitted are executed below.
+                slog.kv("message", ne.getMessage())
+                    .kv("errno", ne.getErrno())
+                    .warn(Events.IO_URING_NOT_AVAILABLE);
+                closeRing();
+            }
+        }
+
+        for (int i = 0; i < batch.count; i++) {
+            if (batch.results[i] != NativeIO.IO_URING_NOT_SUBMITTED) {
+                continue;
+            }
+            try {
+                if (batch.opcodes[i] == NativeIO.IO_URING_WRITE) {
+                    batch.results[i] = nativeIO.pwrite(batch.fds[i], batch.pointers[i],
+                                                       batch.sizes[i], batch.offsets[i]);
+                } else {
+                    batch.results[i] = nativeIO.pread(batch.fds[i], batch.pointers[i],
+                                                      batch.sizes[i], batch.offsets[i]);
+                }
+            } catch (NativeIOException ne) {
+                batch.results[i] = -Math.abs(ne.getErrno());
+            }
+        }
+    }
+
+    private void closeRing() {
+        long toClose = ring;
+        ring = 0;
+        try {
+            nativeIO.ioUringClose(toClose);
+        } catch (NativeIOException ne) {
+            slog.kv("message", ne.getMessage()).warn(Events.IO_URING_NOT_AVAILABLE);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (ring != 0) {
+            closeRing();
+        }
+    }
+
+    /**
+     * A batch of positioned reads and writes, on aligned native memory.
+     */
+    static class Batch {
+        private final int[] opcodes;
+        private final int[] fds;
+        private final long[] pointers;
+        private final int[] sizes;
+        private final long[] offsets;
+        private final long[] results;
+        private int count;
+
+        Batch(int capacity) {
+            opcodes = new int[capacity];
+            fds = new int[capacity];
+            pointers = new long[capacity];
+            sizes = new int[capacity];
+            offsets = new long[capacity];
+            results = new long[capacity];
+        }
+
+        int read(int fd, long pointer, int size, long offset) {
+            return add(NativeIO.IO_URING_READ, fd, pointer, size, offset);
+        }
+
+        int write(int fd, long pointer, int size, long offset) {
+            return add(NativeIO.IO_URING_WRITE, fd, pointer, size, offset);
+        }
+
+        private int add(int opcode, int fd, long pointer, int size, long offset) {
+            checkState(count < opcodes.length, "Batch is full (%d operations)", count);
+            opcodes[count] = opcode;
+            fds[count] = fd;
+            pointers[count] = pointer;
+            sizes[count] = size;
+            offsets[count] = offset;
+            return count++;
+        }
+
+        int size() {
+            return count;
+        }
+
+        /**
+         * @return the number of bytes transferred by the operation, or the negated errno if it failed
+         */
+        long result(int index) {
+            return results[index];
+        }
+    }
+}
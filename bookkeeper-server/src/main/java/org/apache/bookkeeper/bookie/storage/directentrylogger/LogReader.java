@@ -23,6 +23,8 @@ package org.apache.bookkeeper.bookie.storage.directentrylogger;
 import io.netty.buffer.ByteBuf;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Interface for reading from a bookkeeper entry log.
@@ -73,6 +75,30 @@ public interface LogReader extends AutoCloseable {
      */
     ByteBuf readEntryAt(int offset) throws IOException, EOFException;
 
+    /**
+     * Read the entries at the given offsets, which must be sorted.
+     * If an entry can't be read, the entries before it are returned, and the exception
+     * is only thrown if it's the first entry.
+     * It is the responsibility of the caller to release the returned buffers.
+     * The default implementation reads the entries one by one.
+     * @param offsets the offsets at which to read the entries.
+     * @return the bytebufs of the entries, in the order of the offsets. The caller must release.
+     */
+    default List<ByteBuf> readEntriesAt(int[] offsets) throws IOException, EOFException {
+        List<ByteBuf> entries = new ArrayList<>(offsets.length);
+        for (int offset : offsets) {
+            try {
+                entries.add(readEntryAt(offset));
+            } catch (IOException e) {
+                if (entries.isEmpty()) {
+                    throw e;
+                }
+                break;
+            }
+        }
+        return entries;
+    }
+
     @Override
     void close() throws IOException;
 
@@ -39,6 +39,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PrimitiveIterator.OfLong;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
@@ -91,9 +92,20 @@ public class DbLedgerStorage implements LedgerStorage {
         "dbStorage_directIOEntryLoggerReadBufferSizeMB";
     public static final String DIRECT_IO_ENTRYLOGGER_MAX_FD_CACHE_TIME_SECONDS =
         "dbStorage_directIOEntryLoggerMaxFdCacheTimeSeconds";
+    public static final String DIRECT_IO_ENTRYLOGGER_IO_URING_ENTRIES =
+        "dbStorage_directIOEntryLoggerIoUringEntries";
 
     static final String MAX_THROTTLE_TIME_MILLIS = "dbStorage_maxThrottleTimeMs";
 
+    static final String READ_CACHE_TINY_LFU = "dbStorage_readCacheTinyLfu";
+
+    static final String WRITE_CACHE_SHARDS = "dbStorage_writeCacheShards";
+
+    static final String ENTRY_LOCATION_INDEX_STORAGE = "dbStorage_entryLocationIndexStorage";
+
+    static final String ENTRY_LOCATION_INDEX_DENSE_BLOCKS = "dbStorage_entryLocationIndexDenseBlocks";
+    static final String ENTRY_LOCATION_INDEX_BLOCK_CACHE_SIZE = "dbStorage_entryLocationIndexBlockCacheSize";
+
     private static final int MB = 1024 * 1024;
 
     private static final long DEFAULT_WRITE_CACHE_MAX_SIZE_MB =
@@ -106,6 +118,11 @@ public class DbLedgerStorage implements LedgerStorage {
     private static final int DEFAULT_READ_AHEAD_CACHE_BATCH_SIZE = 100;
     // the default value is -1. this feature(limit of read ahead bytes) is disabled
     private static final int DEFAULT_READ_AHEAD_CACHE_BATCH_BYTES_SIZE = -1;
+    static final String READ_AHEAD_ADAPTIVE = "dbStorage_readAheadAdaptive";
+    static final String READ_AHEAD_CACHE_MAX_BATCH_SIZE = "dbStorage_readAheadCacheMaxBatchSize";
+    static final String READ_AHEAD_ASYNC_THREADS = "dbStorage_readAheadAsyncThreads";
+    static final String ASYNC_READ_THREADS = "dbStorage_asyncReadThreads";
+    static final int DEFAULT_ASYNC_READ_THREADS = 8;
 
     private static final long DEFAULT_DIRECT_IO_TOTAL_WRITEBUFFER_SIZE_MB =
         (long) (0.125 * PlatformDependent.estimateMaxDirectMemory())
@@ -224,6 +241,9 @@ public class DbLedgerStorage implements LedgerStorage {
                     numReadThreads = conf.getServerNumIOThreads();
                 }
 
+                // The async reads of the directory read the entry log from their own threads
+                numReadThreads += conf.getInt(ASYNC_READ_THREADS, DEFAULT_ASYNC_READ_THREADS);
+
                 entrylogger = new DirectEntryLogger(ledgerDir, new EntryLogIdsImpl(ldm, slog),
                     new NativeIOImpl(),
                     allocator, entryLoggerWriteExecutor, entryLoggerFlushExecutor,
@@ -234,9 +254,10 @@ public class DbLedgerStorage implements LedgerStorage {
                     readBufferSize,
                     numReadThreads,
                     maxFdCacheTimeSeconds,
+                    conf.getInt(DIRECT_IO_ENTRYLOGGER_IO_URING_ENTRIES, 0),
                     slog, statsLogger);
             } else {
-                entrylogger = new DefaultEntryLogger(conf, ldm, null, statsLogger, allocator);
+                entrylogger = new DefaultEntryLogger(conf, ldm, null, statsLogger, allocator, ledgerManager);
             }
             ledgerStorageList.add(newSingleDirectoryDbLedgerStorage(conf, ledgerManager, ldm,
                 idm, entrylogger,
@@ -361,6 +382,17 @@ public class DbLedgerStorage implements LedgerStorage {
         return getLedgerStorage(ledgerId).getEntry(ledgerId, entryId);
     }
 
+    @Override
+    public CompletableFuture<ByteBuf> getEntryAsync(long ledgerId, long entryId) {
+        return getLedgerStorage(ledgerId).getEntryAsync(ledgerId, entryId);
+    }
+
+    @Override
+    public List<ByteBuf> getEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, BookieException {
+        return getLedgerStorage(ledgerId).getEntries(ledgerId, firstEntryId, maxCount, maxSize);
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         return getLedgerStorage(ledgerId).getLastAddConfirmed(ledgerId);
@@ -484,9 +516,12 @@ public class DbLedgerStorage implements LedgerStorage {
         int dirIndex = MathUtils.signSafeMod(ledgerId, ledgerDirs.size());
         String indexBasePath = indexDirs.get(dirIndex).toString();
 
-        EntryLocationIndex entryLocationIndex = new EntryLocationIndex(serverConf,
-                (basePath, subPath, dbConfigType, conf1) ->
-                        new KeyValueStorageRocksDB(basePath, subPath, DbConfigType.Default, conf1, true),
+        KeyValueStorageFactory storageFactory = KeyValueStorageSortedRuns.isSortedRunsStorage(indexBasePath,
+                "locations")
+                ? KeyValueStorageSortedRuns.factory
+                : (basePath, subPath, dbConfigType, conf1) ->
+                        new KeyValueStorageRocksDB(basePath, subPath, DbConfigType.Default, conf1, true);
+        EntryLocationIndex entryLocationIndex = new EntryLocationIndex(serverConf, storageFactory,
                 indexBasePath, NullStatsLogger.INSTANCE);
         try {
             long lastEntryId = entryLocationIndex.getLastEntryInLedger(ledgerId);
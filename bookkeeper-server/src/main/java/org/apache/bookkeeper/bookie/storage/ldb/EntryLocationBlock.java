@@ -0,0 +1,163 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Encoding of the locations of a block of {@value #BLOCK_SIZE} consecutive entries of a ledger into a single value of
+ * the locations index.
+ *
+ * <p>The block is stored with key (ledgerId, firstEntryIdOfBlock) and the value is:
+ * <pre>
+ * [format:byte][firstPosition:varint][positionsCount:varint][delta:zigzag-varint]...
+ * </pre>
+ *
+ * <p>Each delta is the difference between the location of the entry and the location of the previous entry present in
+ * the block. Entries of a ledger are mostly appended one after the other in the same entry log, so the deltas are
+ * small. Since two entries can't have the same location, a delta of 0 marks a missing entry.
+ *
+ * <p>The encoded value is never 8 bytes long, so that it can be told apart from the value of a single entry location.
+ */
+final class EntryLocationBlock {
+
+    static final int BLOCK_SHIFT = 7;
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private static final byte FORMAT_V1 = 1;
+
+    // Size of the value holding the location of a single entry
+    private static final int SINGLE_LOCATION_SIZE = Long.BYTES;
+
+    static final long[] EMPTY = new long[BLOCK_SIZE];
+
+    private EntryLocationBlock() {}
+
+    static long blockFirstEntry(long entryId) {
+        return entryId & ~(BLOCK_SIZE - 1);
+    }
+
+    static int position(long entryId) {
+        return (int) (entryId & (BLOCK_SIZE - 1));
+    }
+
+    /**
+     * @return whether the value is an encoded block, rather than the location of a single entry
+     */
+    static boolean isBlock(byte[] value) {
+        return value != null && value.length != SINGLE_LOCATION_SIZE;
+    }
+
+    /**
+     * @return the position of the last entry present in the block, or -1 if the block is empty
+     */
+    static int lastPosition(long[] locations) {
+        for (int i = BLOCK_SIZE - 1; i >= 0; i--) {
+            if (locations[i] != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static byte[] encode(long[] locations) {
+        int first = 0;
+        while (first < BLOCK_SIZE && locations[first] == 0) {
+            ++first;
+        }
+        int last = lastPosition(locations);
+        int count = last < 0 ? 0 : last - first + 1;
+
+        // Worst case is 10 bytes for each varint
+        byte[] buf = new byte[1 + 5 + 5 + count * 10 + 1];
+        int idx = 0;
+        buf[idx++] = FORMAT_V1;
+        idx = writeVarLong(buf, idx, first);
+        idx = writeVarLong(buf, idx, count);
+
+        long previous = 0;
+        for (int i = first; i < first + count; i++) {
+            if (locations[i] == 0) {
+                idx = writeVarLong(buf, idx, 0);
+            } else {
+                long delta = locations[i] - previous;
+                idx = writeVarLong(buf, idx, (delta << 1) ^ (delta >> 63));
+                previous = locations[i];
+            }
+        }
+
+        if (idx == SINGLE_LOCATION_SIZE) {
+            // Padding, to not be mistaken for the location of a single entry
+            buf[idx++] = 0;
+        }
+        return Arrays.copyOf(buf, idx);
+    }
+
+    static long[] decode(byte[] value) throws IOException {
+        if (value.length == 0 || value[0] != FORMAT_V1) {
+            throw new IOException("Unknown entry location block format");
+        }
+
+        long[] locations = new long[BLOCK_SIZE];
+        int[] idx = { 1 };
+        int first = (int) readVarLong(value, idx);
+        int count = (int) readVarLong(value, idx);
+        if (first < 0 || count < 0 || first + count > BLOCK_SIZE) {
+            throw new IOException("Invalid entry location block");
+        }
+
+        long previous = 0;
+        for (int i = first; i < first + count; i++) {
+            long zigzag = readVarLong(value, idx);
+            if (zigzag != 0) {
+                long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+                previous += delta;
+                locations[i] = previous;
+            }
+        }
+        return locations;
+    }
+
+    private static int writeVarLong(byte[] buf, int idx, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[idx++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[idx++] = (byte) value;
+        return idx;
+    }
+
+    private static long readVarLong(byte[] buf, int[] idx) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (idx[0] >= buf.length) {
+                throw new IOException("Truncated entry location block");
+            }
+            byte b = buf[idx[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in entry location block");
+    }
+}
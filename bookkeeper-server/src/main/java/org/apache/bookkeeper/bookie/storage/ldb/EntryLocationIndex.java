@@ -20,12 +20,18 @@
  */
 package org.apache.bookkeeper.bookie.storage.ldb;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterables;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.EntryLocation;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
@@ -42,16 +48,55 @@ import org.slf4j.LoggerFactory;
  *
  * <p>For each ledger multiple entries are stored in the same "record", represented
  * by the {@link LedgerIndexPage} class.
+ *
+ * <p>When the dense blocks format is enabled, the locations of {@value EntryLocationBlock#BLOCK_SIZE} consecutive
+ * entries of a ledger are stored in a single {@link EntryLocationBlock} record. The locations that were stored one
+ * per record before enabling it can still be read.
  */
 public class EntryLocationIndex implements Closeable {
 
+    static final String ROCKSDB_STORAGE = "rocksdb";
+    static final String SORTED_RUNS_STORAGE = "sortedruns";
+
     private final KeyValueStorage locationsDb;
     private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
     private final EntryLocationIndexStats stats;
     private boolean isCompacting;
 
+    private final boolean denseBlocks;
+
+    // Decoded blocks of locations, only used with the dense blocks format
+    private final Cache<BlockKey, long[]> blockCache;
+
+    // Serializes the read-modify-write of the blocks and the update of the block cache
+    private final ReentrantLock blockWriteLock = new ReentrantLock();
+
+    // Keeps the merged blocks written to the storage in the same order they were merged in. It's taken before
+    // releasing blockWriteLock, so that the next batch can be merged while the previous one is being flushed
+    private final ReentrantLock blockFlushLock = new ReentrantLock();
+
+    private static final long DEFAULT_BLOCK_CACHE_SIZE = 16 * 1024;
+
     public EntryLocationIndex(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath,
             StatsLogger stats) throws IOException {
+        if (storageFactory != KeyValueStorageSortedRuns.factory
+                && KeyValueStorageSortedRuns.isSortedRunsStorage(basePath, "locations")) {
+            throw new IOException("Locations index in " + basePath + " was created with the sorted runs storage."
+                    + " Set " + DbLedgerStorage.ENTRY_LOCATION_INDEX_STORAGE + "=" + SORTED_RUNS_STORAGE
+                    + " or migrate the index with the rebuild-db-ledger-locations-index command");
+        }
+        denseBlocks = conf.getBoolean(DbLedgerStorage.ENTRY_LOCATION_INDEX_DENSE_BLOCKS, false);
+        if (denseBlocks && storageFactory == KeyValueStorageSortedRuns.factory) {
+            throw new IllegalArgumentException(DbLedgerStorage.ENTRY_LOCATION_INDEX_DENSE_BLOCKS
+                    + " is not supported with the sorted runs storage, which only stores single locations");
+        }
+        blockCache = denseBlocks
+                ? CacheBuilder.newBuilder()
+                        .maximumSize(conf.getLong(DbLedgerStorage.ENTRY_LOCATION_INDEX_BLOCK_CACHE_SIZE,
+                                DEFAULT_BLOCK_CACHE_SIZE))
+                        .build()
+                : null;
+
         locationsDb = storageFactory.newKeyValueStorage(basePath, "locations", DbConfigType.EntryLocation, conf);
 
         this.stats = new EntryLocationIndexStats(
@@ -65,6 +110,23 @@ public class EntryLocationIndex implements Closeable {
             });
     }
 
+    /**
+     * Get the factory of the storage configured for the locations index.
+     */
+    static KeyValueStorageFactory getStorageFactory(ServerConfiguration conf) {
+        return getStorageFactory(conf.getString(DbLedgerStorage.ENTRY_LOCATION_INDEX_STORAGE, ROCKSDB_STORAGE));
+    }
+
+    static KeyValueStorageFactory getStorageFactory(String storage) {
+        if (ROCKSDB_STORAGE.equalsIgnoreCase(storage)) {
+            return KeyValueStorageRocksDB.factory;
+        } else if (SORTED_RUNS_STORAGE.equalsIgnoreCase(storage)) {
+            return KeyValueStorageSortedRuns.factory;
+        } else {
+            throw new IllegalArgumentException("Unknown locations index storage: " + storage);
+        }
+    }
+
     @Override
     public void close() throws IOException {
         locationsDb.close();
@@ -77,6 +139,17 @@ public class EntryLocationIndex implements Closeable {
         long startTimeNanos = MathUtils.nowInNano();
         boolean operationSuccess = false;
         try {
+            if (denseBlocks) {
+                long location = readBlock(ledgerId, EntryLocationBlock.blockFirstEntry(entryId))
+                        [EntryLocationBlock.position(entryId)];
+                if (location != 0 || EntryLocationBlock.position(entryId) == 0) {
+                    // The first entry of the block shares the key with the block, so it can't be stored on its own
+                    operationSuccess = location != 0;
+                    return location;
+                }
+                // Otherwise, the entry might have been indexed before enabling the dense blocks
+            }
+
             if (locationsDb.get(key.array, value.array) < 0) {
                 if (log.isDebugEnabled()) {
                     log.debug("Entry not found {}@{} in db index", ledgerId, entryId);
@@ -128,6 +201,9 @@ public class EntryLocationIndex implements Closeable {
             long lastEntryId = ArrayUtil.getLong(entry.getKey(), 8);
 
             if (foundLedgerId == ledgerId) {
+                if (denseBlocks) {
+                    lastEntryId = getLastEntryInBlock(ledgerId, lastEntryId, entry.getValue());
+                }
                 if (log.isDebugEnabled()) {
                     log.debug("Found last page in storage db for ledger {} - last entry: {}", ledgerId, lastEntryId);
                 }
@@ -138,18 +214,72 @@ public class EntryLocationIndex implements Closeable {
         }
     }
 
+    /**
+     * @param entryId
+     *            the entry id of the last record of the ledger
+     * @param value
+     *            the value of the last record of the ledger
+     * @return the id of the last entry in the block of the record
+     */
+    private long getLastEntryInBlock(long ledgerId, long entryId, byte[] value) throws IOException {
+        if (EntryLocationBlock.isBlock(value)) {
+            return entryId + EntryLocationBlock.lastPosition(EntryLocationBlock.decode(value));
+        }
+
+        // The record is the location of a single entry, indexed before enabling the dense blocks. The following
+        // entries could be in the block that contains it
+        long blockFirstEntry = EntryLocationBlock.blockFirstEntry(entryId);
+        int lastPosition = EntryLocationBlock.lastPosition(readBlock(ledgerId, blockFirstEntry));
+        return Math.max(entryId, blockFirstEntry + lastPosition);
+    }
+
+    private long[] readBlock(long ledgerId, long blockFirstEntry) throws IOException {
+        try {
+            return blockCache.get(new BlockKey(ledgerId, blockFirstEntry), () -> loadBlock(ledgerId, blockFirstEntry));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private long[] loadBlock(long ledgerId, long blockFirstEntry) throws IOException {
+        LongPairWrapper key = LongPairWrapper.get(ledgerId, blockFirstEntry);
+        try {
+            byte[] value = locationsDb.get(key.array);
+            if (value == null) {
+                return EntryLocationBlock.EMPTY;
+            } else if (EntryLocationBlock.isBlock(value)) {
+                return EntryLocationBlock.decode(value);
+            } else {
+                // Location of the first entry of the block, indexed before enabling the dense blocks
+                long[] locations = new long[EntryLocationBlock.BLOCK_SIZE];
+                locations[0] = ArrayUtil.getLong(value, 0);
+                return locations;
+            }
+        } finally {
+            key.recycle();
+        }
+    }
+
     public void addLocation(long ledgerId, long entryId, long location) throws IOException {
-        Batch batch = locationsDb.newBatch();
+        Batch batch = newBatch();
         addLocation(batch, ledgerId, entryId, location);
         batch.flush();
         batch.close();
     }
 
     public Batch newBatch() {
-        return locationsDb.newBatch();
+        return denseBlocks ? new DenseBlocksBatch(locationsDb.newBatch()) : locationsDb.newBatch();
     }
 
     public void addLocation(Batch batch, long ledgerId, long entryId, long location) throws IOException {
+        if (batch instanceof DenseBlocksBatch) {
+            ((DenseBlocksBatch) batch).addLocation(ledgerId, entryId, location);
+            return;
+        }
+
         LongPairWrapper key = LongPairWrapper.get(ledgerId, entryId);
         LongWrapper value = LongWrapper.get(location);
 
@@ -221,11 +351,21 @@ public class EntryLocationIndex implements Closeable {
         long startTime = System.nanoTime();
 
         try (Batch batch = locationsDb.newBatch()) {
+            // With the dense blocks, the last entry of each ledger tells which blocks of the ledger can be cached
+            Map<Long, Long> lastEntries = denseBlocks ? new LinkedHashMap<>() : null;
             for (long ledgerId : ledgersToDelete) {
                 if (log.isDebugEnabled()) {
                     log.debug("Deleting indexes from ledger {}", ledgerId);
                 }
 
+                if (denseBlocks) {
+                    try {
+                        lastEntries.put(ledgerId, getLastEntryInLedgerInternal(ledgerId));
+                    } catch (Bookie.NoEntryException e) {
+                        // No entries in the index for this ledger
+                    }
+                }
+
                 firstKeyWrapper.set(ledgerId, 0);
                 lastKeyWrapper.set(ledgerId, Long.MAX_VALUE);
 
@@ -233,6 +373,14 @@ public class EntryLocationIndex implements Closeable {
             }
 
             batch.flush();
+            if (denseBlocks) {
+                for (Map.Entry<Long, Long> e : lastEntries.entrySet()) {
+                    for (long firstEntryId = 0; firstEntryId <= e.getValue();
+                         firstEntryId += EntryLocationBlock.BLOCK_SIZE) {
+                        blockCache.invalidate(new BlockKey(e.getKey(), firstEntryId));
+                    }
+                }
+            }
             for (long ledgerId : ledgersToDelete) {
                 deletedLedgers.remove(ledgerId);
             }
@@ -245,5 +393,123 @@ public class EntryLocationIndex implements Closeable {
                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) / 1000.0);
     }
 
+    /**
+     * Batch that collects the new locations by block, and merges them with the stored blocks when flushed.
+     */
+    private class DenseBlocksBatch implements Batch {
+        private final Batch batch;
+        private final Map<BlockKey, long[]> pendingBlocks = new LinkedHashMap<>();
+
+        DenseBlocksBatch(Batch batch) {
+            this.batch = batch;
+        }
+
+        void addLocation(long ledgerId, long entryId, long location) {
+            if (log.isDebugEnabled()) {
+                log.debug("Add location - ledger: {} -- entry: {} -- location: {}", ledgerId, entryId, location);
+            }
+
+            long[] locations = pendingBlocks.computeIfAbsent(
+                    new BlockKey(ledgerId, EntryLocationBlock.blockFirstEntry(entryId)),
+                    k -> new long[EntryLocationBlock.BLOCK_SIZE]);
+            locations[EntryLocationBlock.position(entryId)] = location;
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            batch.put(key, value);
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            batch.remove(key);
+        }
+
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            batch.deleteRange(beginKey, endKey);
+        }
+
+        @Override
+        public void clear() {
+            pendingBlocks.clear();
+            batch.clear();
+        }
+
+        @Override
+        public int batchCount() {
+            return batch.batchCount() + pendingBlocks.size();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            blockWriteLock.lock();
+            try {
+                for (Map.Entry<BlockKey, long[]> e : pendingBlocks.entrySet()) {
+                    BlockKey blockKey = e.getKey();
+                    long[] locations = readBlock(blockKey.ledgerId, blockKey.firstEntryId).clone();
+                    long[] updates = e.getValue();
+                    for (int i = 0; i < updates.length; i++) {
+                        if (updates[i] != 0) {
+                            locations[i] = updates[i];
+                        }
+                    }
+
+                    LongPairWrapper key = LongPairWrapper.get(blockKey.ledgerId, blockKey.firstEntryId);
+                    try {
+                        batch.put(key.array, EntryLocationBlock.encode(locations));
+                    } finally {
+                        key.recycle();
+                    }
+
+                    // The next batch merges its locations with this block even before it's flushed. The locations
+                    // point to entries that are already persisted in the entry logs
+                    blockCache.put(blockKey, locations);
+                }
+                pendingBlocks.clear();
+
+                blockFlushLock.lock();
+            } finally {
+                blockWriteLock.unlock();
+            }
+
+            try {
+                batch.flush();
+            } finally {
+                blockFlushLock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            pendingBlocks.clear();
+            batch.close();
+        }
+    }
+
+    private static final class BlockKey {
+        final long ledgerId;
+        final long firstEntryId;
+
+        BlockKey(long ledgerId, long firstEntryId) {
+            this.ledgerId = ledgerId;
+            this.firstEntryId = firstEntryId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return ledgerId == other.ledgerId && firstEntryId == other.firstEntryId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(ledgerId * 31 + firstEntryId);
+        }
+    }
+
     private static final Logger log = LoggerFactory.getLogger(EntryLocationIndex.class);
 }
@@ -0,0 +1,166 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Probabilistic estimate of how many times an entry has been accessed recently.
+ *
+ * <p>This is a count-min sketch with 4-bit counters, packed 16 per long. Each (ledgerId, entryId) pair maps
+ * to 4 counters and its frequency is the minimum among them.
+ *
+ * <p>To keep the estimates related to the recent history, all the counters are halved each time the number of
+ * recorded accesses reaches 10 times the table size (the "reset" operation described in TinyLFU).
+ */
+class FrequencySketch {
+
+    static final int MAX_FREQUENCY = 15;
+
+    private static final int MIN_TABLE_SIZE = 1 << 10;
+    private static final int MAX_TABLE_SIZE = 1 << 22;
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int sampleSize;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean resetOngoing = new AtomicBoolean();
+
+    FrequencySketch(long expectedItems) {
+        long tableSize = Long.highestOneBit(Math.max(expectedItems, 1) - 1) << 1;
+        tableSize = Math.max(MIN_TABLE_SIZE, Math.min(MAX_TABLE_SIZE, tableSize));
+
+        this.table = new AtomicLongArray((int) tableSize);
+        this.tableMask = (int) tableSize - 1;
+        this.sampleSize = 10 * (int) tableSize;
+    }
+
+    /**
+     * @return the estimated number of recent accesses to the entry, capped at {@link #MAX_FREQUENCY}
+     */
+    int frequency(long ledgerId, long entryId) {
+        return frequency(keyHash(ledgerId, entryId));
+    }
+
+    /**
+     * @param hash the key hash of the entry, as returned by {@link #keyHash(long, long)}
+     * @return the estimated number of recent accesses to the entry, capped at {@link #MAX_FREQUENCY}
+     */
+    int frequency(long hash) {
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = rehash(hash, i);
+            int shift = counterShift(h);
+            int count = (int) ((table.get(indexOf(h)) >>> shift) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record one access to the entry.
+     */
+    void increment(long ledgerId, long entryId) {
+        long hash = keyHash(ledgerId, entryId);
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = rehash(hash, i);
+            added |= incrementAt(indexOf(h), counterShift(h));
+        }
+
+        if (added && size.incrementAndGet() >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int shift) {
+        long mask = 0xfL << shift;
+        while (true) {
+            long current = table.get(index);
+            if ((current & mask) == mask) {
+                // Counter is already saturated
+                return false;
+            }
+
+            if (table.compareAndSet(index, current, current + (1L << shift))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Age all the counters by halving them.
+     */
+    private void reset() {
+        if (!resetOngoing.compareAndSet(false, true)) {
+            // Another thread is already aging the counters
+            return;
+        }
+
+        try {
+            for (int i = 0; i < table.length(); i++) {
+                long current;
+                do {
+                    current = table.get(i);
+                } while (!table.compareAndSet(i, current, (current >>> 1) & RESET_MASK));
+            }
+
+            size.set(sampleSize / 2);
+        } finally {
+            resetOngoing.set(false);
+        }
+    }
+
+    private int indexOf(long h) {
+        return (int) (h >>> 32) & tableMask;
+    }
+
+    private static int counterShift(long h) {
+        return ((int) h & 0xf) << 2;
+    }
+
+    private static long rehash(long hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * @return a single value identifying the (ledgerId, entryId) pair in the sketch
+     */
+    static long keyHash(long ledgerId, long entryId) {
+        // Mix the two ids with the MurmurHash3 finalizer
+        long h = ledgerId * 0x9e3779b97f4a7c15L + entryId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53ec2c9L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
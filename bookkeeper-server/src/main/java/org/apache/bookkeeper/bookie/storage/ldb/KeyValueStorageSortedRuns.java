@@ -0,0 +1,1988 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static com.google.common.base.Preconditions.checkState;
+
+// CHECKSTYLE.OFF: IllegalImport
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+// CHECKSTYLE.ON: IllegalImport
+
+/**
+ * Implementation of the KeyValueStorage based on immutable, memory-mapped sorted runs.
+ *
+ * <p>This storage is meant for the entry location index, where the keys are the (ledgerId, entryId) pairs and the
+ * values are the entry locations: keys must be 16 bytes long and values must be 8 bytes long.
+ *
+ * <p>The data is kept in:
+ * <ul>
+ * <li>a write-ahead log with all the updates that are not yet part of a run. The log is replayed in the memtable on
+ * startup
+ * <li>a set of sorted runs, each one a file with fixed size records sorted by key. The runs are never modified after
+ * being written and are accessed through memory mapping. For each run we keep in memory one key every
+ * {@value #FENCE_INTERVAL} records, so that a lookup only touches a few pages of the run
+ * <li>an append-only log with the range deletions that were not yet applied to all the runs they cover. The deletions
+ * of the memtable are appended when it's written as a run, and the log is rewritten without the deletions dropped by a
+ * merge
+ * <li>a manifest, with the list of the live runs and the valid length of the range deletions log
+ * </ul>
+ *
+ * <p>When the memtable is full it's replaced by an empty one, with a new write-ahead log, and written as a new run in
+ * background. The lookups check the memtable being written too, until its run is published. When there are too many
+ * runs, the newest ones are merged in
+ * background into a single run, applying the range deletions. A merge only includes an older run when it's not much
+ * bigger than all the newer runs together, so that the big runs at the bottom are rewritten by few merges rather than
+ * by all of them. Since the entries of a ledger are written in increasing order, the merge is a sequential scan of the
+ * merged runs.
+ *
+ * <p>The runs are shared by all the ledgers rather than kept per ledger. A bookie holds hundreds of thousands of
+ * ledgers and each write cache flush updates the locations of all the ledgers written since the previous one: with
+ * per-ledger runs a flush would create, sync and map a small file per ledger, and lookups would need a file handle and
+ * a mapping per ledger. Since the records are sorted by (ledgerId, entryId), the entries of a ledger are still a
+ * contiguous, append-only extent of each run, found through the fence index. Deleting a ledger is a range deletion,
+ * applied when the runs are merged. The write-ahead log lets a checkpoint sync its updates with a single append,
+ * rather than writing a run for every batch.
+ *
+ * <p>The runs are reference counted: each lookup and each iterator holds the set of runs it started with, and a run
+ * that is no longer live is unmapped, and its file deleted, once the last reader using it is done.
+ */
+public class KeyValueStorageSortedRuns implements KeyValueStorage {
+
+    static KeyValueStorageFactory factory = (defaultBasePath, subPath, dbConfigType, conf) ->
+            new KeyValueStorageSortedRuns(defaultBasePath, subPath, conf);
+
+    static final int KEY_SIZE = 16;
+    static final int VALUE_SIZE = 8;
+
+    private static final int RECORD_SIZE = KEY_SIZE + VALUE_SIZE;
+    private static final int FENCE_INTERVAL = 128;
+
+    private static final long RUN_MAGIC = 0x424b534f52554e31L; // "BKSORUN1"
+    private static final int RUN_HEADER_SIZE = 32;
+    private static final long RECORDS_PER_SEGMENT = Integer.MAX_VALUE / RECORD_SIZE;
+
+    private static final int MANIFEST_MAGIC = 0x424b534d; // "BKSM"
+    private static final int WAL_MAGIC = 0x424b5357; // "BKSW"
+    private static final int TOMBSTONES_MAGIC = 0x424b5354; // "BKST"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE_RANGE = 2;
+    private static final int PUT_OP_SIZE = 1 + KEY_SIZE + VALUE_SIZE;
+    private static final int DELETE_RANGE_OP_SIZE = 1 + KEY_SIZE + KEY_SIZE;
+
+    // Sequence number, begin key and end key of a range deletion
+    private static final int TOMBSTONE_LONGS = 5;
+    private static final int TOMBSTONE_RECORD_SIZE = TOMBSTONE_LONGS * 8;
+    private static final int TOMBSTONES_HEADER_SIZE = 8;
+
+    static final String MANIFEST_FILE = "index.manifest";
+    private static final String RUN_SUFFIX = ".run";
+    private static final String WAL_SUFFIX = ".wal";
+    private static final String TOMBSTONES_SUFFIX = ".tombstones";
+
+    @VisibleForTesting
+    static final String SORTED_RUNS_WRITE_BUFFER_ENTRIES = "dbStorage_sortedRuns_writeBufferEntries";
+    @VisibleForTesting
+    static final String SORTED_RUNS_MAX_RUNS = "dbStorage_sortedRuns_maxRuns";
+    @VisibleForTesting
+    static final String SORTED_RUNS_MERGE_SIZE_RATIO = "dbStorage_sortedRuns_mergeSizeRatioPercent";
+
+    private static final int DEFAULT_WRITE_BUFFER_ENTRIES = 512 * 1024;
+    private static final int DEFAULT_MAX_RUNS = 8;
+    private static final int DEFAULT_MERGE_SIZE_RATIO = 100;
+
+    private static final Comparator<byte[]> KEY_COMPARATOR = (a, b) -> compareKeys(
+            ArrayUtil.getLong(a, 0), ArrayUtil.getLong(a, 8), ArrayUtil.getLong(b, 0), ArrayUtil.getLong(b, 8));
+
+    private final File dbDir;
+    private final String dbPath;
+    private final int writeBuffersEntries;
+    private final int maxRuns;
+    private final int mergeSizeRatio;
+    private final int writeBatchMaxSize;
+
+    // Protects all the updates to the memtable and the write-ahead log
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Protects the updates to the runs, the range deletions and the manifest. Taken after the writeLock
+    private final ReentrantLock manifestLock = new ReentrantLock();
+
+    // Only one merge of the runs can happen at a time
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    private volatile MemTable memTable;
+
+    // Full memtable being written into a run, if any
+    private volatile MemTable flushingMemTable;
+    private Future<?> pendingFlush;
+
+    // Live runs, sorted from the newest to the oldest
+    private volatile RunSet runSet;
+    private volatile RangeTombstones tombstones;
+
+    private long lastRunSeq;
+    private long nextFileId;
+
+    // Log of the range deletions of the runs, and its length in the manifest
+    private long tombstonesFileId;
+    private long tombstonesLength;
+
+    private FileChannel wal;
+
+    private final ExecutorService flushExecutor;
+    private final ExecutorService compactionExecutor;
+
+    public KeyValueStorageSortedRuns(String basePath, String subPath, ServerConfiguration conf) throws IOException {
+        this.dbDir = new File(basePath, subPath);
+        this.dbPath = dbDir.toString();
+        this.writeBuffersEntries = conf.getInt(SORTED_RUNS_WRITE_BUFFER_ENTRIES, DEFAULT_WRITE_BUFFER_ENTRIES);
+        this.maxRuns = Math.max(2, conf.getInt(SORTED_RUNS_MAX_RUNS, DEFAULT_MAX_RUNS));
+        this.mergeSizeRatio = Math.max(0, conf.getInt(SORTED_RUNS_MERGE_SIZE_RATIO, DEFAULT_MERGE_SIZE_RATIO));
+        this.writeBatchMaxSize = conf.getMaxOperationNumbersInSingleRocksDBBatch();
+
+        if (!dbDir.exists() && !dbDir.mkdirs()) {
+            throw new IOException("Failed to create directory " + dbDir);
+        }
+
+        File manifestFile = new File(dbDir, MANIFEST_FILE);
+        if (!manifestFile.exists() && new File(dbDir, "CURRENT").exists()) {
+            throw new IOException("Directory " + dbDir + " contains a RocksDB index. The index needs to be migrated"
+                    + " with the rebuild-db-ledger-locations-index command before using the sorted runs storage");
+        }
+
+        this.flushExecutor = Executors.newSingleThreadExecutor(
+                new DefaultThreadFactory("db-storage-sorted-runs-flush"));
+        this.compactionExecutor = Executors.newSingleThreadExecutor(
+                new DefaultThreadFactory("db-storage-sorted-runs-compaction"));
+
+        if (manifestFile.exists()) {
+            readManifest(manifestFile);
+        } else {
+            this.runSet = new RunSet(new SortedRun[0]);
+            this.tombstones = RangeTombstones.EMPTY;
+            this.lastRunSeq = 0;
+            this.nextFileId = 1;
+            this.tombstonesFileId = nextFileId++;
+            this.tombstonesLength = appendTombstones(tombstonesFileId, 0, new byte[0]);
+            writeManifest(runSet.runs, tombstonesFileId, tombstonesLength);
+        }
+
+        deleteStaleFiles();
+        replayWriteAheadLogs();
+
+        log.info("Opened sorted runs storage at {} -- runs: {} -- range deletions: {} -- memtable entries: {}",
+                dbPath, runSet.runs.length, tombstones.size(), memTable.count.get());
+    }
+
+    /**
+     * @return whether the directory contains an index created by this storage
+     */
+    static boolean isSortedRunsStorage(String basePath, String subPath) {
+        return new File(new File(basePath, subPath), MANIFEST_FILE).exists();
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) throws IOException {
+        byte[] op = new byte[PUT_OP_SIZE];
+        encodePut(op, 0, key, value);
+        write(op, op.length, false);
+    }
+
+    @Override
+    public byte[] get(byte[] key) throws IOException {
+        checkKey(key);
+        // The flushing memtable is taken after the current one: it's set before the current one is replaced, and
+        // only cleared once its run is published
+        byte[] value = memTable.entries.get(key);
+        if (value == null) {
+            MemTable flushing = flushingMemTable;
+            value = flushing != null ? flushing.entries.get(key) : null;
+        }
+        if (value != null) {
+            return value.clone();
+        }
+
+        long keyHi = ArrayUtil.getLong(key, 0);
+        long keyLo = ArrayUtil.getLong(key, 8);
+        // The tombstones must be taken after the memtables lookup, since a range deletion is published before its
+        // keys are removed from the memtables
+        RangeTombstones tombstones = this.tombstones;
+        RunSet runSet = acquireRuns();
+        try {
+            for (SortedRun run : runSet.runs) {
+                long idx = run.find(keyHi, keyLo);
+                if (idx >= 0) {
+                    if (tombstones.findCovering(keyHi, keyLo, run.seq) >= 0) {
+                        // Deleted after this run was written, the older runs are covered too
+                        return null;
+                    }
+                    byte[] res = new byte[VALUE_SIZE];
+                    ArrayUtil.setLong(res, 0, run.value(idx));
+                    return res;
+                }
+            }
+            return null;
+        } finally {
+            runSet.release();
+        }
+    }
+
+    @Override
+    public int get(byte[] key, byte[] value) throws IOException {
+        byte[] res = get(key);
+        if (res == null) {
+            return -1;
+        } else if (res.length > value.length) {
+            throw new IOException("Value array is too small to fit the result");
+        }
+        System.arraycopy(res, 0, value, 0, res.length);
+        return res.length;
+    }
+
+    @Override
+    public Entry<byte[], byte[]> getFloor(byte[] key) throws IOException {
+        checkKey(key);
+        long keyHi = ArrayUtil.getLong(key, 0);
+        long keyLo = ArrayUtil.getLong(key, 8);
+
+        Entry<byte[], byte[]> best = memTable.entries.lowerEntry(key);
+        MemTable flushing = flushingMemTable;
+        if (flushing != null) {
+            Entry<byte[], byte[]> e = flushing.entries.lowerEntry(key);
+            if (e != null && (best == null || KEY_COMPARATOR.compare(e.getKey(), best.getKey()) > 0)) {
+                best = e;
+            }
+        }
+        long bestHi = best != null ? ArrayUtil.getLong(best.getKey(), 0) : 0;
+        long bestLo = best != null ? ArrayUtil.getLong(best.getKey(), 8) : 0;
+
+        RangeTombstones tombstones = this.tombstones;
+        RunSet runSet = acquireRuns();
+        try {
+            for (SortedRun run : runSet.runs) {
+                long idx = run.lowerBound(keyHi, keyLo) - 1;
+                while (idx >= 0) {
+                    int t = tombstones.findCovering(run.keyHi(idx), run.keyLo(idx), run.seq);
+                    if (t < 0) {
+                        break;
+                    }
+                    // Skip all the records in the deleted range
+                    idx = run.lowerBound(tombstones.beginHi(t), tombstones.beginLo(t)) - 1;
+                }
+
+                if (idx >= 0) {
+                    long hi = run.keyHi(idx);
+                    long lo = run.keyLo(idx);
+                    // On same key, the newer source wins
+                    if (best == null || compareKeys(hi, lo, bestHi, bestLo) > 0) {
+                        best = run.entry(idx);
+                        bestHi = hi;
+                        bestLo = lo;
+                    }
+                }
+            }
+        } finally {
+            runSet.release();
+        }
+
+        return copy(best);
+    }
+
+    @Override
+    public Entry<byte[], byte[]> getCeil(byte[] key) throws IOException {
+        checkKey(key);
+        long keyHi = ArrayUtil.getLong(key, 0);
+        long keyLo = ArrayUtil.getLong(key, 8);
+
+        Entry<byte[], byte[]> best = memTable.entries.ceilingEntry(key);
+        MemTable flushing = flushingMemTable;
+        if (flushing != null) {
+            Entry<byte[], byte[]> e = flushing.entries.ceilingEntry(key);
+            if (e != null && (best == null || KEY_COMPARATOR.compare(e.getKey(), best.getKey()) < 0)) {
+                best = e;
+            }
+        }
+        long bestHi = best != null ? ArrayUtil.getLong(best.getKey(), 0) : 0;
+        long bestLo = best != null ? ArrayUtil.getLong(best.getKey(), 8) : 0;
+
+        RangeTombstones tombstones = this.tombstones;
+        RunSet runSet = acquireRuns();
+        try {
+            for (SortedRun run : runSet.runs) {
+                long idx = run.skipDeleted(run.lowerBound(keyHi, keyLo), tombstones);
+                if (idx < run.count) {
+                    long hi = run.keyHi(idx);
+                    long lo = run.keyLo(idx);
+                    // On same key, the newer source wins
+                    if (best == null || compareKeys(hi, lo, bestHi, bestLo) < 0) {
+                        best = run.entry(idx);
+                        bestHi = hi;
+                        bestLo = lo;
+                    }
+                }
+            }
+        } finally {
+            runSet.release();
+        }
+
+        return copy(best);
+    }
+
+    @Override
+    public void delete(byte[] key) throws IOException {
+        byte[] endKey = successor(key);
+        if (endKey == null) {
+            throw new IllegalArgumentException("Cannot delete the biggest possible key");
+        }
+        byte[] op = new byte[DELETE_RANGE_OP_SIZE];
+        encodeDeleteRange(op, 0, key, endKey);
+        write(op, op.length, false);
+    }
+
+    @Override
+    public void compact() throws IOException {
+        final long start = System.currentTimeMillis();
+        int originalRuns = runSet.runs.length;
+        log.info("Starting sorted runs {} compact, current storage hold {} runs and {} range deletions",
+                dbPath, originalRuns, tombstones.size());
+
+        writeLock.lock();
+        try {
+            if (!memTable.isEmpty()) {
+                rotateMemTable();
+            }
+            waitForPendingFlush();
+        } finally {
+            writeLock.unlock();
+        }
+        mergeRuns(true);
+
+        log.info("Sorted runs {} compact finished {} ms, merged {} runs into {}",
+                dbPath, System.currentTimeMillis() - start, originalRuns, runSet.runs.length);
+    }
+
+    @Override
+    public String getDBPath() {
+        return dbPath;
+    }
+
+    @Override
+    public CloseableIterator<byte[]> keys() {
+        return keys(new byte[KEY_SIZE], null);
+    }
+
+    @Override
+    public CloseableIterator<byte[]> keys(byte[] firstKey, byte[] lastKey) {
+        final CloseableIterator<Entry<byte[], byte[]>> iterator = new EntryIterator(firstKey, lastKey);
+        return new CloseableIterator<byte[]>() {
+            @Override
+            public boolean hasNext() throws IOException {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public byte[] next() throws IOException {
+                return iterator.next().getKey();
+            }
+
+            @Override
+            public void close() throws IOException {
+                iterator.close();
+            }
+        };
+    }
+
+    @Override
+    public CloseableIterator<Entry<byte[], byte[]>> iterator() {
+        return new EntryIterator(new byte[KEY_SIZE], null);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        writeLock.lock();
+        try {
+            wal.force(false);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Estimate the number of keys, like the RocksDB storage does.
+     *
+     * <p>The keys of the memtable are counted exactly, but the keys overwritten in several runs, or covered by range
+     * deletions that are not yet applied to the runs, are counted until the runs are merged. The count is exact after
+     * {@link #compact()}.
+     */
+    @Override
+    public long count() throws IOException {
+        long count = memTable.count.get();
+        MemTable flushing = flushingMemTable;
+        if (flushing != null) {
+            count += flushing.count.get();
+        }
+        for (SortedRun run : runSet.runs) {
+            count += run.count;
+        }
+        return count;
+    }
+
+    @Override
+    public Batch newBatch() {
+        return new SortedRunsBatch();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            // Persist the memtables, so that there's nothing to replay when the storage is opened again
+            waitForPendingFlush();
+            wal.close();
+            if (!memTable.isEmpty()) {
+                flushMemTable(memTable);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        flushExecutor.shutdown();
+        compactionExecutor.shutdown();
+        try {
+            compactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        manifestLock.lock();
+        try {
+
+            // The runs are unmapped as soon as the lookups and the iterators still using them are done
+            RunSet closedRunSet = runSet;
+            runSet = new RunSet(new SortedRun[0]);
+            closedRunSet.release();
+        } finally {
+            manifestLock.unlock();
+        }
+    }
+
+    /**
+     * @return the current set of runs, which must be released after use
+     */
+    private RunSet acquireRuns() {
+        while (true) {
+            RunSet current = runSet;
+            if (current.tryRetain()) {
+                return current;
+            }
+            // The set was replaced and released in the meantime
+        }
+    }
+
+    /**
+     * Apply a list of encoded operations: they're first appended to the write-ahead log and then to the memtable.
+     */
+    private void write(byte[] ops, int length, boolean sync) throws IOException {
+        writeLock.lock();
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(ops, 0, length);
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(length).putInt((int) crc.getValue()).flip();
+            writeFully(wal, header);
+            writeFully(wal, ByteBuffer.wrap(ops, 0, length));
+            if (sync) {
+                wal.force(false);
+            }
+
+            applyToMemTable(ops, length);
+
+            if (memTable.count.get() >= writeBuffersEntries) {
+                rotateMemTable();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void applyToMemTable(byte[] ops, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            byte type = ops[offset];
+            if (type == OP_PUT && offset + PUT_OP_SIZE <= length) {
+                byte[] key = Arrays.copyOfRange(ops, offset + 1, offset + 1 + KEY_SIZE);
+                byte[] value = Arrays.copyOfRange(ops, offset + 1 + KEY_SIZE, offset + PUT_OP_SIZE);
+                memTable.put(key, value);
+                offset += PUT_OP_SIZE;
+            } else if (type == OP_DELETE_RANGE && offset + DELETE_RANGE_OP_SIZE <= length) {
+                byte[] begin = Arrays.copyOfRange(ops, offset + 1, offset + 1 + KEY_SIZE);
+                byte[] end = Arrays.copyOfRange(ops, offset + 1 + KEY_SIZE, offset + DELETE_RANGE_OP_SIZE);
+                if (KEY_COMPARATOR.compare(begin, end) < 0) {
+                    // The deletion applies to all the runs written before the current memtable, including the one
+                    // being written from the flushing memtable. It's published before the keys are removed from the
+                    // memtables: a reader that misses a key in the memtables and then takes the tombstones can't
+                    // find the deleted key in a run
+                    long beginHi = ArrayUtil.getLong(begin, 0);
+                    long beginLo = ArrayUtil.getLong(begin, 8);
+                    long endHi = ArrayUtil.getLong(end, 0);
+                    long endLo = ArrayUtil.getLong(end, 8);
+                    manifestLock.lock();
+                    try {
+                        tombstones = tombstones.add(memTable.seq, beginHi, beginLo, endHi, endLo);
+                    } finally {
+                        manifestLock.unlock();
+                    }
+                    writeTombstone(memTable.deletions, memTable.seq, beginHi, beginLo, endHi, endLo);
+                    memTable.deleteRange(begin, end);
+                    MemTable flushing = flushingMemTable;
+                    if (flushing != null) {
+                        flushing.deleteRange(begin, end);
+                    }
+                }
+                offset += DELETE_RANGE_OP_SIZE;
+            } else {
+                throw new IOException("Invalid operation in sorted runs batch at offset " + offset);
+            }
+        }
+    }
+
+    /**
+     * Replace the memtable with an empty one, with a new write-ahead log, and write the full one into a run in
+     * background.
+     *
+     * <p>Must be called while holding the {@link #writeLock}. If the previous memtable is still being written, the
+     * writes are blocked until it's done.
+     */
+    private void rotateMemTable() throws IOException {
+        waitForPendingFlush();
+
+        // The updates of the full memtable must be durable before sync() moves to the new log
+        MemTable full = memTable;
+        wal.force(false);
+        wal.close();
+
+        flushingMemTable = full;
+        memTable = new MemTable(full.seq + 1);
+        wal = openWriteAheadLog(memTable.seq);
+
+        pendingFlush = flushExecutor.submit(() -> {
+            try {
+                flushMemTable(full);
+            } catch (Throwable t) {
+                log.warn("Failed to write the memtable of {} into run {}", dbPath, full.seq, t);
+                throw t;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Wait until the flushing memtable is written into a run. If the background write failed, it's retried in the
+     * current thread.
+     *
+     * <p>Must be called while holding the {@link #writeLock}.
+     */
+    private void waitForPendingFlush() throws IOException {
+        if (pendingFlush == null) {
+            return;
+        }
+        try {
+            pendingFlush.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the memtable flush of " + dbPath, e);
+        } catch (ExecutionException e) {
+            // The memtable is still in its write-ahead log
+            MemTable failed = flushingMemTable;
+            if (failed != null) {
+                flushMemTable(failed);
+            }
+        }
+        pendingFlush = null;
+    }
+
+    /**
+     * Write a memtable into a new run, publish it and delete the write-ahead log of the memtable.
+     *
+     * <p>The memtable must not receive new updates, but for the range deletions.
+     */
+    private void flushMemTable(MemTable flushed) throws IOException {
+        long startTime = System.nanoTime();
+        long seq = flushed.seq;
+
+        File runFile = null;
+        if (!flushed.entries.isEmpty()) {
+            manifestLock.lock();
+            try {
+                runFile = new File(dbDir, String.format("%016x%s", nextFileId++, RUN_SUFFIX));
+            } finally {
+                manifestLock.unlock();
+            }
+            try (RunWriter writer = new RunWriter(runFile, seq)) {
+                for (Entry<byte[], byte[]> e : flushed.entries.entrySet()) {
+                    writer.append(ArrayUtil.getLong(e.getKey(), 0), ArrayUtil.getLong(e.getKey(), 8),
+                            ArrayUtil.getLong(e.getValue(), 0));
+                }
+            }
+        }
+
+        manifestLock.lock();
+        try {
+            // The memtables are written in order, so the new run is the newest one
+            RunSet currentRunSet = runSet;
+            SortedRun[] newRuns = currentRunSet.runs;
+            if (runFile != null) {
+                newRuns = new SortedRun[currentRunSet.runs.length + 1];
+                newRuns[0] = SortedRun.open(runFile, seq);
+                System.arraycopy(currentRunSet.runs, 0, newRuns, 1, currentRunSet.runs.length);
+            }
+
+            // The deletions of the memtable are only appended to the log, the ones already there are not rewritten
+            long newTombstonesLength = appendTombstones(tombstonesFileId, tombstonesLength,
+                    flushed.deletions.toByteArray());
+            lastRunSeq = seq;
+            writeManifest(newRuns, tombstonesFileId, newTombstonesLength);
+            tombstonesLength = newTombstonesLength;
+
+            // Publish the run before discarding the memtable, so that readers can always find the entries in one of
+            // the two
+            if (newRuns != currentRunSet.runs) {
+                runSet = new RunSet(newRuns);
+                currentRunSet.release();
+            }
+            if (flushingMemTable == flushed) {
+                flushingMemTable = null;
+            }
+        } finally {
+            manifestLock.unlock();
+        }
+        Files.deleteIfExists(walFile(seq).toPath());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Flushed memtable of {} into run {} in {} ms", dbPath, seq,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        }
+
+        if (runSet.runs.length > maxRuns) {
+            try {
+                compactionExecutor.execute(() -> {
+                    try {
+                        mergeRuns(false);
+                    } catch (Throwable t) {
+                        log.warn("Failed to merge sorted runs in {}", dbPath, t);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The storage is being closed
+            }
+        }
+    }
+
+    /**
+     * Merge the newest runs into a single one, dropping the deleted entries and the overwritten values.
+     *
+     * @param force whether to merge all the runs, even if there are not too many of them
+     */
+    private void mergeRuns(boolean force) throws IOException {
+        compactionLock.lock();
+        RangeTombstones currentTombstones = tombstones;
+        RunSet inputRunSet = acquireRuns();
+        try {
+            SortedRun[] runs = inputRunSet.runs;
+            if (runs.length == 0 || (!force && runs.length <= maxRuns)) {
+                return;
+            }
+            if (runs.length == 1 && currentTombstones.size() == 0) {
+                return;
+            }
+            SortedRun[] inputs = force ? runs : pickRunsToMerge(runs);
+
+            long mergedSeq = inputs[0].seq;
+            File mergedFile;
+            manifestLock.lock();
+            try {
+                mergedFile = new File(dbDir, String.format("%016x%s", nextFileId++, RUN_SUFFIX));
+            } finally {
+                manifestLock.unlock();
+            }
+
+            long mergedCount = 0;
+            try (RunWriter writer = new RunWriter(mergedFile, mergedSeq)) {
+                long[] positions = new long[inputs.length];
+                while (true) {
+                    // Find the smallest key among all the runs, the newest run having it wins
+                    int winner = -1;
+                    long minHi = 0;
+                    long minLo = 0;
+                    for (int i = 0; i < inputs.length; i++) {
+                        if (positions[i] < inputs[i].count) {
+                            long hi = inputs[i].keyHi(positions[i]);
+                            long lo = inputs[i].keyLo(positions[i]);
+                            if (winner < 0 || compareKeys(hi, lo, minHi, minLo) < 0) {
+                                winner = i;
+                                minHi = hi;
+                                minLo = lo;
+                            }
+                        }
+                    }
+
+                    if (winner < 0) {
+                        break;
+                    }
+
+                    if (currentTombstones.findCovering(minHi, minLo, inputs[winner].seq) < 0) {
+                        writer.append(minHi, minLo, inputs[winner].value(positions[winner]));
+                        ++mergedCount;
+                    }
+
+                    for (int i = 0; i < inputs.length; i++) {
+                        if (positions[i] < inputs[i].count
+                                && inputs[i].keyHi(positions[i]) == minHi && inputs[i].keyLo(positions[i]) == minLo) {
+                            ++positions[i];
+                        }
+                    }
+                }
+            }
+
+            manifestLock.lock();
+            try {
+                // Runs might have been added while merging, and they're all newer than the merged ones. The merged
+                // run takes the place of its inputs, before the older runs that were not merged
+                RunSet currentRunSet = runSet;
+                Set<SortedRun> merged = new HashSet<>(Arrays.asList(inputs));
+                SortedRun mergedRun = mergedCount > 0 ? SortedRun.open(mergedFile, mergedSeq) : null;
+                List<SortedRun> newRuns = new ArrayList<>();
+                // The current memtable is taken before the flushing one, which is set before the current is replaced
+                long oldestSeq = memTable.seq;
+                MemTable flushing = flushingMemTable;
+                if (flushing != null) {
+                    oldestSeq = flushing.seq;
+                }
+                for (SortedRun run : currentRunSet.runs) {
+                    if (mergedRun != null && run.seq < mergedSeq) {
+                        newRuns.add(mergedRun);
+                        mergedRun = null;
+                    }
+                    if (!merged.contains(run)) {
+                        newRuns.add(run);
+                        oldestSeq = Math.min(oldestSeq, run.seq);
+                    }
+                }
+                if (mergedRun != null) {
+                    newRuns.add(mergedRun);
+                }
+                if (mergedCount > 0) {
+                    oldestSeq = Math.min(oldestSeq, mergedSeq);
+                }
+
+                // A deletion only applies to the runs older than itself: once they were all merged, it's dropped
+                RangeTombstones newTombstones = tombstones.retainNewerThan(oldestSeq);
+                long oldTombstonesFileId = tombstonesFileId;
+                long newTombstonesFileId = tombstonesFileId;
+                long newTombstonesLength = tombstonesLength;
+                if (newTombstones != tombstones) {
+                    // The deletions of the memtables are not in the log yet, they're appended when they're written
+                    ByteArrayOutputStream retained = new ByteArrayOutputStream();
+                    for (int t = 0; t < newTombstones.size(); t++) {
+                        if (newTombstones.seq(t) <= lastRunSeq) {
+                            writeTombstone(retained, newTombstones.seq(t), newTombstones.beginHi(t),
+                                    newTombstones.beginLo(t), newTombstones.endHi(t), newTombstones.endLo(t));
+                        }
+                    }
+                    newTombstonesFileId = nextFileId++;
+                    newTombstonesLength = appendTombstones(newTombstonesFileId, 0, retained.toByteArray());
+                }
+                SortedRun[] newRunsArray = newRuns.toArray(new SortedRun[0]);
+                writeManifest(newRunsArray, newTombstonesFileId, newTombstonesLength);
+                tombstonesFileId = newTombstonesFileId;
+                tombstonesLength = newTombstonesLength;
+                if (newTombstonesFileId != oldTombstonesFileId) {
+                    Files.deleteIfExists(tombstonesFile(oldTombstonesFileId).toPath());
+                }
+                for (SortedRun run : inputs) {
+                    run.markObsolete();
+                }
+                // The runs are published before the tombstones are dropped: a reader taking the tombstones first
+                // always has the ones needed by the runs it takes next
+                runSet = new RunSet(newRunsArray);
+                tombstones = newTombstones;
+                currentRunSet.release();
+            } finally {
+                manifestLock.unlock();
+            }
+
+            if (mergedCount == 0) {
+                Files.deleteIfExists(mergedFile.toPath());
+            }
+        } finally {
+            // The merged runs are unmapped and deleted once the last reader using them is done
+            inputRunSet.release();
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Pick the runs for a merge that is not forced: the newest run, and each older run that is not bigger than all the
+     * newer runs together by more than the configured ratio. When the runs picked are too few to get back to the max
+     * number of runs, the next older runs are picked too.
+     *
+     * @param runs the live runs, from the newest to the oldest
+     * @return the newest runs, to be merged
+     */
+    private SortedRun[] pickRunsToMerge(SortedRun[] runs) {
+        int picked = 1;
+        long pickedRecords = runs[0].count;
+        while (picked < runs.length && runs[picked].count * 100 <= pickedRecords * (100 + mergeSizeRatio)) {
+            pickedRecords += runs[picked].count;
+            ++picked;
+        }
+        picked = Math.max(picked, runs.length - maxRuns + 1);
+        return Arrays.copyOf(runs, picked);
+    }
+
+    private void readManifest(File manifestFile) throws IOException {
+        byte[] data = Files.readAllBytes(manifestFile.toPath());
+        if (data.length < 8) {
+            throw new IOException("Invalid manifest file " + manifestFile);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        if (crc.getValue() != ByteBuffer.wrap(data, data.length - 8, 8).getLong()) {
+            throw new IOException("Checksum mismatch in manifest file " + manifestFile);
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8))) {
+            if (in.readInt() != MANIFEST_MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Invalid manifest header in " + manifestFile);
+            }
+            this.nextFileId = in.readLong();
+            this.lastRunSeq = in.readLong();
+
+            int runsCount = in.readInt();
+            SortedRun[] loadedRuns = new SortedRun[runsCount];
+            try {
+                for (int i = 0; i < runsCount; i++) {
+                    long fileId = in.readLong();
+                    long seq = in.readLong();
+                    loadedRuns[i] = SortedRun.open(new File(dbDir, String.format("%016x%s", fileId, RUN_SUFFIX)),
+                            seq);
+                }
+            } catch (IOException e) {
+                for (SortedRun run : loadedRuns) {
+                    if (run != null) {
+                        run.unmap();
+                    }
+                }
+                throw e;
+            }
+            this.runSet = new RunSet(loadedRuns);
+
+            this.tombstonesFileId = in.readLong();
+            this.tombstonesLength = in.readLong();
+            this.tombstones = readTombstones(tombstonesFile(tombstonesFileId), tombstonesLength);
+        }
+    }
+
+    /**
+     * Load the range deletions log, discarding what was appended after the length recorded in the manifest.
+     */
+    private static RangeTombstones readTombstones(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            if (length < TOMBSTONES_HEADER_SIZE || (length - TOMBSTONES_HEADER_SIZE) % TOMBSTONE_RECORD_SIZE != 0
+                    || channel.size() < length) {
+                throw new IOException("Range deletions log " + file + " is inconsistent with the manifest");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+                // Read the whole log
+            }
+            buffer.flip();
+            if (buffer.getInt() != TOMBSTONES_MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Invalid range deletions log header in " + file);
+            }
+
+            long[] records = new long[buffer.remaining() / 8];
+            buffer.asLongBuffer().get(records);
+            if (channel.size() > length) {
+                log.info("Truncating range deletions log {} from {} to {} bytes", file, channel.size(), length);
+                channel.truncate(length);
+            }
+            return RangeTombstones.of(records);
+        }
+    }
+
+    /**
+     * Append encoded range deletions to a log, creating it if the length is 0.
+     *
+     * @return the new length of the log
+     */
+    private long appendTombstones(long fileId, long length, byte[] records) throws IOException {
+        if (length > 0 && records.length == 0) {
+            return length;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(tombstonesFile(fileId), "rw")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((length == 0 ? TOMBSTONES_HEADER_SIZE : 0) + records.length);
+            if (length == 0) {
+                buffer.putInt(TOMBSTONES_MAGIC).putInt(FORMAT_VERSION);
+            }
+            buffer.put(records).flip();
+            long position = length;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(true);
+            return position;
+        }
+    }
+
+    private static void writeTombstone(ByteArrayOutputStream out, long seq, long beginHi, long beginLo, long endHi,
+                                       long endLo) {
+        ByteBuffer record = ByteBuffer.allocate(TOMBSTONE_RECORD_SIZE);
+        record.putLong(seq).putLong(beginHi).putLong(beginLo).putLong(endHi).putLong(endLo);
+        out.write(record.array(), 0, TOMBSTONE_RECORD_SIZE);
+    }
+
+    /**
+     * Atomically replace the manifest.
+     */
+    private void writeManifest(SortedRun[] runs, long tombstonesFileId, long tombstonesLength) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(nextFileId);
+            out.writeLong(lastRunSeq);
+            out.writeInt(runs.length);
+            for (SortedRun run : runs) {
+                out.writeLong(run.fileId());
+                out.writeLong(run.seq);
+            }
+            out.writeLong(tombstonesFileId);
+            out.writeLong(tombstonesLength);
+        }
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        File tmpFile = new File(dbDir, MANIFEST_FILE + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+            fos.write(data);
+            fos.write(ByteBuffer.allocate(8).putLong(crc.getValue()).array());
+            fos.getChannel().force(true);
+        }
+        Files.move(tmpFile.toPath(), new File(dbDir, MANIFEST_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the runs that are not in the manifest and the logs that were already written into a run, which can be
+     * left behind by a crash.
+     */
+    private void deleteStaleFiles() throws IOException {
+        Set<String> liveFiles = new HashSet<>();
+        for (SortedRun run : runSet.runs) {
+            liveFiles.add(run.file.getName());
+        }
+
+        File[] files = dbDir.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list files in " + dbDir);
+        }
+        for (File f : files) {
+            String name = f.getName();
+            boolean stale = (name.endsWith(RUN_SUFFIX) && !liveFiles.contains(name))
+                    || (name.endsWith(WAL_SUFFIX) && parseFileId(name, WAL_SUFFIX) <= lastRunSeq)
+                    || (name.endsWith(TOMBSTONES_SUFFIX) && parseFileId(name, TOMBSTONES_SUFFIX) != tombstonesFileId)
+                    || name.equals(MANIFEST_FILE + ".tmp");
+            if (stale) {
+                log.info("Removing stale file {} from sorted runs storage", f);
+                Files.deleteIfExists(f.toPath());
+            }
+        }
+    }
+
+    /**
+     * Replay the logs of the memtables that were not written into a run. There are two of them when the storage was
+     * closed while a full memtable was being written: that one is written again before replaying the last log.
+     */
+    private void replayWriteAheadLogs() throws IOException {
+        memTable = new MemTable(lastRunSeq + 1);
+        replayWriteAheadLog(memTable.seq);
+        while (walFile(memTable.seq + 1).exists()) {
+            flushMemTable(memTable);
+            memTable = new MemTable(memTable.seq + 1);
+            replayWriteAheadLog(memTable.seq);
+        }
+        wal = openWriteAheadLog(memTable.seq);
+    }
+
+    private void replayWriteAheadLog(long seq) throws IOException {
+        File walFile = walFile(seq);
+        if (walFile.exists()) {
+            try (RandomAccessFile raf = new RandomAccessFile(walFile, "rw")) {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // Read the whole log
+                }
+                buffer.flip();
+
+                long validLength = 0;
+                if (buffer.remaining() >= 16 && buffer.getInt() == WAL_MAGIC && buffer.getInt() == FORMAT_VERSION
+                        && buffer.getLong() == seq) {
+                    validLength = buffer.position();
+                    while (buffer.remaining() >= 8) {
+                        int length = buffer.getInt();
+                        int checksum = buffer.getInt();
+                        if (length <= 0 || length > buffer.remaining()) {
+                            break;
+                        }
+                        byte[] ops = new byte[length];
+                        buffer.get(ops);
+                        CRC32 crc = new CRC32();
+                        crc.update(ops, 0, length);
+                        if ((int) crc.getValue() != checksum) {
+                            break;
+                        }
+                        applyToMemTable(ops, length);
+                        validLength = buffer.position();
+                    }
+                }
+
+                if (validLength < channel.size()) {
+                    // Discard the partially written tail
+                    log.info("Truncating write-ahead log {} from {} to {} bytes", walFile, channel.size(),
+                            validLength);
+                    channel.truncate(validLength);
+                }
+            }
+        }
+    }
+
+    private FileChannel openWriteAheadLog(long seq) throws IOException {
+        File walFile = walFile(seq);
+        @SuppressWarnings("resource")
+        FileChannel channel = new RandomAccessFile(walFile, "rw").getChannel();
+        if (channel.size() < 16) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(WAL_MAGIC).putInt(FORMAT_VERSION).putLong(seq).flip();
+            writeFully(channel, header);
+            channel.force(true);
+        }
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private File walFile(long seq) {
+        return new File(dbDir, String.format("%016x%s", seq, WAL_SUFFIX));
+    }
+
+    private File tombstonesFile(long fileId) {
+        return new File(dbDir, String.format("%016x%s", fileId, TOMBSTONES_SUFFIX));
+    }
+
+    private static long parseFileId(String name, String suffix) {
+        try {
+            return Long.parseUnsignedLong(name.substring(0, name.length() - suffix.length()), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void checkKey(byte[] key) {
+        if (key.length != KEY_SIZE) {
+            throw new IllegalArgumentException("Sorted runs storage only supports keys of " + KEY_SIZE + " bytes");
+        }
+    }
+
+    private static void encodePut(byte[] dst, int offset, byte[] key, byte[] value) {
+        checkKey(key);
+        if (value.length != VALUE_SIZE) {
+            throw new IllegalArgumentException(
+                    "Sorted runs storage only supports values of " + VALUE_SIZE + " bytes");
+        }
+        dst[offset] = OP_PUT;
+        System.arraycopy(key, 0, dst, offset + 1, KEY_SIZE);
+        System.arraycopy(value, 0, dst, offset + 1 + KEY_SIZE, VALUE_SIZE);
+    }
+
+    private static void encodeDeleteRange(byte[] dst, int offset, byte[] beginKey, byte[] endKey) {
+        checkKey(beginKey);
+        checkKey(endKey);
+        dst[offset] = OP_DELETE_RANGE;
+        System.arraycopy(beginKey, 0, dst, offset + 1, KEY_SIZE);
+        System.arraycopy(endKey, 0, dst, offset + 1 + KEY_SIZE, KEY_SIZE);
+    }
+
+    /**
+     * @return the smallest key bigger than the given key, or null if the key is the biggest possible one
+     */
+    private static byte[] successor(byte[] key) {
+        checkKey(key);
+        long hi = ArrayUtil.getLong(key, 0);
+        long lo = ArrayUtil.getLong(key, 8);
+        if (++lo == 0 && ++hi == 0) {
+            return null;
+        }
+        byte[] res = new byte[KEY_SIZE];
+        ArrayUtil.setLong(res, 0, hi);
+        ArrayUtil.setLong(res, 8, lo);
+        return res;
+    }
+
+    private static int compareKeys(long hi1, long lo1, long hi2, long lo2) {
+        int c = Long.compareUnsigned(hi1, hi2);
+        return c != 0 ? c : Long.compareUnsigned(lo1, lo2);
+    }
+
+    private static Entry<byte[], byte[]> copy(Entry<byte[], byte[]> entry) {
+        return entry == null ? null : new SimpleImmutableEntry<>(entry.getKey().clone(), entry.getValue().clone());
+    }
+
+    /**
+     * Iterates over the entries in a range of keys, merging the sorted sources with a heap of cursors.
+     *
+     * <p>The iterator holds the runs that were live when it was created, and the memtables of that moment. It sees the
+     * updates done in those memtables while iterating, but not the ones written to a new memtable.
+     */
+    private class EntryIterator implements CloseableIterator<Entry<byte[], byte[]>> {
+        private final byte[] lastKey;
+        private final PriorityQueue<Cursor> heap;
+        private RunSet runSet;
+        private Entry<byte[], byte[]> next;
+
+        EntryIterator(byte[] firstKey, byte[] lastKey) {
+            checkKey(firstKey);
+            this.lastKey = lastKey;
+
+            // The tombstones are taken before the runs they apply to. The memtables are taken before the runs too: if
+            // one is written into a run in the meantime, its entries are found in both rather than in neither
+            RangeTombstones tombstones = KeyValueStorageSortedRuns.this.tombstones;
+            MemTable memTable = KeyValueStorageSortedRuns.this.memTable;
+            MemTable flushing = flushingMemTable;
+            this.runSet = acquireRuns();
+
+            SortedRun[] runs = runSet.runs;
+            this.heap = new PriorityQueue<>(runs.length + 2, Cursor.COMPARATOR);
+            // The memtable is the newest source, followed by the flushing memtable and by the runs from the newest to
+            // the oldest
+            addIfValid(new MemTableCursor(memTable.entries.tailMap(firstKey, true).entrySet().iterator(), 0));
+            if (flushing != null) {
+                addIfValid(new MemTableCursor(flushing.entries.tailMap(firstKey, true).entrySet().iterator(), 1));
+            }
+            long firstHi = ArrayUtil.getLong(firstKey, 0);
+            long firstLo = ArrayUtil.getLong(firstKey, 8);
+            for (int i = 0; i < runs.length; i++) {
+                addIfValid(new RunCursor(runs[i], tombstones, runs[i].lowerBound(firstHi, firstLo), i + 2));
+            }
+        }
+
+        private void addIfValid(Cursor cursor) {
+            if (cursor.valid) {
+                heap.add(cursor);
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            if (next != null || runSet == null) {
+                return next != null;
+            }
+
+            Cursor cursor = heap.poll();
+            if (cursor == null || (lastKey != null && compareKeys(cursor.hi, cursor.lo,
+                    ArrayUtil.getLong(lastKey, 0), ArrayUtil.getLong(lastKey, 8)) >= 0)) {
+                close();
+                return false;
+            }
+
+            long hi = cursor.hi;
+            long lo = cursor.lo;
+            byte[] key = new byte[KEY_SIZE];
+            ArrayUtil.setLong(key, 0, hi);
+            ArrayUtil.setLong(key, 8, lo);
+            byte[] value = new byte[VALUE_SIZE];
+            ArrayUtil.setLong(value, 0, cursor.value);
+            next = new SimpleImmutableEntry<>(key, value);
+
+            // The same key in older sources is overwritten by the one just found
+            advance(cursor);
+            while (!heap.isEmpty() && heap.peek().hi == hi && heap.peek().lo == lo) {
+                advance(heap.poll());
+            }
+            return true;
+        }
+
+        private void advance(Cursor cursor) {
+            cursor.advance();
+            addIfValid(cursor);
+        }
+
+        @Override
+        public Entry<byte[], byte[]> next() throws IOException {
+            checkState(hasNext());
+            Entry<byte[], byte[]> res = next;
+            next = null;
+            return res;
+        }
+
+        @Override
+        public void close() {
+            heap.clear();
+            if (runSet != null) {
+                runSet.release();
+                runSet = null;
+            }
+        }
+    }
+
+    /**
+     * Position in one of the sorted sources of an iterator.
+     */
+    private abstract static class Cursor {
+        // Smallest key first, and the newest source first on same key
+        static final Comparator<Cursor> COMPARATOR = (a, b) -> {
+            int c = compareKeys(a.hi, a.lo, b.hi, b.lo);
+            return c != 0 ? c : Integer.compare(a.age, b.age);
+        };
+
+        // 0 for the newest source
+        final int age;
+        boolean valid;
+        long hi;
+        long lo;
+        long value;
+
+        Cursor(int age) {
+            this.age = age;
+        }
+
+        abstract void advance();
+    }
+
+    private static final class MemTableCursor extends Cursor {
+        private final Iterator<Entry<byte[], byte[]>> iterator;
+
+        MemTableCursor(Iterator<Entry<byte[], byte[]>> iterator, int age) {
+            super(age);
+            this.iterator = iterator;
+            advance();
+        }
+
+        @Override
+        void advance() {
+            valid = iterator.hasNext();
+            if (valid) {
+                Entry<byte[], byte[]> e = iterator.next();
+                hi = ArrayUtil.getLong(e.getKey(), 0);
+                lo = ArrayUtil.getLong(e.getKey(), 8);
+                value = ArrayUtil.getLong(e.getValue(), 0);
+            }
+        }
+    }
+
+    private static final class RunCursor extends Cursor {
+        private final SortedRun run;
+        private final RangeTombstones tombstones;
+        private long idx;
+
+        RunCursor(SortedRun run, RangeTombstones tombstones, long firstIdx, int age) {
+            super(age);
+            this.run = run;
+            this.tombstones = tombstones;
+            this.idx = firstIdx - 1;
+            advance();
+        }
+
+        @Override
+        void advance() {
+            idx = run.skipDeleted(idx + 1, tombstones);
+            valid = idx < run.count;
+            if (valid) {
+                hi = run.keyHi(idx);
+                lo = run.keyLo(idx);
+                value = run.value(idx);
+            }
+        }
+    }
+
+    private class SortedRunsBatch implements Batch {
+        private byte[] ops = new byte[64 * 1024];
+        private int length = 0;
+        private int batchCount = 0;
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            ensureCapacity(PUT_OP_SIZE);
+            encodePut(ops, length, key, value);
+            length += PUT_OP_SIZE;
+            countBatchAndFlushIfNeeded();
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            byte[] endKey = successor(key);
+            if (endKey == null) {
+                throw new IllegalArgumentException("Cannot delete the biggest possible key");
+            }
+            deleteRange(key, endKey);
+        }
+
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            ensureCapacity(DELETE_RANGE_OP_SIZE);
+            encodeDeleteRange(ops, length, beginKey, endKey);
+            length += DELETE_RANGE_OP_SIZE;
+            countBatchAndFlushIfNeeded();
+        }
+
+        private void ensureCapacity(int size) {
+            if (length + size > ops.length) {
+                ops = Arrays.copyOf(ops, Math.max(ops.length * 2, length + size));
+            }
+        }
+
+        private void countBatchAndFlushIfNeeded() throws IOException {
+            if (++batchCount >= writeBatchMaxSize) {
+                flush();
+                clear();
+            }
+        }
+
+        @Override
+        public void clear() {
+            length = 0;
+            batchCount = 0;
+        }
+
+        @Override
+        public int batchCount() {
+            return batchCount;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (length > 0) {
+                write(ops, length, true);
+            }
+        }
+
+        @Override
+        public void close() {
+            clear();
+        }
+    }
+
+    /**
+     * Sorted in-memory updates, backed by a write-ahead log until they're written into the run with the same sequence
+     * number.
+     */
+    private static final class MemTable {
+        final long seq;
+        final ConcurrentSkipListMap<byte[], byte[]> entries = new ConcurrentSkipListMap<>(KEY_COMPARATOR);
+        final AtomicLong count = new AtomicLong();
+
+        // Encoded range deletions, appended to the log when the memtable is written into a run
+        final ByteArrayOutputStream deletions = new ByteArrayOutputStream();
+
+        MemTable(long seq) {
+            this.seq = seq;
+        }
+
+        boolean isEmpty() {
+            return entries.isEmpty() && deletions.size() == 0;
+        }
+
+        void put(byte[] key, byte[] value) {
+            if (entries.put(key, value) == null) {
+                count.incrementAndGet();
+            }
+        }
+
+        void deleteRange(byte[] begin, byte[] end) {
+            NavigableMap<byte[], byte[]> deleted = entries.subMap(begin, true, end, false);
+            count.addAndGet(-deleted.size());
+            deleted.clear();
+        }
+    }
+
+    /**
+     * Immutable set of live runs, held by the readers while they use the runs.
+     *
+     * <p>The storage holds a reference to the current set. Each set holds a reference to each of its runs.
+     */
+    private static final class RunSet {
+        final SortedRun[] runs;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        RunSet(SortedRun[] runs) {
+            this.runs = runs;
+            for (SortedRun run : runs) {
+                run.retain();
+            }
+        }
+
+        boolean tryRetain() {
+            while (true) {
+                int current = refCount.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (refCount.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (refCount.decrementAndGet() == 0) {
+                for (SortedRun run : runs) {
+                    run.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Immutable file with the records sorted by key, accessed through memory mapping.
+     */
+    private static final class SortedRun {
+        final File file;
+        final long seq;
+        final long count;
+        private final MappedByteBuffer[] segments;
+
+        // Number of run sets including this run. Once it drops to 0 the run is unmapped
+        private final AtomicInteger refCount = new AtomicInteger();
+
+        // Whether the run is no longer part of the storage, so that its file can be deleted
+        private volatile boolean obsolete;
+
+        // Sparse index with the key of every FENCE_INTERVAL records
+        private final long[] fenceHi;
+        private final long[] fenceLo;
+
+        private SortedRun(File file, long seq, long count, MappedByteBuffer[] segments) {
+            this.file = file;
+            this.seq = seq;
+            this.count = count;
+            this.segments = segments;
+
+            int fences = (int) ((count + FENCE_INTERVAL - 1) / FENCE_INTERVAL);
+            this.fenceHi = new long[fences];
+            this.fenceLo = new long[fences];
+            for (int i = 0; i < fences; i++) {
+                fenceHi[i] = keyHi((long) i * FENCE_INTERVAL);
+                fenceLo[i] = keyLo((long) i * FENCE_INTERVAL);
+            }
+        }
+
+        static SortedRun open(File file, long seq) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(RUN_HEADER_SIZE);
+                while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                    // Read the whole header
+                }
+                header.flip();
+                if (header.remaining() < RUN_HEADER_SIZE || header.getLong() != RUN_MAGIC
+                        || header.getInt() != FORMAT_VERSION) {
+                    throw new IOException("Invalid sorted run header in " + file);
+                }
+                header.getInt(); // reserved
+                long runSeq = header.getLong();
+                long count = header.getLong();
+                if (runSeq != seq || channel.size() != RUN_HEADER_SIZE + count * RECORD_SIZE) {
+                    throw new IOException("Sorted run " + file + " is inconsistent with the manifest");
+                }
+
+                int segmentsCount = (int) ((count + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT);
+                MappedByteBuffer[] segments = new MappedByteBuffer[segmentsCount];
+                for (int i = 0; i < segmentsCount; i++) {
+                    long first = i * RECORDS_PER_SEGMENT;
+                    long records = Math.min(RECORDS_PER_SEGMENT, count - first);
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                            RUN_HEADER_SIZE + first * RECORD_SIZE, records * RECORD_SIZE);
+                }
+                return new SortedRun(file, seq, count, segments);
+            }
+        }
+
+        long fileId() {
+            return parseFileId(file.getName(), RUN_SUFFIX);
+        }
+
+        void retain() {
+            refCount.incrementAndGet();
+        }
+
+        void markObsolete() {
+            obsolete = true;
+        }
+
+        void release() {
+            if (refCount.decrementAndGet() > 0) {
+                return;
+            }
+
+            // Without the explicit unmap, the disk space of a deleted run is only freed when the buffers are
+            // garbage collected
+            unmap();
+            if (obsolete) {
+                try {
+                    Files.deleteIfExists(file.toPath());
+                } catch (IOException e) {
+                    log.warn("Failed to delete sorted run {}", file, e);
+                }
+            }
+        }
+
+        void unmap() {
+            for (MappedByteBuffer segment : segments) {
+                PlatformDependent.freeDirectBuffer(segment);
+            }
+        }
+
+        long keyHi(long idx) {
+            return segments[(int) (idx / RECORDS_PER_SEGMENT)].getLong(offset(idx));
+        }
+
+        long keyLo(long idx) {
+            return segments[(int) (idx / RECORDS_PER_SEGMENT)].getLong(offset(idx) + 8);
+        }
+
+        long value(long idx) {
+            return segments[(int) (idx / RECORDS_PER_SEGMENT)].getLong(offset(idx) + KEY_SIZE);
+        }
+
+        private static int offset(long idx) {
+            return (int) (idx % RECORDS_PER_SEGMENT) * RECORD_SIZE;
+        }
+
+        Entry<byte[], byte[]> entry(long idx) {
+            byte[] key = new byte[KEY_SIZE];
+            ArrayUtil.setLong(key, 0, keyHi(idx));
+            ArrayUtil.setLong(key, 8, keyLo(idx));
+            byte[] value = new byte[VALUE_SIZE];
+            ArrayUtil.setLong(value, 0, value(idx));
+            return new SimpleImmutableEntry<>(key, value);
+        }
+
+        /**
+         * @return the index of the first record, starting from the given one, which is not covered by a range
+         *         deletion, or the number of records if there's none
+         */
+        long skipDeleted(long idx, RangeTombstones tombstones) {
+            while (idx < count) {
+                int t = tombstones.findCovering(keyHi(idx), keyLo(idx), seq);
+                if (t < 0) {
+                    break;
+                }
+                // Skip all the records in the deleted range
+                idx = lowerBound(tombstones.endHi(t), tombstones.endLo(t));
+            }
+            return idx;
+        }
+
+        /**
+         * @return the index of the record with the given key, or -1 if not found
+         */
+        long find(long hi, long lo) {
+            if (count == 0 || compareKeys(hi, lo, fenceHi[0], fenceLo[0]) < 0) {
+                return -1;
+            }
+            long idx = lowerBound(hi, lo);
+            return idx < count && keyHi(idx) == hi && keyLo(idx) == lo ? idx : -1;
+        }
+
+        /**
+         * @return the index of the first record whose key is bigger or equal than the given key, or the number of
+         *         records if there's none
+         */
+        long lowerBound(long hi, long lo) {
+            // First fence whose key is bigger or equal than the given key
+            int low = 0;
+            int high = fenceHi.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compareKeys(fenceHi[mid], fenceLo[mid], hi, lo) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            if (low == 0) {
+                return 0;
+            }
+
+            // The result is after the previous fence, up to this fence included
+            long first = (long) (low - 1) * FENCE_INTERVAL + 1;
+            long last = Math.min((long) low * FENCE_INTERVAL, count);
+            while (first < last) {
+                long mid = (first + last) >>> 1;
+                if (compareKeys(keyHi(mid), keyLo(mid), hi, lo) < 0) {
+                    first = mid + 1;
+                } else {
+                    last = mid;
+                }
+            }
+            return first;
+        }
+    }
+
+    /**
+     * Streams sorted records into a new run file.
+     */
+    private static final class RunWriter implements AutoCloseable {
+        private final File file;
+        private final long seq;
+        private final FileOutputStream fos;
+        private final DataOutputStream out;
+        private long count = 0;
+
+        RunWriter(File file, long seq) throws IOException {
+            this.file = file;
+            this.seq = seq;
+            this.fos = new FileOutputStream(file);
+            this.out = new DataOutputStream(new BufferedOutputStream(fos, 256 * 1024));
+            out.write(new byte[RUN_HEADER_SIZE]);
+        }
+
+        void append(long hi, long lo, long value) throws IOException {
+            out.writeLong(hi);
+            out.writeLong(lo);
+            out.writeLong(value);
+            ++count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.flush();
+                ByteBuffer header = ByteBuffer.allocate(RUN_HEADER_SIZE);
+                header.putLong(RUN_MAGIC).putInt(FORMAT_VERSION).putInt(0).putLong(seq).putLong(count).flip();
+                FileChannel channel = fos.getChannel();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+            } finally {
+                out.close();
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Written sorted run {} with {} records", file, count);
+            }
+        }
+    }
+
+    /**
+     * Immutable set of range deletions.
+     *
+     * <p>A deletion with sequence number N removes the keys in [begin, end) from all the runs whose sequence number is
+     * lower than N.
+     *
+     * <p>The deletions are kept in two sorted levels: a new deletion is only inserted in the small level, which is
+     * merged into the big one once it's full, so that adding a deletion doesn't copy all the others.
+     */
+    private static final class RangeTombstones {
+        static final RangeTombstones EMPTY = new RangeTombstones(TombstoneLevel.EMPTY, TombstoneLevel.EMPTY);
+
+        private static final int MAX_RECENT_DELETIONS = 1024;
+
+        private final TombstoneLevel base;
+        private final TombstoneLevel recent;
+
+        private RangeTombstones(TombstoneLevel base, TombstoneLevel recent) {
+            this.base = base;
+            this.recent = recent;
+        }
+
+        /**
+         * @param records the deletions, in any order, each one as the sequence number followed by the begin and the
+         *                end keys
+         */
+        static RangeTombstones of(long[] records) {
+            int n = records.length / TOMBSTONE_LONGS;
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> compareKeys(
+                    records[a * TOMBSTONE_LONGS + 1], records[a * TOMBSTONE_LONGS + 2],
+                    records[b * TOMBSTONE_LONGS + 1], records[b * TOMBSTONE_LONGS + 2]));
+
+            long[][] res = new long[TOMBSTONE_LONGS][n];
+            for (int i = 0; i < n; i++) {
+                for (int a = 0; a < TOMBSTONE_LONGS; a++) {
+                    res[a][i] = records[order[i] * TOMBSTONE_LONGS + a];
+                }
+            }
+            return new RangeTombstones(new TombstoneLevel(res[0], res[1], res[2], res[3], res[4]),
+                    TombstoneLevel.EMPTY);
+        }
+
+        int size() {
+            return base.size() + recent.size();
+        }
+
+        long seq(int t) {
+            return t < base.size() ? base.seq[t] : recent.seq[t - base.size()];
+        }
+
+        long beginHi(int t) {
+            return t < base.size() ? base.beginHi[t] : recent.beginHi[t - base.size()];
+        }
+
+        long beginLo(int t) {
+            return t < base.size() ? base.beginLo[t] : recent.beginLo[t - base.size()];
+        }
+
+        long endHi(int t) {
+            return t < base.size() ? base.endHi[t] : recent.endHi[t - base.size()];
+        }
+
+        long endLo(int t) {
+            return t < base.size() ? base.endLo[t] : recent.endLo[t - base.size()];
+        }
+
+        RangeTombstones add(long newSeq, long newBeginHi, long newBeginLo, long newEndHi, long newEndLo) {
+            TombstoneLevel newRecent = recent.insert(newSeq, newBeginHi, newBeginLo, newEndHi, newEndLo);
+            if (newRecent.size() > MAX_RECENT_DELETIONS) {
+                return new RangeTombstones(TombstoneLevel.merge(base, newRecent), TombstoneLevel.EMPTY);
+            }
+            return new RangeTombstones(base, newRecent);
+        }
+
+        RangeTombstones retainNewerThan(long minSeq) {
+            TombstoneLevel newBase = base.retainNewerThan(minSeq);
+            TombstoneLevel newRecent = recent.retainNewerThan(minSeq);
+            if (newBase == base && newRecent == recent) {
+                return this;
+            }
+            return new RangeTombstones(TombstoneLevel.merge(newBase, newRecent), TombstoneLevel.EMPTY);
+        }
+
+        /**
+         * @return the index of a deletion covering the key for a run with the given sequence number, or -1
+         */
+        int findCovering(long hi, long lo, long runSeq) {
+            int t = base.findCovering(hi, lo, runSeq);
+            if (t >= 0) {
+                return t;
+            }
+            t = recent.findCovering(hi, lo, runSeq);
+            return t >= 0 ? base.size() + t : -1;
+        }
+    }
+
+    /**
+     * Immutable array of range deletions, sorted by begin key.
+     */
+    private static final class TombstoneLevel {
+        static final TombstoneLevel EMPTY = new TombstoneLevel(new long[0], new long[0], new long[0],
+                new long[0], new long[0]);
+
+        final long[] seq;
+        final long[] beginHi;
+        final long[] beginLo;
+        final long[] endHi;
+        final long[] endLo;
+
+        // Max end key among the deletions up to each index, to stop the backward scan early
+        private final long[] maxEndHi;
+        private final long[] maxEndLo;
+
+        private TombstoneLevel(long[] seq, long[] beginHi, long[] beginLo, long[] endHi, long[] endLo) {
+            this.seq = seq;
+            this.beginHi = beginHi;
+            this.beginLo = beginLo;
+            this.endHi = endHi;
+            this.endLo = endLo;
+            this.maxEndHi = new long[seq.length];
+            this.maxEndLo = new long[seq.length];
+            for (int i = 0; i < seq.length; i++) {
+                if (i == 0 || compareKeys(endHi[i], endLo[i], maxEndHi[i - 1], maxEndLo[i - 1]) > 0) {
+                    maxEndHi[i] = endHi[i];
+                    maxEndLo[i] = endLo[i];
+                } else {
+                    maxEndHi[i] = maxEndHi[i - 1];
+                    maxEndLo[i] = maxEndLo[i - 1];
+                }
+            }
+        }
+
+        int size() {
+            return seq.length;
+        }
+
+        TombstoneLevel insert(long newSeq, long newBeginHi, long newBeginLo, long newEndHi, long newEndLo) {
+            int n = seq.length;
+            // Insertion position to keep the deletions sorted by begin key
+            int pos = n;
+            while (pos > 0 && compareKeys(beginHi[pos - 1], beginLo[pos - 1], newBeginHi, newBeginLo) > 0) {
+                --pos;
+            }
+
+            long[][] arrays = { seq, beginHi, beginLo, endHi, endLo };
+            long[] values = { newSeq, newBeginHi, newBeginLo, newEndHi, newEndLo };
+            long[][] res = new long[arrays.length][];
+            for (int a = 0; a < arrays.length; a++) {
+                res[a] = new long[n + 1];
+                System.arraycopy(arrays[a], 0, res[a], 0, pos);
+                res[a][pos] = values[a];
+                System.arraycopy(arrays[a], pos, res[a], pos + 1, n - pos);
+            }
+            return new TombstoneLevel(res[0], res[1], res[2], res[3], res[4]);
+        }
+
+        static TombstoneLevel merge(TombstoneLevel a, TombstoneLevel b) {
+            if (b.size() == 0) {
+                return a;
+            } else if (a.size() == 0) {
+                return b;
+            }
+
+            int n = a.size() + b.size();
+            long[][] res = new long[TOMBSTONE_LONGS][n];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < n; k++) {
+                TombstoneLevel src;
+                int idx;
+                if (j >= b.size() || (i < a.size()
+                        && compareKeys(a.beginHi[i], a.beginLo[i], b.beginHi[j], b.beginLo[j]) <= 0)) {
+                    src = a;
+                    idx = i++;
+                } else {
+                    src = b;
+                    idx = j++;
+                }
+                res[0][k] = src.seq[idx];
+                res[1][k] = src.beginHi[idx];
+                res[2][k] = src.beginLo[idx];
+                res[3][k] = src.endHi[idx];
+                res[4][k] = src.endLo[idx];
+            }
+            return new TombstoneLevel(res[0], res[1], res[2], res[3], res[4]);
+        }
+
+        TombstoneLevel retainNewerThan(long minSeq) {
+            int retained = 0;
+            for (long s : seq) {
+                if (s > minSeq) {
+                    ++retained;
+                }
+            }
+            if (retained == seq.length) {
+                return this;
+            }
+
+            long[][] res = new long[TOMBSTONE_LONGS][retained];
+            int j = 0;
+            for (int i = 0; i < seq.length; i++) {
+                if (seq[i] > minSeq) {
+                    res[0][j] = seq[i];
+                    res[1][j] = beginHi[i];
+                    res[2][j] = beginLo[i];
+                    res[3][j] = endHi[i];
+                    res[4][j] = endLo[i];
+                    ++j;
+                }
+            }
+            return new TombstoneLevel(res[0], res[1], res[2], res[3], res[4]);
+        }
+
+        int findCovering(long hi, long lo, long runSeq) {
+            // Last deletion whose begin key is lower or equal than the key
+            int low = 0;
+            int high = seq.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compareKeys(beginHi[mid], beginLo[mid], hi, lo) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            for (int i = low - 1; i >= 0 && compareKeys(maxEndHi[i], maxEndLo[i], hi, lo) > 0; i--) {
+                if (seq[i] > runSeq && compareKeys(endHi[i], endLo[i], hi, lo) > 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(KeyValueStorageSortedRuns.class);
+}
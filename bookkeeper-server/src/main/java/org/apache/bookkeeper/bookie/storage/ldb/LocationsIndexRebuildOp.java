@@ -29,6 +29,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -41,6 +42,7 @@ import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigT
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.time.DurationFormatUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -88,8 +90,8 @@ public class LocationsIndexRebuildOp {
             Set<Long> activeLedgers = getActiveLedgers(conf, KeyValueStorageRocksDB.factory, iBasePath);
             LOG.info("Found {} active ledgers in ledger manager", activeLedgers.size());
 
-            KeyValueStorage newIndex = KeyValueStorageRocksDB.factory.newKeyValueStorage(iBasePath, "locations",
-                    DbConfigType.Default, conf);
+            KeyValueStorage newIndex = EntryLocationIndex.getStorageFactory(conf).newKeyValueStorage(iBasePath,
+                    "locations", DbConfigType.Default, conf);
 
             int totalEntryLogs = entryLogs.size();
             int completedEntryLogs = 0;
@@ -153,6 +155,114 @@ public class LocationsIndexRebuildOp {
                         TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
     }
 
+    /**
+     * Copy the locations index from the given storage into the storage configured with
+     * {@link DbLedgerStorage#ENTRY_LOCATION_INDEX_STORAGE}, without scanning the entry logs.
+     *
+     * <p>The index is copied into a temporary directory, which replaces the existing index only once the copy is
+     * complete. The existing index is then kept as a backup.
+     *
+     * @param sourceStorage
+     *            the storage of the existing index, either "rocksdb" or "sortedruns"
+     */
+    public void migrate(String sourceStorage) throws IOException {
+        KeyValueStorageFactory sourceFactory = EntryLocationIndex.getStorageFactory(sourceStorage);
+        KeyValueStorageFactory targetFactory = EntryLocationIndex.getStorageFactory(conf);
+        if (sourceFactory == targetFactory) {
+            throw new IOException("Locations index is already stored with " + sourceStorage);
+        }
+        if (targetFactory == KeyValueStorageSortedRuns.factory
+                && conf.getBoolean(DbLedgerStorage.ENTRY_LOCATION_INDEX_DENSE_BLOCKS, false)) {
+            throw new IOException("Locations index can't be migrated while "
+                    + DbLedgerStorage.ENTRY_LOCATION_INDEX_DENSE_BLOCKS + " is enabled, since the sorted runs storage"
+                    + " only stores single locations");
+        }
+
+        LOG.info("Starting locations index migration from {} to {}", sourceStorage,
+                conf.getString(DbLedgerStorage.ENTRY_LOCATION_INDEX_STORAGE, EntryLocationIndex.ROCKSDB_STORAGE));
+        File[] indexDirs = conf.getIndexDirs();
+        if (indexDirs == null) {
+            indexDirs = conf.getLedgerDirs();
+        }
+        long startTime = System.nanoTime();
+        for (File indexDir : indexDirs) {
+            String iBasePath = BookieImpl.getCurrentDirectory(indexDir).toString();
+            Path indexCurrentPath = FileSystems.getDefault().getPath(iBasePath, "locations");
+            boolean sortedRunsSource = sourceFactory == KeyValueStorageSortedRuns.factory;
+            if (!Files.isDirectory(indexCurrentPath)
+                    || sortedRunsSource != KeyValueStorageSortedRuns.isSortedRunsStorage(iBasePath, "locations")) {
+                throw new IOException("No locations index stored with " + sourceStorage + " in " + iBasePath);
+            }
+
+            String timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date());
+            Path backupPath = FileSystems.getDefault().getPath(iBasePath, "locations.BACKUP-" + timestamp);
+            String tmpSubPath = "locations.MIGRATING-" + timestamp;
+            Path tmpPath = FileSystems.getDefault().getPath(iBasePath, tmpSubPath);
+
+            long count = 0;
+            try (KeyValueStorage oldIndex = sourceFactory.newKeyValueStorage(iBasePath, "locations",
+                    DbConfigType.Default, conf)) {
+                if (targetFactory == KeyValueStorageSortedRuns.factory) {
+                    checkSingleLocations(oldIndex);
+                }
+
+                try (KeyValueStorage newIndex = targetFactory.newKeyValueStorage(iBasePath, tmpSubPath,
+                        DbConfigType.Default, conf)) {
+                    KeyValueStorage.Batch batch = newIndex.newBatch();
+                    try (KeyValueStorage.CloseableIterator<Map.Entry<byte[], byte[]>> iterator =
+                                 oldIndex.iterator()) {
+                        while (iterator.hasNext()) {
+                            Map.Entry<byte[], byte[]> entry = iterator.next();
+                            batch.put(entry.getKey(), entry.getValue());
+
+                            if (++count % BATCH_COMMIT_SIZE == 0) {
+                                batch.flush();
+                                batch.clear();
+                            }
+                        }
+                    }
+
+                    batch.flush();
+                    batch.close();
+                    newIndex.sync();
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Failed to migrate locations index in {}, the existing index is left unchanged", iBasePath);
+                FileUtils.deleteDirectory(tmpPath.toFile());
+                throw e;
+            }
+
+            // Only swap the indexes once the new one is complete
+            Files.move(indexCurrentPath, backupPath);
+            LOG.info("Created locations index backup at {}", backupPath);
+            Files.move(tmpPath, indexCurrentPath);
+
+            LOG.info("Migrated {} locations in {}", count, iBasePath);
+        }
+        LOG.info("Migrating index is done. Total time: {}",
+                DurationFormatUtils.formatDurationHMS(
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+    }
+
+    /**
+     * Check that the index only contains single locations, before starting to copy it.
+     *
+     * <p>The blocks of locations written with {@link DbLedgerStorage#ENTRY_LOCATION_INDEX_DENSE_BLOCKS} can't be
+     * stored in the sorted runs storage.
+     */
+    private static void checkSingleLocations(KeyValueStorage index) throws IOException {
+        try (KeyValueStorage.CloseableIterator<Map.Entry<byte[], byte[]>> iterator = index.iterator()) {
+            while (iterator.hasNext()) {
+                Map.Entry<byte[], byte[]> entry = iterator.next();
+                if (EntryLocationBlock.isBlock(entry.getValue())) {
+                    throw new IOException("Locations index " + index.getDBPath() + " contains blocks of locations,"
+                            + " written with " + DbLedgerStorage.ENTRY_LOCATION_INDEX_DENSE_BLOCKS + "=true, which"
+                            + " can't be migrated. Rebuild the index instead");
+                }
+            }
+        }
+    }
+
     private Set<Long> getActiveLedgers(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath)
             throws IOException {
         LedgerMetadataIndex ledgers = new LedgerMetadataIndex(conf, storageFactory, basePath, NullStatsLogger.INSTANCE);
@@ -0,0 +1,73 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+/**
+ * Adaptive read-ahead state of a ledger.
+ *
+ * <p>Keeps the range of entries after the last read cache miss that were requested to be read ahead: a sequential
+ * reader is expected to miss next at the end of the range.
+ */
+class ReadAheadWindow {
+
+    private static final long NOT_ASSIGNED = Long.MIN_VALUE;
+
+    private long firstEntryId = NOT_ASSIGNED;
+    private long nextEntryId = NOT_ASSIGNED;
+    private int window = 0;
+
+    /**
+     * Compute the number of entries to read ahead after a read cache miss on the given entry.
+     *
+     * <p>The window grows while the misses are sequential, that is when the reader misses right after the entries read
+     * ahead for the previous miss. Any other miss disables the read-ahead until the reader turns sequential again.
+     *
+     * @return the number of entries to read ahead, 0 to skip the read-ahead
+     */
+    synchronized int nextWindow(long entryId, int initialWindow, int maxWindow) {
+        int newWindow;
+        if (nextEntryId == NOT_ASSIGNED) {
+            // First miss on this ledger
+            newWindow = initialWindow;
+        } else if (entryId == nextEntryId) {
+            newWindow = window == 0 ? initialWindow : Math.min(window * 2, maxWindow);
+        } else if (entryId > firstEntryId && entryId < nextEntryId) {
+            // The entry is part of a read-ahead still in progress
+            return 0;
+        } else {
+            newWindow = 0;
+        }
+
+        firstEntryId = entryId;
+        nextEntryId = entryId + 1 + newWindow;
+        window = newWindow;
+        return newWindow;
+    }
+
+    /**
+     * Record the end of a read-ahead, which might have read less entries than requested.
+     */
+    synchronized void readAheadCompleted(long requestedNextEntryId, long nextEntryId) {
+        if (this.nextEntryId == requestedNextEntryId) {
+            this.nextEntryId = nextEntryId;
+        }
+    }
+}
@@ -27,10 +27,9 @@ import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
 import java.io.Closeable;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
 import org.slf4j.Logger;
@@ -45,22 +44,33 @@ import org.slf4j.LoggerFactory;
  * ring-buffer fashion. When the read cache is full, the oldest segment
  * is cleared and rotated to make space for new entries to be added to
  * the read cache.
+ *
+ * <p>Rolling over to the next segment never blocks the readers. Each segment is guarded
+ * by a {@link StampedLock}: lookups are optimistic reads that are validated after the entry
+ * was copied out of the segment, while the thread recycling the oldest segment takes its
+ * write lock, invalidating the lookups that were in progress on that segment.
  */
 public class ReadCache implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(ReadCache.class);
 
-    private static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
+    static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
+
+    private final ByteBuf[] cacheSegments;
+    private final ConcurrentLongLongPairHashMap[] cacheIndexes;
+    private final StampedLock[] segmentLocks;
 
-    private final List<ByteBuf> cacheSegments;
-    private final List<ConcurrentLongLongPairHashMap> cacheIndexes;
+    // Rollover count at which each segment became the current one, guarded by the segment lock
+    private final long[] segmentGenerations;
 
-    private int currentSegmentIdx;
-    private final AtomicInteger currentSegmentOffset = new AtomicInteger(0);
+    // The rollover count is stored in the high 32 bits and the offset in the current segment in the low 32 bits,
+    // so that both can be updated atomically
+    private final AtomicLong currentSegmentState = new AtomicLong(0);
+    private final AtomicBoolean rolloverOngoing = new AtomicBoolean(false);
 
+    private final int segmentsCount;
     private final int segmentSize;
 
     private ByteBufAllocator allocator;
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize) {
         this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE);
@@ -68,118 +78,172 @@ public class ReadCache implements Closeable {
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
         this.allocator = allocator;
-        int segmentsCount = Math.max(2, (int) (maxCacheSize / maxSegmentSize));
+        segmentsCount = Math.max(2, (int) (maxCacheSize / maxSegmentSize));
         segmentSize = (int) (maxCacheSize / segmentsCount);
 
-        cacheSegments = new ArrayList<>();
-        cacheIndexes = new ArrayList<>();
+        cacheSegments = new ByteBuf[segmentsCount];
+        cacheIndexes = new ConcurrentLongLongPairHashMap[segmentsCount];
+        segmentLocks = new StampedLock[segmentsCount];
+        segmentGenerations = new long[segmentsCount];
 
         for (int i = 0; i < segmentsCount; i++) {
-            cacheSegments.add(Unpooled.directBuffer(segmentSize, segmentSize));
-            ConcurrentLongLongPairHashMap concurrentLongLongPairHashMap = ConcurrentLongLongPairHashMap.newBuilder()
+            cacheSegments[i] = Unpooled.directBuffer(segmentSize, segmentSize);
+            cacheIndexes[i] = ConcurrentLongLongPairHashMap.newBuilder()
                     .expectedItems(4096)
                     .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
                     .build();
-            cacheIndexes.add(concurrentLongLongPairHashMap);
+            segmentLocks[i] = new StampedLock();
+            // Only the first segment is in use at the beginning
+            segmentGenerations[i] = i == 0 ? 0 : -1;
         }
     }
 
     @Override
     public void close() {
-        cacheSegments.forEach(ReferenceCountUtil::safeRelease);
+        for (ByteBuf segment : cacheSegments) {
+            ReferenceCountUtil.safeRelease(segment);
+        }
     }
 
     public void put(long ledgerId, long entryId, ByteBuf entry) {
         int entrySize = entry.readableBytes();
         int alignedSize = align64(entrySize);
 
-        lock.readLock().lock();
+        if (entrySize > segmentSize) {
+            log.warn("entrySize {} > segmentSize {}, skip update read cache!", entrySize, segmentSize);
+            return;
+        }
 
-        try {
-            if (entrySize > segmentSize) {
-                log.warn("entrySize {} > segmentSize {}, skip update read cache!", entrySize, segmentSize);
-                return;
-            }
-            int offset = currentSegmentOffset.getAndAdd(alignedSize);
-            if (offset + entrySize > segmentSize) {
-                // Roll-over the segment (outside the read-lock)
+        // Once the ring is full, every insertion will eventually cause the oldest segment to be evicted
+        int victimSegmentIdx = (currentSegmentIdx() + 1) % segmentsCount;
+        if (!cacheIndexes[victimSegmentIdx].isEmpty() && !admit(ledgerId, entryId, victimSegmentIdx)) {
+            return;
+        }
+
+        while (true) {
+            long state = currentSegmentState.get();
+            long generation = state >>> 32;
+            int offset = (int) state;
+
+            if (offset + entrySize <= segmentSize) {
+                if (currentSegmentState.compareAndSet(state, state + alignedSize)) {
+                    insert(generation, offset, ledgerId, entryId, entry);
+                    return;
+                }
+            } else if (rolloverOngoing.compareAndSet(false, true)) {
+                try {
+                    if (currentSegmentState.get() == state) {
+                        // Rollover to next segment
+                        long nextGeneration = generation + 1;
+                        recycleSegment(nextGeneration);
+                        currentSegmentState.set((nextGeneration << 32) | alignedSize);
+                        insert(nextGeneration, 0, ledgerId, entryId, entry);
+                        return;
+                    }
+                } finally {
+                    rolloverOngoing.set(false);
+                }
             } else {
-                // Copy entry into read cache segment
-                cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(),
-                        entry.readableBytes());
-                cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
+                // Another thread is rolling over the segment. Rather than waiting for it, skip caching this entry
                 return;
             }
-        } finally {
-            lock.readLock().unlock();
         }
+    }
 
-        // We could not insert in segment, we to get the write lock and roll-over to
-        // next segment
-        lock.writeLock().lock();
-
+    private void insert(long generation, int offset, long ledgerId, long entryId, ByteBuf entry) {
+        int segmentIdx = (int) (generation % segmentsCount);
+        StampedLock segmentLock = segmentLocks[segmentIdx];
+        long stamp = segmentLock.readLock();
         try {
-            int offset = currentSegmentOffset.getAndAdd(entrySize);
-            if (offset + entrySize > segmentSize) {
-                // Rollover to next segment
-                currentSegmentIdx = (currentSegmentIdx + 1) % cacheSegments.size();
-                currentSegmentOffset.set(alignedSize);
-                cacheIndexes.get(currentSegmentIdx).clear();
-                offset = 0;
+            if (segmentGenerations[segmentIdx] != generation) {
+                // The segment was already recycled after the offset was reserved
+                return;
             }
 
             // Copy entry into read cache segment
-            cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(), entry.readableBytes());
-            cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
+            cacheSegments[segmentIdx].setBytes(offset, entry, entry.readerIndex(), entry.readableBytes());
+            cacheIndexes[segmentIdx].put(ledgerId, entryId, offset, entry.readableBytes());
+            onEntryInserted(segmentIdx, ledgerId, entryId);
         } finally {
-            lock.writeLock().unlock();
+            segmentLock.unlockRead(stamp);
         }
     }
 
-    public ByteBuf get(long ledgerId, long entryId) {
-        lock.readLock().lock();
+    private void recycleSegment(long generation) {
+        int segmentIdx = (int) (generation % segmentsCount);
+        StampedLock segmentLock = segmentLocks[segmentIdx];
 
+        // Taking the write lock invalidates all the optimistic reads in progress on this segment
+        long stamp = segmentLock.writeLock();
         try {
-            // We need to check all the segments, starting from the current one and looking
-            // backward to minimize the
-            // checks for recently inserted entries
-            int size = cacheSegments.size();
-            for (int i = 0; i < size; i++) {
-                int segmentIdx = (currentSegmentIdx + (size - i)) % size;
-
-                LongPair res = cacheIndexes.get(segmentIdx).get(ledgerId, entryId);
-                if (res != null) {
-                    int entryOffset = (int) res.first;
-                    int entryLen = (int) res.second;
-
-                    ByteBuf entry = allocator.buffer(entryLen, entryLen);
-                    entry.writeBytes(cacheSegments.get(segmentIdx), entryOffset, entryLen);
-                    return entry;
-                }
-            }
+            onSegmentEvicted(segmentIdx, cacheIndexes[segmentIdx].size());
+            cacheIndexes[segmentIdx].clear();
+            segmentGenerations[segmentIdx] = generation;
         } finally {
-            lock.readLock().unlock();
+            segmentLock.unlockWrite(stamp);
         }
+    }
 
-        // Entry not found in any segment
-        return null;
+    private int currentSegmentIdx() {
+        return (int) ((currentSegmentState.get() >>> 32) % segmentsCount);
     }
 
-    public boolean hasEntry(long ledgerId, long entryId) {
-        lock.readLock().lock();
+    public ByteBuf get(long ledgerId, long entryId) {
+        ByteBuf entry = null;
+        int segmentAge = -1;
 
-        try {
-            int size = cacheSegments.size();
-            for (int i = 0; i < size; i++) {
-                int segmentIdx = (currentSegmentIdx + (size - i)) % size;
+        // We need to check all the segments, starting from the current one and looking
+        // backward to minimize the
+        // checks for recently inserted entries
+        int currentSegmentIdx = currentSegmentIdx();
+        for (int i = 0; i < segmentsCount; i++) {
+            int segmentIdx = (currentSegmentIdx + (segmentsCount - i)) % segmentsCount;
+            StampedLock segmentLock = segmentLocks[segmentIdx];
+            long stamp = segmentLock.tryOptimisticRead();
+            if (stamp == 0) {
+                // The segment is being recycled
+                continue;
+            }
+
+            LongPair res = cacheIndexes[segmentIdx].get(ledgerId, entryId);
+            if (res != null) {
+                int entryOffset = (int) res.first;
+                int entryLen = (int) res.second;
 
-                LongPair res = cacheIndexes.get(segmentIdx).get(ledgerId, entryId);
-                if (res != null) {
-                    return true;
+                ByteBuf copy = allocator.buffer(entryLen, entryLen);
+                copy.writeBytes(cacheSegments[segmentIdx], entryOffset, entryLen);
+                if (segmentLock.validate(stamp)) {
+                    entry = copy;
+                    segmentAge = i;
+                } else {
+                    // The segment was recycled while copying the entry
+                    copy.release();
                 }
+                break;
+            }
+        }
+
+        // Notify outside of the lookup, so that the access can trigger a re-insertion
+        onAccess(ledgerId, entryId, entry, segmentAge);
+
+        // Null if the entry was not found in any segment
+        return entry;
+    }
+
+    public boolean hasEntry(long ledgerId, long entryId) {
+        int currentSegmentIdx = currentSegmentIdx();
+        for (int i = 0; i < segmentsCount; i++) {
+            int segmentIdx = (currentSegmentIdx + (segmentsCount - i)) % segmentsCount;
+            StampedLock segmentLock = segmentLocks[segmentIdx];
+            long stamp = segmentLock.tryOptimisticRead();
+            if (stamp == 0) {
+                continue;
+            }
+
+            LongPair res = cacheIndexes[segmentIdx].get(ledgerId, entryId);
+            if (res != null && segmentLock.validate(stamp)) {
+                return true;
             }
-        } finally {
-            lock.readLock().unlock();
         }
 
         // Entry not found in any segment
@@ -190,41 +254,74 @@ public class ReadCache implements Closeable {
      * @return the total size of cached entries
      */
     public long size() {
-        lock.readLock().lock();
+        long state = currentSegmentState.get();
+        int currentSegmentIdx = (int) ((state >>> 32) % segmentsCount);
 
-        try {
-            long size = 0;
-            for (int i = 0; i < cacheIndexes.size(); i++) {
-                if (i == currentSegmentIdx) {
-                    size += currentSegmentOffset.get();
-                } else if (!cacheIndexes.get(i).isEmpty()) {
-                    size += segmentSize;
-                } else {
-                    // the segment is empty
-                }
+        long size = 0;
+        for (int i = 0; i < segmentsCount; i++) {
+            if (i == currentSegmentIdx) {
+                size += Math.min((int) state, segmentSize);
+            } else if (!cacheIndexes[i].isEmpty()) {
+                size += segmentSize;
+            } else {
+                // the segment is empty
             }
-
-            return size;
-        } finally {
-            lock.readLock().unlock();
         }
+
+        return size;
     }
 
     /**
      * @return the total number of cached entries
      */
     public long count() {
-        lock.readLock().lock();
+        long count = 0;
+        for (int i = 0; i < segmentsCount; i++) {
+            count += cacheIndexes[i].size();
+        }
 
-        try {
-            long count = 0;
-            for (int i = 0; i < cacheIndexes.size(); i++) {
-                count += cacheIndexes.get(i).size();
-            }
+        return count;
+    }
 
-            return count;
-        } finally {
-            lock.readLock().unlock();
-        }
+    /**
+     * @return the number of segments the cache memory is split into
+     */
+    protected int getSegmentsCount() {
+        return segmentsCount;
+    }
+
+    /**
+     * Decide whether a new entry should be inserted, once the cache is full and inserting it will contribute to
+     * the eviction of the oldest segment.
+     *
+     * @param victimSegmentIdx the index of the segment that will be evicted on the next rollover
+     * @return true if the entry should be inserted in the cache
+     */
+    protected boolean admit(long ledgerId, long entryId, int victimSegmentIdx) {
+        return true;
+    }
+
+    /**
+     * Invoked after an entry was copied into a segment, while holding the segment read lock.
+     */
+    protected void onEntryInserted(int segmentIdx, long ledgerId, long entryId) {
+    }
+
+    /**
+     * Invoked, while holding the segment write lock, before a segment is cleared to be reused.
+     *
+     * @param segmentIdx the index of the segment being evicted
+     * @param evictedEntries the number of entries that were stored in the segment
+     */
+    protected void onSegmentEvicted(int segmentIdx, long evictedEntries) {
+    }
+
+    /**
+     * Invoked, without holding any lock, after each lookup.
+     *
+     * @param entry the entry that was found, or null on a cache miss
+     * @param segmentAge how many segments behind the current one the entry was found, or -1 on a cache miss
+     */
+    protected void onAccess(long ledgerId, long entryId, ByteBuf entry, int segmentAge) {
     }
 }
@@ -24,6 +24,8 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
@@ -35,19 +37,25 @@ import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PrimitiveIterator.OfLong;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.StampedLock;
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.Bookie.NoEntryException;
 import org.apache.bookkeeper.bookie.BookieException;
@@ -96,28 +104,36 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     private final EntryLocationIndex entryLocationIndex;
 
     private final ConcurrentLongHashMap<TransientLedgerInfo> transientLedgerInfoCache;
+    // Adaptive read-ahead state of the ledgers recently read. Kept apart from the ledger info, so that reading a ledger
+    // doesn't add it to the ledger info cache
+    private final Cache<Long, ReadAheadWindow> readAheadWindows;
 
     private final GarbageCollectorThread gcThread;
 
-    // Write cache where all new entries are inserted into
-    protected volatile WriteCache writeCache;
-
-    // Write cache that is used to swap with writeCache during flushes
-    protected volatile WriteCache writeCacheBeingFlushed;
+    // Write caches where all new entries are inserted into, each one holding the entries of a subset of the ledgers
+    private final WriteCacheShard[] writeCacheShards;
 
     // Cache where we insert entries for speculative reading
     private final ReadCache readCache;
 
-    private final StampedLock writeCacheRotationLock = new StampedLock();
-
     protected final ReentrantLock flushMutex = new ReentrantLock();
 
-    protected final AtomicBoolean hasFlushBeenTriggered = new AtomicBoolean(false);
-    private final AtomicBoolean isFlushOngoing = new AtomicBoolean(false);
+    // Serializes the entry logger flush and the index batches flush of the checkpoints and of the flushes of single
+    // write cache shards. Taken after flushMutex and the mutexes of the shards.
+    private final ReentrantLock persistMutex = new ReentrantLock();
 
     private static String dbStoragerExecutorName = "db-storage";
-    private final ExecutorService executor = Executors.newSingleThreadExecutor(
-            new DefaultThreadFactory(dbStoragerExecutorName));
+    private final ExecutorService executor;
+
+    // Executor used to prepare the flush of multiple write cache shards in parallel during a checkpoint
+    private final ExecutorService shardFlushExecutor;
+
+    // Executor used to read ahead in background, null when the read-ahead is done by the reading thread
+    private final ExecutorService readAheadExecutor;
+
+    // Executor used to do the async reads, from the cache lookups to the entry log read, null when they're done by
+    // the calling thread
+    private final ExecutorService readExecutor;
 
     // Executor used to for db index cleanup
     private final ScheduledExecutorService cleanupExecutor = Executors
@@ -133,6 +149,8 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     private final long readCacheMaxSize;
     private final int readAheadCacheBatchSize;
     private final long readAheadCacheBatchBytesSize;
+    private final boolean adaptiveReadAhead;
+    private final int maxReadAheadCacheBatchSize;
 
     private final long maxThrottleTimeNanos;
 
@@ -140,6 +158,15 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     private static final long DEFAULT_MAX_THROTTLE_TIME_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
+    private static final int DEFAULT_WRITE_CACHE_SHARDS = 1;
+
+    private static final int DEFAULT_READ_AHEAD_MAX_BATCH_SIZE_MULTIPLIER = 8;
+
+    private static final int MAX_PENDING_READ_AHEADS = 1024;
+
+    // Ledgers whose adaptive read-ahead state is kept, the least recently read ones are evicted
+    private static final int MAX_READ_AHEAD_WINDOWS = 4096;
+
     private final long maxReadAheadBytesSize;
 
     private final Counter flushExecutorTime;
@@ -173,13 +200,41 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 .scopeLabel("indexDir", indexBaseDir);
 
         this.writeCacheMaxSize = writeCacheSize;
-        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / 2);
-        this.writeCacheBeingFlushed = new WriteCache(allocator, writeCacheMaxSize / 2);
+        int writeCacheShardsCount = conf.getInt(DbLedgerStorage.WRITE_CACHE_SHARDS, DEFAULT_WRITE_CACHE_SHARDS);
+        checkArgument(writeCacheShardsCount > 0, "%s must be greater than 0", DbLedgerStorage.WRITE_CACHE_SHARDS);
+        this.writeCacheShards = new WriteCacheShard[writeCacheShardsCount];
+        for (int i = 0; i < writeCacheShardsCount; i++) {
+            writeCacheShards[i] = new WriteCacheShard(allocator, writeCacheMaxSize / writeCacheShardsCount);
+        }
+        // With multiple shards, each shard is flushed independently when it gets full, so we need one thread per
+        // shard to avoid a shard waiting for the flush of another one
+        this.executor = writeCacheShardsCount == 1
+                ? Executors.newSingleThreadExecutor(new DefaultThreadFactory(dbStoragerExecutorName))
+                : Executors.newFixedThreadPool(writeCacheShardsCount, new DefaultThreadFactory(dbStoragerExecutorName));
+        this.shardFlushExecutor = writeCacheShardsCount == 1
+                ? null
+                : Executors.newFixedThreadPool(writeCacheShardsCount, new DefaultThreadFactory("db-storage-flush"));
         this.singleLedgerDirs = conf.getLedgerDirs().length == 1;
 
         readCacheMaxSize = readCacheSize;
         this.readAheadCacheBatchSize = readAheadCacheBatchSize;
         this.readAheadCacheBatchBytesSize = readAheadCacheBatchBytesSize;
+        this.adaptiveReadAhead = conf.getBoolean(DbLedgerStorage.READ_AHEAD_ADAPTIVE, false);
+        this.maxReadAheadCacheBatchSize = Math.max(readAheadCacheBatchSize,
+                conf.getInt(DbLedgerStorage.READ_AHEAD_CACHE_MAX_BATCH_SIZE,
+                        readAheadCacheBatchSize * DEFAULT_READ_AHEAD_MAX_BATCH_SIZE_MULTIPLIER));
+        int readAheadAsyncThreads = conf.getInt(DbLedgerStorage.READ_AHEAD_ASYNC_THREADS, 0);
+        // The read-ahead is speculative, so it's dropped rather than queued when the readahead threads can't keep up
+        this.readAheadExecutor = readAheadAsyncThreads > 0
+                ? new ThreadPoolExecutor(readAheadAsyncThreads, readAheadAsyncThreads, 0L, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(MAX_PENDING_READ_AHEADS),
+                        new DefaultThreadFactory("db-storage-readahead"))
+                : null;
+        int asyncReadThreads = conf.getInt(DbLedgerStorage.ASYNC_READ_THREADS,
+                DbLedgerStorage.DEFAULT_ASYNC_READ_THREADS);
+        this.readExecutor = asyncReadThreads > 0
+                ? Executors.newFixedThreadPool(asyncReadThreads, new DefaultThreadFactory("db-storage-read"))
+                : null;
 
         // Do not attempt to perform read-ahead more than half the total size of the cache
         maxReadAheadBytesSize = readCacheMaxSize / 2;
@@ -188,12 +243,16 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 DEFAULT_MAX_THROTTLE_TIME_MILLIS);
         maxThrottleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleTimeMillis);
 
-        readCache = new ReadCache(allocator, readCacheMaxSize);
+        if (conf.getBoolean(DbLedgerStorage.READ_CACHE_TINY_LFU, false)) {
+            readCache = new TinyLfuReadCache(allocator, readCacheMaxSize, ledgerIndexDirStatsLogger);
+        } else {
+            readCache = new ReadCache(allocator, readCacheMaxSize);
+        }
 
         ledgerIndex = new LedgerMetadataIndex(conf,
                 KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
         entryLocationIndex = new EntryLocationIndex(conf,
-                KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
+                EntryLocationIndex.getStorageFactory(conf), indexBaseDir, ledgerIndexDirStatsLogger);
 
         transientLedgerInfoCache = ConcurrentLongHashMap.<TransientLedgerInfo>newBuilder()
                 .expectedItems(16 * 1024)
@@ -202,6 +261,12 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         cleanupExecutor.scheduleAtFixedRate(this::cleanupStaleTransientLedgerInfo,
                 TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES,
                 TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES, TimeUnit.MINUTES);
+        readAheadWindows = adaptiveReadAhead
+                ? CacheBuilder.newBuilder()
+                        .maximumSize(MAX_READ_AHEAD_WINDOWS)
+                        .expireAfterAccess(TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES, TimeUnit.MINUTES)
+                        .build()
+                : null;
 
         this.entryLogger = entryLogger;
         gcThread = new GarbageCollectorThread(conf,
@@ -209,8 +274,8 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         dbLedgerStorageStats = new DbLedgerStorageStats(
             ledgerIndexDirStatsLogger,
-            () -> writeCache.size() + writeCacheBeingFlushed.size(),
-            () -> writeCache.count() + writeCacheBeingFlushed.count(),
+            this::getWriteCacheSize,
+            this::getWriteCacheCount,
             () -> readCache.size(),
             () -> readCache.count()
         );
@@ -338,6 +403,16 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         try {
             flush();
 
+            if (readExecutor != null) {
+                readExecutor.shutdown();
+                readExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+
+            if (readAheadExecutor != null) {
+                readAheadExecutor.shutdownNow();
+                readAheadExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+
             gcThread.shutdown();
             entryLogger.close();
 
@@ -347,10 +422,14 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             ledgerIndex.close();
             entryLocationIndex.close();
 
-            writeCache.close();
-            writeCacheBeingFlushed.close();
+            for (WriteCacheShard shard : writeCacheShards) {
+                shard.close();
+            }
             readCache.close();
             executor.shutdown();
+            if (shardFlushExecutor != null) {
+                shardFlushExecutor.shutdown();
+            }
 
         } catch (IOException e) {
             log.error("Error closing db storage", e);
@@ -377,33 +456,16 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return false;
         }
 
-        // We need to try to read from both write caches, since recent entries could be found in either of the two. The
-        // write caches are already thread safe on their own, here we just need to make sure we get references to both
-        // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
-        long stamp = writeCacheRotationLock.tryOptimisticRead();
-        WriteCache localWriteCache = writeCache;
-        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
-        if (!writeCacheRotationLock.validate(stamp)) {
-            // Fallback to regular read lock approach
-            stamp = writeCacheRotationLock.readLock();
-            try {
-                localWriteCache = writeCache;
-                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
-            } finally {
-                writeCacheRotationLock.unlockRead(stamp);
-            }
-        }
-
-        boolean inCache = localWriteCache.hasEntry(ledgerId, entryId)
-             || localWriteCacheBeingFlushed.hasEntry(ledgerId, entryId)
+        boolean inCache = getWriteCacheShard(ledgerId).hasEntry(ledgerId, entryId)
              || readCache.hasEntry(ledgerId, entryId);
 
         if (inCache) {
             return true;
         }
 
-        // Read from main storage
-        long entryLocation = entryLocationIndex.getLocation(ledgerId, entryId);
+        // Read from main storage, unless the entry is known to be after the last entry of the ledger
+        long entryLocation = isBeyondLastEntry(ledgerId, entryId)
+                ? 0 : entryLocationIndex.getLocation(ledgerId, entryId);
         if (entryLocation != 0) {
             return true;
         }
@@ -474,37 +536,19 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             log.debug("Add entry. {}@{}, lac = {}", ledgerId, entryId, lac);
         }
 
-        // First we try to do an optimistic locking to get access to the current write cache.
-        // This is based on the fact that the write cache is only being rotated (swapped) every 1 minute. During the
-        // rest of the time, we can have multiple thread using the optimistic lock here without interfering.
-        long stamp = writeCacheRotationLock.tryOptimisticRead();
-        boolean inserted = false;
-
-        inserted = writeCache.put(ledgerId, entryId, entry);
-        if (!writeCacheRotationLock.validate(stamp)) {
-            // The write cache was rotated while we were inserting. We need to acquire the proper read lock and repeat
-            // the operation because we might have inserted in a write cache that was already being flushed and cleared,
-            // without being sure about this last entry being flushed or not.
-            stamp = writeCacheRotationLock.readLock();
-            try {
-                inserted = writeCache.put(ledgerId, entryId, entry);
-            } finally {
-                writeCacheRotationLock.unlockRead(stamp);
-            }
-        }
-
-        if (!inserted) {
-            triggerFlushAndAddEntry(ledgerId, entryId, entry);
+        WriteCacheShard shard = getWriteCacheShard(ledgerId);
+        if (!shard.put(ledgerId, entryId, entry)) {
+            triggerFlushAndAddEntry(shard, ledgerId, entryId, entry);
         }
 
         // after successfully insert the entry, update LAC and notify the watchers
-        updateCachedLacIfNeeded(ledgerId, lac);
+        updateCachedLedgerInfoIfNeeded(ledgerId, entryId, lac);
 
         recordSuccessfulEvent(dbLedgerStorageStats.getAddEntryStats(), startTime);
         return entryId;
     }
 
-    private void triggerFlushAndAddEntry(long ledgerId, long entryId, ByteBuf entry)
+    private void triggerFlushAndAddEntry(WriteCacheShard shard, long ledgerId, long entryId, ByteBuf entry)
             throws IOException, BookieException {
         long throttledStartTime = MathUtils.nowInNano();
         dbLedgerStorageStats.getThrottledWriteRequests().inc();
@@ -514,13 +558,18 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             // Write cache is full, we need to trigger a flush so that it gets rotated
             // If the flush has already been triggered or flush has already switched the
             // cache, we don't need to trigger another flush
-            if (!isFlushOngoing.get() && hasFlushBeenTriggered.compareAndSet(false, true)) {
+            if (!shard.isFlushOngoing.get() && shard.hasFlushBeenTriggered.compareAndSet(false, true)) {
                 // Trigger an early flush in background
                 log.info("Write cache is full, triggering flush");
                 executor.execute(() -> {
                         long startTime = System.nanoTime();
                         try {
-                            flush();
+                            if (writeCacheShards.length == 1) {
+                                flush();
+                            } else {
+                                // Only flush the shard that is full, the others can keep accepting writes
+                                flushWriteCacheShard(shard);
+                            }
                         } catch (IOException e) {
                             log.error("Error during flush", e);
                         } finally {
@@ -529,15 +578,10 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                     });
             }
 
-            long stamp = writeCacheRotationLock.readLock();
-            try {
-                if (writeCache.put(ledgerId, entryId, entry)) {
-                    // We succeeded in putting the entry in write cache in the
-                    recordSuccessfulEvent(dbLedgerStorageStats.getThrottledWriteStats(), throttledStartTime);
-                    return;
-                }
-            } finally {
-                writeCacheRotationLock.unlockRead(stamp);
+            if (shard.putWithLock(ledgerId, entryId, entry)) {
+                // We succeeded in putting the entry in write cache in the
+                recordSuccessfulEvent(dbLedgerStorageStats.getThrottledWriteStats(), throttledStartTime);
+                return;
             }
 
             // Wait some time and try again
@@ -568,6 +612,110 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
     }
 
+    /**
+     * The caches, the location index and the entry log are all read in the read executor, so that the calling
+     * thread is never blocked by the index or by the disk. Without read executor, the entry is read in the calling
+     * thread.
+     */
+    @Override
+    public CompletableFuture<ByteBuf> getEntryAsync(long ledgerId, long entryId) {
+        if (readExecutor == null) {
+            return CompactableLedgerStorage.super.getEntryAsync(ledgerId, entryId);
+        }
+
+        CompletableFuture<ByteBuf> future = new CompletableFuture<>();
+        try {
+            readExecutor.execute(() -> {
+                try {
+                    future.complete(getEntry(ledgerId, entryId));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            future.completeExceptionally(new IOException("Ledger storage is shut down", ree));
+        }
+        return future;
+    }
+
+    /**
+     * The entries found in the caches are taken from there, while the locations of the following entries which
+     * aren't are looked up in the index, so that these entries can be read together from the entry log.
+     */
+    @Override
+    public List<ByteBuf> getEntries(long ledgerId, long firstEntryId, int maxCount, long maxSize)
+            throws IOException, BookieException {
+        if (firstEntryId == BookieProtocol.LAST_ADD_CONFIRMED) {
+            return CompactableLedgerStorage.super.getEntries(ledgerId, firstEntryId, maxCount, maxSize);
+        }
+
+        long startTime = MathUtils.nowInNano();
+        List<ByteBuf> entries = new ArrayList<>();
+        long size = 0;
+        long entryId = firstEntryId;
+        try {
+            while (entries.size() < maxCount && size < maxSize) {
+                ByteBuf entry = getCachedEntry(ledgerId, entryId);
+                if (entry != null) {
+                    entries.add(entry);
+                    size += entry.readableBytes();
+                    entryId++;
+                    continue;
+                }
+
+                int batchSize = Math.max(1, Math.min(maxCount - entries.size(), maxReadAheadCacheBatchSize));
+                long[] entryIds = new long[batchSize];
+                long[] entryLocations = new long[batchSize];
+                entryIds[0] = entryId;
+                entryLocations[0] = getEntryLocation(ledgerId, entryId);
+                int count = 1;
+                while (count < batchSize) {
+                    try {
+                        entryLocations[count] = getEntryLocation(ledgerId, entryId + count);
+                    } catch (IOException | BookieException e) {
+                        // Not in the index, though it could still be in the write cache
+                        break;
+                    }
+                    entryIds[count] = entryId + count;
+                    count++;
+                }
+                if (count < batchSize) {
+                    entryIds = Arrays.copyOf(entryIds, count);
+                    entryLocations = Arrays.copyOf(entryLocations, count);
+                }
+
+                long readEntryStartNano = MathUtils.nowInNano();
+                List<ByteBuf> read;
+                try {
+                    read = entryLogger.readEntries(ledgerId, entryIds, entryLocations);
+                } finally {
+                    dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
+                            MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
+                }
+                for (ByteBuf e : read) {
+                    if (size < maxSize) {
+                        entries.add(e);
+                        size += e.readableBytes();
+                    } else {
+                        ReferenceCountUtil.release(e);
+                    }
+                }
+                if (read.size() < count) {
+                    break;
+                }
+                entryId += count;
+            }
+        } catch (IOException | BookieException e) {
+            if (entries.isEmpty()) {
+                recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+                throw e;
+            }
+        }
+
+        recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+        return entries;
+    }
+
     private ByteBuf doGetEntry(long ledgerId, long entryId) throws IOException, BookieException {
         if (log.isDebugEnabled()) {
             log.debug("Get Entry: {}@{}", ledgerId, entryId);
@@ -577,32 +725,31 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return getLastEntry(ledgerId);
         }
 
-        // We need to try to read from both write caches, since recent entries could be found in either of the two. The
-        // write caches are already thread safe on their own, here we just need to make sure we get references to both
-        // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
-        long stamp = writeCacheRotationLock.tryOptimisticRead();
-        WriteCache localWriteCache = writeCache;
-        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
-        if (!writeCacheRotationLock.validate(stamp)) {
-            // Fallback to regular read lock approach
-            stamp = writeCacheRotationLock.readLock();
-            try {
-                localWriteCache = writeCache;
-                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
-            } finally {
-                writeCacheRotationLock.unlockRead(stamp);
-            }
-        }
-
-        // First try to read from the write cache of recent entries
-        ByteBuf entry = localWriteCache.get(ledgerId, entryId);
+        ByteBuf entry = getCachedEntry(ledgerId, entryId);
         if (entry != null) {
-            dbLedgerStorageStats.getWriteCacheHitCounter().inc();
             return entry;
         }
 
-        // If there's a flush going on, the entry might be in the flush buffer
-        entry = localWriteCacheBeingFlushed.get(ledgerId, entryId);
+        long entryLocation = getEntryLocation(ledgerId, entryId);
+
+        long readEntryStartNano = MathUtils.nowInNano();
+        try {
+            entry = entryLogger.readEntry(ledgerId, entryId, entryLocation);
+        } finally {
+            dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
+                    MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
+        }
+
+        cacheAndReadAhead(ledgerId, entryId, entryLocation, entry);
+        return entry;
+    }
+
+    /**
+     * @return the entry from the write cache or the read cache, or null if it's in neither of them
+     */
+    private ByteBuf getCachedEntry(long ledgerId, long entryId) {
+        // Recent entries could be found in either of the write caches of the shard owning the ledger
+        ByteBuf entry = getWriteCacheShard(ledgerId).get(ledgerId, entryId);
         if (entry != null) {
             dbLedgerStorageStats.getWriteCacheHitCounter().inc();
             return entry;
@@ -618,6 +765,16 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
 
         dbLedgerStorageStats.getReadCacheMissCounter().inc();
+        return null;
+    }
+
+    private long getEntryLocation(long ledgerId, long entryId) throws IOException, BookieException {
+        if (isBeyondLastEntry(ledgerId, entryId)) {
+            // Only a negative result while in limbo equates to unknown
+            throwIfLimbo(ledgerId);
+
+            throw new NoEntryException(ledgerId, entryId);
+        }
 
         // Read from main storage
         long entryLocation;
@@ -634,25 +791,102 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             dbLedgerStorageStats.getReadFromLocationIndexTime().addLatency(
                     MathUtils.elapsedNanos(locationIndexStartNano), TimeUnit.NANOSECONDS);
         }
+        return entryLocation;
+    }
 
-        long readEntryStartNano = MathUtils.nowInNano();
-        try {
-            entry = entryLogger.readEntry(ledgerId, entryId, entryLocation);
-        } finally {
-            dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
-                    MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
-        }
-
+    private void cacheAndReadAhead(long ledgerId, long entryId, long entryLocation, ByteBuf entry) {
         readCache.put(ledgerId, entryId, entry);
 
         // Try to read more entries
         long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
-        fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation);
+        readAhead(ledgerId, entryId, nextEntryLocation);
+    }
 
-        return entry;
+    /**
+     * Check whether the entry is after the last entry of the ledger, so that the lookup in the locations index can be
+     * avoided. The last entry in storage is loaded once in the ledger info, then the added entries keep it updated.
+     *
+     * <p>Only ledgers already in the ledger info cache are checked: a read miss must not add an entry to the cache,
+     * otherwise reads of deleted or unknown ledgers would fill it.
+     */
+    private boolean isBeyondLastEntry(long ledgerId, long entryId) throws IOException {
+        TransientLedgerInfo ledgerInfo = transientLedgerInfoCache.get(ledgerId);
+        if (ledgerInfo == null) {
+            return false;
+        }
+        if (!ledgerInfo.hasStoredLastEntryId()) {
+            ledgerInfo.setStoredLastEntryId(getStoredLastEntryId(ledgerId));
+        }
+
+        if (ledgerInfo.isBeyondLastEntry(entryId)) {
+            dbLedgerStorageStats.getLocationsIndexLookupsAvoided().inc();
+            return true;
+        }
+        return false;
     }
 
-    private void fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation) {
+    private long getStoredLastEntryId(long ledgerId) throws IOException {
+        long lastEntryId = -1;
+
+        // The write cache must be checked before the index, since the entries are removed from the write cache only
+        // after being added to the index
+        ByteBuf entry = getWriteCacheShard(ledgerId).getLastEntry(ledgerId);
+        if (entry != null) {
+            try {
+                lastEntryId = entry.getLong(entry.readerIndex() + 8);
+            } finally {
+                ReferenceCountUtil.release(entry);
+            }
+        }
+
+        try {
+            lastEntryId = Math.max(lastEntryId, entryLocationIndex.getLastEntryInLedger(ledgerId));
+        } catch (NoEntryException e) {
+            // No entries of the ledger in the index
+        }
+        return lastEntryId;
+    }
+
+    private void readAhead(long ledgerId, long entryId, long nextEntryLocation) {
+        int batchSize = readAheadCacheBatchSize;
+        ReadAheadWindow window = null;
+        if (adaptiveReadAhead) {
+            window = readAheadWindows.asMap().computeIfAbsent(ledgerId, l -> new ReadAheadWindow());
+            batchSize = window.nextWindow(entryId, readAheadCacheBatchSize, maxReadAheadCacheBatchSize);
+            if (batchSize == 0) {
+                return;
+            }
+        }
+
+        final ReadAheadWindow readAheadWindow = window;
+        final int readAheadBatchSize = batchSize;
+        final long requestedNextEntryId = entryId + 1 + batchSize;
+        Runnable readAheadTask = () -> {
+            int count = fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation, readAheadBatchSize);
+            if (readAheadWindow != null) {
+                readAheadWindow.readAheadCompleted(requestedNextEntryId, entryId + 1 + count);
+            }
+        };
+
+        if (readAheadExecutor == null) {
+            readAheadTask.run();
+            return;
+        }
+
+        try {
+            readAheadExecutor.execute(readAheadTask);
+        } catch (RejectedExecutionException e) {
+            if (readAheadWindow != null) {
+                readAheadWindow.readAheadCompleted(requestedNextEntryId, entryId + 1);
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries read ahead
+     */
+    private int fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation,
+                                   int batchSize) {
         long readAheadStartNano = MathUtils.nowInNano();
         int count = 0;
         long size = 0;
@@ -662,7 +896,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             long currentEntryLogId = firstEntryLogId;
             long currentEntryLocation = firstEntryLocation;
 
-            while (chargeReadAheadCache(count, size) && currentEntryLogId == firstEntryLogId) {
+            while (chargeReadAheadCache(count, size, batchSize) && currentEntryLogId == firstEntryLogId) {
                 ByteBuf entry = entryLogger.readEntry(orginalLedgerId,
                         firstEntryId, currentEntryLocation);
 
@@ -698,15 +932,17 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             dbLedgerStorageStats.getReadAheadTime().addLatency(
                     MathUtils.elapsedNanos(readAheadStartNano), TimeUnit.NANOSECONDS);
         }
+        return count;
     }
 
-    protected boolean chargeReadAheadCache(int currentReadAheadCount, long currentReadAheadBytes) {
+    private boolean chargeReadAheadCache(int currentReadAheadCount, long currentReadAheadBytes, int batchSize) {
         // compatible with old logic
-        boolean chargeSizeCondition = currentReadAheadCount < readAheadCacheBatchSize
+        boolean chargeSizeCondition = currentReadAheadCount < batchSize
                 && currentReadAheadBytes < maxReadAheadBytesSize;
         if (chargeSizeCondition && readAheadCacheBatchBytesSize > 0) {
-            // exact limits limit the size and count for each batch
-            chargeSizeCondition = currentReadAheadBytes < readAheadCacheBatchBytesSize;
+            // exact limits limit the size and count for each batch, the size limit grows with the adaptive window
+            chargeSizeCondition = currentReadAheadBytes
+                    < readAheadCacheBatchBytesSize * batchSize / readAheadCacheBatchSize;
         }
         return chargeSizeCondition;
     }
@@ -714,42 +950,21 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     public ByteBuf getLastEntry(long ledgerId) throws IOException, BookieException {
         throwIfLimbo(ledgerId);
 
-        long stamp = writeCacheRotationLock.readLock();
-        try {
-            // First try to read from the write cache of recent entries
-            ByteBuf entry = writeCache.getLastEntry(ledgerId);
-            if (entry != null) {
+        // Recent entries could be found in either of the write caches of the shard owning the ledger
+        ByteBuf entry = getWriteCacheShard(ledgerId).getLastEntry(ledgerId);
+        if (entry != null) {
+            if (log.isDebugEnabled()) {
+                long foundLedgerId = entry.readLong(); // ledgedId
+                long entryId = entry.readLong();
+                entry.resetReaderIndex();
                 if (log.isDebugEnabled()) {
-                    long foundLedgerId = entry.readLong(); // ledgedId
-                    long entryId = entry.readLong();
-                    entry.resetReaderIndex();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Found last entry for ledger {} in write cache: {}@{}", ledgerId, foundLedgerId,
-                                entryId);
-                    }
+                    log.debug("Found last entry for ledger {} in write cache: {}@{}", ledgerId, foundLedgerId,
+                            entryId);
                 }
-
-                dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-                return entry;
             }
 
-            // If there's a flush going on, the entry might be in the flush buffer
-            entry = writeCacheBeingFlushed.getLastEntry(ledgerId);
-            if (entry != null) {
-                if (log.isDebugEnabled()) {
-                    entry.readLong(); // ledgedId
-                    long entryId = entry.readLong();
-                    entry.resetReaderIndex();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Found last entry for ledger {} in write cache being flushed: {}", ledgerId, entryId);
-                    }
-                }
-
-                dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-                return entry;
-            }
-        } finally {
-            writeCacheRotationLock.unlockRead(stamp);
+            dbLedgerStorageStats.getWriteCacheHitCounter().inc();
+            return entry;
         }
 
         dbLedgerStorageStats.getWriteCacheMissCounter().inc();
@@ -774,12 +989,34 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     @VisibleForTesting
     boolean isFlushRequired() {
-        long stamp = writeCacheRotationLock.readLock();
-        try {
-            return !writeCache.isEmpty();
-        } finally {
-            writeCacheRotationLock.unlockRead(stamp);
+        for (WriteCacheShard shard : writeCacheShards) {
+            if (!shard.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private WriteCacheShard getWriteCacheShard(long ledgerId) {
+        return writeCacheShards.length == 1
+                ? writeCacheShards[0]
+                : writeCacheShards[MathUtils.signSafeMod(ledgerId, writeCacheShards.length)];
+    }
+
+    private long getWriteCacheSize() {
+        long size = 0;
+        for (WriteCacheShard shard : writeCacheShards) {
+            size += shard.size();
         }
+        return size;
+    }
+
+    private long getWriteCacheCount() {
+        long count = 0;
+        for (WriteCacheShard shard : writeCacheShards) {
+            count += shard.count();
+        }
+        return count;
     }
 
     @Override
@@ -800,50 +1037,55 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             throw new IOException(e);
         }
 
+        List<WriteCacheShard> shardsToFlush = Lists.newArrayListWithCapacity(writeCacheShards.length);
+        List<WriteCache> cachesToFlush = Lists.newArrayListWithCapacity(writeCacheShards.length);
         try {
-            if (writeCache.isEmpty()) {
+            // Wait for any pending flush of a single shard and swap all the non-empty write caches, so that writes
+            // can continue to happen while the flush is ongoing
+            for (WriteCacheShard shard : writeCacheShards) {
+                shard.flushMutex.lock();
+                shardsToFlush.add(shard);
+                if (!shard.isEmpty()) {
+                    cachesToFlush.add(shard.swapWriteCache());
+                }
+            }
+
+            if (cachesToFlush.isEmpty()) {
                 return;
             }
-            // Swap the write cache so that writes can continue to happen while the flush is
-            // ongoing
-            swapWriteCache();
 
-            long sizeToFlush = writeCacheBeingFlushed.size();
+            long sizeToFlush = 0;
+            long countToFlush = 0;
+            for (WriteCache cache : cachesToFlush) {
+                sizeToFlush += cache.size();
+                countToFlush += cache.count();
+            }
             if (log.isDebugEnabled()) {
-                log.debug("Flushing entries. count: {} -- size {} Mb", writeCacheBeingFlushed.count(),
-                        sizeToFlush / 1024.0 / 1024);
+                log.debug("Flushing entries. count: {} -- size {} Mb -- shards {}", countToFlush,
+                        sizeToFlush / 1024.0 / 1024, cachesToFlush.size());
             }
 
             // Write all the pending entries into the entry logger and collect the offset
             // position for each entry
+            List<Batch> batches = addEntriesToEntryLogger(cachesToFlush);
 
-            Batch batch = entryLocationIndex.newBatch();
-            writeCacheBeingFlushed.forEach((ledgerId, entryId, entry) -> {
-                long location = entryLogger.addEntry(ledgerId, entry);
-                entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
-            });
-
-            long entryLoggerStart = MathUtils.nowInNano();
-            entryLogger.flush();
-            recordSuccessfulEvent(dbLedgerStorageStats.getFlushEntryLogStats(), entryLoggerStart);
+            persistMutex.lock();
+            try {
+                persistEntriesAndLocations(batches);
 
-            long batchFlushStartTime = MathUtils.nowInNano();
-            batch.flush();
-            batch.close();
-            recordSuccessfulEvent(dbLedgerStorageStats.getFlushLocationIndexStats(), batchFlushStartTime);
-            if (log.isDebugEnabled()) {
-                log.debug("DB batch flushed time : {} s",
-                        MathUtils.elapsedNanos(batchFlushStartTime) / (double) TimeUnit.SECONDS.toNanos(1));
+                long ledgerIndexStartTime = MathUtils.nowInNano();
+                ledgerIndex.flush();
+                recordSuccessfulEvent(dbLedgerStorageStats.getFlushLedgerIndexStats(), ledgerIndexStartTime);
+            } finally {
+                persistMutex.unlock();
             }
 
-            long ledgerIndexStartTime = MathUtils.nowInNano();
-            ledgerIndex.flush();
-            recordSuccessfulEvent(dbLedgerStorageStats.getFlushLedgerIndexStats(), ledgerIndexStartTime);
-
             lastCheckpoint = thisCheckpoint;
 
-            // Discard all the entry from the write cache, since they're now persisted
-            writeCacheBeingFlushed.clear();
+            // Discard all the entry from the write caches, since they're now persisted
+            for (WriteCache cache : cachesToFlush) {
+                cache.clear();
+            }
 
             double flushTimeSeconds = MathUtils.elapsedNanos(startTime) / (double) TimeUnit.SECONDS.toNanos(1);
             double flushThroughput = sizeToFlush / 1024.0 / 1024.0 / flushTimeSeconds;
@@ -875,7 +1117,10 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                     }
                 });
 
-                isFlushOngoing.set(false);
+                for (WriteCacheShard shard : shardsToFlush) {
+                    shard.isFlushOngoing.set(false);
+                    shard.flushMutex.unlock();
+                }
             } finally {
                 flushMutex.unlock();
             }
@@ -883,26 +1128,139 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     }
 
     /**
-     * Swap the current write cache with the replacement cache.
+     * Flush the entries of a single write cache shard that got full, without waiting for the other shards.
+     *
+     * <p>This is not a checkpoint: the ledger index is not flushed and the last checkpoint is not advanced, though
+     * the entries and their locations are persisted, so that the write cache of the shard can be reused.
      */
-    private void swapWriteCache() {
-        long stamp = writeCacheRotationLock.writeLock();
+    private void flushWriteCacheShard(WriteCacheShard shard) throws IOException {
+        shard.flushMutex.lock();
+        long startTime = -1;
         try {
-            // First, swap the current write-cache map with an empty one so that writes will
-            // go on unaffected. Only a single flush is happening at the same time
-            WriteCache tmp = writeCacheBeingFlushed;
-            writeCacheBeingFlushed = writeCache;
-            writeCache = tmp;
-
-            // since the cache is switched, we can allow flush to be triggered
-            hasFlushBeenTriggered.set(false);
-        } finally {
+            startTime = MathUtils.nowInNano();
+        } catch (Throwable e) {
+            // Fix spotbugs warning. Should never happen
+            shard.flushMutex.unlock();
+            throw new IOException(e);
+        }
+
+        try {
+            if (shard.isEmpty()) {
+                return;
+            }
+
+            WriteCache cacheToFlush = shard.swapWriteCache();
+            long sizeToFlush = cacheToFlush.size();
+            if (log.isDebugEnabled()) {
+                log.debug("Flushing write cache shard. count: {} -- size {} Mb", cacheToFlush.count(),
+                        sizeToFlush / 1024.0 / 1024);
+            }
+
+            List<Batch> batches = addEntriesToEntryLogger(Collections.singletonList(cacheToFlush));
+
+            // Other shards can be flushed at the same time, each one holding only its own mutex
+            persistMutex.lock();
             try {
-                isFlushOngoing.set(true);
+                persistEntriesAndLocations(batches);
             } finally {
-                writeCacheRotationLock.unlockWrite(stamp);
+                persistMutex.unlock();
+            }
+
+            cacheToFlush.clear();
+
+            recordSuccessfulEvent(dbLedgerStorageStats.getFlushStats(), startTime);
+            dbLedgerStorageStats.getFlushSizeStats().registerSuccessfulValue(sizeToFlush);
+        } catch (IOException e) {
+            recordFailedEvent(dbLedgerStorageStats.getFlushStats(), startTime);
+            throw e;
+        } finally {
+            shard.isFlushOngoing.set(false);
+            shard.flushMutex.unlock();
+        }
+    }
+
+    /**
+     * Write the entries of the given write caches into the entry logger and add their locations into index batches.
+     *
+     * <p>When there are multiple caches, each one is processed in a separate thread, so that sorting the entries and
+     * preparing the index batches happen in parallel. The appends to the entry logger are still serialized by the
+     * entry logger itself.
+     *
+     * @return the index batches, one per write cache, which are not flushed yet
+     */
+    private List<Batch> addEntriesToEntryLogger(List<WriteCache> caches) throws IOException {
+        if (caches.size() == 1) {
+            return Collections.singletonList(addEntriesToEntryLogger(caches.get(0)));
+        }
+
+        List<Future<Batch>> futures = Lists.newArrayListWithCapacity(caches.size());
+        for (WriteCache cache : caches) {
+            futures.add(shardFlushExecutor.submit(() -> addEntriesToEntryLogger(cache)));
+        }
+
+        List<Batch> batches = Lists.newArrayListWithCapacity(caches.size());
+        IOException exception = null;
+        for (Future<Batch> future : futures) {
+            try {
+                batches.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exception = new IOException("Interrupted while flushing write cache shards", e);
+            } catch (ExecutionException e) {
+                exception = e.getCause() instanceof IOException
+                        ? (IOException) e.getCause()
+                        : new IOException(e.getCause());
+            }
+        }
+
+        if (exception != null) {
+            for (Batch batch : batches) {
+                batch.close();
             }
+            throw exception;
         }
+        return batches;
+    }
+
+    /**
+     * Flush the entry logger, then the index batches holding the locations of the entries written into it.
+     *
+     * <p>Must be called while holding {@link #persistMutex}.
+     */
+    private void persistEntriesAndLocations(List<Batch> batches) throws IOException {
+        long entryLoggerStart = MathUtils.nowInNano();
+        entryLogger.flush();
+        recordSuccessfulEvent(dbLedgerStorageStats.getFlushEntryLogStats(), entryLoggerStart);
+
+        long batchFlushStartTime = MathUtils.nowInNano();
+        try {
+            for (Batch batch : batches) {
+                batch.flush();
+            }
+        } finally {
+            for (Batch batch : batches) {
+                batch.close();
+            }
+        }
+        recordSuccessfulEvent(dbLedgerStorageStats.getFlushLocationIndexStats(), batchFlushStartTime);
+        if (log.isDebugEnabled()) {
+            log.debug("DB batch flushed time : {} s",
+                    MathUtils.elapsedNanos(batchFlushStartTime) / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private Batch addEntriesToEntryLogger(WriteCache cache) throws IOException {
+        Batch batch = entryLocationIndex.newBatch();
+        try {
+            cache.forEach((ledgerId, entryId, entry) -> {
+                long location = entryLogger.addEntry(ledgerId, entry);
+                entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
+            });
+        } catch (IOException | RuntimeException e) {
+            batch.close();
+            throw e;
+        }
+        return batch;
     }
 
     @Override
@@ -921,12 +1279,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
 
         // Delete entries from this ledger that are still in the write cache
-        long stamp = writeCacheRotationLock.readLock();
-        try {
-            writeCache.deleteLedger(ledgerId);
-        } finally {
-            writeCacheRotationLock.unlockRead(stamp);
-        }
+        getWriteCacheShard(ledgerId).deleteLedger(ledgerId);
 
         entryLocationIndex.delete(ledgerId);
         ledgerIndex.delete(ledgerId);
@@ -940,6 +1293,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         if (tli != null) {
             tli.close();
         }
+        if (readAheadWindows != null) {
+            readAheadWindows.invalidate(ledgerId);
+        }
     }
 
     @Override
@@ -965,9 +1321,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         // the DB.
         // The easiest lightweight way to achieve this is to wait for any pending
         // flush operation to be completed before updating the index with the compacted
-        // entries, by blocking on the flushMutex.
+        // entries, by blocking on the flushMutex and on the mutex of each write cache shard.
         flushMutex.lock();
         flushMutex.unlock();
+        for (WriteCacheShard shard : writeCacheShards) {
+            shard.flushMutex.lock();
+            shard.flushMutex.unlock();
+        }
 
         // We don't need to keep the flush mutex locked here while updating the DB.
         // It's fine to have a concurrent flush operation at this point, because we
@@ -976,6 +1336,16 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         entryLocationIndex.updateLocations(locations);
     }
 
+    @VisibleForTesting
+    ReadCache getReadCache() {
+        return readCache;
+    }
+
+    @VisibleForTesting
+    boolean hasTransientLedgerInfo(long ledgerId) {
+        return transientLedgerInfoCache.containsKey(ledgerId);
+    }
+
     @VisibleForTesting
     EntryLogger getEntryLogger() {
         return entryLogger;
@@ -1055,9 +1425,10 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         });
     }
 
-    private void updateCachedLacIfNeeded(long ledgerId, long lac) {
+    private void updateCachedLedgerInfoIfNeeded(long ledgerId, long entryId, long lac) {
         TransientLedgerInfo tli = transientLedgerInfoCache.get(ledgerId);
         if (tli != null) {
+            tli.updateMaxAddedEntryId(entryId);
             tli.setLastAddConfirmed(lac);
         }
     }
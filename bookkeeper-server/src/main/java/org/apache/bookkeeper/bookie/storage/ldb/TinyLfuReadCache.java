@@ -0,0 +1,143 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.bookkeeper.stats.StatsLogger;
+
+/**
+ * Read cache with a frequency based admission filter.
+ *
+ * <p>The plain {@link ReadCache} admits every entry, so a reader sweeping through old ledgers rotates all the
+ * segments and evicts the entries that are being read repeatedly. This implementation keeps a
+ * {@link FrequencySketch} of the recent lookups and, once the cache is full, only admits a new entry if it was
+ * accessed at least as often as the entries stored in the segment that is going to be evicted next (TinyLFU).
+ * The frequency of the victim segment is estimated from a reservoir sample of the keys inserted into it.
+ *
+ * <p>For scan resistance, entries that keep being hit while they are in the older half of the ring are copied
+ * again into the current segment, so that they survive the rollover of the segment they were stored in.
+ */
+public class TinyLfuReadCache extends ReadCache {
+
+    // Used to size the frequency sketch, from the total cache size
+    private static final int ESTIMATED_AVG_ENTRY_SIZE = 1024;
+
+    private static final int SAMPLES_PER_SEGMENT = 32;
+
+    // Minimum number of recent accesses for an entry to be moved to the current segment
+    private static final int PROMOTION_FREQUENCY = 2;
+
+    private final FrequencySketch sketch;
+
+    // For each segment, the sketch key hashes of the entries sampled among the ones inserted in the segment. A
+    // single value per sample, so that a concurrent reader never sees the ids of two different entries mixed up
+    private final AtomicLongArray segmentSamples;
+    private final AtomicIntegerArray segmentInsertions;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private final TinyLfuReadCacheStats stats;
+
+    public TinyLfuReadCache(ByteBufAllocator allocator, long maxCacheSize, StatsLogger statsLogger) {
+        this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE, statsLogger);
+    }
+
+    public TinyLfuReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize,
+                            StatsLogger statsLogger) {
+        super(allocator, maxCacheSize, maxSegmentSize);
+        this.sketch = new FrequencySketch(maxCacheSize / ESTIMATED_AVG_ENTRY_SIZE);
+
+        int segmentsCount = getSegmentsCount();
+        this.segmentSamples = new AtomicLongArray(segmentsCount * SAMPLES_PER_SEGMENT);
+        this.segmentInsertions = new AtomicIntegerArray(segmentsCount);
+
+        this.stats = new TinyLfuReadCacheStats(statsLogger, this::hitRatio);
+    }
+
+    @Override
+    protected boolean admit(long ledgerId, long entryId, int victimSegmentIdx) {
+        int samplesCount = Math.min(segmentInsertions.get(victimSegmentIdx), SAMPLES_PER_SEGMENT);
+        if (samplesCount == 0) {
+            return true;
+        }
+
+        int firstSample = victimSegmentIdx * SAMPLES_PER_SEGMENT;
+        int victimFrequency = 0;
+        for (int i = 0; i < samplesCount; i++) {
+            victimFrequency += sketch.frequency(segmentSamples.get(firstSample + i));
+        }
+        victimFrequency = (victimFrequency + samplesCount / 2) / samplesCount;
+
+        if (sketch.frequency(ledgerId, entryId) >= victimFrequency) {
+            return true;
+        }
+
+        stats.getAdmissionRejects().inc();
+        return false;
+    }
+
+    @Override
+    protected void onEntryInserted(int segmentIdx, long ledgerId, long entryId) {
+        // Reservoir sampling, so that every entry of the segment has the same probability of being sampled
+        int insertions = segmentInsertions.incrementAndGet(segmentIdx);
+        int slot = insertions <= SAMPLES_PER_SEGMENT
+                ? insertions - 1
+                : ThreadLocalRandom.current().nextInt(insertions);
+        if (slot < SAMPLES_PER_SEGMENT) {
+            segmentSamples.set(segmentIdx * SAMPLES_PER_SEGMENT + slot, FrequencySketch.keyHash(ledgerId, entryId));
+        }
+    }
+
+    @Override
+    protected void onSegmentEvicted(int segmentIdx, long evictedEntries) {
+        segmentInsertions.set(segmentIdx, 0);
+        stats.getEvictedEntries().addCount(evictedEntries);
+    }
+
+    @Override
+    protected void onAccess(long ledgerId, long entryId, ByteBuf entry, int segmentAge) {
+        sketch.increment(ledgerId, entryId);
+
+        if (entry == null) {
+            misses.increment();
+            return;
+        }
+
+        hits.increment();
+        if (segmentAge > 0 && segmentAge >= getSegmentsCount() / 2
+                && sketch.frequency(ledgerId, entryId) >= PROMOTION_FREQUENCY) {
+            put(ledgerId, entryId, entry);
+            stats.getPromotedEntries().inc();
+        }
+    }
+
+    private long hitRatio() {
+        long hitsCount = hits.sum();
+        long total = hitsCount + misses.sum();
+        return total == 0 ? 0 : hitsCount * 100 / total;
+    }
+}
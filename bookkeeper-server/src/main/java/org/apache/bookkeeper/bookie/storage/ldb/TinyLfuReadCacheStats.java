@@ -0,0 +1,89 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+
+import java.util.function.Supplier;
+import lombok.Getter;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+
+/**
+ * A umbrella class for the stats of the frequency-aware read cache, with one instance per ledger directory.
+ */
+@StatsDoc(
+    name = BOOKIE_SCOPE,
+    category = CATEGORY_SERVER,
+    help = "TinyLFU read cache stats"
+)
+@Getter
+class TinyLfuReadCacheStats {
+
+    private static final String READ_CACHE_HIT_RATIO = "read-cache-hit-ratio";
+    private static final String READ_CACHE_ADMISSION_REJECTS = "read-cache-admission-rejects";
+    private static final String READ_CACHE_EVICTED_ENTRIES = "read-cache-evicted-entries";
+    private static final String READ_CACHE_PROMOTED_ENTRIES = "read-cache-promoted-entries";
+
+    @StatsDoc(
+        name = READ_CACHE_HIT_RATIO,
+        help = "Percentage of read cache lookups that were hits since the bookie started"
+    )
+    private final Gauge<Long> hitRatioGauge;
+    @StatsDoc(
+        name = READ_CACHE_ADMISSION_REJECTS,
+        help = "The number of entries not inserted in read cache because they were accessed less frequently"
+            + " than the entries they would evict"
+    )
+    private final Counter admissionRejects;
+    @StatsDoc(
+        name = READ_CACHE_EVICTED_ENTRIES,
+        help = "The number of entries evicted from read cache when a segment is rolled over"
+    )
+    private final Counter evictedEntries;
+    @StatsDoc(
+        name = READ_CACHE_PROMOTED_ENTRIES,
+        help = "The number of frequently accessed entries copied to the current segment to survive eviction"
+    )
+    private final Counter promotedEntries;
+
+    TinyLfuReadCacheStats(StatsLogger stats, Supplier<Long> hitRatioSupplier) {
+        admissionRejects = stats.getCounter(READ_CACHE_ADMISSION_REJECTS);
+        evictedEntries = stats.getCounter(READ_CACHE_EVICTED_ENTRIES);
+        promotedEntries = stats.getCounter(READ_CACHE_PROMOTED_ENTRIES);
+
+        hitRatioGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return hitRatioSupplier.get();
+            }
+        };
+        stats.registerGauge(READ_CACHE_HIT_RATIO, hitRatioGauge);
+    }
+}
@@ -42,8 +42,15 @@ class TransientLedgerInfo extends Watchable<LastAddConfirmedUpdateNotification>
 
     static final long NOT_ASSIGNED_LAC = Long.MIN_VALUE;
 
+    static final long NOT_ASSIGNED_LAST_ENTRY = Long.MIN_VALUE;
+
     // lac
     private volatile long lac = NOT_ASSIGNED_LAC;
+    // last entry id found in storage when this ledger info was loaded
+    private volatile long storedLastEntryId = NOT_ASSIGNED_LAST_ENTRY;
+    // highest entry id added while this ledger info is cached
+    private volatile long maxAddedEntryId = NOT_ASSIGNED_LAST_ENTRY;
+
     // request from explicit lac requests
     private ByteBuffer explicitLac = null;
     // is the ledger info closed?
@@ -86,6 +93,36 @@ class TransientLedgerInfo extends Watchable<LastAddConfirmedUpdateNotification>
         return lacToReturn;
     }
 
+    boolean hasStoredLastEntryId() {
+        return storedLastEntryId != NOT_ASSIGNED_LAST_ENTRY;
+    }
+
+    void setStoredLastEntryId(long lastEntryId) {
+        this.storedLastEntryId = lastEntryId;
+    }
+
+    void updateMaxAddedEntryId(long entryId) {
+        if (entryId > maxAddedEntryId) {
+            synchronized (this) {
+                if (entryId > maxAddedEntryId) {
+                    maxAddedEntryId = entryId;
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether the entry is after the last entry of the ledger, in which case it can't be in storage.
+     *
+     * <p>The stored last entry id must have been set before, otherwise the entry is never considered beyond.
+     */
+    boolean isBeyondLastEntry(long entryId) {
+        long lastEntryId = storedLastEntryId;
+        return lastEntryId != NOT_ASSIGNED_LAST_ENTRY
+                && entryId > lastEntryId
+                && entryId > maxAddedEntryId;
+    }
+
     synchronized boolean waitForLastAddConfirmedUpdate(long previousLAC,
             Watcher<LastAddConfirmedUpdateNotification> watcher) throws IOException {
         lastAccessed = System.currentTimeMillis();
@@ -0,0 +1,210 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The pair of write caches holding the entries of a subset of the ledgers of a {@link SingleDirectoryDbLedgerStorage}.
+ *
+ * <p>New entries are inserted in the current write cache, while the other one is being flushed. The two caches are
+ * swapped when a flush starts, under a {@link StampedLock}, so that readers and writers can use optimistic reads to
+ * get a reference to them.
+ *
+ * <p>Each shard is flushed independently, so that flushing the entries of some ledgers does not block the adds to
+ * the ledgers of the other shards.
+ */
+class WriteCacheShard implements Closeable {
+
+    // Write cache where all new entries are inserted into
+    private volatile WriteCache writeCache;
+
+    // Write cache that is used to swap with writeCache during flushes
+    private volatile WriteCache writeCacheBeingFlushed;
+
+    private final StampedLock writeCacheRotationLock = new StampedLock();
+
+    // Only a single flush of the shard can happen at a time
+    final ReentrantLock flushMutex = new ReentrantLock();
+
+    final AtomicBoolean hasFlushBeenTriggered = new AtomicBoolean(false);
+    final AtomicBoolean isFlushOngoing = new AtomicBoolean(false);
+
+    WriteCacheShard(ByteBufAllocator allocator, long writeCacheMaxSize) {
+        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / 2);
+        this.writeCacheBeingFlushed = new WriteCache(allocator, writeCacheMaxSize / 2);
+    }
+
+    boolean put(long ledgerId, long entryId, ByteBuf entry) {
+        // First we try to do an optimistic locking to get access to the current write cache.
+        // This is based on the fact that the write cache is only being rotated (swapped) every 1 minute. During the
+        // rest of the time, we can have multiple thread using the optimistic lock here without interfering.
+        long stamp = writeCacheRotationLock.tryOptimisticRead();
+        boolean inserted = writeCache.put(ledgerId, entryId, entry);
+        if (!writeCacheRotationLock.validate(stamp)) {
+            // The write cache was rotated while we were inserting. We need to acquire the proper read lock and repeat
+            // the operation because we might have inserted in a write cache that was already being flushed and cleared,
+            // without being sure about this last entry being flushed or not.
+            stamp = writeCacheRotationLock.readLock();
+            try {
+                inserted = writeCache.put(ledgerId, entryId, entry);
+            } finally {
+                writeCacheRotationLock.unlockRead(stamp);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Insert the entry while holding the read lock, so that it's not possible to insert in a write cache that is
+     * being swapped.
+     */
+    boolean putWithLock(long ledgerId, long entryId, ByteBuf entry) {
+        long stamp = writeCacheRotationLock.readLock();
+        try {
+            return writeCache.put(ledgerId, entryId, entry);
+        } finally {
+            writeCacheRotationLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the entry, looking in both the current write cache and the one being flushed, or null if not found
+     */
+    ByteBuf get(long ledgerId, long entryId) {
+        WriteCache[] caches = getWriteCaches();
+
+        // First try to read from the write cache of recent entries
+        ByteBuf entry = caches[0].get(ledgerId, entryId);
+        if (entry != null) {
+            return entry;
+        }
+
+        // If there's a flush going on, the entry might be in the flush buffer
+        return caches[1].get(ledgerId, entryId);
+    }
+
+    boolean hasEntry(long ledgerId, long entryId) {
+        WriteCache[] caches = getWriteCaches();
+        return caches[0].hasEntry(ledgerId, entryId) || caches[1].hasEntry(ledgerId, entryId);
+    }
+
+    ByteBuf getLastEntry(long ledgerId) {
+        WriteCache[] caches = getWriteCaches();
+
+        // First try to read from the write cache of recent entries
+        ByteBuf entry = caches[0].getLastEntry(ledgerId);
+        if (entry != null) {
+            return entry;
+        }
+
+        // If there's a flush going on, the entry might be in the flush buffer
+        return caches[1].getLastEntry(ledgerId);
+    }
+
+    /**
+     * We need to try to read from both write caches, since recent entries could be found in either of the two. The
+     * write caches are already thread safe on their own, here we just need to make sure we get references to both
+     * of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
+     */
+    private WriteCache[] getWriteCaches() {
+        long stamp = writeCacheRotationLock.tryOptimisticRead();
+        WriteCache localWriteCache = writeCache;
+        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+        if (!writeCacheRotationLock.validate(stamp)) {
+            // Fallback to regular read lock approach
+            stamp = writeCacheRotationLock.readLock();
+            try {
+                localWriteCache = writeCache;
+                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+            } finally {
+                writeCacheRotationLock.unlockRead(stamp);
+            }
+        }
+        return new WriteCache[] { localWriteCache, localWriteCacheBeingFlushed };
+    }
+
+    void deleteLedger(long ledgerId) {
+        // Delete entries from this ledger that are still in the write cache
+        long stamp = writeCacheRotationLock.readLock();
+        try {
+            writeCache.deleteLedger(ledgerId);
+        } finally {
+            writeCacheRotationLock.unlockRead(stamp);
+        }
+    }
+
+    boolean isEmpty() {
+        long stamp = writeCacheRotationLock.readLock();
+        try {
+            return writeCache.isEmpty();
+        } finally {
+            writeCacheRotationLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Swap the current write cache with the replacement cache.
+     *
+     * <p>Must be called while holding the {@link #flushMutex}.
+     *
+     * @return the write cache holding the entries to flush
+     */
+    WriteCache swapWriteCache() {
+        long stamp = writeCacheRotationLock.writeLock();
+        try {
+            // First, swap the current write-cache map with an empty one so that writes will
+            // go on unaffected. Only a single flush is happening at the same time
+            WriteCache tmp = writeCacheBeingFlushed;
+            writeCacheBeingFlushed = writeCache;
+            writeCache = tmp;
+
+            // since the cache is switched, we can allow flush to be triggered
+            hasFlushBeenTriggered.set(false);
+            return writeCacheBeingFlushed;
+        } finally {
+            try {
+                isFlushOngoing.set(true);
+            } finally {
+                writeCacheRotationLock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    long size() {
+        return writeCache.size() + writeCacheBeingFlushed.size();
+    }
+
+    long count() {
+        return writeCache.count() + writeCacheBeingFlushed.count();
+    }
+
+    @Override
+    public void close() {
+        writeCache.close();
+        writeCacheBeingFlushed.close();
+    }
+}
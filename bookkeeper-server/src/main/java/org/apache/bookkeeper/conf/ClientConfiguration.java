@@ -123,6 +123,7 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     // Timeout Setting
     protected static final String ADD_ENTRY_TIMEOUT_SEC = "addEntryTimeoutSec";
     protected static final String ADD_ENTRY_QUORUM_TIMEOUT_SEC = "addEntryQuorumTimeoutSec";
+    protected static final String ADD_ENTRY_THROTTLED_BACKOFF_MS = "addEntryThrottledBackoffMs";
     protected static final String READ_ENTRY_TIMEOUT_SEC = "readEntryTimeoutSec";
     protected static final String TIMEOUT_MONITOR_INTERVAL_SEC = "timeoutMonitorIntervalSec";
     protected static final String TIMEOUT_TASK_INTERVAL_MILLIS = "timeoutTaskIntervalMillis";
@@ -656,6 +657,33 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Get the time during which the adds to a bookie fail immediately with a too many requests error, after the
+     * bookie rejected an add because it is throttled. The failed adds are then handled like any other add
+     * failure, by replacing the bookie, instead of being sent to a bookie which is not reading them and timing
+     * out.
+     *
+     * <p>The default value is 0, which disables the backoff.
+     *
+     * @return backoff time in milliseconds after an add is throttled.
+     */
+    public int getAddEntryThrottledBackoffMs() {
+        return getInt(ADD_ENTRY_THROTTLED_BACKOFF_MS, 0);
+    }
+
+    /**
+     * Set the time during which the adds to a bookie fail immediately, after the bookie throttled an add.
+     * @see #getAddEntryThrottledBackoffMs()
+     *
+     * @param backoffMs
+     *          The backoff time in milliseconds, or 0 to disable it.
+     * @return client configuration.
+     */
+    public ClientConfiguration setAddEntryThrottledBackoffMs(int backoffMs) {
+        setProperty(ADD_ENTRY_THROTTLED_BACKOFF_MS, backoffMs);
+        return this;
+    }
+
     /**
      * Get the timeout for top-level add request. That is, the amount of time we should spend
      * waiting for ack quorum.
@@ -25,10 +25,13 @@ import com.google.common.collect.Lists;
 import java.io.File;
 import java.net.URL;
 import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.CompactionPolicy;
+import org.apache.bookkeeper.bookie.CostBenefitCompactionPolicy;
 import org.apache.bookkeeper.bookie.FileChannelProvider;
 import org.apache.bookkeeper.bookie.InterleavedLedgerStorage;
 import org.apache.bookkeeper.bookie.LedgerStorage;
 import org.apache.bookkeeper.bookie.SortedLedgerStorage;
+import org.apache.bookkeeper.bookie.UsageBucketCompactionPolicy;
 import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
 import org.apache.bookkeeper.common.conf.ConfigDef;
 import org.apache.bookkeeper.common.conf.ConfigException;
@@ -102,6 +105,9 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String MAJOR_COMPACTION_MAX_TIME_MILLIS = "majorCompactionMaxTimeMillis";
     protected static final String IS_THROTTLE_BY_BYTES = "isThrottleByBytes";
     protected static final String COMPACTION_MAX_OUTSTANDING_REQUESTS = "compactionMaxOutstandingRequests";
+    protected static final String COMPACTION_THREADS = "compactionThreads";
+    protected static final String COMPACTION_POLICY_CLASS = "compactionPolicyClass";
+    protected static final String COMPACTION_IO_BUDGET_BYTES = "compactionIoBudgetBytes";
     protected static final String COMPACTION_RATE = "compactionRate";
     protected static final String COMPACTION_RATE_BY_ENTRIES = "compactionRateByEntries";
     protected static final String COMPACTION_RATE_BY_BYTES = "compactionRateByBytes";
@@ -113,9 +119,14 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String GC_OVERREPLICATED_LEDGER_MAX_CONCURRENT_REQUESTS =
             "gcOverreplicatedLedgerMaxConcurrentRequests";
     protected static final String USE_TRANSACTIONAL_COMPACTION = "useTransactionalCompaction";
+    protected static final String COMPACTION_ZERO_COPY_ENABLED = "compactionZeroCopyEnabled";
     protected static final String VERIFY_METADATA_ON_GC = "verifyMetadataOnGC";
+    protected static final String GC_INCREMENTAL_ENABLED = "gcIncrementalEnabled";
+    protected static final String GC_FULL_SCAN_INTERVAL_MILLIS = "gcFullScanIntervalMillis";
+    protected static final String GC_INCREMENTAL_MAX_WATCHED_LEDGERS = "gcIncrementalMaxWatchedLedgers";
     protected static final String GC_ENTRYLOGMETADATA_CACHE_ENABLED = "gcEntryLogMetadataCacheEnabled";
     protected static final String GC_ENTRYLOG_METADATA_CACHE_PATH = "gcEntryLogMetadataCachePath";
+    protected static final String GC_ENTRYLOG_METADATA_SNAPSHOT_ENABLED = "gcEntryLogMetadataSnapshotEnabled";
     protected static final String USE_TARGET_ENTRYLOG_SIZE_FOR_GC = "useTargetEntryLogSizeForGc";
     // Scrub Parameters
     protected static final String LOCAL_SCRUB_PERIOD = "localScrubInterval";
@@ -137,8 +148,13 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String MAX_BACKUP_JOURNALS = "journalMaxBackups";
     protected static final String JOURNAL_SYNC_DATA = "journalSyncData";
     protected static final String JOURNAL_WRITE_DATA = "journalWriteData";
+    protected static final String JOURNAL_DEFERRED_SYNC_BYPASS = "journalDeferredSyncBypass";
+    protected static final String JOURNAL_DEFERRED_SYNC_WRITE_INTERVAL_MS = "journalDeferredSyncWriteIntervalMs";
     protected static final String JOURNAL_ADAPTIVE_GROUP_WRITES = "journalAdaptiveGroupWrites";
     protected static final String JOURNAL_MAX_GROUP_WAIT_MSEC = "journalMaxGroupWaitMSec";
+    protected static final String JOURNAL_SHARED_FORCE_WRITE_SCHEDULER = "journalSharedForceWriteScheduler";
+    protected static final String JOURNAL_FORCE_WRITE_LATENCY_TARGET_USEC = "journalForceWriteLatencyTargetUSec";
+    protected static final String JOURNAL_ADD_LATENCY_TARGET_USEC = "journalAddLatencyTargetUSec";
     protected static final String JOURNAL_BUFFERED_WRITES_THRESHOLD = "journalBufferedWritesThreshold";
     protected static final String JOURNAL_BUFFERED_ENTRIES_THRESHOLD = "journalBufferedEntriesThreshold";
     protected static final String JOURNAL_FLUSH_WHEN_QUEUE_EMPTY = "journalFlushWhenQueueEmpty";
@@ -150,9 +166,13 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String JOURNAL_FORMAT_VERSION_TO_WRITE = "journalFormatVersionToWrite";
     protected static final String JOURNAL_QUEUE_SIZE = "journalQueueSize";
     protected static final String JOURNAL_MAX_MEMORY_SIZE_MB = "journalMaxMemorySizeMb";
+    protected static final String JOURNAL_MEMORY_BACKPRESSURE = "journalMemoryBackpressure";
     protected static final String JOURNAL_PAGECACHE_FLUSH_INTERVAL_MSEC = "journalPageCacheFlushIntervalMSec";
     protected static final String JOURNAL_CHANNEL_PROVIDER = "journalChannelProvider";
     protected static final String JOURNAL_REUSE_FILES = "journalReuseFiles";
+    protected static final String JOURNAL_ZERO_COPY_WRITES = "journalZeroCopyWrites";
+    protected static final String JOURNAL_BLOCK_FORMAT_ENABLED = "journalBlockFormatEnabled";
+    protected static final String JOURNAL_BLOCK_COMPRESSION = "journalBlockCompression";
     // backpressure control
     protected static final String MAX_ADDS_IN_PROGRESS_LIMIT = "maxAddsInProgressLimit";
     protected static final String MAX_READS_IN_PROGRESS_LIMIT = "maxReadsInProgressLimit";
@@ -321,6 +341,20 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String ENTRY_LOG_PER_LEDGER_COUNTER_LIMITS_MULT_FACTOR =
             "entryLogPerLedgerCounterLimitsMultFactor";
 
+    /*
+     * in entryLogPerLedger feature, the ascending retention boundaries (in
+     * seconds) used to group ledgers by their expected lifetime into shared
+     * active entrylogs. If not set, every ledger gets its own entrylog.
+     */
+    protected static final String ENTRY_LOG_LEDGER_GROUP_RETENTION_BOUNDARIES_SECS =
+            "entryLogLedgerGroupRetentionBoundariesSecs";
+
+    /*
+     * the key of the ledger custom metadata holding the expected retention of
+     * the ledger in seconds, used to pick its entrylog group.
+     */
+    protected static final String ENTRY_LOG_LEDGER_GROUP_RETENTION_HINT_KEY = "entryLogLedgerGroupRetentionHintKey";
+
     // Perform local consistency check on bookie startup
     protected static final String LOCAL_CONSISTENCY_CHECK_ON_STARTUP = "localConsistencyCheckOnStartup";
 
@@ -343,6 +377,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         "maxOperationNumbersInSingleRocksdbWriteBatch";
 
     protected static final String SKIP_REPLAY_JOURNAL_INVALID_RECORD = "skipReplayJournalInvalidRecord";
+    protected static final String JOURNAL_REPLAY_THREADS = "journalReplayThreads";
 
     protected static final String MAX_BATCH_READ_SIZE = "maxBatchReadSize";
     protected static final int DEFAULT_MAX_BATCH_READ_SIZE = 5 * 1024 * 1024; // 5MB
@@ -498,6 +533,28 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get whether transactional compaction copies the runs of contiguous live entries of an entry log with file to
+     * file transfers, instead of reading and re-adding the entries one by one.
+     *
+     * @return whether zero copy compaction is enabled
+     */
+    public boolean isCompactionZeroCopyEnabled() {
+        return this.getBoolean(COMPACTION_ZERO_COPY_ENABLED, false);
+    }
+
+    /**
+     * Set whether transactional compaction copies the runs of contiguous live entries of an entry log with file to
+     * file transfers.
+     *
+     * @param compactionZeroCopyEnabled
+     * @return server configuration
+     */
+    public ServerConfiguration setCompactionZeroCopyEnabled(boolean compactionZeroCopyEnabled) {
+        this.setProperty(COMPACTION_ZERO_COPY_ENABLED, compactionZeroCopyEnabled);
+        return this;
+    }
+
     /**
      * Get whether the bookie is configured to double check prior to gc.
      *
@@ -517,6 +574,73 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get whether the garbage collection finds the deleted ledgers by watching the metadata of the ledgers of
+     * the bookie, rather than by scanning all the ledgers of the metadata store at each run.
+     *
+     * @return whether incremental garbage collection is enabled
+     */
+    public boolean getGcIncrementalEnabled() {
+        return this.getBoolean(GC_INCREMENTAL_ENABLED, false);
+    }
+
+    /**
+     * Set whether the garbage collection finds the deleted ledgers by watching the metadata of the ledgers of
+     * the bookie.
+     *
+     * @param enabled
+     *          whether to enable incremental garbage collection
+     * @return server configuration
+     */
+    public ServerConfiguration setGcIncrementalEnabled(boolean enabled) {
+        this.setProperty(GC_INCREMENTAL_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the interval between the full scans of the metadata store, reconciling the incremental garbage
+     * collection. Default is 1 day.
+     *
+     * @return the full scan interval in milliseconds
+     */
+    public long getGcFullScanIntervalMillis() {
+        return this.getLong(GC_FULL_SCAN_INTERVAL_MILLIS, TimeUnit.DAYS.toMillis(1));
+    }
+
+    /**
+     * Set the interval between the full scans of the metadata store, with incremental garbage collection.
+     *
+     * @param intervalMillis
+     *          the full scan interval in milliseconds
+     * @return server configuration
+     */
+    public ServerConfiguration setGcFullScanIntervalMillis(long intervalMillis) {
+        this.setProperty(GC_FULL_SCAN_INTERVAL_MILLIS, intervalMillis);
+        return this;
+    }
+
+    /**
+     * Get the max number of ledgers whose metadata is watched by the incremental garbage collection. With more
+     * ledgers on the bookie, each garbage collection run scans the metadata store instead. Default is 100000.
+     *
+     * @return the max number of watched ledgers
+     */
+    public int getGcIncrementalMaxWatchedLedgers() {
+        return this.getInt(GC_INCREMENTAL_MAX_WATCHED_LEDGERS, 100000);
+    }
+
+    /**
+     * Set the max number of ledgers whose metadata is watched by the incremental garbage collection.
+     *
+     * @param maxWatchedLedgers
+     *          the max number of watched ledgers
+     * @return server configuration
+     */
+    public ServerConfiguration setGcIncrementalMaxWatchedLedgers(int maxWatchedLedgers) {
+        this.setProperty(GC_INCREMENTAL_MAX_WATCHED_LEDGERS, maxWatchedLedgers);
+        return this;
+    }
+
     /**
      * Get whether the bookie is configured to use persistent
      * entrylogMetadataMap.
@@ -564,6 +688,28 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get whether the metadata of the entry logs being written is snapshotted at each flush, so that after a
+     * restart the garbage collector only scans the entries written after the last snapshot of the entry logs
+     * which were not closed properly, instead of the whole entry logs.
+     *
+     * @return whether entry log metadata snapshots are enabled
+     */
+    public boolean isGcEntryLogMetadataSnapshotEnabled() {
+        return this.getBoolean(GC_ENTRYLOG_METADATA_SNAPSHOT_ENABLED, false);
+    }
+
+    /**
+     * Set whether the metadata of the entry logs being written is snapshotted at each flush.
+     *
+     * @param gcEntryLogMetadataSnapshotEnabled
+     * @return server configuration
+     */
+    public ServerConfiguration setGcEntryLogMetadataSnapshotEnabled(boolean gcEntryLogMetadataSnapshotEnabled) {
+        this.setProperty(GC_ENTRYLOG_METADATA_SNAPSHOT_ENABLED, gcEntryLogMetadataSnapshotEnabled);
+        return this;
+    }
+
     public boolean isUseTargetEntryLogSizeForGc() {
         return getBoolean(USE_TARGET_ENTRYLOG_SIZE_FOR_GC, false);
     }
@@ -971,6 +1117,30 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this.getLong(JOURNAL_MAX_MEMORY_SIZE_MB, defaultValue);
     }
 
+    /**
+     * Should the bookie reject the adds which do not fit in the journal memory budget, instead of blocking
+     * until the journal has memory available. The rejected adds get a too many requests response, and the
+     * bookie stops reading from their channels until the journal memory usage goes back below three quarters
+     * of the budget. Default is false.
+     *
+     * @return whether the adds are rejected when the journal memory budget is exhausted
+     */
+    public boolean getJournalMemoryBackpressure() {
+        return this.getBoolean(JOURNAL_MEMORY_BACKPRESSURE, false);
+    }
+
+    /**
+     * Set whether the bookie rejects the adds which do not fit in the journal memory budget.
+     *
+     * @param enabled
+     *            whether to reject the adds when the journal memory budget is exhausted
+     * @return server configuration.
+     */
+    public ServerConfiguration setJournalMemoryBackpressure(boolean enabled) {
+        this.setProperty(JOURNAL_MEMORY_BACKPRESSURE, enabled);
+        return this;
+    }
+
     /**
      * Set PageCache flush interval in second.
      *
@@ -1030,6 +1200,72 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Should the journal write the entries with a gathering write of the entry buffers, instead of copying
+     * them in the journal write buffer. Default is false.
+     *
+     * @return whether the journal entries are written without copy
+     */
+    public boolean getJournalZeroCopyWrites() {
+        return this.getBoolean(JOURNAL_ZERO_COPY_WRITES, false);
+    }
+
+    /**
+     * Set whether the journal writes the entries with a gathering write of the entry buffers.
+     *
+     * @param enabled
+     *          whether to write the journal entries without copy.
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalZeroCopyWrites(boolean enabled) {
+        setProperty(JOURNAL_ZERO_COPY_WRITES, enabled);
+        return this;
+    }
+
+    /**
+     * Is the journal format version 7, grouping the records in blocks, enabled. It is written only when enabled
+     * and journalFormatVersionToWrite is 7, as bookies of older versions cannot replay it. Default is false.
+     *
+     * @return whether the journal block format is enabled
+     */
+    public boolean getJournalBlockFormatEnabled() {
+        return this.getBoolean(JOURNAL_BLOCK_FORMAT_ENABLED, false);
+    }
+
+    /**
+     * Enable the journal format version 7, grouping the records in blocks.
+     *
+     * @param enabled
+     *          whether to enable the journal block format.
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalBlockFormatEnabled(boolean enabled) {
+        setProperty(JOURNAL_BLOCK_FORMAT_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Should the journal compress the blocks of records with LZ4, when the journal format version to write is 7
+     * or later. Default is false.
+     *
+     * @return whether the journal blocks are compressed
+     */
+    public boolean getJournalBlockCompression() {
+        return this.getBoolean(JOURNAL_BLOCK_COMPRESSION, false);
+    }
+
+    /**
+     * Set whether the journal compresses the blocks of records.
+     *
+     * @param enabled
+     *          whether to compress the journal blocks.
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalBlockCompression(boolean enabled) {
+        setProperty(JOURNAL_BLOCK_COMPRESSION, enabled);
+        return this;
+    }
+
     /**
      * Get max number of adds in progress. 0 == unlimited.
      *
@@ -2304,6 +2540,56 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Should the entries of the ledgers written with the DEFERRED_SYNC write flag bypass the journal on the add.
+     * They are then only added to the ledger storage before acknowledgment, and written to the journal in batches
+     * when the ledger is forced or every {@link #getJournalDeferredSyncWriteIntervalMs()}, unless the ledger
+     * storage persisted them before.
+     *
+     * <p>Default is false
+     *
+     * @return whether the DEFERRED_SYNC entries bypass the journal on the add
+     */
+    public boolean getJournalDeferredSyncBypass() {
+        return getBoolean(JOURNAL_DEFERRED_SYNC_BYPASS, false);
+    }
+
+    /**
+     * Set whether the entries of the ledgers written with the DEFERRED_SYNC write flag bypass the journal on the add.
+     *
+     * @param enabled
+     *          whether the DEFERRED_SYNC entries bypass the journal on the add
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalDeferredSyncBypass(boolean enabled) {
+        setProperty(JOURNAL_DEFERRED_SYNC_BYPASS, enabled);
+        return this;
+    }
+
+    /**
+     * Interval at which the DEFERRED_SYNC entries which bypassed the journal are written to it, if their ledger was
+     * not forced in the meantime.
+     *
+     * <p>Default is 1000
+     *
+     * @return interval in milliseconds
+     */
+    public long getJournalDeferredSyncWriteIntervalMs() {
+        return getLong(JOURNAL_DEFERRED_SYNC_WRITE_INTERVAL_MS, 1000);
+    }
+
+    /**
+     * Set the interval at which the DEFERRED_SYNC entries which bypassed the journal are written to it.
+     *
+     * @param intervalMs
+     *          interval in milliseconds
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalDeferredSyncWriteIntervalMs(long intervalMs) {
+        setProperty(JOURNAL_DEFERRED_SYNC_WRITE_INTERVAL_MS, intervalMs);
+        return this;
+    }
+
     /**
      * Enable or disable journal syncs.
      *
@@ -2342,6 +2628,73 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Whether the journals stored on the same device share the scheduling of their force writes, so that the force
+     * writes are issued in groups across journals. It requires journal adaptive group writes.
+     *
+     * @return whether the journals on the same device share a force write scheduler
+     */
+    public boolean getJournalSharedForceWriteScheduler() {
+        return getBoolean(JOURNAL_SHARED_FORCE_WRITE_SCHEDULER, false);
+    }
+
+    /**
+     * Enable/disable the shared scheduling of the force writes of the journals stored on the same device.
+     *
+     * @param enabled flag to enable/disable the shared force write scheduler
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalSharedForceWriteScheduler(boolean enabled) {
+        setProperty(JOURNAL_SHARED_FORCE_WRITE_SCHEDULER, enabled);
+        return this;
+    }
+
+    /**
+     * Latency target of a journal force write, including the time waiting for the force writes of the other
+     * journals on the same device. Default is 2ms.
+     *
+     * @return force write latency target in microseconds
+     */
+    public long getJournalForceWriteLatencyTargetUSec() {
+        return getLong(JOURNAL_FORCE_WRITE_LATENCY_TARGET_USEC, 2000);
+    }
+
+    /**
+     * Set the latency target of a journal force write, when the force write scheduler is shared.
+     *
+     * @param latencyTargetUSec
+     *          force write latency target in microseconds.
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalForceWriteLatencyTargetUSec(long latencyTargetUSec) {
+        setProperty(JOURNAL_FORCE_WRITE_LATENCY_TARGET_USEC, latencyTargetUSec);
+        return this;
+    }
+
+    /**
+     * Target of the 99th percentile latency of a journal add. When set, the journal adjusts the grouping window and
+     * the buffered entries and writes thresholds to the observed add rate and force write latency, in place of
+     * the static journalMaxGroupWaitMSec, journalBufferedEntriesThreshold and journalBufferedWritesThreshold.
+     * Default is 0, which disables the adjustment.
+     *
+     * @return add latency target in microseconds
+     */
+    public long getJournalAddLatencyTargetUSec() {
+        return getLong(JOURNAL_ADD_LATENCY_TARGET_USEC, 0);
+    }
+
+    /**
+     * Set the target of the 99th percentile latency of a journal add.
+     *
+     * @param latencyTargetUSec
+     *          add latency target in microseconds, or 0 to use the static grouping settings.
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalAddLatencyTargetUSec(long latencyTargetUSec) {
+        setProperty(JOURNAL_ADD_LATENCY_TARGET_USEC, latencyTargetUSec);
+        return this;
+    }
+
     /**
      * Maximum latency to impose on a journal write to achieve grouping. Default is 2ms.
      *
@@ -2908,6 +3261,77 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the number of threads compacting entry logs at the same time, for each ledger directory.
+     * Default is 1.
+     *
+     * @return the number of compaction threads
+     */
+    public int getCompactionThreads() {
+        return getInt(COMPACTION_THREADS, 1);
+    }
+
+    /**
+     * Set the number of threads compacting entry logs at the same time, for each ledger directory.
+     *
+     * <p>The entries of the compacted entry logs are all written to the current entry log, and the compaction
+     * rate limit applies to all the threads together. Transactional compaction always compacts one entry log
+     * at a time.
+     *
+     * @param compactionThreads number of compaction threads
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionThreads(int compactionThreads) {
+        setProperty(COMPACTION_THREADS, compactionThreads);
+        return this;
+    }
+
+    /**
+     * Get the policy selecting the entry logs to compact, and the order in which they are compacted.
+     * Default is {@link UsageBucketCompactionPolicy}.
+     *
+     * @return compaction policy class
+     * @throws ConfigurationException
+     */
+    public Class<? extends CompactionPolicy> getCompactionPolicyClass() throws ConfigurationException {
+        return ReflectionUtils.getClass(this, COMPACTION_POLICY_CLASS,
+                UsageBucketCompactionPolicy.class, CompactionPolicy.class,
+                DEFAULT_LOADER);
+    }
+
+    /**
+     * Set the policy selecting the entry logs to compact.
+     *
+     * @param compactionPolicyClass compaction policy class
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionPolicyClass(Class<? extends CompactionPolicy> compactionPolicyClass) {
+        setProperty(COMPACTION_POLICY_CLASS, compactionPolicyClass.getName());
+        return this;
+    }
+
+    /**
+     * Get the maximum number of bytes of live entries copied by a compaction, with the
+     * {@link CostBenefitCompactionPolicy}. Default is 0, no limit.
+     *
+     * @return the compaction I/O budget in bytes
+     */
+    public long getCompactionIoBudgetBytes() {
+        return getLong(COMPACTION_IO_BUDGET_BYTES, 0);
+    }
+
+    /**
+     * Set the maximum number of bytes of live entries copied by a compaction, with the
+     * {@link CostBenefitCompactionPolicy}.
+     *
+     * @param ioBudgetBytes the compaction I/O budget in bytes, 0 for no limit
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionIoBudgetBytes(long ioBudgetBytes) {
+        setProperty(COMPACTION_IO_BUDGET_BYTES, ioBudgetBytes);
+        return this;
+    }
+
     /**
      * Get the rate of compaction adds. Default is 1,000.
      *
@@ -3933,6 +4357,57 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /*
+     * in entryLogPerLedger feature, get the ascending retention boundaries (in
+     * seconds) used to group ledgers into shared active entrylogs. Ledgers
+     * whose retention hint is up to the i-th boundary are written to the i-th
+     * group, ledgers above the last boundary to the next one, and ledgers
+     * without a hint to a group of their own. An empty array, the default,
+     * keeps one active entrylog per ledger.
+     */
+    public long[] getEntryLogLedgerGroupRetentionBoundariesSecs() {
+        String[] boundaries = this.getStringArray(ENTRY_LOG_LEDGER_GROUP_RETENTION_BOUNDARIES_SECS);
+        long[] retentionBoundaries = new long[boundaries.length];
+        for (int i = 0; i < boundaries.length; i++) {
+            retentionBoundaries[i] = Long.parseLong(boundaries[i].trim());
+            if (i > 0 && retentionBoundaries[i] <= retentionBoundaries[i - 1]) {
+                throw new IllegalArgumentException(ENTRY_LOG_LEDGER_GROUP_RETENTION_BOUNDARIES_SECS
+                        + " must be in ascending order");
+            }
+        }
+        return retentionBoundaries;
+    }
+
+    /*
+     * sets the ascending retention boundaries (in seconds) used to group
+     * ledgers into shared active entrylogs, in entrylogperledger feature.
+     */
+    public ServerConfiguration setEntryLogLedgerGroupRetentionBoundariesSecs(long... retentionBoundariesSecs) {
+        String[] boundaries = new String[retentionBoundariesSecs.length];
+        for (int i = 0; i < retentionBoundariesSecs.length; i++) {
+            boundaries[i] = Long.toString(retentionBoundariesSecs[i]);
+        }
+        this.setProperty(ENTRY_LOG_LEDGER_GROUP_RETENTION_BOUNDARIES_SECS, boundaries);
+        return this;
+    }
+
+    /*
+     * get the key of the ledger custom metadata holding the expected retention
+     * of the ledger, in seconds as a decimal string.
+     */
+    public String getEntryLogLedgerGroupRetentionHintKey() {
+        return this.getString(ENTRY_LOG_LEDGER_GROUP_RETENTION_HINT_KEY, "retentionSecs");
+    }
+
+    /*
+     * sets the key of the ledger custom metadata holding the expected retention
+     * of the ledger, in seconds as a decimal string.
+     */
+    public ServerConfiguration setEntryLogLedgerGroupRetentionHintKey(String retentionHintKey) {
+        this.setProperty(ENTRY_LOG_LEDGER_GROUP_RETENTION_HINT_KEY, retentionHintKey);
+        return this;
+    }
+
     /**
      * True if a local consistency check should be performed on startup.
      */
@@ -4037,6 +4512,30 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this.getBoolean(SKIP_REPLAY_JOURNAL_INVALID_RECORD, false);
     }
 
+    /**
+     * Set the number of threads applying the journal records to the ledger storage on bookie startup.
+     *
+     * @param numThreads
+     *          number of journal replay threads.
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalReplayThreads(int numThreads) {
+        this.setProperty(JOURNAL_REPLAY_THREADS, numThreads);
+        return this;
+    }
+
+    /**
+     * Get the number of threads applying the journal records to the ledger storage on bookie startup.
+     *
+     * <p>The records are sharded across the threads by ledger id, while each journal directory is read by its own
+     * thread. If zero, the records are applied by the threads reading the journals.
+     *
+     * @return the number of journal replay threads, 1 by default.
+     */
+    public int getJournalReplayThreads() {
+        return this.getInt(JOURNAL_REPLAY_THREADS, 1);
+    }
+
     /**
      * Get default rocksdb conf.
      *
@@ -23,7 +23,10 @@ package org.apache.bookkeeper.proto;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.Recycler;
 import io.netty.util.ReferenceCounted;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.proto.BookieProtocol.BatchedReadRequest;
 import org.apache.bookkeeper.util.ByteBufList;
 
@@ -57,29 +60,32 @@ public class BatchedReadEntryProcessor extends ReadEntryProcessor {
         long maxSize = Math.min(batchRequest.getMaxSize(), maxBatchReadSize);
         //See BookieProtoEncoding.ResponseEnDeCoderPreV3#encode on BatchedReadResponse case.
         long frameSize = 24 + 8 + 4;
-        for (int i = 0; i < maxCount; i++) {
-            try {
-                ByteBuf entry = requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId() + i);
-                frameSize += entry.readableBytes() + 4;
-                if (data == null) {
-                    data = ByteBufList.get(entry);
-                } else {
-                    if (frameSize > maxSize) {
-                        entry.release();
-                        break;
-                    }
-                    data.add(entry);
-                }
-            } catch (Throwable e) {
-                if (data == null) {
-                    throw e;
-                }
-                break;
+        // The entries are read together by the storage, which can then read the ones next to each other at once
+        List<ByteBuf> entries = requestProcessor.getBookie().readEntries(request.getLedgerId(),
+                request.getEntryId(), maxCount, maxSize);
+        for (ByteBuf entry : entries) {
+            frameSize += entry.readableBytes() + 4;
+            if (data == null) {
+                data = ByteBufList.get(entry);
+            } else if (frameSize > maxSize) {
+                entry.release();
+            } else {
+                data.add(entry);
             }
         }
         return data;
     }
 
+    @Override
+    protected CompletableFuture<? extends ReferenceCounted> readDataAsync() {
+        // The entries of the batch are read together, in the calling thread
+        try {
+            return CompletableFuture.completedFuture(readData());
+        } catch (Throwable t) {
+            return FutureUtils.exception(t);
+        }
+    }
+
     @Override
     protected BookieProtocol.Response buildReadResponse(ReferenceCounted data) {
         return ResponseBuilder.buildBatchedReadResponse((ByteBufList) data, (BatchedReadRequest) request);
@@ -36,6 +36,7 @@ import io.netty.util.HashedWheelTimer;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
@@ -223,6 +224,26 @@ public class BookieRequestProcessor implements RequestProcessor {
         requestStats.trackAddRequest();
     }
 
+    /**
+     * Stop reading from the channel until the journal accepts adds again, instead of letting the client send
+     * adds which would be rejected too.
+     */
+    protected void onJournalThrottled(Channel channel, CompletableFuture<Void> memoryAvailable) {
+        if (!channel.config().isAutoRead()) {
+            return;
+        }
+        final long throttlingStartTimeNanos = MathUtils.nowInNano();
+        channel.config().setAutoRead(false);
+        LOG.info("Journal memory budget exhausted, disabling autoread on channel {}", channel);
+        requestStats.blockAddRequest();
+        memoryAvailable.whenComplete((ignore, cause) -> {
+            channel.config().setAutoRead(true);
+            final long delayNanos = MathUtils.elapsedNanos(throttlingStartTimeNanos);
+            LOG.info("Re-enabled autoread on channel {} after journal throttling of {} nanos", channel, delayNanos);
+            requestStats.unblockAddRequest(delayNanos);
+        });
+    }
+
     protected void onAddRequestFinish() {
         requestStats.untrackAddRequest();
         if (addsSemaphore != null) {
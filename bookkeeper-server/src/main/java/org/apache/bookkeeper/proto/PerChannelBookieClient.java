@@ -182,6 +182,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     final ByteBufAllocator allocator;
     final OrderedExecutor executor;
     final long addEntryTimeoutNanos;
+    final long addEntryThrottledBackoffNanos;
     final long readEntryTimeoutNanos;
     final int maxFrameSize;
     final long getBookieInfoTimeoutNanos;
@@ -349,6 +350,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     private final ExtensionRegistry extRegistry;
     private final SecurityHandlerFactory shFactory;
     private volatile boolean isWritable = true;
+    // The adds fail immediately until then, after the bookie throttled an add
+    private volatile long addsThrottledUntilNanos = 0;
     private long lastBookieUnavailableLogTimestamp = 0;
 
     public PerChannelBookieClient(OrderedExecutor executor, EventLoopGroup eventLoopGroup,
@@ -399,6 +402,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         this.allocator = allocator;
         this.state = ConnectionState.DISCONNECTED;
         this.addEntryTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getAddEntryTimeout());
+        this.addEntryThrottledBackoffNanos = TimeUnit.MILLISECONDS.toNanos(conf.getAddEntryThrottledBackoffMs());
         this.readEntryTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getReadEntryTimeout());
         this.getBookieInfoTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getBookieInfoTimeout());
         this.startTLSTimeout = conf.getStartTLSTimeout();
@@ -841,6 +845,11 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                               acquireAddCompletion(completionKey,
                                                    cb, ctx, ledgerId, entryId));
         final Channel c = channel;
+        if (isAddThrottled(options)) {
+            errorOut(completionKey, BKException.Code.TooManyRequestsException);
+            ReferenceCountUtil.release(request);
+            return;
+        }
         if (c == null) {
             // usually checked in writeAndFlush, but we have extra check
             // because we need to release toSend.
@@ -853,6 +862,13 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
+    private boolean isAddThrottled(int options) {
+        // Recovery adds are never throttled by the bookie
+        return addsThrottledUntilNanos != 0
+                && ((short) options & BookieProtocol.FLAG_RECOVERY_ADD) != BookieProtocol.FLAG_RECOVERY_ADD
+                && MathUtils.nowInNano() - addsThrottledUntilNanos < 0;
+    }
+
     public void readLac(final long ledgerId, ReadLacCallback cb, Object ctx) {
         Object request = null;
         CompletionKey completionKey = null;
@@ -2364,6 +2380,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 logResponse(status, "ledger", ledgerId, "entry", entryId);
             }
 
+            if (status == StatusCode.ETOOMANYREQUESTS && addEntryThrottledBackoffNanos > 0) {
+                addsThrottledUntilNanos = MathUtils.nowInNano() + addEntryThrottledBackoffNanos;
+            }
             int rc = convertStatus(status, BKException.Code.WriteException);
             writeComplete(rc, ledgerId, entryId, bookieId, ctx);
         }
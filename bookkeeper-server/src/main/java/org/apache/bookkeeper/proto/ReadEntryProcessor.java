@@ -23,6 +23,7 @@ import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -86,51 +87,74 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
                     throw BookieException.create(BookieException.Code.UnauthorizedAccessException);
                 }
             }
+            if (fenceResult == null) {
+                // The response is sent when the read completes, without blocking this thread while reading from disk
+                readDataAsync().whenComplete((result, cause) -> {
+                    int rc = cause == null ? BookieProtocol.EOK : getErrorCode(cause);
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Read entry rc = {} for {}", rc, request);
+                    }
+                    sendResponse(result, rc, startTimeNanos);
+                });
+                return;
+            }
             data = readData();
             if (LOG.isDebugEnabled()) {
                 LOG.debug("##### Read entry ##### -- ref-count: {}",  data.refCnt());
             }
-            if (fenceResult != null) {
-                handleReadResultForFenceRead(fenceResult, data, startTimeNanos);
-                return;
-            }
-        } catch (Bookie.NoLedgerException e) {
+            handleReadResultForFenceRead(fenceResult, data, startTimeNanos);
+            return;
+        } catch (Throwable t) {
+            errorCode = getErrorCode(t);
+        }
+
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Read entry rc = {} for {}", errorCode, request);
+        }
+        sendResponse(data, errorCode, startTimeNanos);
+    }
+
+    private int getErrorCode(Throwable t) {
+        if (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+
+        if (t instanceof Bookie.NoLedgerException) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Error reading {}", request, e);
+                LOG.debug("Error reading {}", request, t);
             }
-            errorCode = BookieProtocol.ENOLEDGER;
-        } catch (Bookie.NoEntryException e) {
+            return BookieProtocol.ENOLEDGER;
+        } else if (t instanceof Bookie.NoEntryException) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Error reading {}", request, e);
+                LOG.debug("Error reading {}", request, t);
             }
-            errorCode = BookieProtocol.ENOENTRY;
-        } catch (IOException e) {
+            return BookieProtocol.ENOENTRY;
+        } else if (t instanceof IOException) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Error reading {}", request, e);
+                LOG.debug("Error reading {}", request, t);
             }
-            errorCode = BookieProtocol.EIO;
-        } catch (BookieException.DataUnknownException e) {
-            LOG.error("Ledger {} is in an unknown state", request.getLedgerId(), e);
-            errorCode = BookieProtocol.EUNKNOWNLEDGERSTATE;
-        } catch (BookieException e) {
-            LOG.error("Unauthorized access to ledger {}", request.getLedgerId(), e);
-            errorCode = BookieProtocol.EUA;
-        } catch (Throwable t) {
+            return BookieProtocol.EIO;
+        } else if (t instanceof BookieException.DataUnknownException) {
+            LOG.error("Ledger {} is in an unknown state", request.getLedgerId(), t);
+            return BookieProtocol.EUNKNOWNLEDGERSTATE;
+        } else if (t instanceof BookieException) {
+            LOG.error("Unauthorized access to ledger {}", request.getLedgerId(), t);
+            return BookieProtocol.EUA;
+        } else {
             LOG.error("Unexpected exception reading at {}:{} : {}", request.getLedgerId(), request.getEntryId(),
                       t.getMessage(), t);
-            errorCode = BookieProtocol.EBADREQ;
-        }
-
-        if (LOG.isTraceEnabled()) {
-            LOG.trace("Read entry rc = {} for {}", errorCode, request);
+            return BookieProtocol.EBADREQ;
         }
-        sendResponse(data, errorCode, startTimeNanos);
     }
 
     protected ReferenceCounted readData() throws Exception {
         return requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId());
     }
 
+    protected CompletableFuture<? extends ReferenceCounted> readDataAsync() {
+        return requestProcessor.getBookie().readEntryAsync(request.getLedgerId(), request.getEntryId());
+    }
+
     private void sendResponse(ReferenceCounted data, int errorCode, long startTimeNanos) {
         final RequestStats stats = requestProcessor.getRequestStats();
         final OpStatsLogger logger = stats.getReadEntryStats();
@@ -24,6 +24,8 @@ import io.netty.channel.Channel;
 import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.Bookie;
@@ -175,20 +177,32 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
             handleReadResultForFenceRead(entryBody, readResponseBuilder, entryId, startTimeSw);
             return null;
         } else {
-            try {
-                readResponseBuilder.setBody(ByteString.copyFrom(entryBody.nioBuffer()));
-                if (readLACPiggyBack) {
-                    readResponseBuilder.setEntryId(entryId);
-                } else {
-                    long knownLAC = requestProcessor.getBookie().readLastAddConfirmed(ledgerId);
-                    readResponseBuilder.setMaxLAC(knownLAC);
-                }
-                registerSuccessfulEvent(readStats, startTimeSw);
-                readResponseBuilder.setStatus(StatusCode.EOK);
-                return readResponseBuilder.build();
-            } finally {
-                ReferenceCountUtil.release(entryBody);
+            return buildReadResponse(readResponseBuilder, entryBody, entryId, readLACPiggyBack, startTimeSw);
+        }
+    }
+
+    /**
+     * Build the response of a successful read, releasing the entry.
+     */
+    private ReadResponse buildReadResponse(ReadResponse.Builder readResponseBuilder,
+                                           ByteBuf entryBody,
+                                           long entryId,
+                                           boolean readLACPiggyBack,
+                                           Stopwatch startTimeSw)
+        throws IOException, BookieException {
+        try {
+            readResponseBuilder.setBody(ByteString.copyFrom(entryBody.nioBuffer()));
+            if (readLACPiggyBack) {
+                readResponseBuilder.setEntryId(entryId);
+            } else {
+                long knownLAC = requestProcessor.getBookie().readLastAddConfirmed(ledgerId);
+                readResponseBuilder.setMaxLAC(knownLAC);
             }
+            registerSuccessfulEvent(readStats, startTimeSw);
+            readResponseBuilder.setStatus(StatusCode.EOK);
+            return readResponseBuilder.build();
+        } finally {
+            ReferenceCountUtil.release(entryBody);
         }
     }
 
@@ -215,7 +229,21 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
                 }
             }
             return readEntry(readResponse, entryId, startTimeSw);
-        } catch (Bookie.NoLedgerException e) {
+        } catch (IOException | BookieException e) {
+            return buildErrorResponse(readResponse, e, startTimeSw);
+        }
+    }
+
+    private ReadResponse buildErrorResponse(ReadResponse.Builder readResponse,
+                                            Throwable cause,
+                                            Stopwatch startTimeSw) {
+        // The async reads fail with the exception of the storage wrapped by the stages they went through
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+
+        if (cause instanceof Bookie.NoLedgerException) {
             if (RequestUtils.isFenceRequest(readRequest)) {
                 LOG.info("No ledger found reading entry {} when fencing ledger {}", entryId, ledgerId);
             } else if (entryId != BookieProtocol.LAST_ADD_CONFIRMED) {
@@ -225,24 +253,32 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
                 LOG.debug("No ledger found while reading entry: {} from ledger: {}", entryId, ledgerId);
             }
             return buildResponse(readResponse, StatusCode.ENOLEDGER, startTimeSw);
-        } catch (Bookie.NoEntryException e) {
+        } else if (cause instanceof Bookie.NoEntryException) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("No entry found while reading entry: {} from ledger: {}", entryId, ledgerId);
             }
             return buildResponse(readResponse, StatusCode.ENOENTRY, startTimeSw);
-        } catch (IOException e) {
-            LOG.error("IOException while reading entry: {} from ledger {} ", entryId, ledgerId, e);
-            return buildResponse(readResponse, StatusCode.EIO, startTimeSw);
-        } catch (BookieException.DataUnknownException e) {
+        } else if (cause instanceof BookieException.DataUnknownException) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Ledger has unknown state for entry: {} from ledger {}", entryId, ledgerId);
             }
             return buildResponse(readResponse, StatusCode.EUNKNOWNLEDGERSTATE, startTimeSw);
-        } catch (BookieException e) {
+        } else if (cause instanceof BookieException.LedgerFencedException) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Ledger fenced while reading entry: {} from ledger: {}", entryId, ledgerId);
+            }
+            return buildResponse(readResponse, StatusCode.EFENCED, startTimeSw);
+        } else if (cause instanceof BookieException) {
             LOG.error(
                 "Unauthorized access to ledger:{} while reading entry:{} in request from address: {}",
-                    ledgerId, entryId, channel.remoteAddress());
+                    ledgerId, entryId, requestHandler.ctx().channel().remoteAddress());
             return buildResponse(readResponse, StatusCode.EUA, startTimeSw);
+        } else if (cause instanceof IOException) {
+            LOG.error("IOException while reading entry: {} from ledger {} ", entryId, ledgerId, cause);
+            return buildResponse(readResponse, StatusCode.EIO, startTimeSw);
+        } else {
+            LOG.error("Unexpected exception while reading entry: {} from ledger {} ", entryId, ledgerId, cause);
+            return buildResponse(readResponse, StatusCode.EIO, startTimeSw);
         }
     }
 
@@ -271,11 +307,43 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
         executeOp();
     }
 
+    /**
+     * Whether the request is a plain read, that can be answered from the completion of an asynchronous read.
+     *
+     * <p>Fence reads, and reads that carry a previous LAC or ask for an entry piggyback, go through
+     * {@link #getReadResponse()} so that their handling in {@link #readEntry} is kept.
+     */
+    protected boolean isAsyncRead() {
+        return !RequestUtils.isFenceRequest(readRequest)
+            && !readRequest.hasPreviousLAC()
+            && !RequestUtils.shouldPiggybackEntry(readRequest);
+    }
+
     protected void executeOp() {
-        ReadResponse readResponse = getReadResponse();
-        if (null != readResponse) {
-            sendResponse(readResponse);
+        if (!isAsyncRead()) {
+            ReadResponse readResponse = getReadResponse();
+            if (null != readResponse) {
+                sendResponse(readResponse);
+            }
+            return;
         }
+
+        // The response is sent when the read completes, without blocking this thread while reading from disk
+        final Stopwatch startTimeSw = Stopwatch.createStarted();
+        final ReadResponse.Builder readResponse = ReadResponse.newBuilder()
+            .setLedgerId(ledgerId)
+            .setEntryId(entryId);
+        requestProcessor.getBookie().readEntryAsync(ledgerId, entryId).whenComplete((entryBody, cause) -> {
+            if (cause != null) {
+                sendResponse(buildErrorResponse(readResponse, cause, startTimeSw));
+                return;
+            }
+            try {
+                sendResponse(buildReadResponse(readResponse, entryBody, entryId, false, startTimeSw));
+            } catch (IOException | BookieException e) {
+                sendResponse(buildErrorResponse(readResponse, e, startTimeSw));
+            }
+        });
     }
 
     private void getFenceResponse(ReadResponse.Builder readResponse,
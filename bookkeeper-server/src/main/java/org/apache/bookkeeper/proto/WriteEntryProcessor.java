@@ -23,6 +23,7 @@ import io.netty.util.Recycler;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.bookie.BookieException.JournalThrottledException;
 import org.apache.bookkeeper.bookie.BookieException.OperationRejectedException;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookieProtocol.ParsedAddRequest;
@@ -86,6 +87,10 @@ class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest> implemen
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Operation rejected while writing {}", request, e);
             }
+            if (e instanceof JournalThrottledException) {
+                requestProcessor.onJournalThrottled(requestHandler.ctx().channel(),
+                        ((JournalThrottledException) e).getMemoryAvailable());
+            }
             rc = BookieProtocol.ETOOMANYREQUESTS;
         } catch (IOException e) {
             LOG.error("Error writing {}", request, e);
@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.util.EnumSet;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.bookie.BookieException.JournalThrottledException;
 import org.apache.bookkeeper.bookie.BookieException.OperationRejectedException;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.net.BookieId;
@@ -131,6 +132,10 @@ class WriteEntryProcessorV3 extends PacketProcessorBaseV3 {
             if (logger.isDebugEnabled()) {
                 logger.debug("Operation rejected while writing {}", request, e);
             }
+            if (e instanceof JournalThrottledException) {
+                requestProcessor.onJournalThrottled(requestHandler.ctx().channel(),
+                        ((JournalThrottledException) e).getMemoryAvailable());
+            }
             status = StatusCode.ETOOMANYREQUESTS;
         } catch (IOException e) {
             logger.error("Error writing entry:{} to ledger:{}",
@@ -41,7 +41,8 @@ import org.apache.bookkeeper.http.service.HttpServiceResponse;
  *  "running" : true,
  *  "readOnly" : false,
  *  "shuttingDown" : false,
- *  "availableForHighPriorityWrites" : true
+ *  "availableForHighPriorityWrites" : true,
+ *  "journalReplayProgress" : 100.0
  *}
  * </code>
  * </pre>
@@ -64,6 +65,7 @@ public class BookieStateService implements HttpEndpointService {
         private boolean readOnly;
         private boolean shuttingDown;
         private boolean availableForHighPriorityWrites;
+        private double journalReplayProgress;
     }
 
     @Override
@@ -82,6 +84,7 @@ public class BookieStateService implements HttpEndpointService {
         bs.readOnly = sm.isReadOnly();
         bs.shuttingDown = sm.isShuttingDown();
         bs.availableForHighPriorityWrites = sm.isAvailableForHighPriorityWrites();
+        bs.journalReplayProgress = sm.getJournalReplayProgress();
 
         String jsonResponse = JsonUtil.toJson(bs);
         response.setBody(jsonResponse);
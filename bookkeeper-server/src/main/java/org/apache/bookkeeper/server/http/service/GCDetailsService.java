@@ -43,7 +43,9 @@ import org.slf4j.LoggerFactory;
  *           "lastMajorCompactionTime" : 1544578144944,
  *           "lastMinorCompactionTime" : 1544578144944,
  *           "majorCompactionCounter" : 1,
- *           "minorCompactionCounter" : 0
+ *           "minorCompactionCounter" : 0,
+ *           "compactingEntryLogs" : { "GarbageCollectorCompaction-5-1" : 12 },
+ *           "compactedEntryLogs" : { "GarbageCollectorCompaction-5-1" : 3, "GarbageCollectorCompaction-5-2" : 4 }
  *         } ]
  */
 public class GCDetailsService implements HttpEndpointService {
@@ -18,9 +18,13 @@
  */
 package org.apache.bookkeeper.tools.cli.commands.bookie;
 
+import com.beust.jcommander.Parameter;
 import java.io.IOException;
+import lombok.Setter;
+import lombok.experimental.Accessors;
 import org.apache.bookkeeper.bookie.storage.ldb.LocationsIndexRebuildOp;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.tools.cli.commands.bookie.RebuildDBLedgerLocationsIndexCommand.RebuildLocationsIndexFlags;
 import org.apache.bookkeeper.tools.cli.helpers.BookieCommand;
 import org.apache.bookkeeper.tools.framework.CliFlags;
 import org.apache.bookkeeper.tools.framework.CliSpec;
@@ -30,7 +34,7 @@ import org.slf4j.LoggerFactory;
 /**
  * Command to rebuild DBLedgerStorage locations index.
  */
-public class RebuildDBLedgerLocationsIndexCommand extends BookieCommand<CliFlags> {
+public class RebuildDBLedgerLocationsIndexCommand extends BookieCommand<RebuildLocationsIndexFlags> {
 
     static final Logger LOG = LoggerFactory.getLogger(RebuildDBLedgerLocationsIndexCommand.class);
 
@@ -38,15 +42,40 @@ public class RebuildDBLedgerLocationsIndexCommand extends BookieCommand<CliFlags
     private static final String DESC = "Rbuild DBLedgerStorage locations index by scanning the entry logs";
 
     public RebuildDBLedgerLocationsIndexCommand() {
-        super(CliSpec.newBuilder().withName(NAME).withDescription(DESC).withFlags(new CliFlags()).build());
+        this(new RebuildLocationsIndexFlags());
+    }
+
+    private RebuildDBLedgerLocationsIndexCommand(RebuildLocationsIndexFlags flags) {
+        super(CliSpec.<RebuildLocationsIndexFlags>newBuilder()
+                     .withName(NAME)
+                     .withDescription(DESC)
+                     .withFlags(flags)
+                     .build());
+    }
+
+    /**
+     * Flags for rebuild locations index command.
+     */
+    @Accessors(fluent = true)
+    @Setter
+    public static class RebuildLocationsIndexFlags extends CliFlags {
+
+        @Parameter(names = { "-m", "--migrate-from" }, description = "Copy the existing locations index from the"
+                + " given storage (rocksdb or sortedruns) into the configured one, instead of scanning the entry logs")
+        private String migrateFrom;
+
     }
 
     @Override
-    public boolean apply(ServerConfiguration conf, CliFlags cmdFlags) {
+    public boolean apply(ServerConfiguration conf, RebuildLocationsIndexFlags cmdFlags) {
         LOG.info("=== Rebuilding DBStorage locations index ===");
         ServerConfiguration serverConfiguration = new ServerConfiguration(conf);
         try {
-            new LocationsIndexRebuildOp(serverConfiguration).initiate();
+            if (cmdFlags.migrateFrom != null) {
+                new LocationsIndexRebuildOp(serverConfiguration).migrate(cmdFlags.migrateFrom);
+            } else {
+                new LocationsIndexRebuildOp(serverConfiguration).initiate();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,125 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.bookkeeper.bookie.CompactionPolicy.Candidate;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CostBenefitCompactionPolicy}.
+ */
+public class CostBenefitCompactionPolicyTest {
+
+    private static CostBenefitCompactionPolicy newPolicy(long ioBudgetBytes) {
+        CostBenefitCompactionPolicy policy = new CostBenefitCompactionPolicy();
+        policy.initialize(new ServerConfiguration().setCompactionIoBudgetBytes(ioBudgetBytes));
+        return policy;
+    }
+
+    private static Candidate candidate(long entryLogId, long totalSize, double usage) {
+        return new Candidate(entryLogId, totalSize, (long) (totalSize * usage), usage);
+    }
+
+    private static List<Long> ids(List<Candidate> candidates) {
+        List<Long> ids = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            ids.add(candidate.getEntryLogId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testScore() {
+        // 75% of the entry log reclaimed, 4 entry logs old, copying 25% of it
+        assertEquals(0.75 * 4 / 1.25, CostBenefitCompactionPolicy.score(candidate(1L, 100, 0.25), 4L), 1e-9);
+        assertEquals(1.0, CostBenefitCompactionPolicy.score(candidate(4L, 100, 0.0), 4L), 1e-9);
+        assertEquals(0.0, CostBenefitCompactionPolicy.score(candidate(1L, 100, 1.0), 4L), 1e-9);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(newPolicy(0).select(Collections.emptyList()).isEmpty());
+        assertTrue(newPolicy(100).select(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testOlderFirstAtSameUsage() {
+        List<Candidate> candidates = Arrays.asList(
+                candidate(3L, 100, 0.5), candidate(1L, 100, 0.5), candidate(2L, 100, 0.5));
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids(newPolicy(0).select(candidates)));
+    }
+
+    @Test
+    public void testLowerUsageFirstAtSimilarAge() {
+        List<Candidate> candidates = Arrays.asList(candidate(100L, 100, 0.8), candidate(101L, 100, 0.1));
+        assertEquals(Arrays.asList(101L, 100L), ids(newPolicy(0).select(candidates)));
+    }
+
+    /**
+     * Unlike the usage buckets, an old entry log is compacted before a much more recent one with a lower usage.
+     */
+    @Test
+    public void testOldEntryLogBeforeRecentLowerUsage() {
+        List<Candidate> candidates = Arrays.asList(candidate(100L, 100, 0.2), candidate(1L, 100, 0.5));
+        assertEquals(Arrays.asList(1L, 100L), ids(newPolicy(0).select(candidates)));
+        assertEquals(Arrays.asList(100L, 1L), ids(new UsageBucketCompactionPolicy().select(candidates)));
+    }
+
+    @Test
+    public void testNoBudget() {
+        List<Candidate> candidates = Arrays.asList(
+                candidate(1L, 1000, 0.6), candidate(2L, 1000, 0.5), candidate(3L, 1000, 0.3));
+        assertEquals(3, newPolicy(0).select(candidates).size());
+    }
+
+    /**
+     * The candidates are taken by rank while they fit in the budget, a candidate which does not fit is skipped
+     * without stopping the selection.
+     */
+    @Test
+    public void testBudget() {
+        // Ranked by age, copying 60, 50, 30 and 10 bytes
+        List<Candidate> candidates = Arrays.asList(
+                candidate(4L, 20, 0.5), candidate(3L, 60, 0.5), candidate(2L, 100, 0.5), candidate(1L, 120, 0.5));
+        assertEquals(Arrays.asList(1L, 3L, 4L), ids(newPolicy(100).select(candidates)));
+        assertEquals(Arrays.asList(1L, 2L), ids(newPolicy(110).select(candidates)));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), ids(newPolicy(150).select(candidates)));
+        assertEquals(Collections.singletonList(4L), ids(newPolicy(10).select(candidates)));
+        assertTrue(newPolicy(9).select(candidates).isEmpty());
+    }
+
+    /**
+     * The empty entry logs copy nothing, they are always selected.
+     */
+    @Test
+    public void testEmptyEntryLogsWithinBudget() {
+        List<Candidate> candidates = Arrays.asList(candidate(1L, 1000, 0.9), candidate(2L, 1000, 0.0));
+        assertEquals(Collections.singletonList(2L), ids(newPolicy(100).select(candidates)));
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.storage.EntryLogger.UNASSIGNED_LEDGERID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for the metadata snapshots of {@link DefaultEntryLogger}.
+ */
+public class DefaultEntryLoggerTest {
+
+    private static final int ENTRY_SIZE = 100;
+    // Size of an entry in the entry log, size header included
+    private static final long ENTRY_LOG_SIZE = 4 + ENTRY_SIZE;
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private File curDir;
+    private final List<DefaultEntryLogger> entryLoggers = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        File ledgerDir = tempDir.newFolder("ledgers");
+        curDir = BookieImpl.getCurrentDirectory(ledgerDir);
+        BookieImpl.checkDirectoryStructure(curDir);
+        conf = new ServerConfiguration();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        conf.setGcEntryLogMetadataSnapshotEnabled(true);
+    }
+
+    @After
+    public void teardown() {
+        for (DefaultEntryLogger entryLogger : entryLoggers) {
+            entryLogger.close();
+        }
+    }
+
+    private DefaultEntryLogger newEntryLogger() throws IOException {
+        DefaultEntryLogger entryLogger = new DefaultEntryLogger(conf, new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold())));
+        entryLoggers.add(entryLogger);
+        return entryLogger;
+    }
+
+    private static long addEntries(DefaultEntryLogger entryLogger, long ledgerId, int numEntries) throws IOException {
+        long location = -1;
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+            entry.writeLong(ledgerId);
+            entry.writeLong(entryId);
+            entry.writeZero(ENTRY_SIZE - 16);
+            location = entryLogger.addEntry(ledgerId, entry);
+        }
+        return location;
+    }
+
+    /**
+     * Write the entries buffered in the current entry log to its file, without snapshotting its metadata, as if
+     * the bookie crashed after the buffer was written.
+     */
+    private static void writeBufferedEntries(DefaultEntryLogger entryLogger, long logId) throws IOException {
+        entryLogger.getEntryLogManager().getCurrentLogIfPresent(logId).flush();
+    }
+
+    private File snapshotFile(long logId) {
+        return DefaultEntryLogger.metadataSnapshotFile(curDir, logId);
+    }
+
+    private static byte[] newSnapshot(long position, EntryLogMetadata meta) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(position);
+        meta.serialize(out);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    private long snapshotPosition(long logId) throws IOException {
+        byte[] snapshot = Files.readAllBytes(snapshotFile(logId).toPath());
+        return new DataInputStream(new ByteArrayInputStream(snapshot)).readLong();
+    }
+
+    /**
+     * Write entries of ledgers 1 and 2, take a snapshot, and write entries of ledgers 2 and 3 after it.
+     *
+     * @return the id of the entry log, which has no ledgers map
+     */
+    private long writeEntryLogWithSnapshot(DefaultEntryLogger entryLogger) throws IOException {
+        addEntries(entryLogger, 1L, 3);
+        long logId = DefaultEntryLogger.logIdForOffset(addEntries(entryLogger, 2L, 2));
+        entryLogger.flush();
+        assertTrue(snapshotFile(logId).exists());
+        assertEquals(DefaultEntryLogger.LOGFILE_HEADER_SIZE + 5 * ENTRY_LOG_SIZE, snapshotPosition(logId));
+
+        addEntries(entryLogger, 2L, 1);
+        addEntries(entryLogger, 3L, 4);
+        writeBufferedEntries(entryLogger, logId);
+        return logId;
+    }
+
+    @Test
+    public void testRecoverFromSnapshot() throws Exception {
+        long logId = writeEntryLogWithSnapshot(newEntryLogger());
+
+        EntryLogMetadata meta = newEntryLogger().getEntryLogMetadata(logId, null);
+        assertEquals(logId, meta.getEntryLogId());
+        assertEquals(3, meta.getLedgersMap().size());
+        assertEquals(3 * ENTRY_LOG_SIZE, meta.getLedgersMap().get(1L));
+        assertEquals(3 * ENTRY_LOG_SIZE, meta.getLedgersMap().get(2L));
+        assertEquals(4 * ENTRY_LOG_SIZE, meta.getLedgersMap().get(3L));
+        assertEquals(10 * ENTRY_LOG_SIZE, meta.getTotalSize());
+    }
+
+    /**
+     * The ledgers of a valid snapshot are taken as is, only the entries after its position are scanned.
+     */
+    @Test
+    public void testOnlyEntriesAfterSnapshotScanned() throws Exception {
+        long logId = writeEntryLogWithSnapshot(newEntryLogger());
+        EntryLogMetadata snapshotMeta = new EntryLogMetadata(logId);
+        snapshotMeta.addLedgerSize(9L, 12345L);
+        Files.write(snapshotFile(logId).toPath(), newSnapshot(snapshotPosition(logId), snapshotMeta));
+
+        EntryLogMetadata meta = newEntryLogger().getEntryLogMetadata(logId, null);
+        assertEquals(3, meta.getLedgersMap().size());
+        assertFalse(meta.containsLedger(1L));
+        assertEquals(12345L, meta.getLedgersMap().get(9L));
+        assertEquals(ENTRY_LOG_SIZE, meta.getLedgersMap().get(2L));
+        assertEquals(4 * ENTRY_LOG_SIZE, meta.getLedgersMap().get(3L));
+    }
+
+    @Test
+    public void testInvalidCrcFallsBackToScan() throws Exception {
+        long logId = writeEntryLogWithSnapshot(newEntryLogger());
+        EntryLogMetadata snapshotMeta = new EntryLogMetadata(logId);
+        snapshotMeta.addLedgerSize(9L, 12345L);
+        byte[] snapshot = newSnapshot(snapshotPosition(logId), snapshotMeta);
+        snapshot[snapshot.length - 1] ^= 0x01;
+        Files.write(snapshotFile(logId).toPath(), snapshot);
+
+        EntryLogMetadata meta = newEntryLogger().getEntryLogMetadata(logId, null);
+        assertFalse(meta.containsLedger(9L));
+        assertEquals(3 * ENTRY_LOG_SIZE, meta.getLedgersMap().get(1L));
+        assertEquals(3 * ENTRY_LOG_SIZE, meta.getLedgersMap().get(2L));
+        assertEquals(4 * ENTRY_LOG_SIZE, meta.getLedgersMap().get(3L));
+    }
+
+    @Test
+    public void testTruncatedSnapshotFallsBackToScan() throws Exception {
+        long logId = writeEntryLogWithSnapshot(newEntryLogger());
+        byte[] snapshot = Files.readAllBytes(snapshotFile(logId).toPath());
+        byte[] truncated = new byte[snapshot.length / 2];
+        System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+        Files.write(snapshotFile(logId).toPath(), truncated);
+
+        EntryLogMetadata meta = newEntryLogger().getEntryLogMetadata(logId, null);
+        assertEquals(10 * ENTRY_LOG_SIZE, meta.getTotalSize());
+        assertEquals(3, meta.getLedgersMap().size());
+    }
+
+    /**
+     * A snapshot covering more than the entry log file, for example of a file truncated afterwards, is ignored.
+     */
+    @Test
+    public void testSnapshotBeyondLogFallsBackToScan() throws Exception {
+        long logId = writeEntryLogWithSnapshot(newEntryLogger());
+        EntryLogMetadata snapshotMeta = new EntryLogMetadata(logId);
+        snapshotMeta.addLedgerSize(9L, 12345L);
+        long logSize = new File(curDir, Long.toHexString(logId) + ".log").length();
+        Files.write(snapshotFile(logId).toPath(), newSnapshot(logSize + 1, snapshotMeta));
+
+        EntryLogMetadata meta = newEntryLogger().getEntryLogMetadata(logId, null);
+        assertFalse(meta.containsLedger(9L));
+        assertEquals(10 * ENTRY_LOG_SIZE, meta.getTotalSize());
+    }
+
+    @Test
+    public void testSnapshotOfOtherLogIgnored() throws Exception {
+        long logId = writeEntryLogWithSnapshot(newEntryLogger());
+        EntryLogMetadata snapshotMeta = new EntryLogMetadata(logId + 1);
+        snapshotMeta.addLedgerSize(9L, 12345L);
+        Files.write(snapshotFile(logId).toPath(), newSnapshot(snapshotPosition(logId), snapshotMeta));
+
+        EntryLogMetadata meta = newEntryLogger().getEntryLogMetadata(logId, null);
+        assertFalse(meta.containsLedger(9L));
+        assertEquals(10 * ENTRY_LOG_SIZE, meta.getTotalSize());
+    }
+
+    /**
+     * The snapshot is deleted once the log is rotated and its ledgers map flushed, and with the log.
+     */
+    @Test
+    public void testSnapshotDeleted() throws Exception {
+        DefaultEntryLogger entryLogger = newEntryLogger();
+        long logId = DefaultEntryLogger.logIdForOffset(addEntries(entryLogger, 1L, 2));
+        entryLogger.flush();
+        assertTrue(snapshotFile(logId).exists());
+
+        ((EntryLogManagerBase) entryLogger.getEntryLogManager()).createNewLog(UNASSIGNED_LEDGERID);
+        entryLogger.flush();
+        assertFalse(snapshotFile(logId).exists());
+        assertEquals(2 * ENTRY_LOG_SIZE, entryLogger.getEntryLogMetadata(logId, null).getLedgersMap().get(1L));
+
+        long nextLogId = DefaultEntryLogger.logIdForOffset(addEntries(entryLogger, 2L, 1));
+        entryLogger.flush();
+        assertTrue(snapshotFile(nextLogId).exists());
+        assertTrue(entryLogger.removeEntryLog(nextLogId));
+        assertFalse(snapshotFile(nextLogId).exists());
+    }
+
+    @Test
+    public void testNoSnapshotWhenDisabled() throws Exception {
+        conf.setGcEntryLogMetadataSnapshotEnabled(false);
+        DefaultEntryLogger entryLogger = newEntryLogger();
+        long logId = DefaultEntryLogger.logIdForOffset(addEntries(entryLogger, 1L, 2));
+        entryLogger.flush();
+        assertFalse(snapshotFile(logId).exists());
+
+        EntryLogMetadata meta = newEntryLogger().getEntryLogMetadata(logId, null);
+        assertEquals(2 * ENTRY_LOG_SIZE, meta.getLedgersMap().get(1L));
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
+import org.apache.bookkeeper.bookie.stats.BookieStats;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link DeferredSyncJournalWriter}.
+ */
+public class DeferredSyncJournalWriterTest {
+
+    private static final long LEDGER_ID = 1;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private File journalDir;
+    private LedgerDirsManager ledgerDirsManager;
+    private Journal journal;
+    private LedgerStorage ledgerStorage;
+    private DeferredSyncJournalWriter writer;
+
+    @Before
+    public void setup() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        journalDir = tmpDir.newFolder("journal");
+
+        conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerDirNames(new String[] { ledgerDir.getPath() });
+        conf.setJournalDirName(journalDir.getPath());
+        conf.setJournalRemovePagesFromCache(false);
+        ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        journal = new Journal(0, journalDir, conf, ledgerDirsManager);
+        journal.start();
+
+        ledgerStorage = mock(LedgerStorage.class);
+        when(ledgerStorage.getEntry(anyLong(), anyLong()))
+            .thenAnswer(invocation -> entry(invocation.getArgument(0), invocation.getArgument(1)));
+    }
+
+    @After
+    public void teardown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+        journal.shutdown();
+    }
+
+    private DeferredSyncJournalWriter newWriter(long intervalMs) {
+        writer = new DeferredSyncJournalWriter(ledgerStorage, ledgerId -> journal, intervalMs);
+        return writer;
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf buf = Unpooled.buffer(128);
+        buf.writeLong(ledgerId);
+        buf.writeLong(entryId);
+        buf.writerIndex(128);
+        return buf;
+    }
+
+    private void addEntries(long ledgerId, long firstEntryId, long lastEntryId) {
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            writer.addEntry(ledgerId, entryId);
+        }
+    }
+
+    private static List<Long> entryIds(long firstEntryId, long lastEntryId) {
+        List<Long> entryIds = new ArrayList<>();
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            entryIds.add(entryId);
+        }
+        return entryIds;
+    }
+
+    private CompletableFuture<Integer> forceLedger(long ledgerId) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        writer.forceLedger(ledgerId, (rc, ledgerId1, entryId, addr, ctx) -> result.complete(rc), null);
+        return result;
+    }
+
+    /**
+     * The ids of the entries of the ledger found in the journal, in order.
+     */
+    private List<Long> journaledEntries(long ledgerId) throws Exception {
+        List<Long> entryIds = new ArrayList<>();
+        for (long logId : Journal.listJournalIds(journalDir, null)) {
+            journal.scanJournal(logId, 0, (journalVersion, offset, entry) -> {
+                if (entry.getLong(entry.position()) == ledgerId) {
+                    entryIds.add(entry.getLong(entry.position() + 8));
+                }
+            }, false);
+        }
+        return entryIds;
+    }
+
+    @Test
+    public void testForceLedger() throws Exception {
+        newWriter(TimeUnit.HOURS.toMillis(1));
+        addEntries(LEDGER_ID, 0, 9);
+        addEntries(2, 0, 4);
+        assertEquals(Collections.emptyList(), journaledEntries(LEDGER_ID));
+
+        // The entries are in the journal once the force completes
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(LEDGER_ID).get(10, TimeUnit.SECONDS));
+        assertEquals(entryIds(0, 9), journaledEntries(LEDGER_ID));
+        // Not the entries of the other ledgers
+        assertEquals(Collections.emptyList(), journaledEntries(2));
+
+        // Only the entries added since are written by the next force
+        addEntries(LEDGER_ID, 10, 14);
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(LEDGER_ID).get(10, TimeUnit.SECONDS));
+        assertEquals(entryIds(0, 14), journaledEntries(LEDGER_ID));
+
+        // Nothing pending
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(LEDGER_ID).get(10, TimeUnit.SECONDS));
+        assertEquals(entryIds(0, 14), journaledEntries(LEDGER_ID));
+    }
+
+    @Test
+    public void testPeriodicWrite() throws Exception {
+        CountDownLatch written = new CountDownLatch(10);
+        when(ledgerStorage.getEntry(eq(LEDGER_ID), anyLong())).thenAnswer(invocation -> {
+            written.countDown();
+            return entry(invocation.getArgument(0), invocation.getArgument(1));
+        });
+        newWriter(10);
+        addEntries(LEDGER_ID, 0, 9);
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+
+        // The force doesn't write the entries again
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(LEDGER_ID).get(10, TimeUnit.SECONDS));
+        assertEquals(entryIds(0, 9), journaledEntries(LEDGER_ID));
+    }
+
+    /**
+     * A force during a periodic write completes after all the entries written by the periodic write.
+     */
+    @Test
+    public void testForceDuringPeriodicWrite() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        AtomicBoolean block = new AtomicBoolean(true);
+        when(ledgerStorage.getEntry(eq(LEDGER_ID), eq(5L))).thenAnswer(invocation -> {
+            if (block.getAndSet(false)) {
+                blocked.countDown();
+                unblock.await();
+            }
+            return entry(LEDGER_ID, 5);
+        });
+        newWriter(10);
+        addEntries(LEDGER_ID, 0, 9);
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<CompletableFuture<Integer>> force = CompletableFuture.supplyAsync(
+                () -> forceLedger(LEDGER_ID));
+        try {
+            force.get(200, TimeUnit.MILLISECONDS).get(200, TimeUnit.MILLISECONDS);
+            fail("The force completed before the entries were written");
+        } catch (TimeoutException e) {
+            // Expected
+        }
+
+        unblock.countDown();
+        assertEquals(BookieProtocol.EOK, (int) force.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS));
+        assertEquals(entryIds(0, 9), journaledEntries(LEDGER_ID));
+    }
+
+    @Test
+    public void testCheckpointDiscardsEntries() throws Exception {
+        newWriter(TimeUnit.HOURS.toMillis(1));
+        Checkpoint checkpoint = mock(Checkpoint.class);
+        CheckpointSource checkpointSource = mock(CheckpointSource.class);
+        when(checkpointSource.newCheckpoint()).thenReturn(checkpoint);
+        CheckpointSource tracking = writer.trackCheckpoints(checkpointSource);
+
+        addEntries(LEDGER_ID, 0, 4);
+        addEntries(2, 0, 4);
+        Checkpoint started = tracking.newCheckpoint();
+        // Added after the checkpoint started, so maybe not persisted by it
+        addEntries(LEDGER_ID, 5, 9);
+        tracking.checkpointComplete(started, true);
+        verify(checkpointSource).checkpointComplete(checkpoint, true);
+
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(LEDGER_ID).get(10, TimeUnit.SECONDS));
+        assertEquals(entryIds(5, 9), journaledEntries(LEDGER_ID));
+        for (long entryId = 0; entryId < 5; entryId++) {
+            verify(ledgerStorage, never()).getEntry(LEDGER_ID, entryId);
+        }
+
+        // Nothing left of the ledger fully persisted
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(2).get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), journaledEntries(2));
+        verify(ledgerStorage, never()).getEntry(eq(2L), anyLong());
+    }
+
+    @Test
+    public void testLedgerDeleted() throws Exception {
+        newWriter(TimeUnit.HOURS.toMillis(1));
+        addEntries(LEDGER_ID, 0, 9);
+        writer.ledgerDeleted(LEDGER_ID);
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(LEDGER_ID).get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), journaledEntries(LEDGER_ID));
+        verify(ledgerStorage, never()).getEntry(eq(LEDGER_ID), anyLong());
+
+        // Entries of a ledger recreated with the same id are tracked again
+        addEntries(LEDGER_ID, 0, 1);
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(LEDGER_ID).get(10, TimeUnit.SECONDS));
+        assertEquals(entryIds(0, 1), journaledEntries(LEDGER_ID));
+    }
+
+    @Test
+    public void testLedgerDeletedFromStorage() throws Exception {
+        when(ledgerStorage.getEntry(eq(2L), anyLong())).thenThrow(new Bookie.NoLedgerException(2));
+        newWriter(TimeUnit.HOURS.toMillis(1));
+        addEntries(2, 0, 9);
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(2).get(10, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), journaledEntries(2));
+
+        // The entries are not pending anymore
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(2).get(10, TimeUnit.SECONDS));
+        verify(ledgerStorage, times(10)).getEntry(eq(2L), anyLong());
+    }
+
+    /**
+     * After a crash, the replay of the journal restores the forced entries, but not the entries which were only
+     * pending.
+     */
+    @Test
+    public void testReplayAfterCrash() throws Exception {
+        newWriter(TimeUnit.HOURS.toMillis(1));
+        addEntries(LEDGER_ID, 0, 9);
+        assertEquals(BookieProtocol.EOK, (int) forceLedger(LEDGER_ID).get(10, TimeUnit.SECONDS));
+        addEntries(LEDGER_ID, 10, 14);
+        writer.shutdown();
+        journal.shutdown();
+
+        journal = new Journal(0, journalDir, conf, ledgerDirsManager);
+        List<Long> replayed = Collections.synchronizedList(new ArrayList<>());
+        new JournalReplayer(conf, Collections.singletonList(journal), (journalVersion, offset, entry) -> {
+            if (entry.getLong(entry.position()) == LEDGER_ID) {
+                replayed.add(entry.getLong(entry.position() + 8));
+            }
+        }, new BookieStats(NullStatsLogger.INSTANCE, 1, conf.getJournalQueueSize()), mock(StateManager.class))
+            .replay();
+        assertEquals(entryIds(0, 9), replayed);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link DirectIOFileChannel} and its aligned file channel.
+ */
+public class DirectIOFileChannelTest {
+
+    private static final int ALIGNMENT = DirectIOFileChannel.ALIGNMENT;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private File file;
+    private DirectIOFileChannel channel;
+
+    @Before
+    public void setup() throws Exception {
+        conf = new ServerConfiguration();
+        // Buffer of 20KB, so that large writes take several rounds
+        conf.setJournalWriteBufferSizeKB(16);
+        file = new File(tmpDir.getRoot(), "journal");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private FileChannel openNative() throws IOException {
+        NativeIO nativeIO;
+        try {
+            nativeIO = new NativeIOImpl();
+            nativeIO.free(nativeIO.posix_memalign(ALIGNMENT, ALIGNMENT));
+        } catch (Throwable t) {
+            nativeIO = null;
+        }
+        assumeTrue("Native library not available", nativeIO != null);
+
+        channel = new DirectIOFileChannel(nativeIO, file, conf);
+        try {
+            return channel.getFileChannel();
+        } catch (IOException e) {
+            // O_DIRECT is not supported by all filesystems
+            assumeTrue("O_DIRECT not available: " + e.getMessage(), false);
+            throw e;
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private void checkFile(byte[] expected, int length) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        assertTrue(content.length >= length);
+        assertArrayEquals(Arrays.copyOf(expected, length), Arrays.copyOf(content, length));
+    }
+
+    @Test
+    public void testUnalignedWrites() throws Exception {
+        FileChannel fc = openNative();
+        Random random = new Random(1);
+        byte[] expected = new byte[200 * 1024];
+        int position = 0;
+        while (position < expected.length) {
+            // Mostly small writes, and some larger than the buffer
+            int size = Math.min(random.nextInt(10) == 0 ? 50 * 1024 : 1 + random.nextInt(3000),
+                                expected.length - position);
+            byte[] data = randomBytes(random, size);
+            System.arraycopy(data, 0, expected, position, size);
+            assertEquals(size, fc.write(ByteBuffer.wrap(data)));
+            position += size;
+            assertEquals(position, fc.position());
+        }
+        checkFile(expected, expected.length);
+
+        // Read back through the channel
+        fc.position(0);
+        ByteBuffer read = ByteBuffer.allocate(expected.length);
+        while (read.hasRemaining()) {
+            assertTrue(fc.read(read) > 0);
+        }
+        assertArrayEquals(expected, read.array());
+        assertEquals(-1, fc.read(ByteBuffer.allocate(10), DirectIOFileChannel.alignUp(expected.length)));
+    }
+
+    /**
+     * The last partial block is reused from memory by the next write, and read again from the file after anything
+     * else replaced it in the buffer.
+     */
+    @Test
+    public void testTailBlockReload() throws Exception {
+        FileChannel fc = openNative();
+        Random random = new Random(2);
+        byte[] expected = new byte[5 * ALIGNMENT];
+
+        byte[] first = randomBytes(random, 1000);
+        fc.write(ByteBuffer.wrap(first));
+        System.arraycopy(first, 0, expected, 0, 1000);
+
+        // Continues the tail block held in memory
+        byte[] second = randomBytes(random, 500);
+        fc.write(ByteBuffer.wrap(second));
+        System.arraycopy(second, 0, expected, 1000, 500);
+        checkFile(expected, 1500);
+
+        // A read replaces the buffer content, the next write must load the block from the file
+        ByteBuffer read = ByteBuffer.allocate(1500);
+        assertEquals(1500, fc.read(read, 0));
+        byte[] third = randomBytes(random, ALIGNMENT);
+        fc.write(ByteBuffer.wrap(third));
+        System.arraycopy(third, 0, expected, 1500, ALIGNMENT);
+        checkFile(expected, 1500 + ALIGNMENT);
+
+        // Overwrite in the middle of a block, keeping the data on both sides
+        byte[] middle = randomBytes(random, 100);
+        fc.write(ByteBuffer.wrap(middle), 700);
+        System.arraycopy(middle, 0, expected, 700, 100);
+        checkFile(expected, 1500 + ALIGNMENT);
+
+        // Writing at a different position than the tail block
+        byte[] far = randomBytes(random, 10);
+        fc.write(ByteBuffer.wrap(far), 4 * ALIGNMENT + 5);
+        System.arraycopy(far, 0, expected, 4 * ALIGNMENT + 5, 10);
+        checkFile(expected, 4 * ALIGNMENT + 15);
+    }
+
+    /**
+     * The size of the file includes the padding of the last block and the preallocated space, so it is not the
+     * logical size of the written data.
+     */
+    @Test
+    public void testSizeAndPreallocate() throws Exception {
+        FileChannel fc = openNative();
+        assertEquals(0, fc.size());
+
+        fc.write(ByteBuffer.wrap(new byte[5000]));
+        assertEquals(5000, fc.position());
+        assertEquals(DirectIOFileChannel.alignUp(5000), fc.size());
+
+        boolean preallocated = channel.preallocate(0, 1024 * 1024);
+        if (preallocated) {
+            assertEquals(1024 * 1024, fc.size());
+            assertEquals(1024 * 1024, file.length());
+        }
+        assertEquals(5000, fc.position());
+
+        // Preallocated space reads as zeros, and the data written before is kept
+        byte[] data = new byte[3000];
+        Arrays.fill(data, (byte) 7);
+        fc.write(ByteBuffer.wrap(data));
+        byte[] content = Files.readAllBytes(file.toPath());
+        for (int i = 0; i < 8000; i++) {
+            assertEquals("Byte " + i, i < 5000 ? 0 : 7, content[i]);
+        }
+        for (int i = 8000; i < content.length; i++) {
+            assertEquals("Byte " + i, 0, content[i]);
+        }
+    }
+
+    @Test
+    public void testPreallocateBeforeOpen() throws Exception {
+        channel = new DirectIOFileChannel(mock(NativeIO.class), file, conf);
+        try {
+            channel.preallocate(0, ALIGNMENT);
+            fail("The file channel is not open yet");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testPreallocateNotSupported() throws Exception {
+        NativeIO nativeIO = mock(NativeIO.class);
+        when(nativeIO.fallocate(anyInt(), anyInt(), anyLong(), anyLong()))
+            .thenThrow(new NativeIOException("Not supported", 95));
+        channel = new DirectIOFileChannel(nativeIO, file, conf);
+        channel.getFileChannel();
+        assertFalse(channel.preallocate(0, ALIGNMENT));
+    }
+
+    private FileChannel openWithPwriteResult(int result) throws IOException {
+        NativeIO nativeIO = mock(NativeIO.class);
+        when(nativeIO.pwrite(anyInt(), anyLong(), anyInt(), anyLong())).thenReturn(result);
+        when(nativeIO.pread(anyInt(), anyLong(), anyLong(), anyLong())).thenReturn(0L);
+        channel = new DirectIOFileChannel(nativeIO, file, conf);
+        return channel.getFileChannel();
+    }
+
+    @Test
+    public void testWriteWithoutProgress() throws Exception {
+        FileChannel fc = openWithPwriteResult(0);
+        try {
+            fc.write(ByteBuffer.wrap(new byte[100]));
+            fail("A write without progress must fail instead of looping");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testUnalignedShortWrite() throws Exception {
+        FileChannel fc = openWithPwriteResult(100);
+        try {
+            fc.write(ByteBuffer.wrap(new byte[2 * ALIGNMENT]));
+            fail("The rest of an unaligned short write can't be written with O_DIRECT");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testPreallocateNotSupportedInDirectory() throws Exception {
+        NativeIO nativeIO = mock(NativeIO.class);
+        when(nativeIO.fallocate(anyInt(), anyInt(), anyLong(), anyLong()))
+            .thenThrow(new NativeIOException("Not supported", 95));
+        AtomicBoolean useFallocate = new AtomicBoolean(true);
+        channel = new DirectIOFileChannel(nativeIO, file, conf, useFallocate);
+        channel.getFileChannel();
+        assertFalse(channel.preallocate(0, ALIGNMENT));
+        channel.close();
+
+        // Not tried again in the same directory
+        channel = new DirectIOFileChannel(nativeIO, file, conf, useFallocate);
+        channel.getFileChannel();
+        assertFalse(channel.preallocate(0, ALIGNMENT));
+        verify(nativeIO, times(1)).fallocate(anyInt(), anyInt(), anyLong(), anyLong());
+        channel.close();
+
+        // Still tried by the channels of another directory
+        channel = new DirectIOFileChannel(nativeIO, file, conf);
+        channel.getFileChannel();
+        assertFalse(channel.preallocate(0, ALIGNMENT));
+        verify(nativeIO, times(2)).fallocate(anyInt(), anyInt(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testAlignedBufferWrittenAsIs() throws Exception {
+        NativeIO nativeIO = mock(NativeIO.class);
+        when(nativeIO.pwrite(anyInt(), anyLong(), anyInt(), anyLong()))
+            .thenAnswer(invocation -> invocation.getArgument(2));
+        channel = new DirectIOFileChannel(nativeIO, file, conf);
+        FileChannel fc = channel.getFileChannel();
+
+        ByteBuf buf = DirectIOFileChannel.alignedAllocator(PooledByteBufAllocator.DEFAULT).directBuffer(2 * ALIGNMENT);
+        try {
+            assertEquals(0, buf.memoryAddress() % ALIGNMENT);
+            buf.writeZero(2 * ALIGNMENT);
+            fc.position(ALIGNMENT);
+            assertEquals(2 * ALIGNMENT, fc.write(buf.nioBuffer()));
+            assertEquals(3 * ALIGNMENT, fc.position());
+            // Straight from the memory of the buffer, nothing read first
+            verify(nativeIO).pwrite(anyInt(), eq(buf.memoryAddress()), eq(2 * ALIGNMENT), eq((long) ALIGNMENT));
+            verify(nativeIO, never()).pread(anyInt(), anyLong(), anyLong(), anyLong());
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void testTruncateAndTransferTo() throws Exception {
+        FileChannel fc = openNative();
+        byte[] expected = randomBytes(new Random(3), 3 * ALIGNMENT + 100);
+        fc.write(ByteBuffer.wrap(expected));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(5000, fc.transferTo(100, 5000, Channels.newChannel(out)));
+        assertArrayEquals(Arrays.copyOfRange(expected, 100, 5100), out.toByteArray());
+        // Up to the end of the file only, which includes the padding of the last block
+        out.reset();
+        assertEquals(ALIGNMENT, fc.transferTo(3 * ALIGNMENT, 5000, Channels.newChannel(out)));
+        assertArrayEquals(Arrays.copyOfRange(expected, 3 * ALIGNMENT, expected.length),
+                          Arrays.copyOf(out.toByteArray(), 100));
+
+        assertEquals(fc, fc.truncate(ALIGNMENT + 10));
+        assertEquals(ALIGNMENT + 10, fc.size());
+        assertEquals(ALIGNMENT + 10, fc.position());
+        checkFile(expected, ALIGNMENT + 10);
+        // Not extended by a larger size
+        fc.truncate(2 * ALIGNMENT);
+        assertEquals(ALIGNMENT + 10, fc.size());
+    }
+}
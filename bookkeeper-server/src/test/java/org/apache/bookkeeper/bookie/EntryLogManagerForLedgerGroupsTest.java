@@ -0,0 +1,224 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link EntryLogManagerForLedgerGroups}.
+ */
+public class EntryLogManagerForLedgerGroupsTest {
+
+    private static final long HOUR_SECS = 3600;
+    private static final long DAY_SECS = 86400;
+    // Groups of the ledgers up to an hour, up to a day, above a day, and without a retention hint
+    private static final int DEFAULT_GROUP = 3;
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private LedgerManager ledgerManager;
+    private final Map<Long, CompletableFuture<Versioned<LedgerMetadata>>> metadataReads = new HashMap<>();
+    private DefaultEntryLogger entryLogger;
+
+    @Before
+    public void setup() throws Exception {
+        File ledgerDir = tempDir.newFolder("ledgers");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        conf = new ServerConfiguration();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        conf.setEntryLogPerLedgerEnabled(true);
+        conf.setEntryLogLedgerGroupRetentionBoundariesSecs(HOUR_SECS, DAY_SECS);
+
+        ledgerManager = mock(LedgerManager.class);
+        when(ledgerManager.readLedgerMetadata(anyLong())).thenAnswer(invocation ->
+                metadataReads.computeIfAbsent(invocation.getArgument(0), id -> new CompletableFuture<>()));
+    }
+
+    @After
+    public void teardown() {
+        if (entryLogger != null) {
+            entryLogger.close();
+        }
+    }
+
+    private EntryLogManagerForLedgerGroups newEntryLogManager(LedgerManager ledgerManager) throws Exception {
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        entryLogger = new DefaultEntryLogger(conf, ledgerDirsManager, null, NullStatsLogger.INSTANCE,
+                UnpooledByteBufAllocator.DEFAULT, ledgerManager);
+        assertTrue(entryLogger.getEntryLogManager() instanceof EntryLogManagerForLedgerGroups);
+        return (EntryLogManagerForLedgerGroups) entryLogger.getEntryLogManager();
+    }
+
+    private static long groupKey(int group) {
+        return Long.MIN_VALUE + group;
+    }
+
+    private static Versioned<LedgerMetadata> newMetadata(String retentionHint) {
+        LedgerMetadata metadata = mock(LedgerMetadata.class);
+        Map<String, byte[]> customMetadata = retentionHint == null
+                ? Collections.emptyMap()
+                : Collections.singletonMap("retentionSecs", retentionHint.getBytes(UTF_8));
+        when(metadata.getCustomMetadata()).thenReturn(customMetadata);
+        return new Versioned<>(metadata, new LongVersion(1));
+    }
+
+    private void setRetentionHint(long ledgerId, String retentionHint) {
+        metadataReads.computeIfAbsent(ledgerId, id -> new CompletableFuture<>()).complete(newMetadata(retentionHint));
+    }
+
+    private static ByteBuf newEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(64);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeBytes(("entry-" + ledgerId + "-" + entryId).getBytes(UTF_8));
+        return entry;
+    }
+
+    @Test
+    public void testRetentionGroups() throws Exception {
+        setRetentionHint(1L, "60");
+        setRetentionHint(2L, Long.toString(HOUR_SECS));
+        setRetentionHint(3L, Long.toString(HOUR_SECS + 1));
+        setRetentionHint(4L, Long.toString(DAY_SECS));
+        setRetentionHint(5L, Long.toString(DAY_SECS * 30));
+        setRetentionHint(6L, null);
+        setRetentionHint(7L, " 120 ");
+        setRetentionHint(8L, "one day");
+        EntryLogManagerForLedgerGroups manager = newEntryLogManager(ledgerManager);
+
+        assertEquals(groupKey(0), manager.getGroupKey(1L));
+        assertEquals(groupKey(0), manager.getGroupKey(2L));
+        assertEquals(groupKey(1), manager.getGroupKey(3L));
+        assertEquals(groupKey(1), manager.getGroupKey(4L));
+        assertEquals(groupKey(2), manager.getGroupKey(5L));
+        assertEquals(groupKey(DEFAULT_GROUP), manager.getGroupKey(6L));
+        assertEquals(groupKey(0), manager.getGroupKey(7L));
+        assertEquals(groupKey(DEFAULT_GROUP), manager.getGroupKey(8L));
+    }
+
+    @Test
+    public void testGroupKeysMapToThemselves() throws Exception {
+        EntryLogManagerForLedgerGroups manager = newEntryLogManager(ledgerManager);
+        for (int group = 0; group <= DEFAULT_GROUP; group++) {
+            assertEquals(groupKey(group), manager.getGroupKey(groupKey(group)));
+        }
+        assertEquals(EntryLogger.UNASSIGNED_LEDGERID, manager.getGroupKey(EntryLogger.UNASSIGNED_LEDGERID));
+        verify(ledgerManager, times(0)).readLedgerMetadata(anyLong());
+    }
+
+    /**
+     * A ledger is written to the default group until its metadata is read, and the metadata is read once.
+     */
+    @Test
+    public void testDefaultGroupUntilHintRead() throws Exception {
+        EntryLogManagerForLedgerGroups manager = newEntryLogManager(ledgerManager);
+        assertEquals(groupKey(DEFAULT_GROUP), manager.getGroupKey(1L));
+        assertEquals(groupKey(DEFAULT_GROUP), manager.getGroupKey(1L));
+
+        setRetentionHint(1L, "60");
+        assertEquals(groupKey(0), manager.getGroupKey(1L));
+        verify(ledgerManager, times(1)).readLedgerMetadata(1L);
+    }
+
+    @Test
+    public void testMetadataReadFailure() throws Exception {
+        CompletableFuture<Versioned<LedgerMetadata>> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new BKException.BKNoSuchLedgerExistsOnMetadataServerException());
+        metadataReads.put(1L, failed);
+        EntryLogManagerForLedgerGroups manager = newEntryLogManager(ledgerManager);
+        assertEquals(groupKey(DEFAULT_GROUP), manager.getGroupKey(1L));
+        verify(ledgerManager, times(1)).readLedgerMetadata(1L);
+    }
+
+    @Test
+    public void testNoLedgerManager() throws Exception {
+        EntryLogManagerForLedgerGroups manager = newEntryLogManager(null);
+        assertEquals(groupKey(DEFAULT_GROUP), manager.getGroupKey(1L));
+        assertEquals(groupKey(DEFAULT_GROUP), manager.getGroupKey(2L));
+    }
+
+    /**
+     * The ledgers of a group share its entry log, and their entries are read back with their own ledger id.
+     */
+    @Test
+    public void testLedgersShareEntryLogOfGroup() throws Exception {
+        setRetentionHint(1L, "60");
+        setRetentionHint(2L, "600");
+        setRetentionHint(3L, Long.toString(DAY_SECS));
+        setRetentionHint(4L, null);
+        newEntryLogManager(ledgerManager);
+
+        Map<Long, Long> locations = new HashMap<>();
+        for (long ledgerId = 1; ledgerId <= 4; ledgerId++) {
+            locations.put(ledgerId, entryLogger.addEntry(ledgerId, newEntry(ledgerId, 0L)));
+        }
+        long logId1 = DefaultEntryLogger.logIdForOffset(locations.get(1L));
+        assertEquals(logId1, DefaultEntryLogger.logIdForOffset(locations.get(2L)));
+        assertNotEquals(logId1, DefaultEntryLogger.logIdForOffset(locations.get(3L)));
+        assertNotEquals(logId1, DefaultEntryLogger.logIdForOffset(locations.get(4L)));
+        assertNotEquals(DefaultEntryLogger.logIdForOffset(locations.get(3L)),
+                DefaultEntryLogger.logIdForOffset(locations.get(4L)));
+
+        entryLogger.flush();
+        for (long ledgerId = 1; ledgerId <= 4; ledgerId++) {
+            ByteBuf entry = entryLogger.readEntry(ledgerId, 0L, locations.get(ledgerId));
+            try {
+                assertEquals(newEntry(ledgerId, 0L), entry);
+            } finally {
+                entry.release();
+            }
+        }
+    }
+}
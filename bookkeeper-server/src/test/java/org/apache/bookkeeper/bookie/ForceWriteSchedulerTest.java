@@ -0,0 +1,186 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ForceWriteScheduler}.
+ */
+public class ForceWriteSchedulerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    private static long timedAcquire(ForceWriteScheduler scheduler, long[] group) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        group[0] = scheduler.acquire();
+        return System.nanoTime() - startNanos;
+    }
+
+    @Test
+    public void testNoWaitWhenIdle() throws Exception {
+        ForceWriteScheduler scheduler = new ForceWriteScheduler(TimeUnit.SECONDS.toNanos(10));
+        long[] group = new long[1];
+        assertTrue(timedAcquire(scheduler, group) < TimeUnit.SECONDS.toNanos(1));
+        scheduler.release(group[0], 1000);
+        assertTrue(timedAcquire(scheduler, group) < TimeUnit.SECONDS.toNanos(1));
+        scheduler.release(group[0], 1000);
+    }
+
+    /**
+     * The force writes requested while a group is syncing are issued together once it completes, rather than one
+     * after the other.
+     */
+    @Test
+    public void testConcurrentForceWritesGrouped() throws Exception {
+        final int numWaiters = 4;
+        ForceWriteScheduler scheduler = new ForceWriteScheduler(TimeUnit.SECONDS.toNanos(30));
+        long first = scheduler.acquire();
+
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch allInProgress = new CountDownLatch(numWaiters);
+        CountDownLatch releaseGroup = new CountDownLatch(1);
+        List<Future<?>> waiters = new ArrayList<>();
+        for (int i = 0; i < numWaiters; i++) {
+            waiters.add(executor.submit(() -> {
+                long group = scheduler.acquire();
+                acquired.incrementAndGet();
+                allInProgress.countDown();
+                // Hold the force write until all the group is in progress
+                releaseGroup.await();
+                scheduler.release(group, 1000);
+                return null;
+            }));
+        }
+
+        // The waiters don't proceed while the first force write is syncing
+        Thread.sleep(200);
+        assertEquals(0, acquired.get());
+
+        scheduler.release(first, 1000);
+        // All the waiters are in progress at the same time
+        assertTrue(allInProgress.await(10, TimeUnit.SECONDS));
+        assertEquals(numWaiters, acquired.get());
+
+        // A new force write waits for the group to complete
+        Future<Long> next = executor.submit(() -> {
+            long[] group = new long[1];
+            long waited = timedAcquire(scheduler, group);
+            scheduler.release(group[0], 1000);
+            return waited;
+        });
+        Thread.sleep(200);
+        assertFalse(next.isDone());
+
+        releaseGroup.countDown();
+        for (Future<?> waiter : waiters) {
+            waiter.get(10, TimeUnit.SECONDS);
+        }
+        assertTrue(next.get(10, TimeUnit.SECONDS) >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    /**
+     * A force write doesn't wait past the latency target, minus the fsync latency.
+     */
+    @Test
+    public void testWaitBoundedByLatencyTarget() throws Exception {
+        ForceWriteScheduler scheduler = new ForceWriteScheduler(TimeUnit.MILLISECONDS.toNanos(300));
+        scheduler.release(scheduler.acquire(), TimeUnit.MILLISECONDS.toNanos(100));
+
+        // Group in progress that never completes
+        scheduler.acquire();
+        long waited = executor.submit(() -> timedAcquire(scheduler, new long[1])).get(10, TimeUnit.SECONDS);
+        assertTrue("Waited " + waited, waited >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertTrue("Waited " + waited, waited < TimeUnit.MILLISECONDS.toNanos(300));
+    }
+
+    /**
+     * A force write which gave up waiting joins the next group, rather than the group in progress, which completes
+     * without waiting for it.
+     */
+    @Test
+    public void testTimedOutForceWriteJoinsNextGroup() throws Exception {
+        ForceWriteScheduler scheduler = new ForceWriteScheduler(TimeUnit.SECONDS.toNanos(1));
+        // Slow fsyncs, so that a force write waits for 200ms at most
+        scheduler.release(scheduler.acquire(), TimeUnit.MILLISECONDS.toNanos(800));
+        long first = scheduler.acquire();
+        long late = executor.submit(() -> scheduler.acquire()).get(10, TimeUnit.SECONDS);
+        assertEquals(first + 1, late);
+
+        // The first group completes while the late force write is still syncing
+        scheduler.release(first, TimeUnit.MILLISECONDS.toNanos(800));
+        Future<Long> next = executor.submit(() -> scheduler.acquire());
+        Thread.sleep(100);
+        assertFalse(next.isDone());
+
+        // The late force write completes its group, which lets the next one start
+        scheduler.release(late, TimeUnit.MILLISECONDS.toNanos(800));
+        assertEquals(late + 1, (long) next.get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * With several journals syncing continuously, the fsyncs of the groups overlap all the time: a force write still
+     * only waits for the group in progress, rather than for the latency target.
+     */
+    @Test
+    public void testWaitBoundedWithOverlappingJournals() throws Exception {
+        final int numJournals = 4;
+        final int numSyncs = 50;
+        final long fsyncNanos = TimeUnit.MILLISECONDS.toNanos(2);
+        ForceWriteScheduler scheduler = new ForceWriteScheduler(TimeUnit.SECONDS.toNanos(10));
+
+        List<Future<Long>> journals = new ArrayList<>();
+        for (int i = 0; i < numJournals; i++) {
+            journals.add(executor.submit(() -> {
+                long maxWait = 0;
+                long[] group = new long[1];
+                for (int j = 0; j < numSyncs; j++) {
+                    maxWait = Math.max(maxWait, timedAcquire(scheduler, group));
+                    TimeUnit.NANOSECONDS.sleep(fsyncNanos);
+                    scheduler.release(group[0], fsyncNanos);
+                }
+                return maxWait;
+            }));
+        }
+        for (Future<Long> journal : journals) {
+            long maxWait = journal.get(30, TimeUnit.SECONDS);
+            assertTrue("Waited " + maxWait, maxWait < TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link GarbageCollectorThread}.
+ */
+public class GarbageCollectorThreadTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private GarbageCollectorThread gcThread;
+
+    @After
+    public void teardown() throws Exception {
+        if (gcThread != null) {
+            gcThread.shutdown();
+        }
+        executor.shutdownNow();
+    }
+
+    private static ServerConfiguration newServerConfiguration() {
+        ServerConfiguration conf = new ServerConfiguration();
+        // The bookie id is resolved by the garbage collector
+        conf.setAllowLoopback(true);
+        return conf;
+    }
+
+    private GarbageCollectorThread newGarbageCollectorThread(ServerConfiguration conf) throws Exception {
+        gcThread = new GarbageCollectorThread(conf, mock(LedgerManager.class), mock(LedgerDirsManager.class),
+                mock(CompactableLedgerStorage.class), mock(EntryLogger.class), NullStatsLogger.INSTANCE,
+                mock(ScheduledExecutorService.class));
+        return gcThread;
+    }
+
+    private static EntryLogMetadata newEntryLogMetadata(long logId, long totalSize, long remainingSize) {
+        EntryLogMetadata meta = new EntryLogMetadata(logId);
+        meta.addLedgerSize(1L, remainingSize);
+        meta.addLedgerSize(2L, totalSize - remainingSize);
+        meta.removeLedgerIf(ledgerId -> ledgerId == 2L);
+        return meta;
+    }
+
+    private static void addEntryLogs(GarbageCollectorThread gcThread, int numEntryLogs) throws Exception {
+        for (long logId = 1; logId <= numEntryLogs; logId++) {
+            gcThread.getEntryLogMetaMap().put(logId, newEntryLogMetadata(logId, 100, 10));
+        }
+    }
+
+    /**
+     * Compactor blocking until released, recording the entry logs compacted and the number of compactions running
+     * at the same time.
+     */
+    private static class BlockingCompactor extends AbstractLogCompactor {
+        final Set<Long> compacted = ConcurrentHashMap.newKeySet();
+        final List<Long> order = Collections.synchronizedList(new ArrayList<>());
+        final Map<Long, String> workers = new ConcurrentHashMap<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch started;
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingCompactor(ServerConfiguration conf, int expectedStarted) {
+            super(conf, logId -> {});
+            this.started = new CountDownLatch(expectedStarted);
+        }
+
+        @Override
+        public boolean compact(EntryLogMetadata entryLogMeta) {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                workers.put(entryLogMeta.getEntryLogId(), Thread.currentThread().getName());
+                order.add(entryLogMeta.getEntryLogId());
+                started.countDown();
+                release.await();
+                compacted.add(entryLogMeta.getEntryLogId());
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    private static long sum(Map<String, Long> counts) {
+        return counts.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Test
+    public void testParallelCompaction() throws Exception {
+        final int numThreads = 3;
+        final int numEntryLogs = 7;
+        ServerConfiguration conf = newServerConfiguration();
+        conf.setCompactionThreads(numThreads);
+        GarbageCollectorThread gc = newGarbageCollectorThread(conf);
+        BlockingCompactor compactor = new BlockingCompactor(conf, numThreads);
+        gc.compactor = compactor;
+        addEntryLogs(gc, numEntryLogs);
+
+        Future<?> compaction = executor.submit(() -> {
+            gc.doCompactEntryLogs(0.5, 0);
+            return null;
+        });
+
+        // All the workers compact an entry log at the same time
+        assertTrue(compactor.started.await(10, TimeUnit.SECONDS));
+        assertEquals(numThreads, compactor.running.get());
+        assertTrue(gc.compacting.get());
+        Map<String, Long> compacting = gc.getGarbageCollectionStatus().getCompactingEntryLogs();
+        assertEquals(numThreads, compacting.size());
+        for (Map.Entry<String, Long> e : compacting.entrySet()) {
+            assertEquals(e.getKey(), compactor.workers.get(e.getValue()));
+            assertTrue(e.getKey().startsWith("GarbageCollectorCompaction"));
+        }
+
+        // No more than one entry log per worker
+        Thread.sleep(200);
+        assertEquals(numThreads, compactor.running.get());
+        assertFalse(compaction.isDone());
+
+        compactor.release.countDown();
+        compaction.get(10, TimeUnit.SECONDS);
+
+        assertEquals(numEntryLogs, compactor.compacted.size());
+        assertEquals(numThreads, compactor.maxRunning.get());
+        assertFalse(gc.compacting.get());
+        GarbageCollectionStatus status = gc.getGarbageCollectionStatus();
+        assertTrue(status.getCompactingEntryLogs().isEmpty());
+        assertEquals(numEntryLogs, sum(status.getCompactedEntryLogs()));
+    }
+
+    @Test
+    public void testSingleThreadCompaction() throws Exception {
+        final int numEntryLogs = 4;
+        ServerConfiguration conf = newServerConfiguration();
+        conf.setCompactionThreads(1);
+        GarbageCollectorThread gc = newGarbageCollectorThread(conf);
+        BlockingCompactor compactor = new BlockingCompactor(conf, 1);
+        compactor.release.countDown();
+        gc.compactor = compactor;
+        addEntryLogs(gc, numEntryLogs);
+
+        gc.doCompactEntryLogs(0.5, 0);
+
+        assertEquals(numEntryLogs, compactor.compacted.size());
+        assertEquals(1, compactor.maxRunning.get());
+        String gcThreadName = Thread.currentThread().getName();
+        for (String worker : compactor.workers.values()) {
+            assertEquals(gcThreadName, worker);
+        }
+        Map<String, Long> compacted = gc.getGarbageCollectionStatus().getCompactedEntryLogs();
+        assertEquals(1, compacted.size());
+        assertEquals(numEntryLogs, (long) compacted.get(gcThreadName));
+        assertFalse(gc.compacting.get());
+    }
+
+    /**
+     * The transactional compactor writes to a single compaction log, the compaction threads are ignored.
+     */
+    @Test
+    public void testTransactionalCompactionSingleThread() throws Exception {
+        final int numEntryLogs = 4;
+        ServerConfiguration conf = newServerConfiguration();
+        conf.setCompactionThreads(4);
+        conf.setUseTransactionalCompaction(true);
+        GarbageCollectorThread gc = newGarbageCollectorThread(conf);
+        BlockingCompactor compactor = new BlockingCompactor(conf, 1);
+        compactor.release.countDown();
+        gc.compactor = compactor;
+        addEntryLogs(gc, numEntryLogs);
+
+        gc.doCompactEntryLogs(0.5, 0);
+
+        assertEquals(numEntryLogs, compactor.compacted.size());
+        assertEquals(1, compactor.maxRunning.get());
+        for (String worker : compactor.workers.values()) {
+            assertEquals(Thread.currentThread().getName(), worker);
+        }
+    }
+
+    @Test
+    public void testEntryLogsAboveThresholdNotCompacted() throws Exception {
+        ServerConfiguration conf = newServerConfiguration();
+        conf.setCompactionThreads(2);
+        GarbageCollectorThread gc = newGarbageCollectorThread(conf);
+        BlockingCompactor compactor = new BlockingCompactor(conf, 1);
+        compactor.release.countDown();
+        gc.compactor = compactor;
+        addEntryLogs(gc, 2);
+        EntryLogMetadata full = new EntryLogMetadata(3L);
+        full.addLedgerSize(1L, 100);
+        gc.getEntryLogMetaMap().put(3L, full);
+
+        gc.doCompactEntryLogs(0.5, 0);
+
+        assertEquals(2, compactor.compacted.size());
+        assertFalse(compactor.compacted.contains(3L));
+    }
+
+    /**
+     * Shutdown waits for the running workers, and no more entry log is compacted once it started.
+     */
+    @Test
+    public void testShutdownWaitsForWorkers() throws Exception {
+        final int numThreads = 2;
+        ServerConfiguration conf = newServerConfiguration();
+        conf.setCompactionThreads(numThreads);
+        GarbageCollectorThread gc = newGarbageCollectorThread(conf);
+        BlockingCompactor compactor = new BlockingCompactor(conf, numThreads);
+        gc.compactor = compactor;
+        addEntryLogs(gc, 8);
+
+        Future<?> compaction = executor.submit(() -> {
+            gc.doCompactEntryLogs(0.5, 0);
+            return null;
+        });
+        assertTrue(compactor.started.await(10, TimeUnit.SECONDS));
+
+        Future<?> shutdown = executor.submit(() -> {
+            gc.shutdown();
+            return null;
+        });
+        Thread.sleep(300);
+        assertFalse(shutdown.isDone());
+
+        compactor.release.countDown();
+        compaction.get(10, TimeUnit.SECONDS);
+        shutdown.get(10, TimeUnit.SECONDS);
+        gcThread = null;
+
+        // The GC thread may already be waiting for a worker with the next entry log when the shutdown starts
+        assertTrue(compactor.compacted.size() <= numThreads + 1);
+        assertEquals(numThreads, compactor.maxRunning.get());
+    }
+
+    /**
+     * The entry logs are compacted in the order selected by the configured policy, within its budget.
+     */
+    @Test
+    public void testCompactionPolicy() throws Exception {
+        ServerConfiguration conf = newServerConfiguration();
+        conf.setCompactionPolicyClass(CostBenefitCompactionPolicy.class);
+        conf.setCompactionIoBudgetBytes(150);
+        GarbageCollectorThread gc = newGarbageCollectorThread(conf);
+        BlockingCompactor compactor = new BlockingCompactor(conf, 1);
+        compactor.release.countDown();
+        gc.compactor = compactor;
+        // The usage buckets would compact 3 and 1 before 2
+        gc.getEntryLogMetaMap().put(3L, newEntryLogMetadata(3L, 100, 10));
+        gc.getEntryLogMetaMap().put(2L, newEntryLogMetadata(2L, 1000, 200));
+        gc.getEntryLogMetaMap().put(1L, newEntryLogMetadata(1L, 1000, 100));
+
+        gc.doCompactEntryLogs(0.5, 0);
+
+        // 2 ranks before 3 but copies more than left in the budget
+        assertEquals(Arrays.asList(1L, 3L), compactor.order);
+    }
+}
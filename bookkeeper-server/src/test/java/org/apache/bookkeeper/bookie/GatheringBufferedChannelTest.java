@@ -0,0 +1,207 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link GatheringBufferedChannel}.
+ */
+public class GatheringBufferedChannelTest {
+
+    private static final int CAPACITY = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private final Random random = new Random(1);
+    private final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    private final List<ByteBuf> retained = new ArrayList<>();
+    private File file;
+    private RandomAccessFile raf;
+    private GatheringBufferedChannel channel;
+
+    @Before
+    public void setup() throws Exception {
+        file = tmpDir.newFile();
+        raf = new RandomAccessFile(file, "rw");
+        channel = new GatheringBufferedChannel(ByteBufAllocator.DEFAULT, raf.getChannel(), CAPACITY);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        channel.close();
+        raf.close();
+        retained.forEach(ByteBuf::release);
+    }
+
+    private ByteBuf newBuffer(int size, boolean direct) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        expected.write(data, 0, size);
+        ByteBuf buf = direct ? Unpooled.directBuffer(size) : Unpooled.buffer(size);
+        buf.writeBytes(data);
+        return buf;
+    }
+
+    /**
+     * Write a buffer which is retained by the channel, keeping it to check its reference count.
+     */
+    private ByteBuf writeRetained(int size) throws Exception {
+        ByteBuf buf = newBuffer(size, true);
+        channel.writeRetained(buf);
+        retained.add(buf);
+        return buf;
+    }
+
+    private void writeCopied(int size, boolean direct) throws Exception {
+        ByteBuf buf = newBuffer(size, direct);
+        channel.writeRetained(buf);
+        assertEquals(1, buf.refCnt());
+        buf.release();
+    }
+
+    private void checkFile() throws Exception {
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testWriteOrdering() throws Exception {
+        writeCopied(100, true);
+        ByteBuf first = writeRetained(4096);
+        // Small and heap buffers are copied in the write buffer
+        writeCopied(10, true);
+        writeCopied(2048, false);
+        ByteBuf second = writeRetained(GatheringBufferedChannel.MIN_RETAINED_SIZE);
+        ByteBuf third = writeRetained(100 * 1024);
+        writeCopied(500, true);
+
+        int size = expected.size();
+        assertEquals(size, channel.position());
+        assertEquals(size, channel.getNumOfBytesInWriteBuffer());
+        assertEquals(0, channel.getFileChannelPosition());
+        // The channel holds a reference until the flush
+        assertEquals(2, first.refCnt());
+        assertEquals(2, second.refCnt());
+        assertEquals(2, third.refCnt());
+        // The caller still owns its reader index
+        assertEquals(0, first.readerIndex());
+
+        channel.flush();
+        checkFile();
+        assertEquals(size, channel.position());
+        assertEquals(size, channel.getFileChannelPosition());
+        assertEquals(0, channel.getNumOfBytesInWriteBuffer());
+        assertEquals(1, first.refCnt());
+        assertEquals(1, second.refCnt());
+        assertEquals(1, third.refCnt());
+
+        // And again after the flush
+        writeCopied(10, true);
+        writeRetained(2000);
+        writeCopied(20, true);
+        channel.flush();
+        checkFile();
+        assertEquals(expected.size(), channel.getFileChannelPosition());
+    }
+
+    @Test
+    public void testCopiedWritesFillingBuffer() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            if (random.nextBoolean()) {
+                writeRetained(GatheringBufferedChannel.MIN_RETAINED_SIZE + random.nextInt(10000));
+            } else {
+                // Fills the write buffer on the way, flushing the retained buffers before it
+                int size = random.nextInt(10000);
+                writeCopied(size, size < GatheringBufferedChannel.MIN_RETAINED_SIZE);
+            }
+            assertEquals(expected.size(), channel.position());
+        }
+        channel.flush();
+        checkFile();
+        for (ByteBuf buf : retained) {
+            assertEquals(1, buf.refCnt());
+        }
+    }
+
+    @Test
+    public void testFlushOnMaxSegments() throws Exception {
+        // Each retained buffer follows a segment of the write buffer
+        for (int i = 0; i < GatheringBufferedChannel.MAX_SEGMENTS / 2; i++) {
+            writeCopied(1, true);
+            writeRetained(GatheringBufferedChannel.MIN_RETAINED_SIZE);
+        }
+        // The gathering write is issued before going past the maximum number of segments
+        assertEquals(expected.size(), channel.getFileChannelPosition());
+        assertEquals(0, channel.getNumOfBytesInWriteBuffer());
+        checkFile();
+        for (ByteBuf buf : retained) {
+            assertEquals(1, buf.refCnt());
+        }
+    }
+
+    @Test
+    public void testReadFlushes() throws Exception {
+        writeCopied(100, true);
+        writeRetained(4096);
+        writeCopied(100, true);
+
+        ByteBuf dest = Unpooled.buffer(expected.size());
+        assertEquals(expected.size(), channel.read(dest, 0, expected.size()));
+        assertArrayEquals(expected.toByteArray(), dest.array());
+        assertEquals(1, retained.get(0).refCnt());
+        checkFile();
+        dest.release();
+    }
+
+    @Test
+    public void testClearReleases() throws Exception {
+        ByteBuf buf = writeRetained(4096);
+        assertEquals(2, buf.refCnt());
+        channel.clear();
+        assertEquals(1, buf.refCnt());
+        assertEquals(0, channel.getNumOfBytesInWriteBuffer());
+    }
+
+    @Test
+    public void testCloseReleases() throws Exception {
+        ByteBuf buf = writeRetained(4096);
+        channel.close();
+        assertEquals(1, buf.refCnt());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link JournalGroupWaitController}.
+ */
+public class JournalGroupWaitControllerTest {
+
+    private static final long INTERVAL = JournalGroupWaitController.UPDATE_INTERVAL_NANOS;
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private long now;
+
+    /**
+     * A controller with a target of 10ms and a fsync latency of 1ms, so a maximum window of 8ms, updated for the
+     * first time at {@link #now}.
+     */
+    private JournalGroupWaitController newController(long groupWaitNanos) {
+        JournalGroupWaitController controller = new JournalGroupWaitController(10 * MS, groupWaitNanos, 100,
+                512 * 1024);
+        controller.recordFsyncLatency(MS);
+        now = System.nanoTime() + INTERVAL;
+        assertTrue(controller.update(now));
+        return controller;
+    }
+
+    private boolean update(JournalGroupWaitController controller) {
+        now += INTERVAL;
+        return controller.update(now);
+    }
+
+    private static void recordAdds(JournalGroupWaitController controller, int fast, int slow) {
+        for (int i = 0; i < fast; i++) {
+            controller.recordAddLatency(5 * MS);
+        }
+        for (int i = 0; i < slow; i++) {
+            controller.recordAddLatency(20 * MS);
+        }
+    }
+
+    @Test
+    public void testInitialWindowBounded() {
+        JournalGroupWaitController controller = new JournalGroupWaitController(10 * MS, 100 * MS, 100, 1024);
+        assertEquals(10 * MS, controller.getGroupWaitNanos());
+        assertEquals(100, controller.getBufferedEntriesThreshold());
+        assertEquals(1024, controller.getBufferedWritesThreshold());
+
+        controller = new JournalGroupWaitController(10 * MS, 0, 100, 1024);
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(50), controller.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testUpdateInterval() {
+        JournalGroupWaitController controller = newController(MS);
+        long wait = controller.getGroupWaitNanos();
+        assertFalse(controller.update(now + INTERVAL - 1));
+        assertEquals(wait, controller.getGroupWaitNanos());
+        assertTrue(controller.update(now + INTERVAL));
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        JournalGroupWaitController controller = newController(0);
+        long wait = controller.getGroupWaitNanos();
+        // Increases by an eighth of the maximum window, up to the maximum window
+        for (int i = 0; i < 10; i++) {
+            recordAdds(controller, 100, 1);
+            assertTrue(update(controller));
+            wait = Math.min(8 * MS, wait + MS);
+            assertEquals(wait, controller.getGroupWaitNanos());
+        }
+        assertEquals(8 * MS, controller.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() {
+        JournalGroupWaitController controller = newController(8 * MS);
+        // More than 1% of the adds above the target
+        recordAdds(controller, 100, 2);
+        assertTrue(update(controller));
+        assertEquals(4 * MS, controller.getGroupWaitNanos());
+        recordAdds(controller, 0, 1);
+        assertTrue(update(controller));
+        assertEquals(2 * MS, controller.getGroupWaitNanos());
+
+        // Doesn't go below the minimum window
+        for (int i = 0; i < 20; i++) {
+            recordAdds(controller, 0, 1);
+            update(controller);
+        }
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(50), controller.getGroupWaitNanos());
+
+        // Increases again once the adds meet the target
+        recordAdds(controller, 100, 0);
+        assertTrue(update(controller));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(50) + MS, controller.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testWindowBoundedByFsyncLatency() {
+        JournalGroupWaitController controller = newController(8 * MS);
+        // The fsync latency moves towards 3ms, so the maximum window towards 4ms
+        for (int i = 0; i < 100; i++) {
+            controller.recordFsyncLatency(3 * MS);
+        }
+        assertTrue(update(controller));
+        assertEquals(4 * MS, controller.getGroupWaitNanos(), 10);
+
+        // A fsync slower than half the target leaves the minimum window
+        for (int i = 0; i < 100; i++) {
+            controller.recordFsyncLatency(6 * MS);
+        }
+        assertTrue(update(controller));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(50), controller.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testThresholds() {
+        JournalGroupWaitController controller = newController(0);
+        // The entries and bytes added during the window, at the rate of the last interval
+        for (int i = 0; i < 10000; i++) {
+            controller.recordAdd(100);
+        }
+        assertTrue(update(controller));
+        long wait = controller.getGroupWaitNanos();
+        assertEquals(10000 * wait / INTERVAL, controller.getBufferedEntriesThreshold());
+        assertEquals((long) (10000.0 * 100 * wait / INTERVAL), controller.getBufferedWritesThreshold());
+
+        // Without adds, at least one entry and 4KB
+        assertTrue(update(controller));
+        assertEquals(1, controller.getBufferedEntriesThreshold());
+        assertEquals(4096, controller.getBufferedWritesThreshold());
+
+        // No more than 16MB, while 1000MB per interval make 20MB or more in a window above 2ms
+        for (int i = 0; i < 1000; i++) {
+            controller.recordAdd(1024 * 1024);
+        }
+        assertTrue(update(controller));
+        assertTrue(controller.getGroupWaitNanos() >= 2 * MS);
+        assertEquals(16 * 1024 * 1024, controller.getBufferedWritesThreshold());
+    }
+}
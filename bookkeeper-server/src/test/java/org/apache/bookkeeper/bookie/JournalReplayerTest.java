@@ -0,0 +1,273 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.bookie.stats.BookieStats;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link JournalReplayer}.
+ */
+public class JournalReplayerTest {
+
+    private static final int NUM_LEDGERS = 10;
+    private static final int ENTRIES_PER_LEDGER = 200;
+    private static final int ENTRY_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private File journalDir;
+    private LedgerDirsManager ledgerDirsManager;
+    private final List<Journal> journals = new ArrayList<>();
+
+    // Records of each ledger, in the order they are written to the journal
+    private final Map<Long, List<Long>> written = new ConcurrentHashMap<>();
+
+    @Before
+    public void setup() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        journalDir = tmpDir.newFolder("journal");
+
+        conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerDirNames(new String[] { ledgerDir.getPath() });
+        conf.setJournalDirName(journalDir.getPath());
+        // Several journal files
+        conf.setMaxJournalSizeMB(1);
+        conf.setJournalRemovePagesFromCache(false);
+        ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+    }
+
+    @After
+    public void teardown() {
+        for (Journal journal : journals) {
+            journal.shutdown();
+        }
+    }
+
+    private Journal newJournal() {
+        Journal journal = new Journal(0, journalDir, conf, ledgerDirsManager);
+        journals.add(journal);
+        return journal;
+    }
+
+    private static ByteBuf record(long ledgerId, long entryId) {
+        ByteBuf buf = Unpooled.buffer(ENTRY_SIZE);
+        buf.writeLong(ledgerId);
+        buf.writeLong(entryId);
+        buf.writerIndex(ENTRY_SIZE);
+        return buf;
+    }
+
+    /**
+     * Write the records of the ledgers interleaved, each ledger with a key record first, an explicit LAC record in
+     * the middle and a fence record at the end.
+     */
+    private void writeJournal() throws Exception {
+        List<long[]> records = new ArrayList<>();
+        for (long entryId = 0; entryId < ENTRIES_PER_LEDGER; entryId++) {
+            for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+                if (entryId == 0) {
+                    records.add(new long[] { ledgerId, BookieImpl.METAENTRY_ID_LEDGER_KEY });
+                }
+                records.add(new long[] { ledgerId, entryId });
+                if (entryId == ENTRIES_PER_LEDGER / 2) {
+                    records.add(new long[] { ledgerId, BookieImpl.METAENTRY_ID_LEDGER_EXPLICITLAC });
+                }
+                if (entryId == ENTRIES_PER_LEDGER - 1) {
+                    records.add(new long[] { ledgerId, BookieImpl.METAENTRY_ID_FENCE_KEY });
+                }
+            }
+        }
+
+        Journal journal = new Journal(0, journalDir, conf, ledgerDirsManager);
+        journal.start();
+        CountDownLatch latch = new CountDownLatch(records.size());
+        AtomicInteger rc = new AtomicInteger(BookieProtocol.EOK);
+        for (long[] r : records) {
+            written.computeIfAbsent(r[0], k -> Collections.synchronizedList(new ArrayList<>())).add(r[1]);
+            ByteBuf buf = record(r[0], r[1]);
+            journal.logAddEntry(buf, false, (rc1, ledgerId, entryId, addr, ctx) -> {
+                rc.compareAndSet(BookieProtocol.EOK, rc1);
+                latch.countDown();
+            }, null);
+            buf.release();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(BookieProtocol.EOK, rc.get());
+        journal.shutdown();
+
+        assertTrue("Expected several journal files", Journal.listJournalIds(journalDir, null).size() > 1);
+    }
+
+    /**
+     * Scanner recording the records of each ledger in the order they are replayed.
+     */
+    private static class RecordingScanner implements JournalScanner {
+        final Map<Long, List<Long>> replayed = new ConcurrentHashMap<>();
+        final Map<Long, Long> failOn = new ConcurrentHashMap<>();
+
+        @Override
+        public void process(int journalVersion, long offset, ByteBuffer entry) throws IOException {
+            long ledgerId = entry.getLong(entry.position());
+            long entryId = entry.getLong(entry.position() + 8);
+            assertEquals(ENTRY_SIZE, entry.remaining());
+            Long failEntryId = failOn.get(ledgerId);
+            if (failEntryId != null && failEntryId == entryId) {
+                throw new IOException("Failed to replay entry " + entryId + " of ledger " + ledgerId);
+            }
+            // Several replay threads don't process the same ledger concurrently
+            replayed.computeIfAbsent(ledgerId, k -> new ArrayList<>()).add(entryId);
+        }
+    }
+
+    private void testReplay(int replayThreads) throws Exception {
+        conf.setJournalReplayThreads(replayThreads);
+        writeJournal();
+
+        Journal journal = newJournal();
+        assertEquals(0, journal.getLastLogMark().getCurMark().getLogFileId());
+        RecordingScanner scanner = new RecordingScanner();
+        StateManager stateManager = mock(StateManager.class);
+        new JournalReplayer(conf, Collections.singletonList(journal), scanner,
+                new BookieStats(NullStatsLogger.INSTANCE, 1, conf.getJournalQueueSize()), stateManager).replay();
+
+        assertEquals(written.keySet(), scanner.replayed.keySet());
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            assertEquals("Records of ledger " + ledgerId, written.get(ledgerId), scanner.replayed.get(ledgerId));
+        }
+        verify(stateManager, atLeastOnce()).setJournalReplayProgress(100);
+
+        // The log mark is at the end of the last journal file
+        List<Long> logs = Journal.listJournalIds(journalDir, null);
+        LogMark mark = journal.getLastLogMark().getCurMark();
+        assertEquals((long) logs.get(logs.size() - 1), mark.getLogFileId());
+        assertTrue(mark.getLogFileOffset() > 0);
+    }
+
+    @Test
+    public void testReplayOnScanThread() throws Exception {
+        testReplay(0);
+    }
+
+    @Test
+    public void testReplayOnSingleThread() throws Exception {
+        testReplay(1);
+    }
+
+    @Test
+    public void testReplayOnSeveralThreads() throws Exception {
+        testReplay(4);
+    }
+
+    private void testReplayFailure(int replayThreads) throws Exception {
+        conf.setJournalReplayThreads(replayThreads);
+        writeJournal();
+        List<Long> logs = Journal.listJournalIds(journalDir, null);
+
+        // The last record written is in the last journal file
+        Journal journal = newJournal();
+        RecordingScanner scanner = new RecordingScanner();
+        scanner.failOn.put(NUM_LEDGERS - 1L, BookieImpl.METAENTRY_ID_FENCE_KEY);
+        try {
+            new JournalReplayer(conf, Collections.singletonList(journal), scanner,
+                    new BookieStats(NullStatsLogger.INSTANCE, 1, conf.getJournalQueueSize()),
+                    mock(StateManager.class)).replay();
+            fail("The replay should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // The log mark is past the fully replayed files only
+        LogMark mark = journal.getLastLogMark().getCurMark();
+        assertEquals((long) logs.get(logs.size() - 2), mark.getLogFileId());
+        assertTrue(mark.getLogFileOffset() > 0);
+    }
+
+    @Test
+    public void testReplayFailureOnScanThread() throws Exception {
+        testReplayFailure(0);
+    }
+
+    @Test
+    public void testReplayFailureOnSeveralThreads() throws Exception {
+        testReplayFailure(4);
+    }
+
+    @Test
+    public void testShortRecordOnSeveralThreads() throws Exception {
+        conf.setJournalReplayThreads(4);
+        Journal journal = new Journal(0, journalDir, conf, ledgerDirsManager);
+        journal.start();
+        CountDownLatch latch = new CountDownLatch(2);
+        ByteBuf buf = record(1, 0);
+        journal.logAddEntry(buf, false, (rc, ledgerId, entryId, addr, ctx) -> latch.countDown(), null);
+        buf.release();
+        // Too short to hold a ledger id
+        buf = Unpooled.buffer(4).writeInt(0);
+        journal.logAddEntry(1, 1, buf, false, (rc, ledgerId, entryId, addr, ctx) -> latch.countDown(), null);
+        buf.release();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        journal.shutdown();
+
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        new JournalReplayer(conf, Collections.singletonList(newJournal()),
+                (journalVersion, offset, entry) -> sizes.add(entry.remaining()),
+                new BookieStats(NullStatsLogger.INSTANCE, 1, conf.getJournalQueueSize()),
+                mock(StateManager.class)).replay();
+        Collections.sort(sizes);
+        assertEquals(Arrays.asList(4, ENTRY_SIZE), sizes);
+    }
+}
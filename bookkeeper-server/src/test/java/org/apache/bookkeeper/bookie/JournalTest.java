@@ -0,0 +1,396 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.BookieException.JournalThrottledException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link Journal}.
+ */
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private File journalDir;
+    private Journal journal;
+
+    @Before
+    public void setup() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        journalDir = tmpDir.newFolder("journal");
+
+        conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerDirNames(new String[] { ledgerDir.getPath() });
+        conf.setJournalDirName(journalDir.getPath());
+        conf.setJournalRemovePagesFromCache(false);
+    }
+
+    @After
+    public void teardown() {
+        if (journal != null) {
+            journal.shutdown();
+        }
+    }
+
+    private Journal newJournal() throws Exception {
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        journal = new Journal(0, journalDir, conf, ledgerDirsManager);
+        return journal;
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId, int size) {
+        ByteBuf buf = Unpooled.buffer(size);
+        buf.writeLong(ledgerId);
+        buf.writeLong(entryId);
+        buf.writerIndex(size);
+        return buf;
+    }
+
+    private static void logAddEntry(Journal journal, long ledgerId, long entryId, int size, CountDownLatch latch)
+            throws Exception {
+        ByteBuf buf = entry(ledgerId, entryId, size);
+        journal.logAddEntry(buf, false, (rc, ledgerId1, entryId1, addr, ctx) -> latch.countDown(), null);
+        buf.release();
+    }
+
+    @Test
+    public void testMemoryBackpressure() throws Exception {
+        conf.setJournalMaxMemorySizeMb(1);
+        conf.setJournalMemoryBackpressure(true);
+        Journal journal = newJournal();
+
+        // Queued while the journal thread is not running yet
+        CountDownLatch latch = new CountDownLatch(2);
+        logAddEntry(journal, 1, 0, 600 * 1024, latch);
+        journal.checkMemoryAvailable();
+        logAddEntry(journal, 1, 1, 600 * 1024, latch);
+
+        CompletableFuture<Void> memoryAvailable = null;
+        try {
+            journal.checkMemoryAvailable();
+            fail("The journal memory budget is exhausted");
+        } catch (JournalThrottledException e) {
+            memoryAvailable = e.getMemoryAvailable();
+        }
+        assertFalse(memoryAvailable.isDone());
+        // The adds rejected meanwhile wait for the same signal
+        try {
+            journal.checkMemoryAvailable();
+            fail("The journal memory budget is exhausted");
+        } catch (JournalThrottledException e) {
+            assertSame(memoryAvailable, e.getMemoryAvailable());
+        }
+
+        // Signaled once the journal thread drained the queue
+        journal.start();
+        memoryAvailable.get(10, TimeUnit.SECONDS);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        journal.checkMemoryAvailable();
+    }
+
+    @Test
+    public void testMemoryBackpressureDisabled() throws Exception {
+        conf.setJournalMaxMemorySizeMb(1);
+        Journal journal = newJournal();
+
+        CountDownLatch latch = new CountDownLatch(2);
+        logAddEntry(journal, 1, 0, 600 * 1024, latch);
+        logAddEntry(journal, 1, 1, 600 * 1024, latch);
+        // The adds block in logAddEntry instead
+        journal.checkMemoryAvailable();
+
+        journal.start();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMemoryReleasedAfterZeroCopyWrites() throws Exception {
+        conf.setJournalZeroCopyWrites(true);
+        Journal journal = newJournal();
+        journal.start();
+
+        CountDownLatch latch = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            logAddEntry(journal, 1, i, 64 * 1024, latch);
+        }
+        // The entries are acknowledged only once flushed, the memory they retained is released by then
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(0, journal.getMemoryUsage());
+    }
+
+    /**
+     * Write the entries of ledger 1 in the given number of batches, each batch in one block or more.
+     *
+     * @return the ids of the entries written
+     */
+    private List<Long> writeBatches(int numBatches) throws Exception {
+        Journal journal = newJournal();
+        journal.start();
+        List<Long> entryIds = new ArrayList<>();
+        long entryId = 0;
+        for (int i = 0; i < numBatches; i++) {
+            CountDownLatch latch = new CountDownLatch(10);
+            for (int j = 0; j < 10; j++) {
+                ByteBuf buf = entry(1, entryId, 1024);
+                journal.logAddEntry(buf, false, (rc, ledgerId, entryId1, addr, ctx) -> latch.countDown(), null);
+                buf.release();
+                entryIds.add(entryId++);
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+        journal.shutdown();
+        return entryIds;
+    }
+
+    private long journalId() {
+        List<Long> logs = Journal.listJournalIds(journalDir, null);
+        assertEquals(1, logs.size());
+        return logs.get(0);
+    }
+
+    private File journalFile() {
+        return new File(journalDir, Long.toHexString(journalId()) + ".txn");
+    }
+
+    /**
+     * @return the offset, the flags and the size of the blocks of the journal file
+     */
+    private List<int[]> blocks() throws IOException {
+        List<int[]> blocks = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "r")) {
+            long position = JournalChannel.HEADER_SIZE;
+            while (position + 8 <= file.length()) {
+                file.seek(position);
+                int len = file.readInt();
+                if (len == Journal.PADDING_MASK) {
+                    position += 8 + file.readInt();
+                } else if (len == JournalBlock.BLOCK_MASK) {
+                    int flags = file.readInt();
+                    // log id, sequence and records length
+                    file.skipBytes(16);
+                    int payloadLength = file.readInt();
+                    blocks.add(new int[] { (int) position, flags, JournalBlock.HEADER_SIZE + payloadLength });
+                    position += JournalBlock.HEADER_SIZE + payloadLength;
+                } else {
+                    break;
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Flip a byte of the payload of a block.
+     */
+    private void corruptBlock(int[] block) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            long position = block[0] + JournalBlock.HEADER_SIZE + 10;
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xff);
+        }
+    }
+
+    /**
+     * Overwrite the journal file from the given offset with the given range of another file.
+     */
+    private void copyBlocks(File from, int start, int end, int offset) throws IOException {
+        byte[] bytes = new byte[end - start];
+        try (RandomAccessFile file = new RandomAccessFile(from, "r")) {
+            file.seek(start);
+            file.readFully(bytes);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            file.seek(offset);
+            file.write(bytes);
+        }
+    }
+
+    private List<Long> scan(boolean skipInvalidRecord) throws Exception {
+        Journal journal = newJournal();
+        List<Long> entryIds = new ArrayList<>();
+        journal.scanJournal(journalId(), 0, (journalVersion, offset, entry) -> {
+            assertEquals(JournalChannel.V7, journalVersion);
+            assertEquals(1024, entry.remaining());
+            assertEquals(1, entry.getLong(entry.position()));
+            entryIds.add(entry.getLong(entry.position() + 8));
+        }, skipInvalidRecord);
+        return entryIds;
+    }
+
+    private void testBlocksRoundTrip(boolean compression) throws Exception {
+        conf.setJournalFormatVersionToWrite(JournalChannel.V7);
+        conf.setJournalBlockFormatEnabled(true);
+        conf.setJournalBlockCompression(compression);
+        List<Long> entryIds = writeBatches(5);
+
+        List<int[]> blocks = blocks();
+        assertTrue(blocks.size() >= 5);
+        for (int[] block : blocks) {
+            assertEquals(compression, (block[1] & JournalBlock.FLAG_COMPRESSED) != 0);
+        }
+        assertEquals(entryIds, scan(false));
+    }
+
+    @Test
+    public void testBlocks() throws Exception {
+        testBlocksRoundTrip(false);
+    }
+
+    @Test
+    public void testCompressedBlocks() throws Exception {
+        testBlocksRoundTrip(true);
+    }
+
+    @Test
+    public void testTornTailBlock() throws Exception {
+        conf.setJournalFormatVersionToWrite(JournalChannel.V7);
+        conf.setJournalBlockFormatEnabled(true);
+        conf.setJournalBlockCompression(true);
+        List<Long> entryIds = writeBatches(5);
+        List<int[]> blocks = blocks();
+        corruptBlock(blocks.get(blocks.size() - 1));
+
+        // The entries of the torn block are lost, where the bookie left off writing
+        List<Long> scanned = scan(false);
+        assertFalse(scanned.isEmpty());
+        assertEquals(entryIds.subList(0, scanned.size()), scanned);
+        assertTrue(scanned.size() < entryIds.size());
+    }
+
+    @Test
+    public void testCorruptedMiddleBlock() throws Exception {
+        conf.setJournalFormatVersionToWrite(JournalChannel.V7);
+        conf.setJournalBlockFormatEnabled(true);
+        conf.setJournalBlockCompression(false);
+        List<Long> entryIds = writeBatches(5);
+        List<int[]> blocks = blocks();
+        corruptBlock(blocks.get(1));
+
+        try {
+            scan(false);
+            fail("The corrupted block is not at the tail of the journal");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // Only the entries of the corrupted block are skipped, the following blocks are still replayed
+        List<Long> scanned = scan(true);
+        assertTrue(scanned.size() < entryIds.size());
+        int skipped = entryIds.size() - scanned.size();
+        int firstSkipped = 0;
+        while (scanned.get(firstSkipped).equals(entryIds.get(firstSkipped))) {
+            firstSkipped++;
+        }
+        assertTrue(firstSkipped > 0);
+        assertEquals(entryIds.subList(0, firstSkipped), scanned.subList(0, firstSkipped));
+        assertEquals(entryIds.subList(firstSkipped + skipped, entryIds.size()),
+                scanned.subList(firstSkipped, scanned.size()));
+    }
+
+    @Test
+    public void testDirectIOBlocks() throws Exception {
+        try {
+            new NativeIOImpl().free(new NativeIOImpl().posix_memalign(4096, 4096));
+        } catch (Throwable t) {
+            assumeTrue("Native library not available", false);
+        }
+        conf.setJournalChannelProvider(DirectIOFileChannelProvider.class.getName());
+        // The write buffers are then written without being copied
+        conf.setJournalAlignmentSize(DirectIOFileChannel.ALIGNMENT);
+        conf.setJournalFormatVersionToWrite(JournalChannel.V7);
+        conf.setJournalBlockFormatEnabled(true);
+        List<Long> entryIds = writeBatches(5);
+        assertEquals(entryIds, scan(false));
+    }
+
+    @Test
+    public void testBlockFormatDisabled() throws Exception {
+        conf.setJournalFormatVersionToWrite(JournalChannel.V7);
+        writeBatches(1);
+
+        JournalChannel channel = new JournalChannel(journalDir, journalId());
+        try {
+            assertEquals(JournalChannel.V6, channel.getFormatVersion());
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testStaleBlocksOfReusedFile() throws Exception {
+        conf.setJournalFormatVersionToWrite(JournalChannel.V7);
+        conf.setJournalBlockFormatEnabled(true);
+        writeBatches(5);
+        File previous = tmpDir.newFile();
+        Files.copy(journalFile().toPath(), previous.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        List<int[]> previousBlocks = blocks();
+        assertTrue(journalFile().delete());
+
+        List<Long> entryIds = writeBatches(2);
+        List<int[]> blocks = blocks();
+        int[] last = blocks.get(blocks.size() - 1);
+        // A reused file still holds the blocks of its longer previous journal past the end of the new one
+        int[] previousLast = previousBlocks.get(previousBlocks.size() - 1);
+        copyBlocks(previous, previousBlocks.get(blocks.size())[0], previousLast[0] + previousLast[2],
+                last[0] + last[2]);
+        assertEquals(entryIds, scan(false));
+
+        // Neither are they taken for the blocks following a torn one
+        corruptBlock(last);
+        List<Long> scanned = scan(false);
+        assertEquals(entryIds.subList(0, scanned.size()), scanned);
+        assertTrue(scanned.size() < entryIds.size());
+    }
+}
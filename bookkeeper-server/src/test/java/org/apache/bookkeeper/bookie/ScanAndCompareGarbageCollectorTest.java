@@ -0,0 +1,316 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRange;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ScanAndCompareGarbageCollector}.
+ */
+public class ScanAndCompareGarbageCollectorTest {
+
+    private ServerConfiguration conf;
+    private LedgerManager ledgerManager;
+    private CompactableLedgerStorage ledgerStorage;
+    // Ledgers of the bookie and of the metadata store
+    private final NavigableSet<Long> bookieLedgers = new ConcurrentSkipListSet<>();
+    private final NavigableSet<Long> metadataLedgers = new ConcurrentSkipListSet<>();
+    private final Map<Long, LedgerMetadataListener> listeners = new HashMap<>();
+    private final List<Long> cleaned = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setGcIncrementalEnabled(true);
+
+        ledgerStorage = mock(CompactableLedgerStorage.class);
+        when(ledgerStorage.getActiveLedgersInRange(anyLong(), anyLong()))
+                .thenAnswer(invocation -> new TreeSet<>(bookieLedgers));
+
+        ledgerManager = mock(LedgerManager.class);
+        doAnswer(invocation -> {
+            listeners.put(invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(ledgerManager).registerLedgerMetadataListener(anyLong(), any(LedgerMetadataListener.class));
+        doAnswer(invocation -> {
+            listeners.remove((long) invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(ledgerManager).unregisterLedgerMetadataListener(anyLong(), any(LedgerMetadataListener.class));
+        when(ledgerManager.getLedgerRanges(anyLong())).thenAnswer(invocation -> newLedgerRangeIterator());
+        when(ledgerManager.readLedgerMetadata(anyLong())).thenAnswer(invocation -> {
+            CompletableFuture<Versioned<LedgerMetadata>> future = new CompletableFuture<>();
+            if (metadataLedgers.contains((long) invocation.getArgument(0))) {
+                future.complete(new Versioned<>(mock(LedgerMetadata.class), new LongVersion(1)));
+            } else {
+                future.completeExceptionally(new BKException.BKNoSuchLedgerExistsOnMetadataServerException());
+            }
+            return future;
+        });
+    }
+
+    private LedgerRangeIterator newLedgerRangeIterator() {
+        return new LedgerRangeIterator() {
+            private boolean hasNext = !metadataLedgers.isEmpty();
+
+            @Override
+            public boolean hasNext() {
+                return hasNext;
+            }
+
+            @Override
+            public LedgerRange next() {
+                hasNext = false;
+                return new LedgerRange(new TreeSet<>(metadataLedgers));
+            }
+        };
+    }
+
+    private void addLedgers(Long... ledgerIds) {
+        bookieLedgers.addAll(Arrays.asList(ledgerIds));
+        metadataLedgers.addAll(Arrays.asList(ledgerIds));
+    }
+
+    /**
+     * Delete the metadata of a ledger, notifying the watch of the bookie.
+     */
+    private void deleteLedger(long ledgerId) {
+        metadataLedgers.remove(ledgerId);
+        LedgerMetadataListener listener = listeners.get(ledgerId);
+        if (listener != null) {
+            listener.onChanged(ledgerId, null);
+        }
+    }
+
+    private void gc(ScanAndCompareGarbageCollector collector) {
+        cleaned.clear();
+        collector.gc(ledgerId -> {
+            cleaned.add(ledgerId);
+            bookieLedgers.remove(ledgerId);
+        });
+    }
+
+    @Test
+    public void testFullScanAtFirstRun() throws Exception {
+        addLedgers(1L, 2L, 3L);
+        bookieLedgers.add(4L);
+        ScanAndCompareGarbageCollector collector =
+                new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE);
+
+        gc(collector);
+
+        verify(ledgerManager, times(1)).getLedgerRanges(anyLong());
+        assertEquals(Collections.singletonList(4L), cleaned);
+        assertEquals(new TreeSet<>(Arrays.asList(1L, 2L, 3L, 4L)), listeners.keySet());
+
+        // The watch of the collected ledger is dropped at the next run
+        gc(collector);
+        assertEquals(new TreeSet<>(Arrays.asList(1L, 2L, 3L)), listeners.keySet());
+    }
+
+    @Test
+    public void testDeletedLedgersCollectedWithoutScan() throws Exception {
+        addLedgers(1L, 2L, 3L);
+        ScanAndCompareGarbageCollector collector =
+                new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE);
+        gc(collector);
+        assertTrue(cleaned.isEmpty());
+
+        deleteLedger(2L);
+        // A metadata update does not collect the ledger
+        listeners.get(3L).onChanged(3L, new Versioned<>(mock(LedgerMetadata.class), new LongVersion(2)));
+        gc(collector);
+        assertEquals(Collections.singletonList(2L), cleaned);
+
+        gc(collector);
+        assertTrue(cleaned.isEmpty());
+        assertFalse(listeners.containsKey(2L));
+        verify(ledgerManager, times(1)).getLedgerRanges(anyLong());
+    }
+
+    @Test
+    public void testWatchNewLedgers() throws Exception {
+        addLedgers(1L);
+        ScanAndCompareGarbageCollector collector =
+                new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE);
+        gc(collector);
+
+        addLedgers(5L);
+        gc(collector);
+        assertTrue(listeners.containsKey(5L));
+        deleteLedger(5L);
+        gc(collector);
+        assertEquals(Collections.singletonList(5L), cleaned);
+        verify(ledgerManager, times(1)).registerLedgerMetadataListener(eq(5L), any());
+    }
+
+    /**
+     * The watch of a ledger deleted from the bookie by other means, like the over-replicated ledgers check, is
+     * dropped.
+     */
+    @Test
+    public void testUnwatchLedgersGoneFromBookie() throws Exception {
+        addLedgers(1L, 2L);
+        ScanAndCompareGarbageCollector collector =
+                new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE);
+        gc(collector);
+
+        bookieLedgers.remove(1L);
+        gc(collector);
+        assertEquals(Collections.singleton(2L), listeners.keySet());
+        verify(ledgerManager, times(1)).unregisterLedgerMetadataListener(anyLong(), any());
+        assertTrue(cleaned.isEmpty());
+    }
+
+    @Test
+    public void testVerifyMetadataOnGc() throws Exception {
+        conf.setVerifyMetadataOnGc(true);
+        addLedgers(1L, 2L);
+        ScanAndCompareGarbageCollector collector =
+                new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE);
+        gc(collector);
+
+        // A deletion notified while the metadata still exists is ignored
+        listeners.get(1L).onChanged(1L, null);
+        gc(collector);
+        assertTrue(cleaned.isEmpty());
+
+        // The verification failing is retried at the next run
+        CompletableFuture<Versioned<LedgerMetadata>> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new BKException.BKTimeoutException());
+        when(ledgerManager.readLedgerMetadata(2L)).thenReturn(failed);
+        deleteLedger(2L);
+        gc(collector);
+        assertTrue(cleaned.isEmpty());
+
+        CompletableFuture<Versioned<LedgerMetadata>> deleted = new CompletableFuture<>();
+        deleted.completeExceptionally(new BKException.BKNoSuchLedgerExistsOnMetadataServerException());
+        when(ledgerManager.readLedgerMetadata(2L)).thenReturn(deleted);
+        gc(collector);
+        assertEquals(Collections.singletonList(2L), cleaned);
+        verify(ledgerManager, times(1)).getLedgerRanges(anyLong());
+    }
+
+    /**
+     * The deletions missed by the watches, for example while the session was expired, are collected by the next
+     * full scan.
+     */
+    @Test
+    public void testFullScanReconciles() throws Exception {
+        conf.setGcFullScanIntervalMillis(200);
+        addLedgers(1L, 2L, 3L);
+        ScanAndCompareGarbageCollector collector =
+                new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE);
+        gc(collector);
+
+        // Deleted without notification
+        metadataLedgers.remove(2L);
+        gc(collector);
+        assertTrue(cleaned.isEmpty());
+        verify(ledgerManager, times(1)).getLedgerRanges(anyLong());
+
+        Thread.sleep(300);
+        gc(collector);
+        assertEquals(Collections.singletonList(2L), cleaned);
+        verify(ledgerManager, times(2)).getLedgerRanges(anyLong());
+    }
+
+    @Test
+    public void testScanWhenTooManyLedgersToWatch() throws Exception {
+        conf.setGcIncrementalMaxWatchedLedgers(3);
+        addLedgers(1L, 2L, 3L);
+        ScanAndCompareGarbageCollector collector =
+                new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE);
+        gc(collector);
+        assertEquals(3, listeners.size());
+
+        // Over the limit, the watches are dropped and each run scans the metadata store
+        addLedgers(4L);
+        gc(collector);
+        assertTrue(listeners.isEmpty());
+        verify(ledgerManager, times(2)).getLedgerRanges(anyLong());
+        metadataLedgers.remove(2L);
+        gc(collector);
+        assertEquals(Collections.singletonList(2L), cleaned);
+        verify(ledgerManager, times(3)).getLedgerRanges(anyLong());
+
+        // Back under the limit, the ledgers are watched again after a full scan
+        metadataLedgers.remove(3L);
+        gc(collector);
+        assertEquals(Collections.singletonList(3L), cleaned);
+        verify(ledgerManager, times(4)).getLedgerRanges(anyLong());
+        gc(collector);
+        assertEquals(new TreeSet<>(Arrays.asList(1L, 4L)), listeners.keySet());
+        deleteLedger(4L);
+        gc(collector);
+        assertEquals(Collections.singletonList(4L), cleaned);
+        verify(ledgerManager, times(4)).getLedgerRanges(anyLong());
+    }
+
+    @Test
+    public void testNoWatchWhenIncrementalDisabled() throws Exception {
+        conf.setGcIncrementalEnabled(false);
+        addLedgers(1L, 2L);
+        ScanAndCompareGarbageCollector collector =
+                new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE);
+        gc(collector);
+        metadataLedgers.remove(2L);
+        gc(collector);
+
+        assertEquals(Collections.singletonList(2L), cleaned);
+        verify(ledgerManager, times(2)).getLedgerRanges(anyLong());
+        verify(ledgerManager, never()).registerLedgerMetadataListener(anyLong(), any());
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.storage.EntryLogger.UNASSIGNED_LEDGERID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link TransactionalEntryLogCompactor}, copying the live entries with file transfers.
+ */
+public class TransactionalEntryLogCompactorTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private File ledgerDir;
+    private DefaultEntryLogger entryLogger;
+    // Location of the entries added to the entry log, by ledger id and entry id
+    private final Map<List<Long>, Long> locations = new HashMap<>();
+
+    @Before
+    public void setup() throws Exception {
+        ledgerDir = tempDir.newFolder("ledgers");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        conf = new ServerConfiguration();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        conf.setUseTransactionalCompaction(true);
+        conf.setCompactionZeroCopyEnabled(true);
+        entryLogger = new DefaultEntryLogger(conf, new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold())));
+    }
+
+    @After
+    public void teardown() {
+        entryLogger.close();
+    }
+
+    private static ByteBuf newEntry(long ledgerId, long entryId, int payloadSize) {
+        ByteBuf entry = Unpooled.buffer(16 + payloadSize);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        byte[] payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) (ledgerId * 31 + entryId));
+        entry.writeBytes(payload);
+        return entry;
+    }
+
+    private static int payloadSize(long ledgerId, long entryId) {
+        return 100 + (int) (ledgerId * 10 + entryId);
+    }
+
+    /**
+     * Size of an entry in the entry log, size header included.
+     */
+    private static int logSize(long ledgerId, long entryId) {
+        return 4 + 16 + payloadSize(ledgerId, entryId);
+    }
+
+    private long addEntry(long ledgerId, long entryId) throws IOException {
+        long location = entryLogger.addEntry(ledgerId, newEntry(ledgerId, entryId, payloadSize(ledgerId, entryId)));
+        locations.put(Arrays.asList(ledgerId, entryId), location);
+        return location;
+    }
+
+    /**
+     * Rotate the current entry log and flush it, so that it can be compacted.
+     */
+    private long rollLog(long location) throws IOException {
+        ((EntryLogManagerBase) entryLogger.getEntryLogManager()).createNewLog(UNASSIGNED_LEDGERID);
+        entryLogger.flush();
+        return DefaultEntryLogger.logIdForOffset(location);
+    }
+
+    /**
+     * Insert zero padding in the entry log file before the entry at the given location.
+     */
+    private void insertPadding(long entryLogId, long location, int paddingSize) throws IOException {
+        File logFile = new File(BookieImpl.getCurrentDirectory(ledgerDir), Long.toHexString(entryLogId) + ".log");
+        byte[] content = Files.readAllBytes(logFile.toPath());
+        int offset = (int) DefaultEntryLogger.posForOffset(location) - 4;
+        byte[] padded = new byte[content.length + paddingSize];
+        System.arraycopy(content, 0, padded, 0, offset);
+        System.arraycopy(content, offset, padded, offset + paddingSize, content.length - offset);
+        Files.write(logFile.toPath(), padded);
+    }
+
+    private void assertEntry(long ledgerId, long entryId, long location) throws Exception {
+        ByteBuf entry = entryLogger.readEntry(ledgerId, entryId, location);
+        try {
+            assertEquals(newEntry(ledgerId, entryId, payloadSize(ledgerId, entryId)), entry);
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Listener recording the runs and the transferred entries, copying the entries of the given ledgers.
+     */
+    private static class RecordingListener implements CompactionEntryLog.EntryTransferListener {
+        private final List<Long> liveLedgers;
+        final List<int[]> runs = new ArrayList<>();
+        final List<long[]> transferred = new ArrayList<>();
+
+        RecordingListener(Long... liveLedgers) {
+            this.liveLedgers = Arrays.asList(liveLedgers);
+        }
+
+        @Override
+        public boolean accept(long ledgerId) {
+            return liveLedgers.contains(ledgerId);
+        }
+
+        @Override
+        public void beforeTransfer(int entries, int length) {
+            runs.add(new int[] { entries, length });
+        }
+
+        @Override
+        public void transferred(long ledgerId, long entryId, long location) {
+            transferred.add(new long[] { ledgerId, entryId, location });
+        }
+    }
+
+    /**
+     * The runs of contiguous live entries end at the entries of the dead ledgers and at the padding, and the
+     * transferred entries are found at their relocated offsets once the compaction log is available.
+     */
+    @Test
+    public void testTransferRuns() throws Exception {
+        addEntry(1L, 0L);
+        addEntry(2L, 0L);
+        addEntry(3L, 0L);
+        addEntry(1L, 1L);
+        addEntry(1L, 2L);
+        long paddedLocation = addEntry(2L, 1L);
+        addEntry(3L, 1L);
+        addEntry(3L, 2L);
+        long logId = rollLog(addEntry(1L, 3L));
+        insertPadding(logId, paddedLocation, 8);
+
+        CompactionEntryLog compactionLog = entryLogger.newCompactionLog(logId);
+        RecordingListener listener = new RecordingListener(1L, 2L);
+        assertTrue(compactionLog.transferEntries(listener));
+
+        List<int[]> expectedRuns = Arrays.asList(
+                new int[] { 2, logSize(1L, 0L) + logSize(2L, 0L) },
+                new int[] { 2, logSize(1L, 1L) + logSize(1L, 2L) },
+                new int[] { 1, logSize(2L, 1L) },
+                new int[] { 1, logSize(1L, 3L) });
+        assertEquals(expectedRuns.size(), listener.runs.size());
+        for (int i = 0; i < expectedRuns.size(); i++) {
+            assertArrayEquals(expectedRuns.get(i), listener.runs.get(i));
+        }
+
+        // The runs are appended one after the other to the compaction log, each entry keeping its offset in its run
+        long[][] expectedEntries = { { 1L, 0L }, { 2L, 0L }, { 1L, 1L }, { 1L, 2L }, { 2L, 1L }, { 1L, 3L } };
+        assertEquals(expectedEntries.length, listener.transferred.size());
+        long pos = DefaultEntryLogger.LOGFILE_HEADER_SIZE;
+        for (int i = 0; i < expectedEntries.length; i++) {
+            long[] transferred = listener.transferred.get(i);
+            assertEquals(expectedEntries[i][0], transferred[0]);
+            assertEquals(expectedEntries[i][1], transferred[1]);
+            assertEquals(compactionLog.getDstLogId(), DefaultEntryLogger.logIdForOffset(transferred[2]));
+            assertEquals(pos + 4, DefaultEntryLogger.posForOffset(transferred[2]));
+            pos += logSize(transferred[0], transferred[1]);
+        }
+
+        compactionLog.flush();
+        compactionLog.markCompacted();
+        compactionLog.makeAvailable();
+        for (long[] transferred : listener.transferred) {
+            assertEntry(transferred[0], transferred[1], transferred[2]);
+        }
+        compactionLog.finalizeAndCleanup();
+    }
+
+    /**
+     * A run is split when it would copy more than {@link DefaultEntryLogger#MAX_COMPACTION_TRANSFER_SIZE} bytes.
+     */
+    @Test
+    public void testMaxTransferSize() throws Exception {
+        final int payloadSize = (int) (DefaultEntryLogger.MB * 3 / 2);
+        long location = 0;
+        for (long entryId = 0; entryId < 5; entryId++) {
+            location = entryLogger.addEntry(1L, newEntry(1L, entryId, payloadSize));
+        }
+        long logId = rollLog(location);
+
+        CompactionEntryLog compactionLog = entryLogger.newCompactionLog(logId);
+        RecordingListener listener = new RecordingListener(1L);
+        assertTrue(compactionLog.transferEntries(listener));
+
+        int entryLogSize = 4 + 16 + payloadSize;
+        assertEquals(3, listener.runs.size());
+        assertArrayEquals(new int[] { 2, 2 * entryLogSize }, listener.runs.get(0));
+        assertArrayEquals(new int[] { 2, 2 * entryLogSize }, listener.runs.get(1));
+        assertArrayEquals(new int[] { 1, entryLogSize }, listener.runs.get(2));
+        for (int[] run : listener.runs) {
+            assertTrue(run[1] <= DefaultEntryLogger.MAX_COMPACTION_TRANSFER_SIZE);
+        }
+        compactionLog.abort();
+    }
+
+    /**
+     * The entries of the log still being written may be in its write buffer, they are not transferred.
+     */
+    @Test
+    public void testNoTransferFromCurrentLog() throws Exception {
+        long logId = DefaultEntryLogger.logIdForOffset(addEntry(1L, 0L));
+        CompactionEntryLog compactionLog = entryLogger.newCompactionLog(logId);
+        RecordingListener listener = new RecordingListener(1L);
+        assertFalse(compactionLog.transferEntries(listener));
+        assertTrue(listener.runs.isEmpty());
+        compactionLog.abort();
+    }
+
+    @Test
+    public void testCompactWithTransfers() throws Exception {
+        addEntry(1L, 0L);
+        addEntry(3L, 0L);
+        addEntry(2L, 0L);
+        addEntry(2L, 1L);
+        addEntry(3L, 1L);
+        long logId = rollLog(addEntry(1L, 1L));
+
+        EntryLogMetadata metadata = new EntryLogMetadata(logId);
+        metadata.addLedgerSize(1L, logSize(1L, 0L) + logSize(1L, 1L));
+        metadata.addLedgerSize(2L, logSize(2L, 0L) + logSize(2L, 1L));
+
+        CompactableLedgerStorage ledgerStorage = mock(CompactableLedgerStorage.class);
+        List<EntryLocation> updatedLocations = new ArrayList<>();
+        doAnswer(invocation -> {
+            Iterable<EntryLocation> entryLocations = invocation.getArgument(0);
+            entryLocations.forEach(updatedLocations::add);
+            return null;
+        }).when(ledgerStorage).updateEntriesLocations(any());
+        List<Long> removedLogs = new ArrayList<>();
+        TransactionalEntryLogCompactor compactor =
+                new TransactionalEntryLogCompactor(conf, entryLogger, ledgerStorage, removedLogs::add);
+
+        assertTrue(compactor.compact(metadata));
+
+        assertEquals(4, updatedLocations.size());
+        for (EntryLocation entryLocation : updatedLocations) {
+            assertTrue(entryLocation.getLedger() == 1L || entryLocation.getLedger() == 2L);
+            assertTrue(DefaultEntryLogger.logIdForOffset(entryLocation.getLocation()) != logId);
+            assertEntry(entryLocation.getLedger(), entryLocation.getEntry(), entryLocation.getLocation());
+        }
+        assertEquals(Arrays.asList(logId), removedLogs);
+    }
+}
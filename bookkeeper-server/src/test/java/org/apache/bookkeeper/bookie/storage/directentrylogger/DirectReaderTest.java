@@ -0,0 +1,298 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+import org.apache.bookkeeper.slogger.Slogger;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Test the batched reads of {@link DirectReader}, which merge the reads of entries close to each other.
+ */
+public class DirectReaderTest {
+
+    private static final int LOG_ID = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_SANE_ENTRY_SIZE = 8 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private NativeIO nativeIO;
+    private ExecutorService writeExecutor;
+    private BufferPool bufferPool;
+    private IoRing writeRing;
+    private IoRing ioRing;
+    private File logFile;
+
+    @Before
+    public void setup() throws Exception {
+        try {
+            nativeIO = new NativeIOImpl();
+            nativeIO.free(nativeIO.posix_memalign(Buffer.ALIGNMENT, Buffer.ALIGNMENT));
+        } catch (Throwable t) {
+            nativeIO = null;
+        }
+        assumeTrue("Native library not available", nativeIO != null);
+
+        IoRing.enableUseIoUring();
+        writeExecutor = Executors.newSingleThreadExecutor();
+        bufferPool = new BufferPool(nativeIO, ByteBufAllocator.DEFAULT, WRITE_BUFFER_SIZE, 4);
+        writeRing = new IoRing(nativeIO, 16, Slogger.NULL);
+        // Batches go through pread when io_uring is not available, which still exercises the merging
+        ioRing = spy(new IoRing(nativeIO, 16, Slogger.NULL));
+        logFile = new File(tmpDir.getRoot(), "1.log");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (ioRing != null) {
+            ioRing.close();
+        }
+        if (writeRing != null) {
+            writeRing.close();
+        }
+        if (bufferPool != null) {
+            bufferPool.close();
+        }
+        if (writeExecutor != null) {
+            writeExecutor.shutdownNow();
+        }
+    }
+
+    private static ByteBuf entry(long entryId, int size) {
+        ByteBuf entry = Unpooled.buffer(size);
+        entry.writeLong(1L);
+        entry.writeLong(entryId);
+        while (entry.writableBytes() > 0) {
+            entry.writeByte((int) (entryId + entry.writerIndex()));
+        }
+        return entry;
+    }
+
+    /**
+     * Write the entries with the given sizes, with the given number of padding bytes before each entry.
+     *
+     * @return the offsets of the entries
+     */
+    private int[] writeLog(int[] sizes, int[] gaps) throws IOException {
+        int[] offsets = new int[sizes.length];
+        try (LogWriter writer = new DirectWriter(LOG_ID, logFile.getPath(), 64 * 1024 * 1024, writeExecutor, writeRing,
+                                                 bufferPool, nativeIO, Slogger.NULL)) {
+            for (int i = 0; i < sizes.length; i++) {
+                if (gaps != null && gaps[i] > 0) {
+                    // Skip ahead, to an aligned position
+                    long position = writer.position() + gaps[i];
+                    writer.position((position + Buffer.ALIGNMENT - 1) & ~(Buffer.ALIGNMENT - 1));
+                }
+                offsets[i] = writer.writeDelimited(entry(i, sizes[i]));
+            }
+            writer.flush();
+        }
+        return offsets;
+    }
+
+    private DirectReader newReader() throws IOException {
+        return new DirectReader(LOG_ID, logFile.getPath(), ByteBufAllocator.DEFAULT, nativeIO, ioRing, BUFFER_SIZE,
+                                MAX_SANE_ENTRY_SIZE, NullStatsLogger.INSTANCE.getOpStatsLogger("read-block"));
+    }
+
+    private static void checkEntries(List<ByteBuf> entries, int[] entryIds, int[] sizes) {
+        try {
+            assertEquals(entryIds.length, entries.size());
+            for (int i = 0; i < entryIds.length; i++) {
+                ByteBuf expected = entry(entryIds[i], sizes[entryIds[i]]);
+                assertEquals("Entry " + entryIds[i], expected, entries.get(i));
+                expected.release();
+            }
+        } finally {
+            entries.forEach(ByteBuf::release);
+        }
+    }
+
+    private static int[] range(int count) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+        }
+        return ids;
+    }
+
+    private static int[] select(int[] offsets, int[] ids) {
+        int[] selected = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selected[i] = offsets[ids[i]];
+        }
+        return selected;
+    }
+
+    /**
+     * @return the number of reads of each batch submitted to the ring
+     */
+    private List<Integer> submittedBatches() {
+        ArgumentCaptor<IoRing.Batch> batches = ArgumentCaptor.forClass(IoRing.Batch.class);
+        verify(ioRing, atLeastOnce()).submit(batches.capture());
+        List<Integer> sizes = new ArrayList<>();
+        for (IoRing.Batch batch : batches.getAllValues()) {
+            sizes.add(batch.size());
+        }
+        return sizes;
+    }
+
+    @Test
+    public void testConsecutiveEntriesMerged() throws Exception {
+        Random random = new Random(1);
+        int[] sizes = new int[200];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = 100 + random.nextInt(900);
+        }
+        int[] offsets = writeLog(sizes, null);
+
+        try (DirectReader reader = newReader()) {
+            checkEntries(reader.readEntriesAt(offsets), range(sizes.length), sizes);
+        }
+
+        // About 110KB of entries, in ranges of at most 64KB, all submitted in a single batch
+        List<Integer> batches = submittedBatches();
+        assertEquals(1, batches.size());
+        assertTrue("Ranges: " + batches.get(0), batches.get(0) >= 2 && batches.get(0) <= 4);
+    }
+
+    @Test
+    public void testSparseEntriesMerged() throws Exception {
+        int[] sizes = new int[100];
+        Arrays.fill(sizes, 200);
+        int[] offsets = writeLog(sizes, null);
+
+        // One entry out of 3, still close enough to be read together
+        int[] ids = new int[33];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i * 3;
+        }
+        try (DirectReader reader = newReader()) {
+            checkEntries(reader.readEntriesAt(select(offsets, ids)), ids, sizes);
+        }
+        assertEquals(1, (int) submittedBatches().get(0));
+    }
+
+    @Test
+    public void testEntriesFarApartNotMerged() throws Exception {
+        int[] sizes = { 500, 500, 500 };
+        int gap = DirectReader.MAX_MERGE_DISTANCE + Buffer.ALIGNMENT;
+        int[] offsets = writeLog(sizes, new int[] { 0, gap, gap });
+
+        try (DirectReader reader = newReader()) {
+            checkEntries(reader.readEntriesAt(offsets), range(sizes.length), sizes);
+        }
+        // Each entry is read on its own through the block buffer
+        verify(ioRing, never()).submit(any());
+    }
+
+    @Test
+    public void testWritesWithoutIoUring() throws Exception {
+        // io_uring disabled, the writes are not batched
+        writeRing.close();
+        writeRing = spy(new IoRing(nativeIO, 0, Slogger.NULL));
+        int[] sizes = new int[100];
+        Arrays.fill(sizes, 2000);
+        int[] offsets = writeLog(sizes, null);
+
+        try (DirectReader reader = newReader()) {
+            checkEntries(reader.readEntriesAt(offsets), range(sizes.length), sizes);
+        }
+        verify(writeRing, never()).submit(any());
+    }
+
+    /**
+     * An entry much larger than the estimated size of the entries of its range is read on its own.
+     */
+    @Test
+    public void testEntryLargerThanEstimate() throws Exception {
+        int[] sizes = { 100, 100, 100, 100, 30000, 100 };
+        int[] offsets = writeLog(sizes, null);
+
+        try (DirectReader reader = newReader()) {
+            checkEntries(reader.readEntriesAt(offsets), range(sizes.length), sizes);
+            checkEntries(reader.readEntriesAt(select(offsets, new int[] { 2, 3, 4 })), new int[] { 2, 3, 4 }, sizes);
+        }
+    }
+
+    @Test
+    public void testEntriesLargerThanBuffer() throws Exception {
+        int[] sizes = { 100, BUFFER_SIZE * 2, 100, BUFFER_SIZE + 10, 100 };
+        int[] offsets = writeLog(sizes, null);
+
+        try (DirectReader reader = newReader()) {
+            checkEntries(reader.readEntriesAt(offsets), range(sizes.length), sizes);
+        }
+    }
+
+    /**
+     * An entry that can't be read ends the batch, the entries before it are returned.
+     */
+    @Test
+    public void testInvalidEntry() throws Exception {
+        int[] sizes = { 100, 100, 100, 100 };
+        int[] offsets = writeLog(sizes, null);
+        int end = offsets[3] + sizes[3];
+
+        try (DirectReader reader = newReader()) {
+            int[] withInvalid = { offsets[0], offsets[1], offsets[2], end + 4, offsets[3] + 4096 };
+            checkEntries(reader.readEntriesAt(withInvalid), range(3), sizes);
+
+            try {
+                reader.readEntriesAt(new int[] { end + 4, end + 200 }).forEach(ByteBuf::release);
+                fail("The first entry can't be read");
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+}
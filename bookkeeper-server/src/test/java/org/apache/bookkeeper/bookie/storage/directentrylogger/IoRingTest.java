@@ -0,0 +1,323 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+import org.apache.bookkeeper.slogger.Slogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link IoRing}, through io_uring and through the fallback to pread/pwrite.
+ */
+public class IoRingTest {
+
+    private static final long RING = 0x1234L;
+    private static final int FD = 7;
+    private static final int BLOCK = 4096;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private NativeIO nativeIO;
+
+    @Before
+    public void setup() throws Exception {
+        IoRing.enableUseIoUring();
+        nativeIO = mock(NativeIO.class);
+        when(nativeIO.pread(anyInt(), anyLong(), anyLong(), anyLong()))
+            .thenAnswer(inv -> inv.getArgument(2));
+        when(nativeIO.pwrite(anyInt(), anyLong(), anyInt(), anyLong()))
+            .thenAnswer(inv -> inv.getArgument(2));
+    }
+
+    @After
+    public void teardown() {
+        IoRing.enableUseIoUring();
+    }
+
+    private static IoRing.Batch batch(int reads, int writes) {
+        IoRing.Batch batch = new IoRing.Batch(reads + writes);
+        for (int i = 0; i < reads; i++) {
+            batch.read(FD, 0x10000L + i * BLOCK, BLOCK, (long) i * BLOCK);
+        }
+        for (int i = 0; i < writes; i++) {
+            batch.write(FD, 0x20000L + i * BLOCK, BLOCK, (long) (reads + i) * BLOCK);
+        }
+        return batch;
+    }
+
+    /**
+     * Complete the given number of operations of the batch, then fail the ring if asked to.
+     */
+    private void answerSubmit(int completed, boolean fail) throws Exception {
+        doAnswer(inv -> {
+            long[] results = inv.getArgument(7);
+            for (int i = 0; i < completed; i++) {
+                results[i] = BLOCK;
+            }
+            if (fail) {
+                throw new NativeIOException("Failed to submit to io_uring", 1);
+            }
+            return completed;
+        }).when(nativeIO).ioUringSubmitAndWait(eq(RING), anyInt(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void testBatchSubmittedToRing() throws Exception {
+        when(nativeIO.ioUringInit(16)).thenReturn(RING);
+        answerSubmit(6, false);
+
+        try (IoRing ring = new IoRing(nativeIO, 16, Slogger.NULL)) {
+            assertTrue(ring.isEnabled());
+
+            IoRing.Batch batch = batch(4, 2);
+            ring.submit(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(BLOCK, batch.result(i));
+            }
+            verify(nativeIO).ioUringSubmitAndWait(eq(RING), eq(6), any(), any(), any(), any(), any(), any());
+            verify(nativeIO, never()).pread(anyInt(), anyLong(), anyLong(), anyLong());
+            verify(nativeIO, never()).pwrite(anyInt(), anyLong(), anyInt(), anyLong());
+
+            // Empty batches don't go to the ring
+            ring.submit(new IoRing.Batch(4));
+            verify(nativeIO, times(1)).ioUringSubmitAndWait(anyLong(), anyInt(), any(), any(), any(), any(), any(),
+                                                            any());
+        }
+        verify(nativeIO).ioUringClose(RING);
+    }
+
+    @Test
+    public void testFallbackWhenUnavailable() throws Exception {
+        when(nativeIO.ioUringInit(anyInt())).thenThrow(new NativeIOException("io_uring is not available"));
+
+        try (IoRing ring = new IoRing(nativeIO, 16, Slogger.NULL)) {
+            assertFalse(ring.isEnabled());
+
+            IoRing.Batch batch = batch(3, 2);
+            ring.submit(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(BLOCK, batch.result(i));
+            }
+            for (int i = 0; i < 3; i++) {
+                verify(nativeIO).pread(FD, 0x10000L + i * BLOCK, BLOCK, (long) i * BLOCK);
+            }
+            for (int i = 0; i < 2; i++) {
+                verify(nativeIO).pwrite(FD, 0x20000L + i * BLOCK, BLOCK, (long) (3 + i) * BLOCK);
+            }
+        }
+
+        // io_uring is not tried again
+        try (IoRing ring = new IoRing(nativeIO, 16, Slogger.NULL)) {
+            assertFalse(ring.isEnabled());
+        }
+        verify(nativeIO, times(1)).ioUringInit(anyInt());
+        verify(nativeIO, never()).ioUringSubmitAndWait(anyLong(), anyInt(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void testDisabledRing() throws Exception {
+        try (IoRing ring = new IoRing(nativeIO, 0, Slogger.NULL)) {
+            assertFalse(ring.isEnabled());
+            IoRing.Batch batch = batch(2, 0);
+            ring.submit(batch);
+            assertEquals(BLOCK, batch.result(0));
+            assertEquals(BLOCK, batch.result(1));
+        }
+        verify(nativeIO, never()).ioUringInit(anyInt());
+    }
+
+    /**
+     * When the ring fails, the operations it completed are not executed again, only the ones never submitted.
+     */
+    @Test
+    public void testFallbackAfterRingFailure() throws Exception {
+        when(nativeIO.ioUringInit(16)).thenReturn(RING);
+        answerSubmit(2, true);
+
+        try (IoRing ring = new IoRing(nativeIO, 16, Slogger.NULL)) {
+            IoRing.Batch batch = batch(2, 3);
+            ring.submit(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals(BLOCK, batch.result(i));
+            }
+
+            verify(nativeIO, never()).pread(anyInt(), anyLong(), anyLong(), anyLong());
+            verify(nativeIO, times(3)).pwrite(anyInt(), anyLong(), anyInt(), anyLong());
+            verify(nativeIO).ioUringClose(RING);
+            assertFalse(ring.isEnabled());
+
+            // The next batches don't use the ring anymore
+            IoRing.Batch next = batch(1, 0);
+            ring.submit(next);
+            assertEquals(BLOCK, next.result(0));
+            verify(nativeIO, times(1)).ioUringSubmitAndWait(anyLong(), anyInt(), any(), any(), any(), any(), any(),
+                                                            any());
+        }
+        verify(nativeIO, times(1)).ioUringClose(RING);
+    }
+
+    /**
+     * An operation that failed in the ring keeps its error, it is not executed again.
+     */
+    @Test
+    public void testOperationErrors() throws Exception {
+        when(nativeIO.ioUringInit(16)).thenReturn(RING);
+        doAnswer(inv -> {
+            long[] results = inv.getArgument(7);
+            results[0] = BLOCK;
+            results[1] = -5;
+            throw new NativeIOException("Failed to submit to io_uring", 1);
+        }).when(nativeIO).ioUringSubmitAndWait(eq(RING), anyInt(), any(), any(), any(), any(), any(), any());
+        when(nativeIO.pread(eq(FD), anyLong(), anyLong(), eq(2L * BLOCK)))
+            .thenThrow(new NativeIOException("Input/output error", 5));
+
+        try (IoRing ring = new IoRing(nativeIO, 16, Slogger.NULL)) {
+            IoRing.Batch batch = batch(4, 0);
+            ring.submit(batch);
+            assertEquals(BLOCK, batch.result(0));
+            assertEquals(-5, batch.result(1));
+            assertEquals(-5, batch.result(2));
+            assertEquals(BLOCK, batch.result(3));
+            verify(nativeIO, times(2)).pread(anyInt(), anyLong(), anyLong(), anyLong());
+        }
+    }
+
+    /**
+     * Results of a batch submitted again are not left over from the previous submission.
+     */
+    @Test
+    public void testBatchResultsReset() throws Exception {
+        when(nativeIO.ioUringInit(16)).thenReturn(RING);
+        answerSubmit(3, false);
+
+        try (IoRing ring = new IoRing(nativeIO, 16, Slogger.NULL)) {
+            IoRing.Batch batch = batch(3, 0);
+            ring.submit(batch);
+            assertEquals(BLOCK, batch.result(2));
+
+            answerSubmit(1, true);
+            ring.submit(batch);
+            assertEquals(BLOCK, batch.result(0));
+            verify(nativeIO, times(2)).pread(anyInt(), anyLong(), anyLong(), anyLong());
+        }
+    }
+
+    /**
+     * Read blocks of a file through the ring, and write them back through the ring at other offsets of another file.
+     */
+    @Test
+    public void testNativeRing() throws Exception {
+        NativeIO realNativeIO;
+        try {
+            realNativeIO = new NativeIOImpl();
+            realNativeIO.free(realNativeIO.posix_memalign(BLOCK, BLOCK));
+        } catch (Throwable t) {
+            realNativeIO = null;
+        }
+        assumeTrue("Native library not available", realNativeIO != null);
+
+        try (IoRing ring = new IoRing(realNativeIO, 4, Slogger.NULL)) {
+            assumeTrue("io_uring not available", ring.isEnabled());
+
+            int blocks = 10;
+            byte[] data = new byte[blocks * BLOCK];
+            new Random(1).nextBytes(data);
+            File source = tmpDir.newFile("source");
+            File target = tmpDir.newFile("target");
+            Files.write(source.toPath(), data);
+
+            int sourceFd = realNativeIO.open(source.getPath(), NativeIO.O_RDONLY, 0);
+            int targetFd = realNativeIO.open(target.getPath(), NativeIO.O_WRONLY, 0);
+            long[] buffers = new long[blocks];
+            try {
+                // More operations than the ring entries, so they are submitted in several chunks
+                IoRing.Batch reads = new IoRing.Batch(blocks);
+                for (int i = 0; i < blocks; i++) {
+                    buffers[i] = realNativeIO.posix_memalign(BLOCK, BLOCK);
+                    reads.read(sourceFd, buffers[i], BLOCK, (long) i * BLOCK);
+                }
+                ring.submit(reads);
+
+                // Blocks in reverse order
+                IoRing.Batch writes = new IoRing.Batch(blocks);
+                for (int i = 0; i < blocks; i++) {
+                    assertEquals(BLOCK, reads.result(i));
+                    writes.write(targetFd, buffers[i], BLOCK, (long) (blocks - 1 - i) * BLOCK);
+                }
+                ring.submit(writes);
+                for (int i = 0; i < blocks; i++) {
+                    assertEquals(BLOCK, writes.result(i));
+                }
+
+                // A read of an invalid fd fails on its own
+                IoRing.Batch invalid = new IoRing.Batch(2);
+                invalid.read(-1, buffers[0], BLOCK, 0);
+                invalid.read(sourceFd, buffers[1], BLOCK, BLOCK);
+                ring.submit(invalid);
+                assertTrue(invalid.result(0) < 0);
+                assertEquals(BLOCK, invalid.result(1));
+                assertTrue(ring.isEnabled());
+            } finally {
+                for (long buffer : buffers) {
+                    if (buffer != 0) {
+                        realNativeIO.free(buffer);
+                    }
+                }
+                realNativeIO.close(sourceFd);
+                realNativeIO.close(targetFd);
+            }
+
+            byte[] written = Files.readAllBytes(target.toPath());
+            assertEquals(data.length, written.length);
+            for (int i = 0; i < blocks; i++) {
+                assertArrayEquals(Arrays.copyOfRange(data, i * BLOCK, (i + 1) * BLOCK),
+                                  Arrays.copyOfRange(written, (blocks - 1 - i) * BLOCK, (blocks - i) * BLOCK));
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the read path of {@link DbLedgerStorage}.
+ */
+public class DbLedgerStorageReadTest {
+
+    private static final int ENTRY_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private DbLedgerStorage storage;
+
+    @Before
+    public void setup() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+
+        conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerDirNames(new String[] { ledgerDir.getPath() });
+        conf.setLedgerStorageClass(DbLedgerStorage.class.getName());
+        conf.setGcWaitTime(60000);
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 4);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 4);
+    }
+
+    private DbLedgerStorage newStorage() throws Exception {
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        DbLedgerStorage storage = new DbLedgerStorage();
+        storage.initialize(conf, null, ledgerDirsManager, ledgerDirsManager, NullStatsLogger.INSTANCE,
+                ByteBufAllocator.DEFAULT);
+        storage.setCheckpointSource(CheckpointSource.DEFAULT);
+        return storage;
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (storage != null) {
+            storage.shutdown();
+        }
+    }
+
+    private SingleDirectoryDbLedgerStorage singleDirStorage() {
+        return storage.getLedgerStorageList().get(0);
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeLong(entryId - 1);
+        entry.writerIndex(ENTRY_SIZE);
+        return entry;
+    }
+
+    private void addEntries(long ledgerId, long firstEntry, long lastEntry) throws Exception {
+        storage.setMasterKey(ledgerId, new byte[0]);
+        for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+            storage.addEntry(entry(ledgerId, entryId));
+        }
+    }
+
+    private void checkEntry(long ledgerId, long entryId) throws Exception {
+        assertTrue(storage.entryExists(ledgerId, entryId));
+        ByteBuf entry = storage.getEntry(ledgerId, entryId);
+        try {
+            assertEquals(ledgerId, entry.getLong(0));
+            assertEquals(entryId, entry.getLong(8));
+            assertEquals(ENTRY_SIZE, entry.readableBytes());
+        } finally {
+            entry.release();
+        }
+    }
+
+    private void checkNoEntry(long ledgerId, long entryId) throws Exception {
+        assertFalse(storage.entryExists(ledgerId, entryId));
+        try {
+            storage.getEntry(ledgerId, entryId).release();
+            fail("Entry " + ledgerId + "@" + entryId + " should not exist");
+        } catch (Bookie.NoEntryException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Reads of missing entries must not add ledgers to the ledger info cache.
+     */
+    @Test
+    public void testMissingEntriesOfUncachedLedgers() throws Exception {
+        storage = newStorage();
+        addEntries(1, 0, 9);
+        // Ledger without entries
+        storage.setMasterKey(2, new byte[0]);
+        storage.flush();
+
+        checkNoEntry(1, 10);
+        checkNoEntry(1, 100);
+        checkNoEntry(2, 0);
+        assertFalse(singleDirStorage().hasTransientLedgerInfo(1));
+        assertFalse(singleDirStorage().hasTransientLedgerInfo(2));
+
+        checkEntry(1, 9);
+        assertFalse(singleDirStorage().hasTransientLedgerInfo(1));
+    }
+
+    /**
+     * Once the ledger info is cached, entries after the last entry are answered from it, and the entries added later
+     * are still found.
+     */
+    @Test
+    public void testMissingEntriesOfCachedLedger() throws Exception {
+        storage = newStorage();
+        addEntries(1, 0, 9);
+        storage.flush();
+        addEntries(1, 10, 14);
+
+        // Loads the ledger info, as a long poll read would do
+        assertEquals(13, storage.getLastAddConfirmed(1));
+        assertTrue(singleDirStorage().hasTransientLedgerInfo(1));
+
+        checkEntry(1, 14);
+        checkNoEntry(1, 15);
+        checkNoEntry(1, 1000);
+
+        addEntries(1, 15, 20);
+        checkEntry(1, 15);
+        checkEntry(1, 20);
+        checkNoEntry(1, 21);
+
+        storage.flush();
+        checkEntry(1, 20);
+        checkNoEntry(1, 21);
+    }
+
+    private void checkReadAhead(long ledgerId, long firstEntry, long lastEntry) {
+        ReadCache readCache = singleDirStorage().getReadCache();
+        for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+            assertTrue("Entry " + entryId + " should be read ahead", readCache.hasEntry(ledgerId, entryId));
+        }
+        assertFalse("Entry " + (lastEntry + 1) + " should not be read ahead",
+                readCache.hasEntry(ledgerId, lastEntry + 1));
+    }
+
+    private void readEntries(long ledgerId, long firstEntry, long lastEntry) throws Exception {
+        for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+            checkEntry(ledgerId, entryId);
+        }
+    }
+
+    /**
+     * The read-ahead window doubles while the reader misses right after the previous read-ahead, and is dropped on a
+     * random read.
+     */
+    @Test
+    public void testAdaptiveReadAhead() throws Exception {
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_ADAPTIVE, true);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_BATCH_SIZE, 4);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_BATCH_SIZE, 16);
+        storage = newStorage();
+        addEntries(1, 0, 999);
+        storage.flush();
+
+        checkEntry(1, 0);
+        checkReadAhead(1, 1, 4);
+        readEntries(1, 1, 4);
+
+        checkEntry(1, 5);
+        checkReadAhead(1, 6, 13);
+        readEntries(1, 6, 13);
+
+        checkEntry(1, 14);
+        checkReadAhead(1, 15, 30);
+        readEntries(1, 15, 30);
+
+        // Capped to the max window
+        checkEntry(1, 31);
+        checkReadAhead(1, 32, 47);
+
+        // Random read
+        checkEntry(1, 500);
+        assertFalse(singleDirStorage().getReadCache().hasEntry(1, 501));
+
+        // Sequential again, starting over from the initial window
+        checkEntry(1, 501);
+        checkReadAhead(1, 502, 505);
+
+        // The read-ahead state doesn't add the ledger to the ledger info cache
+        assertFalse(singleDirStorage().hasTransientLedgerInfo(1));
+    }
+
+    @Test
+    public void testFixedReadAhead() throws Exception {
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_BATCH_SIZE, 4);
+        storage = newStorage();
+        addEntries(1, 0, 99);
+        storage.flush();
+
+        checkEntry(1, 0);
+        checkReadAhead(1, 1, 4);
+        readEntries(1, 1, 4);
+
+        checkEntry(1, 5);
+        checkReadAhead(1, 6, 9);
+
+        checkEntry(1, 50);
+        checkReadAhead(1, 51, 54);
+    }
+
+    private void checkEntries(List<ByteBuf> entries, long ledgerId, long firstEntry, long lastEntry) {
+        try {
+            assertEquals(lastEntry - firstEntry + 1, entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                assertEquals(ledgerId, entries.get(i).getLong(0));
+                assertEquals(firstEntry + i, entries.get(i).getLong(8));
+                assertEquals(ENTRY_SIZE, entries.get(i).readableBytes());
+            }
+        } finally {
+            entries.forEach(ByteBuf::release);
+        }
+    }
+
+    /**
+     * Batched reads take the entries from the caches and from the entry log, in order.
+     */
+    @Test
+    public void testGetEntries() throws Exception {
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_BATCH_SIZE, 4);
+        storage = newStorage();
+        addEntries(1, 0, 99);
+        addEntries(2, 0, 99);
+        storage.flush();
+        // Not flushed yet, in the write cache
+        addEntries(1, 100, 109);
+
+        checkEntries(storage.getEntries(1, 0, 1000, Long.MAX_VALUE), 1, 0, 109);
+        checkEntries(storage.getEntries(2, 0, 1000, Long.MAX_VALUE), 2, 0, 99);
+
+        // Across the entry log and the write cache
+        checkEntries(storage.getEntries(1, 95, 10, Long.MAX_VALUE), 1, 95, 104);
+        checkEntries(storage.getEntries(1, 105, 100, Long.MAX_VALUE), 1, 105, 109);
+
+        // Entries 40 to 44 are in the read cache
+        checkEntry(1, 40);
+        checkEntries(storage.getEntries(1, 37, 12, Long.MAX_VALUE), 1, 37, 48);
+    }
+
+    @Test
+    public void testGetEntriesLimits() throws Exception {
+        storage = newStorage();
+        addEntries(1, 0, 99);
+        storage.flush();
+
+        checkEntries(storage.getEntries(1, 10, 1, Long.MAX_VALUE), 1, 10, 10);
+        checkEntries(storage.getEntries(1, 10, 20, Long.MAX_VALUE), 1, 10, 29);
+
+        // Stops once the size reaches the max size
+        checkEntries(storage.getEntries(1, 10, 20, 5 * ENTRY_SIZE), 1, 10, 14);
+        checkEntries(storage.getEntries(1, 10, 20, 5 * ENTRY_SIZE - 1), 1, 10, 14);
+        checkEntries(storage.getEntries(1, 10, 20, 1), 1, 10, 10);
+
+        // Stops at the last entry
+        checkEntries(storage.getEntries(1, 90, 20, Long.MAX_VALUE), 1, 90, 99);
+
+        try {
+            storage.getEntries(1, 100, 20, Long.MAX_VALUE).forEach(ByteBuf::release);
+            fail("The first entry doesn't exist");
+        } catch (Bookie.NoEntryException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * The async reads look up the caches and the index, and read the entry log, in the read executor.
+     */
+    @Test
+    public void testGetEntryAsync() throws Exception {
+        storage = newStorage();
+        addEntries(1, 0, 9);
+        storage.flush();
+        // Not flushed yet, in the write cache
+        addEntries(1, 10, 10);
+
+        ByteBuf entry = storage.getEntryAsync(1, 5).get();
+        try {
+            assertEquals(5, entry.getLong(8));
+        } finally {
+            entry.release();
+        }
+        // The read executor is started by default
+        assertTrue(Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().startsWith("db-storage-read")));
+
+        entry = storage.getEntryAsync(1, 10).get();
+        try {
+            assertEquals(10, entry.getLong(8));
+        } finally {
+            entry.release();
+        }
+
+        try {
+            storage.getEntryAsync(1, 11).get().release();
+            fail("Entry 1@11 should not exist");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof Bookie.NoEntryException);
+        }
+    }
+
+    @Test
+    public void testGetEntryAsyncWithoutReadExecutor() throws Exception {
+        conf.setProperty(DbLedgerStorage.ASYNC_READ_THREADS, 0);
+        storage = newStorage();
+        addEntries(1, 0, 9);
+        storage.flush();
+
+        // Read in the calling thread
+        CompletableFuture<ByteBuf> future = storage.getEntryAsync(1, 5);
+        assertTrue(future.isDone());
+        ByteBuf entry = future.get();
+        try {
+            assertEquals(5, entry.getLong(8));
+        } finally {
+            entry.release();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the write cache of {@link DbLedgerStorage} split in multiple shards, each one flushed independently once it
+ * gets full.
+ */
+public class DbLedgerStorageWriteCacheTest {
+
+    private static final int ENTRY_SIZE = 1024;
+    private static final int WRITE_CACHE_SHARDS = 4;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private DbLedgerStorage storage;
+
+    @Before
+    public void setup() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+
+        conf = new ServerConfiguration();
+        conf.setAllowLoopback(true);
+        conf.setLedgerDirNames(new String[] { ledgerDir.getPath() });
+        conf.setLedgerStorageClass(DbLedgerStorage.class.getName());
+        conf.setGcWaitTime(60000);
+        // 1 MB per shard
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, WRITE_CACHE_SHARDS);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 1);
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_SHARDS, WRITE_CACHE_SHARDS);
+
+        storage = newStorage();
+    }
+
+    private DbLedgerStorage newStorage() throws Exception {
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        DbLedgerStorage storage = new DbLedgerStorage();
+        storage.initialize(conf, null, ledgerDirsManager, ledgerDirsManager, NullStatsLogger.INSTANCE,
+                ByteBufAllocator.DEFAULT);
+        storage.setCheckpointSource(CheckpointSource.DEFAULT);
+        return storage;
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (storage != null) {
+            storage.shutdown();
+        }
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeLong(entryId - 1);
+        entry.writerIndex(ENTRY_SIZE);
+        return entry;
+    }
+
+    private void checkEntries(int ledgers, int entries) throws Exception {
+        for (long ledgerId = 0; ledgerId < ledgers; ledgerId++) {
+            for (long entryId = 0; entryId < entries; entryId++) {
+                ByteBuf entry = storage.getEntry(ledgerId, entryId);
+                assertEquals(ledgerId, entry.getLong(0));
+                assertEquals(entryId, entry.getLong(8));
+                assertEquals(ENTRY_SIZE, entry.readableBytes());
+                entry.release();
+            }
+            // The last entry carries the previous one as last add confirmed
+            assertEquals(entries - 2, storage.getLastAddConfirmed(ledgerId));
+        }
+    }
+
+    /**
+     * Several threads add entries of different ledgers at the same time, so that full shards are flushed
+     * concurrently while the others keep accepting writes.
+     */
+    @Test
+    public void testConcurrentShardFlushes() throws Exception {
+        int threads = WRITE_CACHE_SHARDS;
+        int ledgersPerThread = 4;
+        int entries = 1000;
+
+        for (long ledgerId = 0; ledgerId < threads * ledgersPerThread; ledgerId++) {
+            storage.setMasterKey(ledgerId, new byte[0]);
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int firstLedger = t * ledgersPerThread;
+            Thread writer = new Thread(() -> {
+                try {
+                    for (long entryId = 0; entryId < entries; entryId++) {
+                        for (long ledgerId = firstLedger; ledgerId < firstLedger + ledgersPerThread; ledgerId++) {
+                            storage.addEntry(entry(ledgerId, entryId));
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        // 16 MB of entries went through a 4 MB write cache
+        checkEntries(threads * ledgersPerThread, entries);
+
+        storage.flush();
+        checkEntries(threads * ledgersPerThread, entries);
+    }
+
+    @Test
+    public void testFlushesSurviveRestart() throws Exception {
+        int ledgers = 8;
+        int entries = 1000;
+        for (long ledgerId = 0; ledgerId < ledgers; ledgerId++) {
+            storage.setMasterKey(ledgerId, new byte[0]);
+        }
+
+        for (long entryId = 0; entryId < entries; entryId++) {
+            for (long ledgerId = 0; ledgerId < ledgers; ledgerId++) {
+                storage.addEntry(entry(ledgerId, entryId));
+            }
+            if (entryId == entries / 2) {
+                storage.flush();
+            }
+        }
+        storage.flush();
+        storage.shutdown();
+
+        storage = newStorage();
+        checkEntries(ledgers, entries);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Unit test for the encoding of {@link EntryLocationBlock}.
+ */
+public class EntryLocationBlockTest {
+
+    private static final int BLOCK_SIZE = EntryLocationBlock.BLOCK_SIZE;
+
+    private static long location(long entryLogId, long offset) {
+        return (entryLogId << 32) | offset;
+    }
+
+    private static void checkRoundTrip(long[] locations) throws IOException {
+        byte[] encoded = EntryLocationBlock.encode(locations);
+        assertTrue(EntryLocationBlock.isBlock(encoded));
+        assertNotEquals(Long.BYTES, encoded.length);
+        assertArrayEquals(locations, EntryLocationBlock.decode(encoded));
+    }
+
+    @Test
+    public void testEntryIds() {
+        assertEquals(0, EntryLocationBlock.blockFirstEntry(0));
+        assertEquals(0, EntryLocationBlock.blockFirstEntry(BLOCK_SIZE - 1));
+        assertEquals(BLOCK_SIZE, EntryLocationBlock.blockFirstEntry(BLOCK_SIZE));
+        assertEquals(10 * BLOCK_SIZE, EntryLocationBlock.blockFirstEntry(10 * BLOCK_SIZE + 5));
+        assertEquals(5, EntryLocationBlock.position(10 * BLOCK_SIZE + 5));
+        assertEquals(BLOCK_SIZE - 1, EntryLocationBlock.position(BLOCK_SIZE - 1));
+    }
+
+    @Test
+    public void testEmptyBlock() throws IOException {
+        checkRoundTrip(new long[BLOCK_SIZE]);
+        assertEquals(-1, EntryLocationBlock.lastPosition(new long[BLOCK_SIZE]));
+    }
+
+    @Test
+    public void testFullBlock() throws IOException {
+        long[] locations = new long[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            locations[i] = location(3, 1024 + i * 100);
+        }
+        checkRoundTrip(locations);
+        assertEquals(BLOCK_SIZE - 1, EntryLocationBlock.lastPosition(locations));
+
+        // Consecutive entries are close to each other, so they take much less than 8 bytes each
+        assertTrue(EntryLocationBlock.encode(locations).length < BLOCK_SIZE * 3);
+    }
+
+    @Test
+    public void testSparseBlock() throws IOException {
+        long[] locations = new long[BLOCK_SIZE];
+        locations[3] = location(7, 500);
+        locations[4] = location(7, 600);
+        locations[90] = location(2, 100);
+        checkRoundTrip(locations);
+        assertEquals(90, EntryLocationBlock.lastPosition(locations));
+
+        long[] single = new long[BLOCK_SIZE];
+        single[BLOCK_SIZE - 1] = location(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        checkRoundTrip(single);
+    }
+
+    @Test
+    public void testDecreasingLocations() throws IOException {
+        // Entries rewritten by the compaction can be in an older or a newer entry log
+        long[] locations = new long[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            locations[i] = location(i % 2 == 0 ? 100 : 1, 4096 - i);
+        }
+        checkRoundTrip(locations);
+    }
+
+    @Test
+    public void testRandomBlocks() throws IOException {
+        Random random = new Random(1);
+        for (int n = 0; n < 10_000; n++) {
+            long[] locations = new long[BLOCK_SIZE];
+            int count = 1 + random.nextInt(3);
+            for (int i = 0; i < count; i++) {
+                // Two entries never share the same location
+                locations[random.nextInt(BLOCK_SIZE)] = location(random.nextInt(4), 1 + i * 200 + random.nextInt(200));
+            }
+            // Never mistaken for the value of a single location
+            checkRoundTrip(locations);
+        }
+    }
+
+    @Test
+    public void testSingleLocationValue() {
+        assertFalse(EntryLocationBlock.isBlock(new byte[Long.BYTES]));
+        assertFalse(EntryLocationBlock.isBlock(null));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownFormat() throws IOException {
+        byte[] encoded = EntryLocationBlock.encode(new long[BLOCK_SIZE]);
+        encoded[0] = 5;
+        EntryLocationBlock.decode(encoded);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedBlock() throws IOException {
+        long[] locations = new long[BLOCK_SIZE];
+        Arrays.fill(locations, 10, 20, location(1, 1000));
+        byte[] encoded = EntryLocationBlock.encode(locations);
+        EntryLocationBlock.decode(Arrays.copyOf(encoded, encoded.length - 3));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidPositions() throws IOException {
+        // First position 100, with 100 positions
+        EntryLocationBlock.decode(new byte[] { 1, 100, 100, 0 });
+    }
+}
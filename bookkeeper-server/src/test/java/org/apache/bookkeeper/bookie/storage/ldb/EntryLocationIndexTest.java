@@ -0,0 +1,271 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.EntryLocation;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link EntryLocationIndex}, with and without the dense blocks format.
+ */
+public class EntryLocationIndexTest {
+
+    private static final int BLOCK_SIZE = EntryLocationBlock.BLOCK_SIZE;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private File basePath;
+
+    @Before
+    public void setup() throws Exception {
+        basePath = tmpDir.newFolder("index");
+    }
+
+    private EntryLocationIndex open(boolean denseBlocks) throws Exception {
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_INDEX_DENSE_BLOCKS, denseBlocks);
+        return new EntryLocationIndex(conf, KeyValueStorageRocksDB.factory, basePath.getPath(),
+                NullStatsLogger.INSTANCE);
+    }
+
+    private static long location(long ledgerId, long entryId) {
+        return (ledgerId << 32) | (entryId * 100 + 4);
+    }
+
+    private static void addEntries(EntryLocationIndex index, long ledgerId, long firstEntry, long lastEntry)
+            throws Exception {
+        try (Batch batch = index.newBatch()) {
+            for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+                index.addLocation(batch, ledgerId, entryId, location(ledgerId, entryId));
+            }
+            batch.flush();
+        }
+    }
+
+    private static void checkEntries(EntryLocationIndex index, long ledgerId, long firstEntry, long lastEntry)
+            throws Exception {
+        for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+            assertEquals(location(ledgerId, entryId), index.getLocation(ledgerId, entryId));
+        }
+    }
+
+    private static void checkLastEntry(EntryLocationIndex index, long ledgerId, long lastEntry) throws Exception {
+        assertEquals(lastEntry, index.getLastEntryInLedger(ledgerId));
+    }
+
+    private static void checkDeleted(EntryLocationIndex index, long ledgerId, long lastEntry) throws Exception {
+        for (long entryId = 0; entryId <= lastEntry; entryId++) {
+            assertEquals(0, index.getLocation(ledgerId, entryId));
+        }
+        try {
+            index.getLastEntryInLedger(ledgerId);
+            fail("Ledger should have been deleted");
+        } catch (Bookie.NoEntryException e) {
+            // Expected
+        }
+    }
+
+    private void testAddAndDelete(boolean denseBlocks) throws Exception {
+        try (EntryLocationIndex index = open(denseBlocks)) {
+            addEntries(index, 1, 0, 2 * BLOCK_SIZE + 10);
+            addEntries(index, 2, 0, 5);
+            addEntries(index, 3, 0, BLOCK_SIZE - 1);
+
+            checkEntries(index, 1, 0, 2 * BLOCK_SIZE + 10);
+            checkEntries(index, 2, 0, 5);
+            checkEntries(index, 3, 0, BLOCK_SIZE - 1);
+            checkLastEntry(index, 1, 2 * BLOCK_SIZE + 10);
+            checkLastEntry(index, 2, 5);
+            checkLastEntry(index, 3, BLOCK_SIZE - 1);
+            assertEquals(0, index.getLocation(2, 6));
+            assertEquals(0, index.getLocation(4, 0));
+
+            index.delete(2);
+            try {
+                index.getLastEntryInLedger(2);
+                fail("Ledger is being deleted");
+            } catch (Bookie.NoEntryException e) {
+                // Expected
+            }
+            index.removeOffsetFromDeletedLedgers();
+
+            checkDeleted(index, 2, 5);
+            checkEntries(index, 1, 0, 2 * BLOCK_SIZE + 10);
+            checkEntries(index, 3, 0, BLOCK_SIZE - 1);
+        }
+
+        try (EntryLocationIndex index = open(denseBlocks)) {
+            checkEntries(index, 1, 0, 2 * BLOCK_SIZE + 10);
+            checkLastEntry(index, 1, 2 * BLOCK_SIZE + 10);
+            checkDeleted(index, 2, 5);
+        }
+    }
+
+    @Test
+    public void testAddAndDelete() throws Exception {
+        testAddAndDelete(false);
+    }
+
+    @Test
+    public void testAddAndDeleteDenseBlocks() throws Exception {
+        testAddAndDelete(true);
+    }
+
+    @Test
+    public void testSingleAddsDenseBlocks() throws Exception {
+        try (EntryLocationIndex index = open(true)) {
+            // Each location is added on its own. The first entry of the block shares the key with the block
+            for (long entryId = 0; entryId < BLOCK_SIZE + 3; entryId++) {
+                index.addLocation(1, entryId, location(1, entryId));
+            }
+            index.addLocation(1, 0, location(1, 0));
+            index.addLocation(1, BLOCK_SIZE, location(1, BLOCK_SIZE));
+
+            checkEntries(index, 1, 0, BLOCK_SIZE + 2);
+            checkLastEntry(index, 1, BLOCK_SIZE + 2);
+        }
+
+        try (EntryLocationIndex index = open(true)) {
+            checkEntries(index, 1, 0, BLOCK_SIZE + 2);
+        }
+    }
+
+    @Test
+    public void testUpdateLocationsDenseBlocks() throws Exception {
+        try (EntryLocationIndex index = open(true)) {
+            addEntries(index, 1, 0, 2 * BLOCK_SIZE);
+
+            // Relocate some of the entries, as done by the compaction
+            List<EntryLocation> newLocations = new ArrayList<>();
+            for (long entryId = 5; entryId <= BLOCK_SIZE + 5; entryId++) {
+                newLocations.add(new EntryLocation(1, entryId, location(9, entryId)));
+            }
+            index.updateLocations(newLocations);
+
+            for (long entryId = 0; entryId <= 2 * BLOCK_SIZE; entryId++) {
+                long expected = entryId >= 5 && entryId <= BLOCK_SIZE + 5 ? location(9, entryId) : location(1, entryId);
+                assertEquals(expected, index.getLocation(1, entryId));
+            }
+        }
+    }
+
+    /**
+     * Locations indexed one per record, before enabling the dense blocks, can still be read and updated.
+     */
+    @Test
+    public void testLegacyLocationsReadWithDenseBlocks() throws Exception {
+        try (EntryLocationIndex index = open(false)) {
+            addEntries(index, 1, 0, BLOCK_SIZE + 10);
+            addEntries(index, 2, 0, 20);
+        }
+
+        try (EntryLocationIndex index = open(true)) {
+            checkEntries(index, 1, 0, BLOCK_SIZE + 10);
+            checkEntries(index, 2, 0, 20);
+            checkLastEntry(index, 1, BLOCK_SIZE + 10);
+            checkLastEntry(index, 2, 20);
+
+            // New entries in the same blocks of the old ones, and in a new block
+            addEntries(index, 1, BLOCK_SIZE + 11, 2 * BLOCK_SIZE + 5);
+            addEntries(index, 2, 21, 30);
+            checkEntries(index, 1, 0, 2 * BLOCK_SIZE + 5);
+            checkEntries(index, 2, 0, 30);
+            checkLastEntry(index, 1, 2 * BLOCK_SIZE + 5);
+            checkLastEntry(index, 2, 30);
+
+            // Overwriting a location that was stored on its own, including the first one of a block
+            List<EntryLocation> newLocations = new ArrayList<>();
+            newLocations.add(new EntryLocation(2, 0, location(7, 0)));
+            newLocations.add(new EntryLocation(2, 3, location(7, 3)));
+            index.updateLocations(newLocations);
+            assertEquals(location(7, 0), index.getLocation(2, 0));
+            assertEquals(location(7, 3), index.getLocation(2, 3));
+            checkEntries(index, 2, 4, 30);
+
+            index.delete(1);
+            index.removeOffsetFromDeletedLedgers();
+            checkDeleted(index, 1, 2 * BLOCK_SIZE + 5);
+        }
+
+        try (EntryLocationIndex index = open(true)) {
+            assertEquals(location(7, 0), index.getLocation(2, 0));
+            checkEntries(index, 2, 4, 30);
+            checkDeleted(index, 1, 2 * BLOCK_SIZE + 5);
+        }
+    }
+
+    @Test
+    public void testConcurrentBatchesDenseBlocks() throws Exception {
+        try (EntryLocationIndex index = open(true)) {
+            int threads = 4;
+            long entriesPerThread = 2 * BLOCK_SIZE;
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                Thread writer = new Thread(() -> {
+                    try {
+                        // The threads write interleaved entries, so they keep updating the same blocks
+                        for (long entryId = thread; entryId < threads * entriesPerThread; entryId += 4 * threads) {
+                            try (Batch batch = index.newBatch()) {
+                                for (long e = entryId; e < entryId + 4 * threads; e += threads) {
+                                    index.addLocation(batch, 1, e, location(1, e));
+                                }
+                                batch.flush();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+
+            checkEntries(index, 1, 0, threads * entriesPerThread - 1);
+        }
+
+        try (EntryLocationIndex index = open(true)) {
+            checkEntries(index, 1, 0, 4 * 2 * BLOCK_SIZE - 1);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link FrequencySketch}.
+ */
+public class FrequencySketchTest {
+
+    @Test
+    public void testIncrement() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        assertEquals(0, sketch.frequency(1, 1));
+
+        for (int i = 1; i <= 5; i++) {
+            sketch.increment(1, 1);
+            assertEquals(i, sketch.frequency(1, 1));
+        }
+
+        // Same ids but swapped, or other entries of the same ledger, are different keys
+        assertEquals(0, sketch.frequency(1, 2));
+        assertEquals(0, sketch.frequency(2, 1));
+    }
+
+    @Test
+    public void testKeyHash() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 3; i++) {
+            sketch.increment(7, 11);
+        }
+
+        assertEquals(FrequencySketch.keyHash(7, 11), FrequencySketch.keyHash(7, 11));
+        assertEquals(3, sketch.frequency(FrequencySketch.keyHash(7, 11)));
+        assertEquals(sketch.frequency(7, 11), sketch.frequency(FrequencySketch.keyHash(7, 11)));
+    }
+
+    @Test
+    public void testSaturation() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(3, 4);
+        }
+
+        assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency(3, 4));
+    }
+
+    @Test
+    public void testReset() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < FrequencySketch.MAX_FREQUENCY; i++) {
+            sketch.increment(1, 1);
+        }
+        assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency(1, 1));
+
+        // The counters are halved once the number of recorded accesses reaches 10 times the table size
+        int accesses = 0;
+        while (sketch.frequency(1, 1) == FrequencySketch.MAX_FREQUENCY && accesses < 100_000) {
+            sketch.increment(2, accesses++);
+        }
+
+        int frequency = sketch.frequency(1, 1);
+        assertTrue("Counters were not aged after " + accesses + " accesses", frequency < FrequencySketch.MAX_FREQUENCY);
+        assertTrue(frequency >= FrequencySketch.MAX_FREQUENCY / 2);
+        assertTrue(accesses >= 10 * 1024 - FrequencySketch.MAX_FREQUENCY);
+    }
+
+    @Test
+    public void testAccuracy() {
+        FrequencySketch sketch = new FrequencySketch(4096);
+        for (long entryId = 0; entryId < 1000; entryId++) {
+            for (int i = 0; i < entryId % 4; i++) {
+                sketch.increment(5, entryId);
+            }
+        }
+
+        // A count-min sketch never underestimates, and with few keys it's rarely off
+        int overestimated = 0;
+        for (long entryId = 0; entryId < 1000; entryId++) {
+            int frequency = sketch.frequency(5, entryId);
+            assertTrue(frequency >= entryId % 4);
+            if (frequency != entryId % 4) {
+                overestimated++;
+            }
+        }
+        assertTrue("Too many overestimated keys: " + overestimated, overestimated < 50);
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.awaitility.Awaitility;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link KeyValueStorageSortedRuns}.
+ */
+public class KeyValueStorageSortedRunsTest {
+
+    private static final int WRITE_BUFFER_ENTRIES = 100;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private File basePath;
+    private KeyValueStorage db;
+
+    @Before
+    public void setup() throws Exception {
+        conf = new ServerConfiguration();
+        conf.setProperty(KeyValueStorageSortedRuns.SORTED_RUNS_WRITE_BUFFER_ENTRIES, WRITE_BUFFER_ENTRIES);
+        conf.setProperty(KeyValueStorageSortedRuns.SORTED_RUNS_MAX_RUNS, 4);
+        basePath = tmpDir.newFolder("index");
+        db = open(basePath);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    private KeyValueStorage open(File path) throws IOException {
+        return KeyValueStorageSortedRuns.factory.newKeyValueStorage(path.getPath(), "locations",
+                KeyValueStorageFactory.DbConfigType.EntryLocation, conf);
+    }
+
+    private File dbDir(File path) {
+        return new File(path, "locations");
+    }
+
+    private static byte[] key(long ledgerId, long entryId) {
+        byte[] key = new byte[16];
+        ArrayUtil.setLong(key, 0, ledgerId);
+        ArrayUtil.setLong(key, 8, entryId);
+        return key;
+    }
+
+    private static byte[] value(long location) {
+        byte[] value = new byte[8];
+        ArrayUtil.setLong(value, 0, location);
+        return value;
+    }
+
+    private static long location(long ledgerId, long entryId) {
+        return ledgerId * 1_000_000 + entryId + 1;
+    }
+
+    private static long ledgerId(Entry<byte[], byte[]> entry) {
+        return ArrayUtil.getLong(entry.getKey(), 0);
+    }
+
+    private static long entryId(Entry<byte[], byte[]> entry) {
+        return ArrayUtil.getLong(entry.getKey(), 8);
+    }
+
+    private static long location(Entry<byte[], byte[]> entry) {
+        return ArrayUtil.getLong(entry.getValue(), 0);
+    }
+
+    private static long location(byte[] value) {
+        return ArrayUtil.getLong(value, 0);
+    }
+
+    /**
+     * Add the entries of the ledgers with a batch per ledger, so that they're spread over several runs.
+     */
+    private void addLedgers(KeyValueStorage db, long firstLedger, long lastLedger, long entries) throws IOException {
+        for (long ledgerId = firstLedger; ledgerId <= lastLedger; ledgerId++) {
+            try (Batch batch = db.newBatch()) {
+                for (long entryId = 0; entryId < entries; entryId++) {
+                    batch.put(key(ledgerId, entryId), value(location(ledgerId, entryId)));
+                }
+                batch.flush();
+            }
+        }
+    }
+
+    private static void deleteLedger(KeyValueStorage db, long ledgerId) throws IOException {
+        try (Batch batch = db.newBatch()) {
+            batch.deleteRange(key(ledgerId, 0), key(ledgerId, Long.MAX_VALUE));
+            batch.flush();
+        }
+    }
+
+    private Set<String> runFiles(File path) {
+        Set<String> files = new TreeSet<>();
+        for (String name : dbDir(path).list()) {
+            if (name.endsWith(".run")) {
+                files.add(name);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Wait until the full memtables are written into runs in background.
+     */
+    private void waitForRuns(File path, int runs) {
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).until(() -> runFiles(path).size() == runs);
+    }
+
+    private static long countEntries(KeyValueStorage db) throws IOException {
+        long count = 0;
+        try (CloseableIterator<Entry<byte[], byte[]>> iterator = db.iterator()) {
+            while (iterator.hasNext()) {
+                iterator.next();
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check that the ledgers in the range, but the deleted ones, have all their entries.
+     */
+    private static void checkLedgers(KeyValueStorage db, long firstLedger, long lastLedger, long entries,
+                                     long... deletedLedgers) throws IOException {
+        for (long ledgerId = firstLedger; ledgerId <= lastLedger; ledgerId++) {
+            boolean deleted = Arrays.stream(deletedLedgers).anyMatch(Long.valueOf(ledgerId)::equals);
+            for (long entryId = 0; entryId < entries; entryId++) {
+                byte[] value = db.get(key(ledgerId, entryId));
+                if (deleted) {
+                    assertNull(value);
+                } else {
+                    assertEquals(location(ledgerId, entryId), location(value));
+                }
+            }
+        }
+
+        long liveLedgers = lastLedger - firstLedger + 1 - deletedLedgers.length;
+        assertEquals(liveLedgers * entries, countEntries(db));
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        assertNull(db.get(key(1, 1)));
+
+        db.put(key(1, 1), value(11));
+        db.put(key(1, 2), value(12));
+        assertEquals(11, location(db.get(key(1, 1))));
+        assertEquals(12, location(db.get(key(1, 2))));
+        assertNull(db.get(key(1, 3)));
+        assertNull(db.get(key(2, 1)));
+
+        byte[] value = new byte[8];
+        assertEquals(8, db.get(key(1, 2), value));
+        assertEquals(12, location(value));
+        assertEquals(-1, db.get(key(1, 3), value));
+
+        // Overwrite, both in the memtable and after it was written into a run
+        db.put(key(1, 1), value(21));
+        assertEquals(21, location(db.get(key(1, 1))));
+        addLedgers(db, 10, 12, WRITE_BUFFER_ENTRIES);
+        assertFalse(runFiles(basePath).isEmpty());
+        assertEquals(21, location(db.get(key(1, 1))));
+        db.put(key(1, 1), value(31));
+        assertEquals(31, location(db.get(key(1, 1))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidValue() throws Exception {
+        db.put(key(1, 1), new byte[16]);
+    }
+
+    @Test
+    public void testFloorAndCeil() throws Exception {
+        // Ledgers 1, 3 and 5 end up in runs, ledger 7 in the memtable
+        for (long ledgerId = 1; ledgerId <= 7; ledgerId += 2) {
+            try (Batch batch = db.newBatch()) {
+                for (long entryId = 0; entryId < WRITE_BUFFER_ENTRIES; entryId += 2) {
+                    batch.put(key(ledgerId, entryId), value(location(ledgerId, entryId)));
+                }
+                batch.flush();
+            }
+        }
+        db.put(key(7, 1000), value(location(7, 1000)));
+
+        for (long ledgerId = 1; ledgerId <= 7; ledgerId += 2) {
+            Entry<byte[], byte[]> floor = db.getFloor(key(ledgerId, 11));
+            assertEquals(ledgerId, ledgerId(floor));
+            assertEquals(10, entryId(floor));
+            assertEquals(location(ledgerId, 10), location(floor));
+
+            Entry<byte[], byte[]> ceil = db.getCeil(key(ledgerId, 11));
+            assertEquals(ledgerId, ledgerId(ceil));
+            assertEquals(12, entryId(ceil));
+
+            // Exact match is returned by ceil, floor is strictly lower
+            assertEquals(12, entryId(db.getCeil(key(ledgerId, 12))));
+            assertEquals(10, entryId(db.getFloor(key(ledgerId, 12))));
+
+            // Last entry of the ledger, as looked up by the locations index
+            Entry<byte[], byte[]> last = db.getFloor(key(ledgerId, Long.MAX_VALUE));
+            assertEquals(ledgerId, ledgerId(last));
+            assertEquals(ledgerId == 7 ? 1000 : WRITE_BUFFER_ENTRIES - 2, entryId(last));
+        }
+
+        // Missing ledgers fall on the neighbours
+        assertEquals(3, ledgerId(db.getCeil(key(2, 0))));
+        assertEquals(1, ledgerId(db.getFloor(key(2, 0))));
+        assertNull(db.getFloor(key(1, 0)));
+        assertNull(db.getCeil(key(7, 1001)));
+    }
+
+    @Test
+    public void testDeleteRangeAcrossRuns() throws Exception {
+        addLedgers(db, 1, 5, 3 * WRITE_BUFFER_ENTRIES / 2);
+        assertTrue(runFiles(basePath).size() > 1);
+
+        // The entries of the ledgers are in several runs and in the memtable
+        deleteLedger(db, 2);
+        deleteLedger(db, 5);
+        checkLedgers(db, 1, 5, 3 * WRITE_BUFFER_ENTRIES / 2, 2, 5);
+
+        // Floor and ceil skip the deleted ranges
+        assertEquals(1, ledgerId(db.getFloor(key(3, 0))));
+        assertEquals(3, ledgerId(db.getCeil(key(2, 10))));
+        assertEquals(4, ledgerId(db.getFloor(key(5, 10))));
+        assertNull(db.getCeil(key(4, 3 * WRITE_BUFFER_ENTRIES / 2)));
+
+        // Entries added after the deletion are visible
+        db.put(key(2, 7), value(77));
+        assertEquals(77, location(db.get(key(2, 7))));
+        assertEquals(2, ledgerId(db.getCeil(key(2, 0))));
+        assertNull(db.get(key(2, 6)));
+        deleteLedger(db, 2);
+
+        // The deletions are applied when merging the runs
+        db.compact();
+        assertEquals(1, runFiles(basePath).size());
+        checkLedgers(db, 1, 5, 3 * WRITE_BUFFER_ENTRIES / 2, 2, 5);
+
+        db.close();
+        db = open(basePath);
+        checkLedgers(db, 1, 5, 3 * WRITE_BUFFER_ENTRIES / 2, 2, 5);
+    }
+
+    private long tombstonesLogLength(File path) {
+        File[] logs = dbDir(path).listFiles((dir, name) -> name.endsWith(".tombstones"));
+        assertEquals(1, logs.length);
+        return logs[0].length();
+    }
+
+    @Test
+    public void testRangeDeletionsLog() throws Exception {
+        addLedgers(db, 1, 3, WRITE_BUFFER_ENTRIES);
+
+        // Enough deletions to merge the recent ones into the big level a few times
+        try (Batch batch = db.newBatch()) {
+            for (long ledgerId = 2; ledgerId < 3000; ledgerId += 2) {
+                batch.deleteRange(key(ledgerId, 0), key(ledgerId, Long.MAX_VALUE));
+            }
+            batch.flush();
+        }
+        checkLedgers(db, 1, 3, WRITE_BUFFER_ENTRIES, 2);
+        assertEquals(8, tombstonesLogLength(basePath));
+
+        // The deletions are appended to the log when the memtable is written into a run, and they don't cover the
+        // entries written after them
+        addLedgers(db, 4, 4, WRITE_BUFFER_ENTRIES);
+        waitForRuns(basePath, 4);
+        assertEquals(8 + 1499 * 40, tombstonesLogLength(basePath));
+        checkLedgers(db, 1, 4, WRITE_BUFFER_ENTRIES, 2);
+
+        db.close();
+        db = open(basePath);
+        checkLedgers(db, 1, 4, WRITE_BUFFER_ENTRIES, 2);
+
+        // Once all the runs they cover are merged, the deletions are dropped from the log
+        db.compact();
+        assertEquals(8, tombstonesLogLength(basePath));
+        checkLedgers(db, 1, 4, WRITE_BUFFER_ENTRIES, 2);
+
+        db.close();
+        db = open(basePath);
+        checkLedgers(db, 1, 4, WRITE_BUFFER_ENTRIES, 2);
+    }
+
+    @Test
+    public void testCount() throws Exception {
+        // Overwrites and range deletions in the memtable are counted exactly
+        db.put(key(1, 1), value(11));
+        db.put(key(1, 2), value(12));
+        db.put(key(1, 1), value(21));
+        assertEquals(2, db.count());
+        db.put(key(2, 1), value(21));
+        deleteLedger(db, 1);
+        assertEquals(1, db.count());
+
+        // The keys of the runs are counted until they're merged
+        addLedgers(db, 3, 4, WRITE_BUFFER_ENTRIES);
+        addLedgers(db, 4, 4, WRITE_BUFFER_ENTRIES);
+        deleteLedger(db, 3);
+        assertTrue(db.count() >= WRITE_BUFFER_ENTRIES + 1);
+
+        db.compact();
+        assertEquals(WRITE_BUFFER_ENTRIES + 1, db.count());
+        assertEquals(countEntries(db), db.count());
+    }
+
+    @Test
+    public void testIterator() throws Exception {
+        addLedgers(db, 1, 4, WRITE_BUFFER_ENTRIES / 2);
+        // Overwrite some entries in newer runs and in the memtable
+        addLedgers(db, 2, 2, WRITE_BUFFER_ENTRIES / 4);
+        db.put(key(3, 0), value(333));
+        deleteLedger(db, 4);
+
+        long expectedLedger = 1;
+        long expectedEntry = 0;
+        long count = 0;
+        try (CloseableIterator<Entry<byte[], byte[]>> iterator = db.iterator()) {
+            while (iterator.hasNext()) {
+                Entry<byte[], byte[]> entry = iterator.next();
+                assertEquals(expectedLedger, ledgerId(entry));
+                assertEquals(expectedEntry, entryId(entry));
+                long expectedLocation = expectedLedger == 3 && expectedEntry == 0
+                        ? 333 : location(expectedLedger, expectedEntry);
+                assertEquals(expectedLocation, location(entry));
+
+                if (++expectedEntry == WRITE_BUFFER_ENTRIES / 2) {
+                    expectedLedger++;
+                    expectedEntry = 0;
+                }
+                ++count;
+            }
+        }
+        assertEquals(3 * WRITE_BUFFER_ENTRIES / 2, count);
+
+        // Range of keys, with the last key excluded
+        try (CloseableIterator<byte[]> keys = db.keys(key(2, 10), key(3, 5))) {
+            for (long entryId = 10; entryId < WRITE_BUFFER_ENTRIES / 2; entryId++) {
+                assertTrue(keys.hasNext());
+                assertArrayEquals(key(2, entryId), keys.next());
+            }
+            for (long entryId = 0; entryId < 5; entryId++) {
+                assertTrue(keys.hasNext());
+                assertArrayEquals(key(3, entryId), keys.next());
+            }
+            assertFalse(keys.hasNext());
+        }
+    }
+
+    @Test
+    public void testBackgroundMerge() throws Exception {
+        addLedgers(db, 1, 20, WRITE_BUFFER_ENTRIES);
+
+        // Each ledger fills the memtable, so more runs than the max are written and then merged
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).until(() -> runFiles(basePath).size() <= 5);
+        checkLedgers(db, 1, 20, WRITE_BUFFER_ENTRIES);
+    }
+
+    @Test
+    public void testBackgroundMergeSkipsBigRuns() throws Exception {
+        addLedgers(db, 1, 20, WRITE_BUFFER_ENTRIES);
+        deleteLedger(db, 3);
+        db.compact();
+        Set<String> baseRun = runFiles(basePath);
+        assertEquals(1, baseRun.size());
+
+        // The new runs are merged together, but the base run is much bigger than all of them
+        addLedgers(db, 21, 26, WRITE_BUFFER_ENTRIES);
+        deleteLedger(db, 22);
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).until(() -> runFiles(basePath).size() <= 4);
+        assertTrue(runFiles(basePath).containsAll(baseRun));
+        checkLedgers(db, 1, 26, WRITE_BUFFER_ENTRIES, 3, 22);
+
+        db.close();
+        db = open(basePath);
+        checkLedgers(db, 1, 26, WRITE_BUFFER_ENTRIES, 3, 22);
+    }
+
+    @Test
+    public void testMergedRunsReleasedAfterReaders() throws Exception {
+        addLedgers(db, 1, 3, WRITE_BUFFER_ENTRIES);
+        waitForRuns(basePath, 3);
+        Set<String> oldRuns = runFiles(basePath);
+
+        try (CloseableIterator<Entry<byte[], byte[]>> iterator = db.iterator()) {
+            assertTrue(iterator.hasNext());
+            db.compact();
+
+            // The iterator still reads the merged runs, which are only deleted once it's closed
+            Set<String> files = runFiles(basePath);
+            assertTrue(files.containsAll(oldRuns));
+            assertEquals(4, files.size());
+
+            long count = 0;
+            while (iterator.hasNext()) {
+                Entry<byte[], byte[]> entry = iterator.next();
+                assertEquals(location(ledgerId(entry), entryId(entry)), location(entry));
+                ++count;
+            }
+            assertEquals(3 * WRITE_BUFFER_ENTRIES, count);
+        }
+
+        assertEquals(1, runFiles(basePath).size());
+        assertFalse(runFiles(basePath).containsAll(oldRuns));
+        checkLedgers(db, 1, 3, WRITE_BUFFER_ENTRIES);
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        addLedgers(db, 1, 3, WRITE_BUFFER_ENTRIES / 3);
+        deleteLedger(db, 2);
+        db.close();
+
+        db = open(basePath);
+        checkLedgers(db, 1, 3, WRITE_BUFFER_ENTRIES / 3, 2);
+
+        addLedgers(db, 4, 8, WRITE_BUFFER_ENTRIES / 3);
+        db.compact();
+        db.close();
+
+        db = open(basePath);
+        checkLedgers(db, 1, 8, WRITE_BUFFER_ENTRIES / 3, 2);
+    }
+
+    /**
+     * Copy the files of the storage while it's open, as they would be found after a crash.
+     */
+    private File crashCopy() throws IOException {
+        File copy = tmpDir.newFolder();
+        FileUtils.copyDirectory(dbDir(basePath), dbDir(copy));
+        return copy;
+    }
+
+    @Test
+    public void testRecoverFromWriteAheadLog() throws Exception {
+        addLedgers(db, 1, 2, WRITE_BUFFER_ENTRIES / 3);
+        assertTrue(runFiles(basePath).isEmpty());
+
+        File copy = crashCopy();
+        try (KeyValueStorage recovered = open(copy)) {
+            checkLedgers(recovered, 1, 2, WRITE_BUFFER_ENTRIES / 3);
+        }
+    }
+
+    @Test
+    public void testRecoverFromTornWriteAheadLog() throws Exception {
+        addLedgers(db, 1, 2, WRITE_BUFFER_ENTRIES / 3);
+
+        File copy = crashCopy();
+        File[] wals = dbDir(copy).listFiles((dir, name) -> name.endsWith(".wal"));
+        assertEquals(1, wals.length);
+        try (FileOutputStream out = new FileOutputStream(wals[0], true)) {
+            // Header of an operation whose data was not written
+            out.write(new byte[] { 0, 0, 0, 25, 1, 2, 3, 4, 1, 0, 0 });
+        }
+
+        try (KeyValueStorage recovered = open(copy)) {
+            checkLedgers(recovered, 1, 2, WRITE_BUFFER_ENTRIES / 3);
+            recovered.put(key(3, 0), value(location(3, 0)));
+        }
+        try (KeyValueStorage reopened = open(copy)) {
+            assertEquals(location(3, 0), location(reopened.get(key(3, 0))));
+        }
+    }
+
+    @Test
+    public void testCrashBeforeManifestSwap() throws Exception {
+        // The first 2 ledgers fill the memtable and are written into a run, the last one is in the memtable
+        addLedgers(db, 1, 3, WRITE_BUFFER_ENTRIES / 2);
+        waitForRuns(basePath, 1);
+        Set<String> liveRuns = runFiles(basePath);
+
+        // The memtable was written into a run, but the manifest wasn't replaced yet
+        File copy = crashCopy();
+        FileUtils.writeByteArrayToFile(new File(dbDir(copy), "00000000000000ff.run"), new byte[64]);
+        FileUtils.writeByteArrayToFile(new File(dbDir(copy), KeyValueStorageSortedRuns.MANIFEST_FILE + ".tmp"),
+                new byte[16]);
+
+        try (KeyValueStorage recovered = open(copy)) {
+            checkLedgers(recovered, 1, 3, WRITE_BUFFER_ENTRIES / 2);
+            assertEquals(liveRuns, runFiles(copy));
+            assertFalse(new File(dbDir(copy), KeyValueStorageSortedRuns.MANIFEST_FILE + ".tmp").exists());
+        }
+    }
+
+    @Test
+    public void testCrashAfterManifestSwap() throws Exception {
+        addLedgers(db, 1, 2, WRITE_BUFFER_ENTRIES / 3);
+        File beforeFlush = crashCopy();
+
+        // The memtable is written into a run, and the write-ahead log is replaced
+        db.compact();
+        File afterFlush = crashCopy();
+
+        // The old write-ahead log was not deleted yet, it must not be replayed again
+        for (File wal : dbDir(beforeFlush).listFiles((dir, name) -> name.endsWith(".wal"))) {
+            FileUtils.copyFileToDirectory(wal, dbDir(afterFlush));
+        }
+        deleteLedger(db, 2);
+
+        try (KeyValueStorage recovered = open(afterFlush)) {
+            checkLedgers(recovered, 1, 2, WRITE_BUFFER_ENTRIES / 3);
+            assertEquals(1, dbDir(afterFlush).listFiles((dir, name) -> name.endsWith(".wal")).length);
+        }
+    }
+
+    @Test
+    public void testRecoverWhileWritingMemTable() throws Exception {
+        // The first memtable is almost full
+        addLedgers(db, 1, 1, WRITE_BUFFER_ENTRIES - 1);
+        File beforeFlush = crashCopy();
+
+        // The memtable is replaced and written into a run, while the new one receives the next updates
+        db.put(key(1, WRITE_BUFFER_ENTRIES - 1), value(location(1, WRITE_BUFFER_ENTRIES - 1)));
+        addLedgers(db, 2, 2, WRITE_BUFFER_ENTRIES / 2);
+        deleteLedger(db, 1);
+        waitForRuns(basePath, 1);
+        File afterFlush = crashCopy();
+
+        // Crash before the run was published: both the write-ahead logs are found
+        for (File wal : dbDir(afterFlush).listFiles((dir, name) -> name.endsWith(".wal"))) {
+            FileUtils.copyFileToDirectory(wal, dbDir(beforeFlush));
+        }
+        assertEquals(2, dbDir(beforeFlush).listFiles((dir, name) -> name.endsWith(".wal")).length);
+
+        try (KeyValueStorage recovered = open(beforeFlush)) {
+            checkLedgers(recovered, 1, 2, WRITE_BUFFER_ENTRIES / 2, 1);
+            assertEquals(1, runFiles(beforeFlush).size());
+            assertEquals(1, dbDir(beforeFlush).listFiles((dir, name) -> name.endsWith(".wal")).length);
+        }
+        try (KeyValueStorage reopened = open(beforeFlush)) {
+            checkLedgers(reopened, 1, 2, WRITE_BUFFER_ENTRIES / 2, 1);
+        }
+    }
+}
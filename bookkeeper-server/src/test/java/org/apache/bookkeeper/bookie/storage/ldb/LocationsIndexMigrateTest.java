@@ -0,0 +1,156 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the migration of the locations index between storages with {@link LocationsIndexRebuildOp#migrate}.
+ */
+public class LocationsIndexMigrateTest {
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private ServerConfiguration conf;
+    private File currentDir;
+
+    @Before
+    public void setup() throws Exception {
+        File ledgerDir = tmpDir.newFolder("ledgers");
+        currentDir = BookieImpl.getCurrentDirectory(ledgerDir);
+        BookieImpl.checkDirectoryStructure(currentDir);
+
+        conf = new ServerConfiguration();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getPath() });
+    }
+
+    private static byte[] key(long ledgerId, long entryId) {
+        byte[] key = new byte[16];
+        ArrayUtil.setLong(key, 0, ledgerId);
+        ArrayUtil.setLong(key, 8, entryId);
+        return key;
+    }
+
+    private static byte[] value(long location) {
+        byte[] value = new byte[8];
+        ArrayUtil.setLong(value, 0, location);
+        return value;
+    }
+
+    private void writeRocksDbIndex(long ledgers, long entries, byte[] extraValue) throws IOException {
+        try (KeyValueStorage index = KeyValueStorageRocksDB.factory.newKeyValueStorage(currentDir.getPath(),
+                "locations", DbConfigType.Default, conf);
+             Batch batch = index.newBatch()) {
+            for (long ledgerId = 1; ledgerId <= ledgers; ledgerId++) {
+                for (long entryId = 0; entryId < entries; entryId++) {
+                    batch.put(key(ledgerId, entryId), value(ledgerId * 1000 + entryId));
+                }
+            }
+            if (extraValue != null) {
+                batch.put(key(ledgers + 1, 0), extraValue);
+            }
+            batch.flush();
+        }
+    }
+
+    private String[] indexDirs() {
+        return currentDir.list((dir, name) -> name.startsWith("locations"));
+    }
+
+    @Test
+    public void testMigrateToSortedRuns() throws Exception {
+        writeRocksDbIndex(5, 300, null);
+
+        conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_INDEX_STORAGE, EntryLocationIndex.SORTED_RUNS_STORAGE);
+        new LocationsIndexRebuildOp(conf).migrate(EntryLocationIndex.ROCKSDB_STORAGE);
+
+        assertTrue(KeyValueStorageSortedRuns.isSortedRunsStorage(currentDir.getPath(), "locations"));
+        String[] dirs = indexDirs();
+        assertEquals(2, dirs.length);
+        for (String dir : dirs) {
+            assertTrue(dir.equals("locations") || dir.startsWith("locations.BACKUP-"));
+        }
+
+        try (KeyValueStorage index = KeyValueStorageSortedRuns.factory.newKeyValueStorage(currentDir.getPath(),
+                "locations", DbConfigType.Default, conf)) {
+            for (long ledgerId = 1; ledgerId <= 5; ledgerId++) {
+                for (long entryId = 0; entryId < 300; entryId++) {
+                    assertEquals(ledgerId * 1000 + entryId, ArrayUtil.getLong(index.get(key(ledgerId, entryId)), 0));
+                }
+            }
+            assertNull(index.get(key(6, 0)));
+        }
+    }
+
+    @Test
+    public void testRejectDenseBlocksSource() throws Exception {
+        long[] locations = new long[EntryLocationBlock.BLOCK_SIZE];
+        locations[0] = 10;
+        locations[1] = 20;
+        writeRocksDbIndex(2, 10, EntryLocationBlock.encode(locations));
+
+        conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_INDEX_STORAGE, EntryLocationIndex.SORTED_RUNS_STORAGE);
+        try {
+            new LocationsIndexRebuildOp(conf).migrate(EntryLocationIndex.ROCKSDB_STORAGE);
+            fail("Index with blocks of locations should not be migrated");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // The existing index is left as it was, and nothing was copied
+        assertEquals(1, indexDirs().length);
+        assertFalse(KeyValueStorageSortedRuns.isSortedRunsStorage(currentDir.getPath(), "locations"));
+        try (KeyValueStorage index = KeyValueStorageRocksDB.factory.newKeyValueStorage(currentDir.getPath(),
+                "locations", DbConfigType.Default, conf)) {
+            assertEquals(1009, ArrayUtil.getLong(index.get(key(1, 9)), 0));
+        }
+    }
+
+    @Test
+    public void testRejectWrongSource() throws Exception {
+        writeRocksDbIndex(1, 10, null);
+
+        conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_INDEX_STORAGE, EntryLocationIndex.ROCKSDB_STORAGE);
+        try {
+            new LocationsIndexRebuildOp(conf).migrate(EntryLocationIndex.SORTED_RUNS_STORAGE);
+            fail("Index is not stored with the sorted runs storage");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(1, indexDirs().length);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ReadAheadWindow}.
+ */
+public class ReadAheadWindowTest {
+
+    private static final int INITIAL_WINDOW = 4;
+    private static final int MAX_WINDOW = 32;
+
+    private static int nextWindow(ReadAheadWindow window, long entryId) {
+        return window.nextWindow(entryId, INITIAL_WINDOW, MAX_WINDOW);
+    }
+
+    @Test
+    public void testSequentialMisses() {
+        ReadAheadWindow window = new ReadAheadWindow();
+
+        assertEquals(4, nextWindow(window, 0));
+        assertEquals(8, nextWindow(window, 5));
+        assertEquals(16, nextWindow(window, 14));
+        assertEquals(32, nextWindow(window, 31));
+        assertEquals(32, nextWindow(window, 64));
+        assertEquals(32, nextWindow(window, 97));
+    }
+
+    @Test
+    public void testFirstMissAnywhere() {
+        ReadAheadWindow window = new ReadAheadWindow();
+        assertEquals(4, nextWindow(window, 1000));
+        assertEquals(8, nextWindow(window, 1005));
+    }
+
+    @Test
+    public void testRandomMisses() {
+        ReadAheadWindow window = new ReadAheadWindow();
+
+        assertEquals(4, nextWindow(window, 0));
+        assertEquals(8, nextWindow(window, 5));
+
+        // Jump forward and backward
+        assertEquals(0, nextWindow(window, 100));
+        assertEquals(0, nextWindow(window, 50));
+        assertEquals(0, nextWindow(window, 3));
+
+        // The reader turns sequential again, the window starts over
+        assertEquals(4, nextWindow(window, 4));
+        assertEquals(8, nextWindow(window, 9));
+    }
+
+    @Test
+    public void testMissDuringReadAhead() {
+        ReadAheadWindow window = new ReadAheadWindow();
+
+        assertEquals(4, nextWindow(window, 0));
+        // Entries 1 to 4 are still being read ahead, no new read-ahead, and the expected next miss is unchanged
+        assertEquals(0, nextWindow(window, 2));
+        assertEquals(0, nextWindow(window, 4));
+        assertEquals(8, nextWindow(window, 5));
+    }
+
+    @Test
+    public void testShortReadAhead() {
+        ReadAheadWindow window = new ReadAheadWindow();
+
+        assertEquals(4, nextWindow(window, 0));
+        // The read-ahead stopped after 2 entries, for example at the end of the entry log
+        window.readAheadCompleted(5, 3);
+        assertEquals(8, nextWindow(window, 3));
+
+        // Completion of an older read-ahead is ignored, entries 4 to 11 are still expected
+        window.readAheadCompleted(5, 4);
+        assertEquals(0, nextWindow(window, 4));
+        assertEquals(16, nextWindow(window, 12));
+    }
+}
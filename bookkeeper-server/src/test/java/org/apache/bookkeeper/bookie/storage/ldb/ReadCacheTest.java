@@ -0,0 +1,194 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ReadCache}.
+ */
+public class ReadCacheTest {
+
+    private static final int ENTRY_SIZE = 1024;
+
+    /**
+     * Entry whose content is entirely derived from its ids, so that a reader can detect an entry that was
+     * overwritten while it was being copied.
+     */
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        while (entry.writableBytes() >= 2 * Long.BYTES) {
+            entry.writeLong(ledgerId);
+            entry.writeLong(entryId);
+        }
+        return entry;
+    }
+
+    private static void checkEntry(long ledgerId, long entryId, ByteBuf entry) {
+        assertEquals(ENTRY_SIZE, entry.readableBytes());
+        for (int i = 0; i < ENTRY_SIZE; i += 2 * Long.BYTES) {
+            assertEquals(ledgerId, entry.getLong(i));
+            assertEquals(entryId, entry.getLong(i + Long.BYTES));
+        }
+    }
+
+    @Test
+    public void simple() {
+        ReadCache cache = new ReadCache(ByteBufAllocator.DEFAULT, 10 * ENTRY_SIZE, ENTRY_SIZE);
+
+        assertEquals(0, cache.count());
+        assertEquals(0, cache.size());
+        assertNull(cache.get(0, 0));
+
+        ByteBuf entry = entry(0, 0);
+        cache.put(0, 0, entry);
+        entry.release();
+
+        ByteBuf res = cache.get(0, 0);
+        assertNotNull(res);
+        checkEntry(0, 0, res);
+        res.release();
+        assertTrue(cache.hasEntry(0, 0));
+        assertEquals(1, cache.count());
+        assertEquals(ENTRY_SIZE, cache.size());
+
+        cache.close();
+    }
+
+    @Test
+    public void rollover() {
+        // 2 segments of 10 entries each
+        ReadCache cache = new ReadCache(ByteBufAllocator.DEFAULT, 20 * ENTRY_SIZE, 10 * ENTRY_SIZE);
+
+        for (int i = 0; i < 20; i++) {
+            cache.put(1, i, entry(1, i));
+        }
+        assertEquals(20, cache.count());
+        assertEquals(20 * ENTRY_SIZE, cache.size());
+
+        // The next insertion recycles the segment with the 10 oldest entries
+        cache.put(1, 20, entry(1, 20));
+        assertEquals(11, cache.count());
+        for (int i = 0; i < 10; i++) {
+            assertFalse(cache.hasEntry(1, i));
+            assertNull(cache.get(1, i));
+        }
+        for (int i = 10; i <= 20; i++) {
+            ByteBuf res = cache.get(1, i);
+            checkEntry(1, i, res);
+            res.release();
+        }
+
+        cache.close();
+    }
+
+    @Test
+    public void entryLargerThanSegment() {
+        ReadCache cache = new ReadCache(ByteBufAllocator.DEFAULT, 2 * ENTRY_SIZE, ENTRY_SIZE / 2);
+
+        cache.put(1, 0, entry(1, 0));
+        assertFalse(cache.hasEntry(1, 0));
+        assertEquals(0, cache.count());
+
+        cache.close();
+    }
+
+    @Test
+    public void rolloverWhileReading() throws Exception {
+        // Small segments, so that the writers keep rolling over while the readers copy entries out of them
+        ReadCache cache = new ReadCache(ByteBufAllocator.DEFAULT, 4 * 8 * ENTRY_SIZE, 8 * ENTRY_SIZE);
+
+        int writers = 2;
+        int readers = 4;
+        long entries = 200;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong hits = new AtomicLong();
+        CountDownLatch writersDone = new CountDownLatch(writers);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20_000 && failure.get() == null; i++) {
+                        long entryId = i % entries;
+                        ByteBuf entry = entry(1, entryId);
+                        cache.put(1, entryId, entry);
+                        entry.release();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    writersDone.countDown();
+                }
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                try {
+                    long i = 0;
+                    while (!done.get() && failure.get() == null) {
+                        long entryId = i++ % entries;
+                        ByteBuf res = cache.get(1, entryId);
+                        if (res != null) {
+                            // A lookup racing with the recycling of the segment must miss, never return garbage
+                            checkEntry(1, entryId, res);
+                            res.release();
+                            hits.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        writersDone.await();
+        done.set(true);
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(hits.get() > 0);
+        assertTrue(cache.count() <= 4 * 8);
+
+        cache.close();
+    }
+}
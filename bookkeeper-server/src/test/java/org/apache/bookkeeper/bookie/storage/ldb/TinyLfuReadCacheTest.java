@@ -0,0 +1,188 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the admission filter of {@link TinyLfuReadCache}.
+ */
+public class TinyLfuReadCacheTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+    private static final int ENTRY_SIZE = 64;
+    private static final int ENTRIES_PER_SEGMENT = SEGMENT_SIZE / ENTRY_SIZE;
+
+    private TinyLfuReadCache cache;
+
+    @Before
+    public void setup() {
+        // 2 segments of 1 KB
+        cache = new TinyLfuReadCache(ByteBufAllocator.DEFAULT, 2 * SEGMENT_SIZE, SEGMENT_SIZE,
+                NullStatsLogger.INSTANCE);
+    }
+
+    @After
+    public void teardown() {
+        cache.close();
+    }
+
+    private static ByteBuf entry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writerIndex(ENTRY_SIZE);
+        return entry;
+    }
+
+    private void read(long ledgerId, long entryId, int times) {
+        for (int i = 0; i < times; i++) {
+            ByteBuf entry = cache.get(ledgerId, entryId);
+            if (entry != null) {
+                assertEquals(ledgerId, entry.getLong(0));
+                assertEquals(entryId, entry.getLong(8));
+                entry.release();
+            }
+        }
+    }
+
+    /**
+     * Fill the first segment with entries of ledger 1 that were read several times, then roll over to the second
+     * segment, so that the first one is the next to be evicted.
+     */
+    private void fillWithHotEntries() {
+        for (int i = 0; i < ENTRIES_PER_SEGMENT; i++) {
+            cache.put(1, i, entry(1, i));
+        }
+        for (int i = 0; i < ENTRIES_PER_SEGMENT; i++) {
+            read(1, i, 5);
+        }
+
+        // The victim segment is empty, so the entry is admitted and causes the rollover
+        cache.put(2, 0, entry(2, 0));
+        assertTrue(cache.hasEntry(2, 0));
+    }
+
+    @Test
+    public void testAdmitWhileNotFull() {
+        for (int i = 0; i < ENTRIES_PER_SEGMENT; i++) {
+            cache.put(1, i, entry(1, i));
+        }
+
+        for (int i = 0; i < ENTRIES_PER_SEGMENT; i++) {
+            assertTrue(cache.hasEntry(1, i));
+        }
+        assertEquals(ENTRIES_PER_SEGMENT, cache.count());
+    }
+
+    @Test
+    public void testRejectColdEntry() {
+        fillWithHotEntries();
+
+        // Never accessed, so less frequent than the entries it would evict
+        cache.put(3, 0, entry(3, 0));
+        assertFalse(cache.hasEntry(3, 0));
+
+        for (int i = 0; i < ENTRIES_PER_SEGMENT; i++) {
+            assertTrue(cache.hasEntry(1, i));
+        }
+    }
+
+    @Test
+    public void testAdmitFrequentEntry() {
+        fillWithHotEntries();
+
+        // Missed reads are recorded too, so an entry read more often than the victims is admitted
+        read(3, 0, 6);
+        cache.put(3, 0, entry(3, 0));
+        assertTrue(cache.hasEntry(3, 0));
+
+        ByteBuf entry = cache.get(3, 0);
+        assertNotNull(entry);
+        assertEquals(3, entry.getLong(0));
+        entry.release();
+    }
+
+    @Test
+    public void testAdmitAfterVictimEvicted() {
+        fillWithHotEntries();
+
+        // Fill the second segment with frequent entries, the next rollover evicts the hot entries of ledger 1
+        for (int i = 0; i < 2 * ENTRIES_PER_SEGMENT; i++) {
+            read(4, i, 6);
+            cache.put(4, i, entry(4, i));
+        }
+        for (int i = 0; i < ENTRIES_PER_SEGMENT; i++) {
+            assertFalse(cache.hasEntry(1, i));
+        }
+        assertNull(cache.get(1, 0));
+    }
+
+    @Test
+    public void testConcurrentAdmission() throws Exception {
+        int threads = 4;
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long ledgerId = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    barrier.await();
+                    for (int i = 0; i < 20_000; i++) {
+                        long entryId = i % 500;
+                        cache.put(ledgerId, entryId, entry(ledgerId, entryId));
+                        read(ledgerId, entryId % 50, 1);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(cache.count() > 0);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link PerChannelBookieClient}.
+ */
+public class PerChannelBookieClientTest {
+
+    private static final long LEDGER_ID = 1;
+    private static final byte[] MASTER_KEY = "key".getBytes();
+
+    private OrderedExecutor executor;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setup() {
+        executor = OrderedExecutor.newBuilder().name("PerChannelBookieClientTest").numThreads(1).build();
+        channel = new EmbeddedChannel();
+    }
+
+    @After
+    public void teardown() {
+        channel.finishAndReleaseAll();
+        executor.shutdownNow();
+    }
+
+    private PerChannelBookieClient newClient(int throttledBackoffMs) throws Exception {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setAddEntryThrottledBackoffMs(throttledBackoffMs);
+        PerChannelBookieClient client = new PerChannelBookieClient(conf, executor, null,
+                BookieId.parse("127.0.0.1:3181"), NullStatsLogger.INSTANCE, null, null, null, null);
+        client.channel = channel;
+        return client;
+    }
+
+    private static CompletableFuture<Integer> addEntry(PerChannelBookieClient client, long entryId, int options) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        client.addEntry(LEDGER_ID, MASTER_KEY, entryId, ByteBufList.get(Unpooled.wrappedBuffer(new byte[10])),
+                (rc, ledgerId, entryId1, addr, ctx) -> result.complete(rc), null, options, false, WriteFlag.NONE);
+        return result;
+    }
+
+    /**
+     * Answer the add sent to the bookie with the given status.
+     */
+    private void respond(PerChannelBookieClient client, StatusCode status) throws Exception {
+        Request request = channel.readOutbound();
+        BKPacketHeader header = BKPacketHeader.newBuilder()
+                .setVersion(ProtocolVersion.VERSION_THREE)
+                .setOperation(OperationType.ADD_ENTRY)
+                .setTxnId(request.getHeader().getTxnId())
+                .build();
+        AddResponse addResponse = AddResponse.newBuilder()
+                .setLedgerId(LEDGER_ID)
+                .setEntryId(request.getAddRequest().getEntryId())
+                .setStatus(status)
+                .build();
+        client.channelRead(null, Response.newBuilder()
+                .setHeader(header).setStatus(StatusCode.EOK).setAddResponse(addResponse).build());
+    }
+
+    private static int rc(CompletableFuture<Integer> result) throws Exception {
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testThrottledBackoff() throws Exception {
+        PerChannelBookieClient client = newClient(500);
+
+        CompletableFuture<Integer> first = addEntry(client, 0, BookieProtocol.FLAG_NONE);
+        respond(client, StatusCode.ETOOMANYREQUESTS);
+        assertEquals(BKException.Code.TooManyRequestsException, rc(first));
+
+        // Fails without being sent to the bookie during the backoff
+        long throttledNanos = System.nanoTime();
+        CompletableFuture<Integer> second = addEntry(client, 1, BookieProtocol.FLAG_NONE);
+        assertEquals(BKException.Code.TooManyRequestsException, rc(second));
+        assertNull(channel.readOutbound());
+
+        // Except the recovery adds
+        CompletableFuture<Integer> recovery = addEntry(client, 2, BookieProtocol.FLAG_RECOVERY_ADD);
+        respond(client, StatusCode.EOK);
+        assertEquals(BKException.Code.OK, rc(recovery));
+
+        // Sent again after the backoff
+        Thread.sleep(Math.max(0, 600 - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - throttledNanos)));
+        CompletableFuture<Integer> third = addEntry(client, 3, BookieProtocol.FLAG_NONE);
+        respond(client, StatusCode.EOK);
+        assertEquals(BKException.Code.OK, rc(third));
+    }
+
+    @Test
+    public void testNoThrottledBackoff() throws Exception {
+        PerChannelBookieClient client = newClient(0);
+
+        CompletableFuture<Integer> first = addEntry(client, 0, BookieProtocol.FLAG_NONE);
+        respond(client, StatusCode.ETOOMANYREQUESTS);
+        assertEquals(BKException.Code.TooManyRequestsException, rc(first));
+
+        CompletableFuture<Integer> second = addEntry(client, 1, BookieProtocol.FLAG_NONE);
+        respond(client, StatusCode.EOK);
+        assertEquals(BKException.Code.OK, rc(second));
+    }
+}
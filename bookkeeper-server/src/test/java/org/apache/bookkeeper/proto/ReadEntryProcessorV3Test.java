@@ -0,0 +1,258 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.HashedWheelTimer;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.bookie.LastAddConfirmedUpdateNotification;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Unit test for {@link ReadEntryProcessorV3} and {@link LongPollReadEntryProcessorV3}.
+ */
+public class ReadEntryProcessorV3Test {
+
+    private static final long LEDGER_ID = 1234L;
+
+    private Channel channel;
+    private BookieRequestHandler requestHandler;
+    private BookieRequestProcessor requestProcessor;
+    private Bookie bookie;
+    private ExecutorService longPollThread;
+    private HashedWheelTimer requestTimer;
+
+    @Before
+    public void setup() throws Exception {
+        channel = mock(Channel.class);
+        when(channel.isOpen()).thenReturn(true);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.isWritable()).thenReturn(true);
+        when(channel.writeAndFlush(any())).thenReturn(mock(ChannelFuture.class));
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(channel);
+        requestHandler = mock(BookieRequestHandler.class);
+        when(requestHandler.ctx()).thenReturn(ctx);
+
+        bookie = mock(Bookie.class);
+        requestProcessor = mock(BookieRequestProcessor.class);
+        when(requestProcessor.getBookie()).thenReturn(bookie);
+        // Some processors access the field directly
+        Field bookieField = BookieRequestProcessor.class.getDeclaredField("bookie");
+        bookieField.setAccessible(true);
+        bookieField.set(requestProcessor, bookie);
+        when(requestProcessor.getWaitTimeoutOnBackpressureMillis()).thenReturn(-1L);
+        when(requestProcessor.getRequestStats()).thenReturn(new RequestStats(NullStatsLogger.INSTANCE));
+
+        longPollThread = Executors.newSingleThreadExecutor();
+        requestTimer = new HashedWheelTimer();
+    }
+
+    @After
+    public void teardown() {
+        longPollThread.shutdownNow();
+        requestTimer.stop();
+    }
+
+    private static ByteBuf entry(long entryId) {
+        return Unpooled.copiedBuffer("entry-" + entryId, StandardCharsets.UTF_8);
+    }
+
+    private static Request request(ReadRequest.Builder readRequest) {
+        BKPacketHeader header = BKPacketHeader.newBuilder()
+            .setVersion(ProtocolVersion.VERSION_THREE)
+            .setOperation(OperationType.READ_ENTRY)
+            .setTxnId(System.currentTimeMillis())
+            .build();
+        return Request.newBuilder()
+            .setHeader(header)
+            .setReadRequest(readRequest.setLedgerId(LEDGER_ID))
+            .build();
+    }
+
+    private ReadResponse sentResponse() {
+        ArgumentCaptor<Object> response = ArgumentCaptor.forClass(Object.class);
+        verify(channel).writeAndFlush(response.capture());
+        return ((Response) response.getValue()).getReadResponse();
+    }
+
+    private void checkBody(ReadResponse response, long entryId) {
+        assertEquals("entry-" + entryId, response.getBody().toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testAsyncRead() throws Exception {
+        when(bookie.readEntryAsync(LEDGER_ID, 5)).thenReturn(CompletableFuture.completedFuture(entry(5)));
+        when(bookie.readLastAddConfirmed(LEDGER_ID)).thenReturn(9L);
+
+        new ReadEntryProcessorV3(request(ReadRequest.newBuilder().setEntryId(5)),
+            requestHandler, requestProcessor, null).run();
+
+        ReadResponse response = sentResponse();
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(5, response.getEntryId());
+        assertEquals(9, response.getMaxLAC());
+        checkBody(response, 5);
+        verify(bookie, never()).readEntry(anyLong(), anyLong());
+    }
+
+    @Test
+    public void testAsyncReadError() throws Exception {
+        when(bookie.readEntryAsync(LEDGER_ID, 5))
+            .thenReturn(FutureUtils.exception(new Bookie.NoEntryException(LEDGER_ID, 5)));
+
+        new ReadEntryProcessorV3(request(ReadRequest.newBuilder().setEntryId(5)),
+            requestHandler, requestProcessor, null).run();
+
+        ReadResponse response = sentResponse();
+        assertEquals(StatusCode.ENOENTRY, response.getStatus());
+        assertFalse(response.hasBody());
+    }
+
+    /**
+     * The errors of the storage are mapped like on the synchronous path, even when wrapped by the async stages.
+     */
+    @Test
+    public void testAsyncReadWrappedError() throws Exception {
+        CompletableFuture<ByteBuf> noLedger = new CompletableFuture<>();
+        when(bookie.readEntryAsync(LEDGER_ID, 5)).thenReturn(noLedger.thenApply(entry -> entry));
+        noLedger.completeExceptionally(new Bookie.NoLedgerException(LEDGER_ID));
+
+        new ReadEntryProcessorV3(request(ReadRequest.newBuilder().setEntryId(5)),
+            requestHandler, requestProcessor, null).run();
+        assertEquals(StatusCode.ENOLEDGER, sentResponse().getStatus());
+    }
+
+    @Test
+    public void testAsyncReadFenced() throws Exception {
+        when(bookie.readEntryAsync(LEDGER_ID, 6)).thenReturn(FutureUtils.exception(
+            new CompletionException(BookieException.create(BookieException.Code.LedgerFencedException))));
+
+        new ReadEntryProcessorV3(request(ReadRequest.newBuilder().setEntryId(6)),
+            requestHandler, requestProcessor, null).run();
+        assertEquals(StatusCode.EFENCED, sentResponse().getStatus());
+    }
+
+    /**
+     * A read carrying a previous LAC keeps the synchronous path, even if handled by the plain read processor.
+     */
+    @Test
+    public void testReadWithPreviousLac() throws Exception {
+        when(bookie.readEntry(LEDGER_ID, 5)).thenReturn(entry(5));
+        when(bookie.readLastAddConfirmed(LEDGER_ID)).thenReturn(9L);
+
+        new ReadEntryProcessorV3(request(ReadRequest.newBuilder().setEntryId(5).setPreviousLAC(4)),
+            requestHandler, requestProcessor, null).run();
+
+        ReadResponse response = sentResponse();
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(9, response.getMaxLAC());
+        checkBody(response, 5);
+        verify(bookie, never()).readEntryAsync(anyLong(), anyLong());
+    }
+
+    /**
+     * The entry after the previous LAC is piggybacked on the LAC read.
+     */
+    @Test
+    public void testLongPollPiggybackRead() throws Exception {
+        when(bookie.readEntry(LEDGER_ID, 5)).thenReturn(entry(5));
+        when(bookie.readLastAddConfirmed(LEDGER_ID)).thenReturn(9L);
+
+        Request request = request(ReadRequest.newBuilder()
+            .setEntryId(BookieProtocol.LAST_ADD_CONFIRMED)
+            .setPreviousLAC(4)
+            .setFlag(ReadRequest.Flag.ENTRY_PIGGYBACK));
+        new LongPollReadEntryProcessorV3(request, requestHandler, requestProcessor, null,
+            longPollThread, requestTimer).run();
+
+        ReadResponse response = sentResponse();
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(5, response.getEntryId());
+        assertEquals(9, response.getMaxLAC());
+        checkBody(response, 5);
+        verify(bookie, never()).readEntryAsync(anyLong(), anyLong());
+    }
+
+    /**
+     * The long poll waits for the LAC to advance, then piggybacks the entry from the long poll thread.
+     */
+    @Test
+    public void testLongPollPiggybackReadAfterWait() throws Exception {
+        when(bookie.readEntry(LEDGER_ID, 5)).thenReturn(entry(5));
+        when(bookie.readLastAddConfirmed(LEDGER_ID)).thenReturn(5L);
+        when(bookie.waitForLastAddConfirmedUpdate(anyLong(), anyLong(), any())).thenReturn(true);
+
+        Request request = request(ReadRequest.newBuilder()
+            .setEntryId(BookieProtocol.LAST_ADD_CONFIRMED)
+            .setPreviousLAC(4)
+            .setTimeOut(10000)
+            .setFlag(ReadRequest.Flag.ENTRY_PIGGYBACK));
+        LongPollReadEntryProcessorV3 read = new LongPollReadEntryProcessorV3(request, requestHandler,
+            requestProcessor, null, longPollThread, requestTimer);
+        read.run();
+        verify(channel, never()).writeAndFlush(any());
+
+        read.update(LastAddConfirmedUpdateNotification.of(5));
+        longPollThread.submit(() -> {}).get(10, TimeUnit.SECONDS);
+
+        ReadResponse response = sentResponse();
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(5, response.getEntryId());
+        assertEquals(5, response.getMaxLAC());
+        checkBody(response, 5);
+        verify(bookie, never()).readEntryAsync(anyLong(), anyLong());
+    }
+}
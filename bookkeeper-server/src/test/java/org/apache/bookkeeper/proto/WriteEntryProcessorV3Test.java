@@ -0,0 +1,147 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.protobuf.ByteString;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.lang.reflect.Field;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException.JournalThrottledException;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.AddRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link WriteEntryProcessorV3}.
+ */
+public class WriteEntryProcessorV3Test {
+
+    private EmbeddedChannel channel;
+    private BookieRequestHandler requestHandler;
+    private BookieRequestProcessor requestProcessor;
+    private RequestStats requestStats;
+    private Bookie bookie;
+
+    @Before
+    public void setup() throws Exception {
+        channel = new EmbeddedChannel();
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(channel);
+        requestHandler = mock(BookieRequestHandler.class);
+        when(requestHandler.ctx()).thenReturn(ctx);
+
+        bookie = mock(Bookie.class);
+        requestStats = new RequestStats(NullStatsLogger.INSTANCE);
+        requestProcessor = mock(BookieRequestProcessor.class);
+        when(requestProcessor.getBookie()).thenReturn(bookie);
+        when(requestProcessor.getWaitTimeoutOnBackpressureMillis()).thenReturn(-1L);
+        when(requestProcessor.getRequestStats()).thenReturn(requestStats);
+        Field requestStatsField = BookieRequestProcessor.class.getDeclaredField("requestStats");
+        requestStatsField.setAccessible(true);
+        requestStatsField.set(requestProcessor, requestStats);
+        doCallRealMethod().when(requestProcessor).onJournalThrottled(any(), any());
+    }
+
+    @After
+    public void teardown() {
+        channel.finishAndReleaseAll();
+    }
+
+    private static Request request(long entryId) {
+        BKPacketHeader header = BKPacketHeader.newBuilder()
+            .setVersion(ProtocolVersion.VERSION_THREE)
+            .setOperation(OperationType.ADD_ENTRY)
+            .setTxnId(entryId)
+            .build();
+        AddRequest addRequest = AddRequest.newBuilder()
+            .setLedgerId(1)
+            .setEntryId(entryId)
+            .setMasterKey(ByteString.copyFromUtf8("key"))
+            .setBody(ByteString.copyFromUtf8("entry"))
+            .build();
+        return Request.newBuilder().setHeader(header).setAddRequest(addRequest).build();
+    }
+
+    private void addThrottled(long entryId, CompletableFuture<Void> memoryAvailable) throws Exception {
+        doThrow(new JournalThrottledException(memoryAvailable))
+            .when(bookie).addEntry(any(), anyBoolean(), any(), any(), any());
+        new WriteEntryProcessorV3(request(entryId), requestHandler, requestProcessor).run();
+
+        Response response = channel.readOutbound();
+        assertEquals(StatusCode.ETOOMANYREQUESTS, response.getStatus());
+        assertEquals(StatusCode.ETOOMANYREQUESTS, response.getAddResponse().getStatus());
+        assertEquals(entryId, response.getAddResponse().getEntryId());
+    }
+
+    @Test
+    public void testJournalThrottled() throws Exception {
+        CompletableFuture<Void> memoryAvailable = new CompletableFuture<>();
+        addThrottled(1, memoryAvailable);
+        // Stops reading from the channel
+        assertFalse(channel.config().isAutoRead());
+        assertEquals(1, requestStats.addsBlocked.get());
+
+        // Already paused by the first add
+        addThrottled(2, memoryAvailable);
+        assertFalse(channel.config().isAutoRead());
+        assertEquals(1, requestStats.addsBlocked.get());
+
+        // Resumes once the journal accepts adds again
+        memoryAvailable.complete(null);
+        assertTrue(channel.config().isAutoRead());
+        assertEquals(0, requestStats.addsBlocked.get());
+    }
+
+    @Test
+    public void testJournalThrottledAgain() throws Exception {
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        addThrottled(1, first);
+        first.complete(null);
+        assertTrue(channel.config().isAutoRead());
+
+        CompletableFuture<Void> second = new CompletableFuture<>();
+        addThrottled(2, second);
+        assertFalse(channel.config().isAutoRead());
+        second.complete(null);
+        assertTrue(channel.config().isAutoRead());
+        assertEquals(0, requestStats.addsBlocked.get());
+    }
+}
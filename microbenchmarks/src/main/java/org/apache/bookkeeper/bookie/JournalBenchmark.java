@@ -0,0 +1,165 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmark of the end-to-end latency of the adds to a journal, from {@link Journal#logAddEntry} to the
+ * callback, through the journal and force write threads.
+ *
+ * <p>The journal is created in a temporary directory under {@code journalDir}, which should be on a tmpfs to
+ * measure the journal itself rather than the disk. The throughput mode results give the adds per second, the sample
+ * time mode results give the latency percentiles.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@Fork(1)
+@Warmup(iterations = 1, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+public class JournalBenchmark {
+
+    private static final long LEDGERS_COUNT = 64;
+
+    /**
+     * State holder of the test.
+     */
+    @State(Scope.Benchmark)
+    public static class TestState {
+
+        @Param({"BatchedArrayBlockingQueue", "BlockingMpscQueue"})
+        private String queueType;
+
+        @Param({"0", "2"})
+        private long maxGroupWaitMSec;
+
+        @Param({"0"})
+        private long addLatencyTargetUSec;
+
+        @Param({"100", "1024", "16384"})
+        private int entrySize;
+
+        @Param({"true"})
+        private boolean syncData;
+
+        @Param({""})
+        private String journalDir;
+
+        private File directory;
+        private Journal journal;
+        private ByteBuf entry;
+        private final AtomicLong nextEntryId = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            File parent = new File(journalDir.isEmpty() ? System.getProperty("java.io.tmpdir") : journalDir);
+            directory = Files.createTempDirectory(parent.toPath(), "journal-benchmark").toFile();
+            File current = BookieImpl.getCurrentDirectory(directory);
+            BookieImpl.checkDirectoryStructure(current);
+
+            ServerConfiguration conf = new ServerConfiguration();
+            conf.setJournalDirName(directory.getPath());
+            conf.setLedgerDirNames(new String[] { directory.getPath() });
+            // The journal thread busy waits on a BlockingMpscQueue, and blocks on a BatchedArrayBlockingQueue
+            conf.setBusyWaitEnabled("BlockingMpscQueue".equals(queueType));
+            conf.setJournalMaxGroupWaitMSec(maxGroupWaitMSec);
+            conf.setJournalAddLatencyTargetUSec(addLatencyTargetUSec);
+            conf.setJournalSyncData(syncData);
+
+            LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                    new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+            journal = new Journal(0, current, conf, ledgerDirsManager);
+            journal.start();
+
+            entry = Unpooled.directBuffer(entrySize, entrySize);
+            entry.writerIndex(entrySize);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws Exception {
+            journal.shutdown();
+            entry.release();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addEntry1Thread(TestState s) throws Exception {
+        addEntry(s);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addEntry4Threads(TestState s) throws Exception {
+        addEntry(s);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void addEntry16Threads(TestState s) throws Exception {
+        addEntry(s);
+    }
+
+    private static void addEntry(TestState s) throws Exception {
+        long entryId = s.nextEntryId.getAndIncrement();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        ByteBuf entry = s.entry.retainedDuplicate();
+        try {
+            s.journal.logAddEntry(entryId % LEDGERS_COUNT, entryId, entry, false,
+                    (rc, ledgerId, id, addr, ctx) -> {
+                        if (rc == BookieException.Code.OK) {
+                            future.complete(null);
+                        } else {
+                            future.completeExceptionally(BookieException.create(rc));
+                        }
+                    }, null);
+        } finally {
+            entry.release();
+        }
+        future.get();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.bookie.storage.ldb.ReadCache;
+import org.apache.bookkeeper.bookie.storage.ldb.TinyLfuReadCache;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmark of concurrent puts and gets on the DbLedgerStorage read cache.
+ *
+ * <p>The cache is small compared to the amount of data being inserted, so that segments are
+ * continuously rolled over while the readers are running. Use the sample time mode results to
+ * compare the tail latencies (p0.999) of the readers and writers.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.SampleTime)
+@Fork(1)
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class ReadCacheBenchmark {
+
+    private static final long LEDGERS_COUNT = 64;
+
+    /**
+     * State holder of the test.
+     */
+    @State(Scope.Group)
+    public static class TestState {
+
+        @Param({"ReadCache", "TinyLfuReadCache"})
+        private String cacheType;
+
+        @Param({"256"})
+        private int cacheSizeMb;
+
+        @Param({"16"})
+        private int segmentSizeMb;
+
+        @Param({"1024"})
+        private int entrySize;
+
+        private ReadCache cache;
+        private ByteBuf entry;
+
+        // Next entry id to insert for each ledger, readers look for entries close to the last inserted one
+        private final AtomicLong[] lastEntryIds = new AtomicLong[(int) LEDGERS_COUNT];
+
+        @Setup(Level.Trial)
+        public void setup() {
+            long cacheSize = cacheSizeMb * 1024L * 1024L;
+            int segmentSize = segmentSizeMb * 1024 * 1024;
+            if ("TinyLfuReadCache".equals(cacheType)) {
+                cache = new TinyLfuReadCache(PooledByteBufAllocator.DEFAULT, cacheSize, segmentSize,
+                        NullStatsLogger.INSTANCE);
+            } else {
+                cache = new ReadCache(PooledByteBufAllocator.DEFAULT, cacheSize, segmentSize);
+            }
+
+            entry = Unpooled.directBuffer(entrySize, entrySize);
+            entry.writerIndex(entrySize);
+
+            for (int i = 0; i < LEDGERS_COUNT; i++) {
+                lastEntryIds[i] = new AtomicLong();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            cache.close();
+            entry.release();
+        }
+    }
+
+    @Benchmark
+    @Group("putGet")
+    @GroupThreads(4)
+    public void put(TestState s) {
+        long ledgerId = ThreadLocalRandom.current().nextLong(LEDGERS_COUNT);
+        long entryId = s.lastEntryIds[(int) ledgerId].getAndIncrement();
+        s.cache.put(ledgerId, entryId, s.entry);
+    }
+
+    @Benchmark
+    @Group("putGet")
+    @GroupThreads(28)
+    public boolean get(TestState s) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long ledgerId = random.nextLong(LEDGERS_COUNT);
+        long entryId = Math.max(0, s.lastEntryIds[(int) ledgerId].get() - 1 - random.nextInt(1000));
+        ByteBuf res = s.cache.get(ledgerId, entryId);
+        if (res != null) {
+            res.release();
+            return true;
+        }
+        return false;
+    }
+}
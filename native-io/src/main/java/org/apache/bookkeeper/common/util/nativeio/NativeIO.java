@@ -31,12 +31,18 @@ public interface NativeIO {
     int O_TRUNC = 0x08;
     int O_DIRECT = 0x10;
     int O_DSYNC = 0x20;
+    int O_RDWR = 0x40;
 
     int SEEK_SET = 0;
     int SEEK_END = 2;
 
     int FALLOC_FL_ZERO_RANGE = 0x10;
 
+    int IO_URING_READ = 0;
+    int IO_URING_WRITE = 1;
+    // Result of an operation that was never submitted to the ring
+    long IO_URING_NOT_SUBMITTED = Long.MIN_VALUE;
+
     int open(String pathname, int flags, int mode) throws NativeIOException;
 
     int fsync(int fd) throws NativeIOException;
@@ -64,4 +70,32 @@ public interface NativeIO {
     long pread(int fd, long pointer, long size, long offset) throws NativeIOException;
 
     int close(int fd) throws NativeIOException;
+
+    /**
+     * io_uring is a linux-only facility, which can also be disabled by the kernel configuration or by
+     * a seccomp filter, so callers must handle the possibility that it does not exist.
+     *
+     * @return an opaque handle to a submission/completion ring of (at least) the given number of entries
+     */
+    default long ioUringInit(int entries) throws NativeIOException {
+        throw new NativeIOException("io_uring is not available");
+    }
+
+    /**
+     * Submit a batch of reads ({@link #IO_URING_READ}) and writes ({@link #IO_URING_WRITE}) to the ring,
+     * with one io_uring_enter for each ring-full of operations, and wait for all of them to complete.
+     * The ring must not be used concurrently.
+     *
+     * <p>The outcome of each operation is stored in {@code results}: the number of bytes transferred,
+     * or the negated errno if the operation failed. An exception is only thrown if the ring itself fails.
+     * In that case the operations already submitted are waited for before throwing, and the ones that
+     * were never submitted are left with {@link #IO_URING_NOT_SUBMITTED}.
+     */
+    default int ioUringSubmitAndWait(long ring, int count, int[] opcodes, int[] fds, long[] pointers,
+                                     int[] sizes, long[] offsets, long[] results) throws NativeIOException {
+        throw new NativeIOException("io_uring is not available");
+    }
+
+    default void ioUringClose(long ring) throws NativeIOException {
+    }
 }
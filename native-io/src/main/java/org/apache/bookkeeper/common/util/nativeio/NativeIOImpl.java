@@ -74,4 +74,20 @@ public class NativeIOImpl implements NativeIO {
     public long pread(int fd, long pointer, long size, long offset) throws NativeIOException {
         return NativeIOJni.pread(fd, pointer, size, offset);
     }
+
+    @Override
+    public long ioUringInit(int entries) throws NativeIOException {
+        return NativeIOJni.ioUringInit(entries);
+    }
+
+    @Override
+    public int ioUringSubmitAndWait(long ring, int count, int[] opcodes, int[] fds, long[] pointers,
+                                    int[] sizes, long[] offsets, long[] results) throws NativeIOException {
+        return NativeIOJni.ioUringSubmitAndWait(ring, count, opcodes, fds, pointers, sizes, offsets, results);
+    }
+
+    @Override
+    public void ioUringClose(long ring) throws NativeIOException {
+        NativeIOJni.ioUringClose(ring);
+    }
 }
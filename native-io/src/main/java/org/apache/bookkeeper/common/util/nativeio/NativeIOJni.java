@@ -48,6 +48,13 @@ class NativeIOJni {
 
     static native int close(int fd) throws NativeIOException;
 
+    static native long ioUringInit(int entries) throws NativeIOException;
+
+    static native int ioUringSubmitAndWait(long ring, int count, int[] opcodes, int[] fds, long[] pointers,
+                                           int[] sizes, long[] offsets, long[] results) throws NativeIOException;
+
+    static native void ioUringClose(long ring) throws NativeIOException;
+
     static {
         try {
             if (SystemUtils.IS_OS_MAC_OSX) {
@@ -26,6 +26,16 @@
 #include <string.h>
 #include <unistd.h>
 
+#ifdef __linux__
+#include <sys/mman.h>
+#include <sys/syscall.h>
+#include <sys/uio.h>
+#include <linux/io_uring.h>
+#if defined(__NR_io_uring_setup) && defined(__NR_io_uring_enter)
+#define HAVE_IO_URING 1
+#endif
+#endif
+
 #include <org_apache_bookkeeper_common_util_nativeio_NativeIOJni.h>
 
 #ifdef _WIN32
@@ -133,6 +143,10 @@ Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_open(
         flags |= O_TRUNC;
     }
 
+    if (javaFlags & 0x40) {
+        flags |= O_RDWR;
+    }
+
 #ifdef __linux__
     if (javaFlags & 0x10) {
         flags |= O_DIRECT;
@@ -311,3 +325,273 @@ JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJ
      free((const void*) pointer);
 }
 
+
+#ifdef HAVE_IO_URING
+
+/*
+ * A minimal io_uring, set up with the raw syscalls so that there is no dependency on liburing.
+ * A ring must only be used by one thread at a time.
+ */
+struct uring {
+    int fd;
+    unsigned entries;
+
+    unsigned *sq_head;
+    unsigned *sq_tail;
+    unsigned *sq_mask;
+    unsigned *sq_array;
+    struct io_uring_sqe *sqes;
+
+    unsigned *cq_head;
+    unsigned *cq_tail;
+    unsigned *cq_mask;
+    struct io_uring_cqe *cqes;
+
+    void *sq_ptr;
+    size_t sq_len;
+    void *cq_ptr;
+    size_t cq_len;
+    size_t sqes_len;
+
+    struct iovec *iovecs;
+};
+
+static void uring_free(struct uring *ring) {
+    if (ring->sqes != NULL && ring->sqes != MAP_FAILED) {
+        munmap(ring->sqes, ring->sqes_len);
+    }
+    if (ring->cq_ptr != NULL && ring->cq_ptr != MAP_FAILED && ring->cq_ptr != ring->sq_ptr) {
+        munmap(ring->cq_ptr, ring->cq_len);
+    }
+    if (ring->sq_ptr != NULL && ring->sq_ptr != MAP_FAILED) {
+        munmap(ring->sq_ptr, ring->sq_len);
+    }
+    if (ring->fd >= 0) {
+        close(ring->fd);
+    }
+    free(ring->iovecs);
+    free(ring);
+}
+
+// Same as NativeIO.IO_URING_NOT_SUBMITTED
+#define IO_URING_NOT_SUBMITTED ((jlong) (-9223372036854775807LL - 1))
+
+static int uring_enter(int fd, unsigned to_submit, unsigned min_complete) {
+    return (int) syscall(__NR_io_uring_enter, fd, to_submit, min_complete,
+                         min_complete > 0 ? IORING_ENTER_GETEVENTS : 0, NULL, 0);
+}
+
+#endif
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    ioUringInit
+ * Signature: (I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_ioUringInit
+    (JNIEnv * env, jclass clazz, jint entries) {
+#ifdef HAVE_IO_URING
+    struct io_uring_params params;
+    memset(&params, 0, sizeof(params));
+
+    struct uring *ring = calloc(1, sizeof(struct uring));
+    if (ring == NULL) {
+        throwExceptionWithErrno(env, "Failed to allocate io_uring");
+        return 0;
+    }
+
+    ring->fd = (int) syscall(__NR_io_uring_setup, entries, &params);
+    if (ring->fd < 0) {
+        throwExceptionWithErrno(env, "Failed to setup io_uring");
+        ring->fd = -1;
+        uring_free(ring);
+        return 0;
+    }
+    ring->entries = params.sq_entries;
+
+    ring->sq_len = params.sq_off.array + params.sq_entries * sizeof(unsigned);
+    ring->cq_len = params.cq_off.cqes + params.cq_entries * sizeof(struct io_uring_cqe);
+    if (params.features & IORING_FEAT_SINGLE_MMAP) {
+        if (ring->cq_len > ring->sq_len) {
+            ring->sq_len = ring->cq_len;
+        }
+        ring->cq_len = ring->sq_len;
+    }
+
+    ring->sq_ptr = mmap(NULL, ring->sq_len, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                        ring->fd, IORING_OFF_SQ_RING);
+    if (ring->sq_ptr == MAP_FAILED) {
+        throwExceptionWithErrno(env, "Failed to map io_uring submission queue");
+        uring_free(ring);
+        return 0;
+    }
+
+    if (params.features & IORING_FEAT_SINGLE_MMAP) {
+        ring->cq_ptr = ring->sq_ptr;
+    } else {
+        ring->cq_ptr = mmap(NULL, ring->cq_len, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                            ring->fd, IORING_OFF_CQ_RING);
+        if (ring->cq_ptr == MAP_FAILED) {
+            throwExceptionWithErrno(env, "Failed to map io_uring completion queue");
+            uring_free(ring);
+            return 0;
+        }
+    }
+
+    ring->sqes_len = params.sq_entries * sizeof(struct io_uring_sqe);
+    ring->sqes = mmap(NULL, ring->sqes_len, PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE,
+                      ring->fd, IORING_OFF_SQES);
+    if (ring->sqes == MAP_FAILED) {
+        throwExceptionWithErrno(env, "Failed to map io_uring submission entries");
+        uring_free(ring);
+        return 0;
+    }
+
+    ring->iovecs = calloc(params.sq_entries, sizeof(struct iovec));
+    if (ring->iovecs == NULL) {
+        throwExceptionWithErrno(env, "Failed to allocate io_uring buffers");
+        uring_free(ring);
+        return 0;
+    }
+
+    ring->sq_head = (unsigned *) ((char *) ring->sq_ptr + params.sq_off.head);
+    ring->sq_tail = (unsigned *) ((char *) ring->sq_ptr + params.sq_off.tail);
+    ring->sq_mask = (unsigned *) ((char *) ring->sq_ptr + params.sq_off.ring_mask);
+    ring->sq_array = (unsigned *) ((char *) ring->sq_ptr + params.sq_off.array);
+    ring->cq_head = (unsigned *) ((char *) ring->cq_ptr + params.cq_off.head);
+    ring->cq_tail = (unsigned *) ((char *) ring->cq_ptr + params.cq_off.tail);
+    ring->cq_mask = (unsigned *) ((char *) ring->cq_ptr + params.cq_off.ring_mask);
+    ring->cqes = (struct io_uring_cqe *) ((char *) ring->cq_ptr + params.cq_off.cqes);
+
+    return (jlong) ring;
+#else
+    throwException(env, "io_uring is not available");
+    return 0;
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    ioUringSubmitAndWait
+ * Signature: (JI[I[I[J[I[J[J)I
+ */
+JNIEXPORT jint JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_ioUringSubmitAndWait
+    (JNIEnv * env, jclass clazz, jlong handle, jint count, jintArray jopcodes, jintArray jfds,
+     jlongArray jpointers, jintArray jsizes, jlongArray joffsets, jlongArray jresults) {
+#ifdef HAVE_IO_URING
+    struct uring *ring = (struct uring *) handle;
+    jint *opcodes = (*env)->GetIntArrayElements(env, jopcodes, NULL);
+    jint *fds = (*env)->GetIntArrayElements(env, jfds, NULL);
+    jlong *pointers = (*env)->GetLongArrayElements(env, jpointers, NULL);
+    jint *sizes = (*env)->GetIntArrayElements(env, jsizes, NULL);
+    jlong *offsets = (*env)->GetLongArrayElements(env, joffsets, NULL);
+    jlong *results = (*env)->GetLongArrayElements(env, jresults, NULL);
+    int failed = 0;
+
+    // Operations that are never submitted keep this result, so that the caller can execute them otherwise
+    for (int op = 0; op < count; op++) {
+        results[op] = IO_URING_NOT_SUBMITTED;
+    }
+
+    // Operations are submitted in chunks of at most the size of the ring,
+    // each chunk with a single io_uring_enter
+    for (int start = 0; start < count && !failed; start += ring->entries) {
+        unsigned n = count - start < ring->entries ? count - start : ring->entries;
+
+        unsigned first = *ring->sq_tail;
+        unsigned tail = first;
+        for (unsigned i = 0; i < n; i++) {
+            int op = start + i;
+            unsigned idx = tail & *ring->sq_mask;
+            struct io_uring_sqe *sqe = &ring->sqes[idx];
+            memset(sqe, 0, sizeof(*sqe));
+
+            ring->iovecs[i].iov_base = (void *) pointers[op];
+            ring->iovecs[i].iov_len = sizes[op];
+
+            sqe->opcode = opcodes[op] == 1 ? IORING_OP_WRITEV : IORING_OP_READV;
+            sqe->fd = fds[op];
+            sqe->addr = (unsigned long) &ring->iovecs[i];
+            sqe->len = 1;
+            sqe->off = offsets[op];
+            sqe->user_data = op;
+
+            ring->sq_array[idx] = idx;
+            tail++;
+        }
+        __atomic_store_n(ring->sq_tail, tail, __ATOMIC_RELEASE);
+
+        unsigned submitted = 0;
+        unsigned completed = 0;
+        int submit_errno = 0;
+        while (completed < submitted || (!failed && submitted < n)) {
+            int res = uring_enter(ring->fd, failed ? 0 : n - submitted, 1);
+            if (res < 0) {
+                if (errno == EINTR || (failed && (errno == EAGAIN || errno == EBUSY))) {
+                    continue;
+                }
+                if (!failed) {
+                    // The kernel reads the buffers of the operations already submitted until they complete,
+                    // so wait for them before failing. The others are taken back from the submission queue.
+                    submit_errno = errno;
+                    failed = 1;
+                    unsigned head = __atomic_load_n(ring->sq_head, __ATOMIC_ACQUIRE);
+                    submitted = head - first;
+                    __atomic_store_n(ring->sq_tail, head, __ATOMIC_RELEASE);
+                    continue;
+                }
+                // The outcome of the operations still in flight can't be known
+                for (unsigned i = 0; i < submitted; i++) {
+                    if (results[start + i] == IO_URING_NOT_SUBMITTED) {
+                        results[start + i] = -EIO;
+                    }
+                }
+                break;
+            }
+            if (!failed) {
+                submitted += res;
+            }
+
+            unsigned head = *ring->cq_head;
+            while (head != __atomic_load_n(ring->cq_tail, __ATOMIC_ACQUIRE)) {
+                struct io_uring_cqe *cqe = &ring->cqes[head & *ring->cq_mask];
+                results[cqe->user_data] = cqe->res;
+                head++;
+                completed++;
+            }
+            __atomic_store_n(ring->cq_head, head, __ATOMIC_RELEASE);
+        }
+
+        if (failed) {
+            errno = submit_errno;
+            throwExceptionWithErrno(env, "Failed to submit to io_uring");
+        }
+    }
+
+    (*env)->ReleaseIntArrayElements(env, jopcodes, opcodes, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, jfds, fds, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, jpointers, pointers, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, jsizes, sizes, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, joffsets, offsets, JNI_ABORT);
+    (*env)->ReleaseLongArrayElements(env, jresults, results, 0);
+
+    return failed ? -1 : count;
+#else
+    throwException(env, "io_uring is not available");
+    return -1;
+#endif
+}
+
+/*
+ * Class:     org_apache_bookkeeper_common_util_nativeio_NativeIOJni
+ * Method:    ioUringClose
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_apache_bookkeeper_common_util_nativeio_NativeIOJni_ioUringClose
+    (JNIEnv * env, jclass clazz, jlong handle) {
+#ifdef HAVE_IO_URING
+    if (handle != 0) {
+        uring_free((struct uring *) handle);
+    }
+#endif
+}